@@ -33,12 +33,14 @@ import android.support.annotation.Nullable;
 import org.discoos.p2p.internal.P2PContext;
 import org.discoos.p2p.internal.P2PNetworkCache;
 import org.discoos.p2p.internal.P2PNetworkImpl;
+import org.discoos.p2p.internal.P2PPeerPager;
 import org.discoos.p2p.internal.PeerInfoCache;
 import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public final class P2P {
 
@@ -87,6 +89,21 @@ public final class P2P {
     /* All flag */
     public static final int ALL = 14;
 
+    /* Announce AboutData again if changed */
+    public static final int ANNOUNCE = 15;
+
+    /* Send message to peer */
+    public static final int SEND = 16;
+
+    /* Message received from peer */
+    public static final int RECEIVED = 17;
+
+    /* Transfer file to peer */
+    public static final int TRANSFER = 18;
+
+    /* File transferred from peer */
+    public static final int TRANSFERRED = 19;
+
     /* Set notification */
     public static final int NOTIFY = 100;
 
@@ -97,15 +114,96 @@ public final class P2P {
     public static final int ERROR = -255;
 
     /**
-     * Default cache store delay (500 milliseconds)
+     * Default cache store delay after last change (500 milliseconds)
      */
     public static final int CACHE_STORE_DELAY = 500;
 
+    /**
+     * Default maximum cache store delay after first unwritten change (5 seconds)
+     */
+    public static final int CACHE_STORE_MAX_LATENCY = 5000;
+
+    /**
+     * Default maximum number of peers in cache
+     */
+    public static final int CACHE_MAX_SIZE = 1000;
+
+    /**
+     * Default peer time-to-live in cache since last seen (7 days)
+     */
+    public static final long CACHE_TTL = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Number of most recently seen peers loaded into cache at startup by the
+     * SQLite backend, other peers are queried from the database on demand
+     */
+    public static final int CACHE_SQLITE_WORKING_SET = 200;
+
+    /**
+     * Default time-to-live of tombstones for peers evicted from cache (1 hour)
+     */
+    public static final long CACHE_TOMBSTONE_TTL = 60 * 60 * 1000L;
+
+    /**
+     * Default ratio of journal size to snapshot size that triggers compaction
+     */
+    public static final float CACHE_JOURNAL_RATIO = 1.0f;
+
+    /**
+     * Default minimum journal size before compaction (64 KB)
+     */
+    public static final int CACHE_JOURNAL_MIN_SIZE = 64 * 1024;
+
+    /**
+     * Minimum interval between pings of flapping peers (60 seconds)
+     */
+    public static final int PING_FLAPPING_INTERVAL = 60 * 1000;
+
+    /**
+     * Default minimum interval between announcements of changed AboutData (10 seconds)
+     */
+    public static final long ANNOUNCE_MIN_INTERVAL = 10 * 1000L;
+
+    /**
+     * Delay after last change before AboutData is announced, merging connectivity flaps (2 seconds)
+     */
+    public static final long ANNOUNCE_SETTLE_DELAY = 2 * 1000L;
+
+    /**
+     * Minimum time a load level must hold before it is advertised (5 seconds)
+     */
+    public static final long LOAD_HOLD_TIME = 5 * 1000L;
+
+    /**
+     * Time a point-to-point session with a peer is kept open when not used (60 seconds)
+     */
+    public static final long SESSION_IDLE_TIMEOUT = 60 * 1000L;
+
+    /**
+     * Maximum number of messages queued for a peer while its session is joined
+     */
+    public static final int SESSION_PENDING_MESSAGES = 64;
+
+    /**
+     * Maximum number of log items kept by logcat tail
+     */
+    public static final int LOG_TAIL_CAPACITY = 5000;
+
+    /**
+     * Maximum number of events kept by event journal, in memory and in spill file
+     */
+    public static final int EVENT_JOURNAL_CAPACITY = 4096;
+
     /**
      * System log loader id
      */
     public static final int LOADER_SYSTEM_LOG_ID = 1;
 
+    /**
+     * Peer list loader id
+     */
+    public static final int LOADER_PEER_LIST_ID = 2;
+
     /**
      * File name network list
      */
@@ -116,6 +214,71 @@ public final class P2P {
      */
     public static final String FILE_PEERINFO_LIST = "peerinfo.list";
 
+    /**
+     * File name network journal
+     */
+    public static final String FILE_NETWORK_JOURNAL = "network.journal";
+
+    /**
+     * File name peer info journal
+     */
+    public static final String FILE_PEERINFO_JOURNAL = "peerinfo.journal";
+
+    /**
+     * File name memory-mapped peer info store
+     */
+    public static final String FILE_PEERINFO_MAP = "peerinfo.map";
+
+    /**
+     * File name memory-mapped event journal
+     */
+    public static final String FILE_EVENT_JOURNAL = "events.journal";
+
+    /**
+     * Folder of files transferred from peers, in a sub-folder per peer id
+     */
+    public static final String DIR_TRANSFERS = "transfers";
+
+    /**
+     * Maximum size of a file transferred from a peer (256 MB)
+     */
+    public static final long TRANSFER_MAX_SIZE = 256 * 1024 * 1024L;
+
+    /**
+     * Cache backend preference key
+     */
+    public static final String PREF_CACHE_BACKEND = "cache_backend";
+
+    /**
+     * Maximum number of peers in cache preference key
+     */
+    public static final String PREF_CACHE_MAX_SIZE = "cache_max_size";
+
+    /**
+     * Peer time-to-live in cache preference key (days)
+     */
+    public static final String PREF_CACHE_TTL = "cache_ttl";
+
+    /**
+     * Cache backend storing peers in a snapshot decoded at startup
+     */
+    public static final String CACHE_BACKEND_SNAPSHOT = "snapshot";
+
+    /**
+     * Cache backend storing peers in a memory-mapped file decoded lazily
+     */
+    public static final String CACHE_BACKEND_MAPPED = "mapped";
+
+    /**
+     * Cache backend storing peers and networks in a SQLite database queried on demand
+     */
+    public static final String CACHE_BACKEND_SQLITE = "sqlite";
+
+    /**
+     * File name of cache database
+     */
+    public static final String FILE_DATABASE = "p2p.db";
+
     /**
      * Get P2P context (singleton)
      * @return P2PContext
@@ -181,6 +344,18 @@ public final class P2P {
         return getContext().getPeerList();
     }
 
+    /**
+     * Get paged view of peers ordered by last seen, most recent first.
+     * Must not be called on main thread.
+     * @param network Network name, all peers if null
+     * @param loader Executor loading pages
+     * @param deliver Executor telling listener about loaded pages
+     * @return P2PPeerPager
+     */
+    public static P2PPeerPager getPeerPager(String network, Executor loader, Executor deliver) {
+        return getContext().getPeerPager(network, loader, deliver);
+    }
+
     /**
      * Get application cache directory
      * @return File
@@ -27,6 +27,7 @@
  */
 package org.discoos.p2p;
 
+import java.io.File;
 import java.util.List;
 import java.util.Set;
 
@@ -48,6 +49,75 @@ public interface P2PNetwork {
 
     List<PeerInfo> getPeerList();
 
+    /**
+     * Send message to peer in a point-to-point session. Sessions are
+     * joined when first used and kept open while messages are sent.
+     * @param peerId Peer id
+     * @param data Message data
+     * @return boolean, false if peer is not a member of this network
+     */
+    boolean send(String peerId, byte[] data);
+
+    /**
+     * Send message to all members of the network's multipoint group session.
+     * Group sessions are joined when enabled in settings before joining the
+     * network. Unlike broadcast signals, group messages only reach members.
+     * @param data Message data
+     * @return boolean
+     */
+    boolean sendGroup(byte[] data);
+
+    /**
+     * Get other members of the network's group session
+     * @return List of peers, empty if not in a group session
+     */
+    List<PeerInfo> getGroupMembers();
+
+    /**
+     * Transfer file to peer in a raw reliable session, streamed without
+     * copying content through the Java heap. Suited for large payloads.
+     * @param peerId Peer id
+     * @param file File to transfer
+     * @return boolean, false if peer is not a member of this network
+     */
+    boolean transfer(String peerId, File file);
+
+    void addReceiver(Receiver receiver);
+
+    void removeReceiver(Receiver receiver);
+
+    void addTransferListener(TransferListener listener);
+
+    void removeTransferListener(TransferListener listener);
+
+    /**
+     * Receiver of messages sent by peers in network
+     */
+    interface Receiver {
+
+        /**
+         * Called on main thread when a message is received
+         * @param network Network
+         * @param peer Peer which sent the message
+         * @param data Message data
+         */
+        void onReceive(P2PNetwork network, PeerInfo peer, byte[] data);
+    }
+
+    /**
+     * Listener of files transferred from peers in network
+     */
+    interface TransferListener {
+
+        /**
+         * Called on main thread when a file is received
+         * @param network Network
+         * @param peer Peer which transferred the file
+         * @param file Received file in {@link P2P#DIR_TRANSFERS} folder
+         */
+        void onTransferred(P2PNetwork network, PeerInfo peer, File file);
+    }
+
     public enum Connectivity {
         WIFI, MOBILE, NONE
     }
@@ -33,13 +33,16 @@ import android.app.AlertDialog;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
+import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.StatFs;
 import android.provider.ContactsContract;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
@@ -47,34 +50,24 @@ import android.util.Log;
 import org.alljoyn.bus.Variant;
 import org.discoos.p2p.internal.P2PAboutData;
 
-import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 
@@ -85,14 +78,6 @@ public class P2PUtils {
 
     public static final int SHORT_LENGTH = 5;
 
-    /**
-     * Android threadtime log format
-     */
-    public static final String LOG_PATTERN
-            = "(\\d{2}-\\d{2})\\s*(\\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\s*(\\d*)\\s*(\\d*)\\s*(\\w)\\s*(\\w+):\\s*(.*)";
-
-    public static final SimpleDateFormat LOG_DATE_FORMAT =
-            new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
     public static final String TAG = "P2PUtils";
 
     public static byte[] randomUUID() {
@@ -124,17 +109,21 @@ public class P2PUtils {
     }
 
     public static Object toObject(String key, Map<String, Variant> data) {
-        Variant value = data.get(key);
+        return toObject(data.get(key));
+    }
+
+    public static Object toObject(Variant value) {
         if(value !=null ) {
             try {
-                if ("s".equals(value.getSignature())) {
+                String signature = value.getSignature();
+                if ("s".equals(signature)) {
                     return value.getObject(String.class);
-                } else if ("ay".equals(value.getSignature())) {
+                } else if ("ay".equals(signature)) {
                     return value.getObject(byte[].class);
-                } else if ("as".equals(value.getSignature())) {
+                } else if ("as".equals(signature)) {
                     return value.getObject(String[].class);
                 }
-                return value.toString() + ", " + value.getSignature();
+                return value.toString() + ", " + signature;
 
             } catch (Exception e) {
                 return e.toString();
@@ -199,59 +188,6 @@ public class P2PUtils {
         alert.show();
     }
 
-    public static List<LogItem> readLog() {
-        return readLog("");
-    }
-
-    public static List<LogItem> readLog(String query) {
-        List<LogItem> log = new ArrayList<>();
-        try {
-            Process process = Runtime.getRuntime().exec(new String[]{
-                "logcat", "-d", "-v", "threadtime"});
-
-            BufferedReader bufferedReader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-
-            String[] filters = query.split("\\s");
-
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                Matcher matcher = Pattern.compile(LOG_PATTERN).matcher(line);
-                if(matcher.matches()) {
-                    if(query.isEmpty() || matches(filters, matcher)) {
-                        log.add(LogItem.create(matcher));
-                    }
-                }
-            }
-        } catch (IOException e) {
-            log.add(new LogItem(TAG, "E", e.toString()));
-        }
-        return log;
-    }
-
-    private static boolean matches(String[] filters, Matcher matcher) {
-        for (String filter : filters) {
-            // Is logcat filter?
-            if(filter.matches("(\\w+|\\*):[\\w|\\*]")) {
-                String[] matches = filter.split(":");
-                // Tag and level match?
-                if((matches[0].equals("*") || matches[0].equals(matcher.group(6))) &&
-                   (matches[1].equals("*") || matches[1].equals(matcher.group(5)))) {
-                    return true;
-                }
-            } else {
-                Pattern pattern = Pattern.compile(".*"+Pattern.quote(filter)+".*"
-                        , Pattern.CASE_INSENSITIVE);
-                for(int i=1; i<8; i++) {
-                    if(pattern.matcher(matcher.group(i)).matches()) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
     public static void clearLog() {
         try {
             Runtime.getRuntime().exec(new String[]{"logcat", "-c"});
@@ -260,38 +196,6 @@ public class P2PUtils {
         }
     }
 
-    public static File writeLog(String root, String filename) {
-        StringBuilder log = new StringBuilder();
-        try {
-            Process process = Runtime.getRuntime().exec("logcat -d");
-            BufferedReader bufferedReader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                log.append(line).append("\n");
-            }
-        } catch (IOException e) {
-            log.append(e.toString());
-        }
-
-
-        File file = new File(root, filename);
-
-        try {
-            FileOutputStream fOut = new FileOutputStream(file);
-            OutputStreamWriter osw = new OutputStreamWriter(fOut);
-
-            // Write the string to the file
-            osw.write(log.toString());
-            osw.flush();
-            osw.close();
-
-        } catch (Exception e) {
-            Log.e(TAG, String.format("Failed to write log to [%s]", file), e);
-        }
-        return file;
-    }
-
     public static P2PNetwork.Connectivity getConnectivityStatus(Context context) {
         ConnectivityManager cm = (ConnectivityManager) context
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -348,10 +252,47 @@ public class P2PUtils {
         return null;
     }
 
+    /**
+     * Get battery level from battery changed intent
+     * @param intent Sticky {@link Intent#ACTION_BATTERY_CHANGED} intent
+     * @return int Percent, {@link PeerCapabilities#BATTERY_UNKNOWN} if unknown
+     */
+    public static int getBatteryLevel(Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return PeerCapabilities.BATTERY_UNKNOWN;
+        }
+        return level * 100 / scale;
+    }
+
+    /**
+     * Get storage available to application files
+     * @return long Bytes
+     */
+    public static long getFreeStorage() {
+        return new StatFs(P2P.getApplication().getFilesDir().getPath()).getAvailableBytes();
+    }
+
     public static Map<String, Variant> getOwnerInfo() {
 
         Map<String, Variant> info = new HashMap<>();
 
+        String name = getOwnerName();
+        if(name != null) {
+            info.put(P2PAboutData.USER_NAME, new Variant(name));
+        }
+        return info;
+    }
+
+    /**
+     * Get display name of device owner profile
+     * @return String, null if not granted or not found
+     */
+    public static String getOwnerName() {
+
+        String name = null;
+
         if(isGranted(Manifest.permission.READ_CONTACTS)) {
 
             String[] columnNames = new String[]{ContactsContract.Profile.DISPLAY_NAME};
@@ -363,12 +304,12 @@ public class P2PUtils {
                 cursor.moveToFirst();
                 int position = cursor.getPosition();
                 if (count == 1 && position == 0) {
-                    info.put(P2PAboutData.USER_NAME, new Variant(cursor.getString(0)));
+                    name = cursor.getString(0);
                 }
                 cursor.close();
             }
         }
-        return info;
+        return name;
     }
 
     public static boolean isGranted(String access) {
@@ -383,7 +324,10 @@ public class P2PUtils {
 
     public static final class LogItem {
 
-        public final Date timestamp = Calendar.getInstance().getTime();
+        /**
+         * Milliseconds since epoch
+         */
+        public final long timestamp;
         public final String thread;
         public final String module;
         public final String level;
@@ -391,34 +335,20 @@ public class P2PUtils {
 
         public LogItem(String module, String level, String message) {
             Looper looper = Looper.myLooper();
+            this.timestamp = System.currentTimeMillis();
             this.thread = looper != null ? looper.getThread().getName() : "unknown";
             this.module = module;
             this.level = level;
             this.message = message;
         }
-        public LogItem(Date timestamp, String thread, String module, String level, String message) {
-            this.timestamp.setTime(timestamp.getTime());
+        public LogItem(long timestamp, String thread, String module, String level, String message) {
+            this.timestamp = timestamp;
             this.thread = thread;
             this.module = module;
             this.level = level;
             this.message = message;
         }
 
-        private static LogItem create(Matcher matcher) {
-            Date timestamp;
-            try {
-                timestamp = LOG_DATE_FORMAT.parse(matcher.group(2));
-            } catch (ParseException e) {
-                timestamp = Calendar.getInstance().getTime();
-            }
-            return new LogItem(
-                    timestamp,
-                    matcher.group(4),   // Thread
-                    matcher.group(6),   // Module
-                    matcher.group(5),   // Log level
-                    matcher.group(7));  // Message
-        }
-
     }
 
     public static <T> List<T> readList(String root, String filename, Class<T> type) {
@@ -443,20 +373,31 @@ public class P2PUtils {
         return Collections.emptyList();
     }
 
-    public static void writeObject(String root, String filename, Object object) {
+    /**
+     * Read file content
+     * @param root Root directory
+     * @param filename File name
+     * @return byte[], null if file does not exist or could not be read
+     */
+    public static byte[] readBytes(String root, String filename) {
         File file = new File(root, filename);
         try {
-            FileOutputStream fos = new FileOutputStream(file);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(object);
-            oos.flush();
-            oos.close();
+            if(file.exists()) {
+                byte[] data = new byte[(int)file.length()];
+                DataInputStream dis = new DataInputStream(new FileInputStream(file));
+                try {
+                    dis.readFully(data);
+                } finally {
+                    dis.close();
+                }
+                return data;
+            }
         } catch (Exception e) {
-            Log.e(TAG, String.format("Failed to write [%s]", file), e);
+            Log.e(TAG, String.format("Failed to read [%s]", file), e);
         }
+        return null;
     }
 
-
     public static boolean contains(String[] values, String match) {
         for (String value : values) {
             if (value.equals(match)) {
@@ -0,0 +1,281 @@
+/*
+ * Copyright DISCO Open Source. All rights reserved
+ *
+ *    Redistribution and use in source and binary forms, with or without
+ *    modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this
+ *       list of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *
+ *    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *    ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *    WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ *    ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *    (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *    LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *    ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    The views and conclusions contained in the software and documentation are those
+ *    of the authors and should not be interpreted as representing official policies,
+ *    either expressed or implied, of DISCO Open Source.
+ */
+package org.discoos.p2p;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Capabilities and load advertised by a peer in its AboutData.
+ *
+ * Encoded as a compact, versioned byte block. Fields are only appended in
+ * later versions, so a block of any version decodes the fields known to
+ * the reader. Load values are quantized into levels, which keeps the block
+ * unchanged until a value crosses a level threshold and so avoids
+ * re-announcing AboutData on every small change. Queue load is advertised
+ * as one of three coarse levels.
+ */
+public final class PeerCapabilities {
+
+    /**
+     * Version of encoded block
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Peer replies to ping
+     */
+    public static final int FEATURE_PING = 1;
+
+    /**
+     * Peer receives broadcast signals
+     */
+    public static final int FEATURE_BROADCAST = 1 << 1;
+
+    /**
+     * Peer receives bulk file transfers
+     */
+    public static final int FEATURE_TRANSFER = 1 << 2;
+
+    /**
+     * Signal queue is empty or short
+     */
+    public static final int LOAD_IDLE = 0;
+
+    /**
+     * Signals are queued
+     */
+    public static final int LOAD_BUSY = 1;
+
+    /**
+     * Signals are queued faster than handled
+     */
+    public static final int LOAD_OVERLOADED = 2;
+
+    /**
+     * Queue depth at which a peer is busy
+     */
+    public static final int BUSY_QUEUE_DEPTH = 8;
+
+    /**
+     * Queue depth at which a peer is overloaded
+     */
+    public static final int OVERLOADED_QUEUE_DEPTH = 64;
+
+    /**
+     * Battery level unknown or not applicable
+     */
+    public static final int BATTERY_UNKNOWN = -1;
+
+    /**
+     * Battery level step in percent
+     */
+    static final int BATTERY_STEP = 10;
+
+    /**
+     * Size of block in bytes
+     */
+    static final int SIZE = 10;
+
+    private static final int NO_BATTERY = 0xFF;
+
+    /**
+     * Orders peers by load, least loaded first. Peers with lower load level are
+     * preferred, then peers with more battery and then with more free
+     * storage. Peers not advertising capabilities are last.
+     */
+    public static final Comparator<PeerInfo> LEAST_LOADED = new Comparator<PeerInfo>() {
+        @Override
+        public int compare(PeerInfo lhs, PeerInfo rhs) {
+            PeerCapabilities l = lhs.getCapabilities();
+            PeerCapabilities r = rhs.getCapabilities();
+            if (l == null || r == null) {
+                return l == r ? 0 : (l == null ? 1 : -1);
+            }
+            if (l.mLoad != r.mLoad) {
+                return l.mLoad < r.mLoad ? -1 : 1;
+            }
+            if (l.mBattery != r.mBattery) {
+                return l.mBattery > r.mBattery ? -1 : 1;
+            }
+            if (l.mFreeStorage != r.mFreeStorage) {
+                return l.mFreeStorage > r.mFreeStorage ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final int mVersion;
+
+    private final int mFeatures;
+
+    private final int mBattery;
+
+    private final int mLoad;
+
+    private final int mFreeStorage;
+
+    private PeerCapabilities(int version, int features, int battery, int load, int freeStorage) {
+        mVersion = version;
+        mFeatures = features;
+        mBattery = battery;
+        mLoad = load;
+        mFreeStorage = freeStorage;
+    }
+
+    /**
+     * Create capabilities with load values quantized into levels
+     * @param features Supported features, see FEATURE_* flags
+     * @param battery Battery level in percent, {@link #BATTERY_UNKNOWN} if unknown
+     * @param load Queue load level, see LOAD_* levels
+     * @param freeStorage Free storage in bytes
+     * @return PeerCapabilities
+     */
+    public static PeerCapabilities of(int features, int battery, int load, long freeStorage) {
+        return new PeerCapabilities(VERSION, features & 0xFFFF,
+                battery < 0 ? BATTERY_UNKNOWN : Math.min(battery, 100) / BATTERY_STEP * BATTERY_STEP,
+                Math.max(LOAD_IDLE, Math.min(load, LOAD_OVERLOADED)),
+                Integer.highestOneBit((int) Math.max(0, Math.min(freeStorage >> 20, Integer.MAX_VALUE))));
+    }
+
+    /**
+     * Get load level of queue depth, without hysteresis
+     * @param queueDepth Number of signals waiting to be handled
+     * @return int Load level
+     */
+    public static int toLoad(int queueDepth) {
+        return queueDepth >= OVERLOADED_QUEUE_DEPTH ? LOAD_OVERLOADED
+                : (queueDepth >= BUSY_QUEUE_DEPTH ? LOAD_BUSY : LOAD_IDLE);
+    }
+
+    /**
+     * Encode block
+     * @return byte[]
+     */
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.put((byte) VERSION);
+        buffer.putShort((short) mFeatures);
+        buffer.put((byte) (mBattery == BATTERY_UNKNOWN ? NO_BATTERY : mBattery));
+        buffer.putShort((short) mLoad);
+        buffer.putInt(mFreeStorage);
+        return buffer.array();
+    }
+
+    /**
+     * Decode block
+     * @param data Encoded block of any version
+     * @return PeerCapabilities, null if not valid
+     */
+    public static PeerCapabilities decode(byte[] data) {
+        if (data == null || data.length < SIZE || data[0] < 1) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.get();
+        int features = buffer.getShort() & 0xFFFF;
+        int battery = buffer.get() & 0xFF;
+        int load = buffer.getShort() & 0xFFFF;
+        int freeStorage = buffer.getInt();
+        return new PeerCapabilities(version, features, battery == NO_BATTERY ? BATTERY_UNKNOWN : battery,
+                Math.min(load, LOAD_OVERLOADED), freeStorage);
+    }
+
+    /**
+     * Get version of block as advertised by peer
+     * @return int
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Check if feature is supported
+     * @param feature Feature flag
+     * @return boolean
+     */
+    public boolean supports(int feature) {
+        return (mFeatures & feature) == feature;
+    }
+
+    public int getFeatures() {
+        return mFeatures;
+    }
+
+    /**
+     * Get battery level, rounded down to {@link #BATTERY_STEP}
+     * @return int Percent, {@link #BATTERY_UNKNOWN} if unknown
+     */
+    public int getBattery() {
+        return mBattery;
+    }
+
+    /**
+     * Get queue load level
+     * @return int, see LOAD_* levels
+     */
+    public int getLoad() {
+        return mLoad;
+    }
+
+    /**
+     * Get free storage, rounded down to power of two
+     * @return int Megabytes
+     */
+    public int getFreeStorage() {
+        return mFreeStorage;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PeerCapabilities)) {
+            return false;
+        }
+        PeerCapabilities that = (PeerCapabilities) o;
+        return mVersion == that.mVersion && mFeatures == that.mFeatures && mBattery == that.mBattery
+                && mLoad == that.mLoad && mFreeStorage == that.mFreeStorage;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mVersion;
+        hash = 31 * hash + mFeatures;
+        hash = 31 * hash + mBattery;
+        hash = 31 * hash + mLoad;
+        return 31 * hash + mFreeStorage;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("v%d features=0x%04x battery=%d%% load=%d storage=%dMB",
+                mVersion, mFeatures, mBattery, mLoad, mFreeStorage);
+    }
+}
@@ -55,4 +55,30 @@ public interface PeerInfo {
 
     boolean isMemberOf(String network);
 
+    /**
+     * Get fraction of time peer has been alive within liveness history
+     * @return double Uptime in range [0,1]
+     */
+    double getUptime();
+
+    /**
+     * Get mean time between failures within liveness history
+     * @return long Mean time in milliseconds, -1 if no failures
+     */
+    long getMeanTimeBetweenFailures();
+
+    /**
+     * Get number of alive/timeout changes per hour within liveness history
+     * @return double
+     */
+    double getFlapRate();
+
+    boolean isFlapping();
+
+    /**
+     * Get capabilities and load advertised by peer
+     * @return PeerCapabilities, null if not advertised
+     */
+    PeerCapabilities getCapabilities();
+
 }
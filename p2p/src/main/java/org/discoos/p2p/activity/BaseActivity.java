@@ -38,6 +38,7 @@ import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.ViewTreeObserver;
 
 import org.discoos.p2p.P2P;
 import org.discoos.p2p.R;
@@ -68,6 +69,21 @@ public class BaseActivity extends AppCompatActivity {
 
             }
         });
+
+        /**
+         * Measure startup time until first frame is drawn
+         */
+        final ViewTreeObserver observer = getWindow().getDecorView().getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if(observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                P2P.getContext().onFirstFrame();
+                return true;
+            }
+        });
     }
 
     /**
@@ -29,6 +29,7 @@ package org.discoos.p2p.activity;
 
 import android.content.Intent;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
@@ -49,11 +50,13 @@ import org.discoos.p2p.P2P;
 import org.discoos.p2p.P2PUtils;
 import org.discoos.p2p.P2PUtils.LogItem;
 import org.discoos.p2p.R;
+import org.discoos.p2p.internal.P2PLogExport;
+import org.discoos.p2p.internal.P2PLogPager;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
-import java.util.List;
+import java.util.Date;
 
 /**
  * An activity representing a list of system log entries. This activity
@@ -66,9 +69,10 @@ import java.util.List;
 public class LogListActivity extends BaseActivity {
 
     private String mQuery = "";
+    private boolean mEvents;
     private FloatingActionButton mFab;
-    private List<LogItem> mLog;
-    private LoaderCallbacks<List<LogItem>> mLoaderCallbacks;
+    private P2PLogPager mLog;
+    private LoaderCallbacks<P2PLogPager> mLoaderCallbacks;
 
     private LogItemRecyclerViewAdapter mAdapter;
 
@@ -95,30 +99,34 @@ public class LogListActivity extends BaseActivity {
      * Create loader callbacks
      * @return LoaderCallbacks implementation for LogListActivity
      */
-    private LoaderCallbacks<List<LogItem>> createLoaderCallbacks() {
-        return new LoaderCallbacks<List<LogItem>>() {
+    private LoaderCallbacks<P2PLogPager> createLoaderCallbacks() {
+        return new LoaderCallbacks<P2PLogPager>() {
             @Override
             public LogItemLoader onCreateLoader(int id, Bundle args) {
-                return new LogItemLoader(mQuery);
+                return new LogItemLoader(mQuery, mEvents);
             }
 
             @Override
-            public void onLoadFinished(Loader<List<LogItem>> loader, List<LogItem> data) {
+            public void onLoadFinished(Loader<P2PLogPager> loader, P2PLogPager data) {
                 setLog(data);
+                String msg = String.format("Loaded %s %s", mLog.size(), mEvents ? "events" : "log items");
+                Snackbar.make(mFab, msg, Snackbar.LENGTH_LONG).setAction("Action", null).show();
             }
 
             @Override
-            public void onLoaderReset(Loader<List<LogItem>> loader) {
-                List<LogItem> data = Collections.emptyList();
-                setLog(data);
+            public void onLoaderReset(Loader<P2PLogPager> loader) {
+                setLog(null);
             }
 
-            private void setLog(List<LogItem> data) {
+            private void setLog(P2PLogPager data) {
+                if(mLog != null) {
+                    mLog.setListener(null);
+                }
                 mLog = data;
-                Collections.reverse(mLog);
+                if(mLog != null) {
+                    mLog.setListener(mAdapter);
+                }
                 mAdapter.notifyDataSetChanged();
-                String msg = String.format("Loaded %s log items", mLog.size());
-                Snackbar.make(mFab, msg, Snackbar.LENGTH_LONG).setAction("Action", null).show();
             }
 
         };
@@ -154,7 +162,8 @@ public class LogListActivity extends BaseActivity {
             @Override
             public boolean onQueryTextChange(String s) {
 
-                if (s.isEmpty() && !mQuery.isEmpty()) {
+                // Answered from log index, search as you type
+                if (!s.equals(mQuery)) {
                     queryLogs(s);
                 }
 
@@ -177,27 +186,71 @@ public class LogListActivity extends BaseActivity {
                 intent.setFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
                 startActivity(intent);
                 return true;
+            case R.id.menu_view_events:
+                // Events are formatted from journal, logcat is not read
+                mEvents = !item.isChecked();
+                item.setChecked(mEvents);
+                queryLogs(mQuery);
+                return true;
             case R.id.menu_send_log:
-                File file= P2PUtils.writeLog(P2P.getFilesDir().getAbsolutePath(), "p2papp.txt");
-                intent = new Intent(Intent.ACTION_SEND);
-                intent.putExtra(Intent.EXTRA_SUBJECT, "P2PApp system log");
-                intent.putExtra(Intent.EXTRA_TEXT, "Please review attached system log");
-                intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
-                intent.setType("text/plain");
-                startActivity(Intent.createChooser(intent, "Select method"));
+                // Reading logcat is slow, chooser is started when exported
+                new ExportTask(new File(P2P.getFilesDir(), "p2papp.txt.gz"))
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mQuery);
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    /**
+     * Export log on background thread and start chooser to send it
+     */
+    private class ExportTask extends AsyncTask<String, Void, P2PLogExport.Summary> {
+
+        private final File mFile;
+
+        private IOException mError;
+
+        ExportTask(File file) {
+            mFile = file;
+        }
+
+        @Override
+        protected P2PLogExport.Summary doInBackground(String... query) {
+            try {
+                return P2PLogExport.export(mFile, query[0]);
+            } catch (IOException e) {
+                mError = e;
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(P2PLogExport.Summary summary) {
+            if (isFinishing()) {
+                return;
+            }
+            if (summary == null) {
+                String msg = String.format("Failed to export log: %s", mError.getMessage());
+                Snackbar.make(mFab, msg, Snackbar.LENGTH_LONG).show();
+                return;
+            }
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.putExtra(Intent.EXTRA_SUBJECT, "P2PApp system log");
+            intent.putExtra(Intent.EXTRA_TEXT, String.format(
+                    "Please review attached system log (gzip, %s)", summary));
+            intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(mFile));
+            intent.setType("application/gzip");
+            startActivity(Intent.createChooser(intent, "Select method"));
+        }
+    }
+
     private void queryLogs(String query) {
         mQuery = query;
         getSupportLoaderManager().restartLoader(P2P.LOADER_SYSTEM_LOG_ID, null, mLoaderCallbacks);
     }
 
     private LogItemRecyclerViewAdapter onSetupRecyclerView(@NonNull RecyclerView recyclerView) {
-        mLog = P2PUtils.readLog();
         LogItemRecyclerViewAdapter adapter = new LogItemRecyclerViewAdapter();
         recyclerView.setAdapter(adapter);
         // Improves performance. Only use if you know that changes
@@ -207,7 +260,10 @@ public class LogListActivity extends BaseActivity {
     }
 
     public class LogItemRecyclerViewAdapter
-            extends RecyclerView.Adapter<LogItemRecyclerViewAdapter.ViewHolder> {
+            extends RecyclerView.Adapter<LogItemRecyclerViewAdapter.ViewHolder>
+            implements P2PLogPager.Listener {
+
+        private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -218,9 +274,18 @@ public class LogListActivity extends BaseActivity {
 
         @Override
         public void onBindViewHolder(final ViewHolder holder, int position) {
+            // Newest first, page is loaded if not cached
             holder.mItem = mLog.get(position);
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
-            holder.mTimestamp.setText(sdf.format(holder.mItem.timestamp));
+            if (holder.mItem == null) {
+                // Evicted since last update
+                holder.mTimestamp.setText(null);
+                holder.mThread.setText(null);
+                holder.mModule.setText(null);
+                holder.mLevel.setText(null);
+                holder.mMessage.setText(null);
+                return;
+            }
+            holder.mTimestamp.setText(mTimeFormat.format(new Date(holder.mItem.timestamp)));
             holder.mThread.setText(holder.mItem.thread);
             holder.mModule.setText(holder.mItem.module);
             holder.mLevel.setText(holder.mItem.level);
@@ -229,7 +294,17 @@ public class LogListActivity extends BaseActivity {
 
         @Override
         public int getItemCount() {
-            return mLog.size();
+            return mLog == null ? 0 : mLog.size();
+        }
+
+        @Override
+        public void onInserted(int count) {
+            notifyItemRangeInserted(0, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
         }
 
         public class ViewHolder extends RecyclerView.ViewHolder {
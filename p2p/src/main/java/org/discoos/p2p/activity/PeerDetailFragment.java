@@ -81,8 +81,15 @@ public final class PeerDetailFragment extends Fragment {
                 id = String.format("Peer id: %s", id);
                 String networks = Arrays.toString(item.getNetworks().toArray());
                 networks = String.format("Networks: %s", networks);
+                long mtbf = item.getMeanTimeBetweenFailures();
+                String liveness = String.format("Liveness: uptime %.1f%%, MTBF %s, flaps %.1f/h%s",
+                        item.getUptime() * 100,
+                        mtbf < 0 ? "n/a" : String.format("%d min", mtbf / 60000),
+                        item.getFlapRate(),
+                        item.isFlapping() ? " (flapping)" : "");
                 ((TextView) rootView.findViewById(R.id.peer_id)).setText(id);
                 ((TextView) rootView.findViewById(R.id.peer_networks)).setText(networks);
+                ((TextView) rootView.findViewById(R.id.peer_liveness)).setText(liveness);
                 ((TextView) rootView.findViewById(R.id.peer_detail)).setText(item.getDetails());
             }
         }
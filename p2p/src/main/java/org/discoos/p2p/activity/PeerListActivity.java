@@ -33,6 +33,8 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
+import android.support.v4.app.LoaderManager.LoaderCallbacks;
+import android.support.v4.content.Loader;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -45,11 +47,12 @@ import org.discoos.p2p.P2P;
 import org.discoos.p2p.PeerInfo;
 import org.discoos.p2p.R;
 import org.discoos.p2p.internal.P2PContext;
+import org.discoos.p2p.internal.P2PPeerPager;
+import org.discoos.p2p.loader.PeerInfoLoader;
 import org.discoos.signal.Event;
 import org.discoos.signal.Observer;
 
 import java.text.SimpleDateFormat;
-import java.util.List;
 
 /**
  * An activity representing a list of Peers. This activity
@@ -72,9 +75,11 @@ public class PeerListActivity extends BaseActivity {
     private boolean mTwoPane;
 
     /**
-     * List of known peers
+     * Known peers ordered by last seen, pages are loaded when viewed
      */
-    private List<? extends PeerInfo> mPeerList;
+    private P2PPeerPager mPeers;
+
+    private PeerInfoRecyclerViewAdapter mAdapter;
 
 
     @Override
@@ -85,8 +90,6 @@ public class PeerListActivity extends BaseActivity {
 
         mNetwork = getIntent().getStringExtra(PeerListActivity.ARG_NETWORK_NAME);
 
-        fetchPeerList();
-
         String title = getTitle().toString();
         if(mNetwork != null && P2P.getNetworkNames().contains(mNetwork)) {
             title = P2P.getNetwork(mNetwork).getLabel() + " " + title;
@@ -97,7 +100,7 @@ public class PeerListActivity extends BaseActivity {
 
         View recyclerView = findViewById(R.id.peer_list);
         assert recyclerView != null : "RecyclerView 'R.id.peer_list' not found";
-        PeerInfoRecyclerViewAdapter adapter = onSetupRecyclerView((RecyclerView) recyclerView);
+        mAdapter = onSetupRecyclerView((RecyclerView) recyclerView);
 
         if (findViewById(R.id.peer_detail_container) != null) {
             // The detail container view will be present only in the
@@ -107,10 +110,47 @@ public class PeerListActivity extends BaseActivity {
             mTwoPane = true;
         }
 
-        onCreateP2PObserver(adapter);
+        getSupportLoaderManager().initLoader(P2P.LOADER_PEER_LIST_ID, null, createLoaderCallbacks());
+
+        onCreateP2PObserver();
 
     }
 
+    /**
+     * Create loader callbacks
+     * @return LoaderCallbacks implementation for PeerListActivity
+     */
+    private LoaderCallbacks<P2PPeerPager> createLoaderCallbacks() {
+        return new LoaderCallbacks<P2PPeerPager>() {
+            @Override
+            public PeerInfoLoader onCreateLoader(int id, Bundle args) {
+                return new PeerInfoLoader(getNetwork());
+            }
+
+            @Override
+            public void onLoadFinished(Loader<P2PPeerPager> loader, P2PPeerPager data) {
+                setPeers(data);
+            }
+
+            @Override
+            public void onLoaderReset(Loader<P2PPeerPager> loader) {
+                setPeers(null);
+            }
+
+            private void setPeers(P2PPeerPager data) {
+                if(mPeers != null) {
+                    mPeers.setListener(null);
+                }
+                mPeers = data;
+                if(mPeers != null) {
+                    mPeers.setListener(mAdapter);
+                }
+                mAdapter.notifyDataSetChanged();
+            }
+
+        };
+    }
+
     // Menu icons are inflated just as they were with actionbar
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -155,7 +195,7 @@ public class PeerListActivity extends BaseActivity {
         });
     }
 
-    private void onCreateP2PObserver(final PeerInfoRecyclerViewAdapter adapter) {
+    private void onCreateP2PObserver() {
         /**
          * Ensure P2P proximity network exists
          */
@@ -168,21 +208,22 @@ public class PeerListActivity extends BaseActivity {
             @Override
             public void handle(Object signal, Object observable) {
                 if(P2P.isEvent(observable) && P2P.isPeerChange((Event)observable)) {
-                    fetchPeerList();
-                    /** Inform list view that data has changed*/
-                    adapter.notifyDataSetChanged();
+                    /** Load peers again, list view is updated when loaded */
+                    Loader<P2PPeerPager> loader = getSupportLoaderManager().getLoader(P2P.LOADER_PEER_LIST_ID);
+                    if(loader != null) {
+                        loader.onContentChanged();
+                    }
                 }
             }
         });
     }
 
-    private void fetchPeerList() {
+    private String getNetwork() {
         // Fetch all peers from all networks
         if(mNetwork == null || !P2P.getNetworkNames().contains(mNetwork) ) {
-            mPeerList = P2P.getPeerList();
-        } else {
-            mPeerList = P2P.getNetwork(mNetwork).getPeerList();
+            return null;
         }
+        return mNetwork;
     }
 
 
@@ -196,7 +237,8 @@ public class PeerListActivity extends BaseActivity {
     }
 
     public class PeerInfoRecyclerViewAdapter
-            extends RecyclerView.Adapter<PeerInfoRecyclerViewAdapter.ViewHolder> {
+            extends RecyclerView.Adapter<PeerInfoRecyclerViewAdapter.ViewHolder>
+            implements P2PPeerPager.Listener {
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -207,7 +249,16 @@ public class PeerListActivity extends BaseActivity {
 
         @Override
         public void onBindViewHolder(final ViewHolder holder, int position) {
-            holder.mItem = mPeerList.get(position);
+            // Page is loaded in the background if not loaded
+            holder.mItem = mPeers.get(position);
+            if(holder.mItem == null) {
+                /* Not loaded yet, or removed since counted */
+                holder.mActiveView.setText("");
+                holder.mTimeoutView.setText("");
+                holder.mSummaryView.setText("");
+                holder.mView.setOnClickListener(null);
+                return;
+            }
             SimpleDateFormat sdf = new SimpleDateFormat("dd-HH:mm:ss");
             holder.mActiveView.setText(sdf.format(holder.mItem.getTimestamp()));
             holder.mTimeoutView.setText((holder.mItem.isTimeout() ?  getResources().getString(R.string.timeout) : ""));
@@ -236,7 +287,12 @@ public class PeerListActivity extends BaseActivity {
 
         @Override
         public int getItemCount() {
-            return mPeerList.size();
+            return mPeers == null ? 0 : mPeers.size();
+        }
+
+        @Override
+        public void onLoaded(int position, int count) {
+            notifyItemRangeChanged(position, count);
         }
 
         public class ViewHolder extends RecyclerView.ViewHolder {
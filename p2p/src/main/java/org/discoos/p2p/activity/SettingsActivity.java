@@ -196,6 +196,10 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
 //            bindPreferenceSummaryToValue(findPreference("example_text"));
 //            bindPreferenceSummaryToValue(findPreference("example_list"));
             bindPreferenceSummaryToValue(findPreference("ping_timeout"));
+            bindPreferenceSummaryToValue(findPreference("announce_interval"));
+            bindPreferenceSummaryToValue(findPreference("cache_backend"));
+            bindPreferenceSummaryToValue(findPreference("cache_max_size"));
+            bindPreferenceSummaryToValue(findPreference("cache_ttl"));
         }
 
         @Override
@@ -13,6 +13,7 @@ import org.discoos.signal.Event;
 /**
  * This class listen for changes in connectivity and
  * notifies peers each time the device connects to WIFI.
+ * AboutData is announced again if addresses have changed.
  */
 public class ConnectivityChangeReceiver extends BroadcastReceiver {
 
@@ -37,6 +38,9 @@ public class ConnectivityChangeReceiver extends BroadcastReceiver {
                 String msg = "onReceive(%s->%s,failover=%s,connection=%s)";
                 Log.i(TAG, String.format(msg, mState, state, isFailOver, isConnection));
 
+                P2PAboutData.invalidate();
+                P2P.getContext().announce();
+
                 switch (state) {
                     case WIFI:
                         P2P.getContext().broadcast(new Event(P2P.ALIVE, this));
@@ -36,16 +36,28 @@ import org.alljoyn.bus.Variant;
 import org.alljoyn.bus.Version;
 import org.discoos.p2p.P2P;
 import org.discoos.p2p.P2PUtils;
+import org.discoos.p2p.PeerCapabilities;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * P2PAboutData contains all information which AboutDataListeners are required to implement
+ *
+ * AboutData is built once and cached with a hash of its content. The cache is
+ * invalidated by {@link #invalidate()} when connectivity or the owner profile
+ * changes, and is rebuilt when next requested. Rebuilt values are compared
+ * with the cached values, using the hash only as a fast path, and the hash
+ * is changed with the content. The hash tells {@link P2PAnnouncer} if the
+ * content should be announced again.
  */
 public final class P2PAboutData implements AboutDataListener {
 
@@ -69,15 +81,51 @@ public final class P2PAboutData implements AboutDataListener {
     public static final String INET_6_ADDRESS = "Inet6Address";
     public static final String BUS_UNIQUE_NAME = "BusUniqueName";
     public static final String USER_NAME= "UserName";
+    public static final String CAPABILITIES = "Capabilities";
 
 
     static byte[] mAppId;
 
+    /**
+     * Incremented when AboutData of all instances must be rebuilt
+     */
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
     /**
      * Bus attachment unique name
      */
     final String mUniqueName;
 
+    /**
+     * Cached AboutData, guarded by this
+     */
+    private Map<String, Variant> mAboutData;
+
+    /**
+     * Values of cached content
+     */
+    private Map<String, Object> mValues;
+
+    /**
+     * Hash of cached values
+     */
+    private int mValuesHash;
+
+    /**
+     * Hash of cached content, changed when content changes
+     */
+    private int mHash;
+
+    /**
+     * Generation of cached content
+     */
+    private int mGeneration;
+
+    /**
+     * Capabilities and load advertised, guarded by this
+     */
+    private PeerCapabilities mCapabilities;
+
     /**
      * Constructor
      * @param uniqueName Bus attachment unique name
@@ -91,7 +139,7 @@ public final class P2PAboutData implements AboutDataListener {
 
         Log.i(TAG, "getAboutData(\"" + language + "\")");
 
-        return buildAboutData();
+        return getAboutData();
     }
 
     @Override
@@ -99,39 +147,141 @@ public final class P2PAboutData implements AboutDataListener {
 
         Log.i(TAG, "getAnnouncedAboutData()");
 
-        return buildAboutData();
+        return getAboutData();
+    }
+
+    /**
+     * Invalidate cached AboutData of all instances, rebuilt when next requested
+     */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Set capabilities and load advertised, rebuilding AboutData if changed.
+     * Load values are quantized, so small changes leave AboutData unchanged.
+     * @param capabilities PeerCapabilities
+     * @return boolean, true if changed
+     */
+    public synchronized boolean setCapabilities(PeerCapabilities capabilities) {
+        if (capabilities.equals(mCapabilities)) {
+            return false;
+        }
+        mCapabilities = capabilities;
+        mGeneration = GENERATION.get() - 1;
+        return true;
+    }
+
+    /**
+     * Get hash of AboutData content, rebuilt if invalidated
+     * @return int
+     */
+    public synchronized int getHash() {
+        getAboutData();
+        return mHash;
     }
 
-    private Map<String, Variant> buildAboutData() {
-        Map<String, Variant> aboutData = new HashMap<>();
+    private synchronized Map<String, Variant> getAboutData() {
+        int generation = GENERATION.get();
+        if (mAboutData == null || mGeneration != generation) {
+            Map<String, Object> values = buildValues();
+            int hash = hash(values);
+            if (mAboutData == null || hash != mValuesHash || !equals(values, mValues)) {
+                Map<String, Variant> aboutData = new HashMap<>();
+                for (Map.Entry<String, Object> it : values.entrySet()) {
+                    aboutData.put(it.getKey(), new Variant(it.getValue()));
+                }
+                mAboutData = Collections.unmodifiableMap(aboutData);
+                mValues = values;
+                mValuesHash = hash;
+                /* Changed content with colliding hash must still be announced */
+                mHash = hash != mHash ? hash : hash + 1;
+            }
+            mGeneration = generation;
+        }
+        return mAboutData;
+    }
+
+    private Map<String, Object> buildValues() {
+        Map<String, Object> values = new LinkedHashMap<>();
         try {
 
-            aboutData.put(APP_ID, new Variant(getAppId()));
-            aboutData.put(APP_NAME, new Variant(P2P.getContext().getName()));
-            aboutData.put(DEFAULT_LANGUAGE, new Variant(new String("en")));
-            aboutData.put(MODEL_NUMBER, new Variant(new String(Build.MODEL)));
-            aboutData.put(SUPPORTED_LANGUAGES, new Variant(new String[]{"en"}));
-            aboutData.put(SOFTWARE_VERSION, new Variant(P2P.getContext().getVersion()));
-            aboutData.put(HARDWARE_VERSION, new Variant(new String(Build.SERIAL)));
-            aboutData.put(AJ_SOFTWARE_VERSION, new Variant(Version.get()));
-            aboutData.put(SUPPORT_URL, new Variant(P2P.getContext().getSupportUrl()));
-            aboutData.put(DEVICE_ID, new Variant(new String(Build.SERIAL)));
-            aboutData.put(DEVICE_NAME, new Variant(new String(Build.DEVICE)));
-            aboutData.put(DEVICE_BRAND, new Variant(new String(Build.BRAND)));
-            aboutData.put(MANUFACTURER, new Variant(P2P.getContext().getManufacturer()));
-            aboutData.put(DESCRIPTION, new Variant(P2P.getContext().getDescription()));
-            aboutData.put(INET_4_ADDRESS, new Variant(P2PUtils.getWifiIpv4()));
-            aboutData.put(INET_6_ADDRESS, new Variant(P2PUtils.getWifiIpv6()));
-            aboutData.put(BUS_UNIQUE_NAME, new Variant(mUniqueName));
-
-            aboutData.putAll(P2PUtils.getOwnerInfo());
+            values.put(APP_ID, getAppId());
+            values.put(APP_NAME, P2P.getContext().getName());
+            values.put(DEFAULT_LANGUAGE, "en");
+            values.put(MODEL_NUMBER, Build.MODEL);
+            values.put(SUPPORTED_LANGUAGES, new String[]{"en"});
+            values.put(SOFTWARE_VERSION, P2P.getContext().getVersion());
+            values.put(HARDWARE_VERSION, Build.SERIAL);
+            values.put(AJ_SOFTWARE_VERSION, Version.get());
+            values.put(SUPPORT_URL, P2P.getContext().getSupportUrl());
+            values.put(DEVICE_ID, Build.SERIAL);
+            values.put(DEVICE_NAME, Build.DEVICE);
+            values.put(DEVICE_BRAND, Build.BRAND);
+            values.put(MANUFACTURER, P2P.getContext().getManufacturer());
+            values.put(DESCRIPTION, P2P.getContext().getDescription());
+            values.put(INET_4_ADDRESS, P2PUtils.getWifiIpv4());
+            values.put(INET_6_ADDRESS, P2PUtils.getWifiIpv6());
+            values.put(BUS_UNIQUE_NAME, mUniqueName);
+
+            String owner = P2PUtils.getOwnerName();
+            if (owner != null) {
+                values.put(USER_NAME, owner);
+            }
+
+            if (mCapabilities != null) {
+                values.put(CAPABILITIES, mCapabilities.encode());
+            }
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to build AboutData", e);
         }
 
-        return aboutData;
+        return values;
+
+    }
+
+    /**
+     * Hash content of AboutData values
+     * @param values String, String[] or byte[] values by name
+     * @return int
+     */
+    static int hash(Map<String, Object> values) {
+        int hash = 1;
+        for (Map.Entry<String, Object> it : values.entrySet()) {
+            Object value = it.getValue();
+            int code;
+            if (value instanceof byte[]) {
+                code = Arrays.hashCode((byte[]) value);
+            } else if (value instanceof Object[]) {
+                code = Arrays.hashCode((Object[]) value);
+            } else {
+                code = value == null ? 0 : value.hashCode();
+            }
+            /* Independent of map order */
+            hash += it.getKey().hashCode() ^ code;
+        }
+        return hash;
+    }
 
+    /**
+     * Compare content of AboutData values
+     * @param values String, String[] or byte[] values by name
+     * @param other String, String[] or byte[] values by name
+     * @return boolean, true if same names with equal values
+     */
+    static boolean equals(Map<String, Object> values, Map<String, Object> other) {
+        if (values.size() != other.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Object> it : values.entrySet()) {
+            String key = it.getKey();
+            if (!other.containsKey(key)
+                    || !Arrays.deepEquals(new Object[]{it.getValue()}, new Object[]{other.get(key)})) {
+                return false;
+            }
+        }
+        return true;
     }
 
     protected String getVersion() {
@@ -0,0 +1,166 @@
+package org.discoos.p2p.internal;
+
+import org.alljoyn.bus.Variant;
+import org.discoos.p2p.P2PUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable record of AboutData received from a peer.
+ *
+ * The map is walked once when the record is created. Only the application
+ * id and bus unique name, which are needed to cache the peer, are decoded
+ * then. Other values are decoded the first time any of them is read, and
+ * summary, details and parameters are built from the decoded values.
+ *
+ * Decoding is deferred, not avoided. Every store encodes summary, details
+ * and parameters of changed peers, so a peer changed by an announcement is
+ * decoded when the cache is next stored. Only announcements replaced before
+ * that, and announcements kept undecoded by alive(), are never decoded.
+ */
+final class P2PAboutRecord {
+
+    private final String mId;
+
+    private final String mUniqueName;
+
+    private final String[] mKeys;
+
+    private final Variant[] mVariants;
+
+    /**
+     * Decoded values, null until read. Guarded by this.
+     */
+    private Object[] mValues;
+
+    private P2PAboutRecord(String id, String uniqueName, String[] keys, Variant[] variants) {
+        mId = id;
+        mUniqueName = uniqueName;
+        mKeys = keys;
+        mVariants = variants;
+    }
+
+    /**
+     * Create record of AboutData
+     * @param data AboutData
+     * @return P2PAboutRecord
+     */
+    static P2PAboutRecord decode(Map<String, Variant> data) {
+        String[] keys = new String[data.size()];
+        Variant[] variants = new Variant[keys.length];
+        byte[] appId = null;
+        String uniqueName = null;
+        int i = 0;
+        for (Map.Entry<String, Variant> it : data.entrySet()) {
+            keys[i] = it.getKey();
+            variants[i] = it.getValue();
+            if (P2PAboutData.APP_ID.equals(keys[i])) {
+                appId = (byte[]) P2PUtils.toObject(variants[i]);
+            } else if (P2PAboutData.BUS_UNIQUE_NAME.equals(keys[i])) {
+                uniqueName = (String) P2PUtils.toObject(variants[i]);
+            }
+            i++;
+        }
+        return new P2PAboutRecord(P2PUtils.toShortId(appId), uniqueName, keys, variants);
+    }
+
+    /**
+     * Get short id of peer application
+     * @return String
+     * @see P2PUtils#toShortId(byte[])
+     */
+    String getId() {
+        return mId;
+    }
+
+    /**
+     * Get bus unique name of peer
+     * @return String
+     */
+    String getUniqueName() {
+        return mUniqueName;
+    }
+
+    /**
+     * Get decoded value
+     * @param key AboutData key
+     * @return Object, null if not found
+     */
+    Object get(String key) {
+        Object[] values = values();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get summary
+     * @return String
+     * @see P2PUtils#toSummary(Map)
+     */
+    String getSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(get(P2PAboutData.DEVICE_BRAND));
+        builder.append(" ");
+        builder.append(get(P2PAboutData.MODEL_NUMBER));
+        builder.append(" @ ");
+        builder.append(get(P2PAboutData.INET_4_ADDRESS));
+        Object value = get(P2PAboutData.USER_NAME);
+        if (value != null) {
+            builder.append(" ");
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get details
+     * @return String
+     * @see P2PUtils#toDetails(Map)
+     */
+    String getDetails() {
+        Object[] values = values();
+        StringBuilder builder = new StringBuilder();
+        builder.append("AboutData details:");
+        for (int i = 0; i < mKeys.length; i++) {
+            Object value = values[i];
+            if (value instanceof Object[]) {
+                value = Arrays.toString((Object[]) value);
+            }
+            builder.append("\n * ").append(mKeys[i]).append(": ").append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get parameters
+     * @return Unmodifiable map of decoded values
+     * @see P2PUtils#toParams(Map)
+     */
+    Map<String, Object> getParams() {
+        Object[] values = values();
+        Map<String, Object> params = new HashMap<>();
+        for (int i = 0; i < mKeys.length; i++) {
+            params.put(mKeys[i], values[i]);
+        }
+        return Collections.unmodifiableMap(params);
+    }
+
+    private synchronized Object[] values() {
+        if (mValues == null) {
+            Object[] values = new Object[mKeys.length];
+            for (int i = 0; i < mKeys.length; i++) {
+                values[i] = P2PUtils.toObject(mVariants[i]);
+            }
+            mValues = values;
+        }
+        return mValues;
+    }
+
+}
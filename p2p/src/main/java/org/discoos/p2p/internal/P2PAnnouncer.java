@@ -0,0 +1,130 @@
+package org.discoos.p2p.internal;
+
+/**
+ * Announcement manager of local AboutData.
+ *
+ * Requests to announce are merged into one announcement, which is due when
+ * no request has been made for the settle delay, and no sooner than the
+ * minimum interval after the last announcement. When due, AboutData is only
+ * announced if its content hash differs from the hash last announced.
+ *
+ * Only used on bus thread, times are given by the caller.
+ */
+final class P2PAnnouncer {
+
+    private final long mSettleDelay;
+
+    private long mMinInterval;
+
+    /**
+     * Time announcement is due
+     */
+    private long mDue;
+
+    /**
+     * Time of last announcement
+     */
+    private long mLast;
+
+    /**
+     * Hash of content last announced
+     */
+    private int mHash;
+
+    private boolean mAnnounced;
+
+    private boolean mPending;
+
+    /**
+     * Create announcer
+     * @param minInterval Minimum interval between announcements in milliseconds
+     * @param settleDelay Delay after last request before announcing in milliseconds
+     */
+    P2PAnnouncer(long minInterval, long settleDelay) {
+        mMinInterval = minInterval;
+        mSettleDelay = settleDelay;
+    }
+
+    void setMinInterval(long minInterval) {
+        mMinInterval = minInterval;
+    }
+
+    /**
+     * Request announcement
+     * @param now Current time in milliseconds
+     * @return Delay until due in milliseconds, -1 if already scheduled
+     */
+    long request(long now) {
+        mDue = now + mSettleDelay;
+        if (mAnnounced) {
+            mDue = Math.max(mDue, mLast + mMinInterval);
+        }
+        if (mPending) {
+            return -1;
+        }
+        mPending = true;
+        return mDue - now;
+    }
+
+    /**
+     * Announce if due and changed
+     * @param now Current time in milliseconds
+     * @param target Announced AboutData
+     * @return Delay until due in milliseconds if postponed by later requests, otherwise -1
+     */
+    long run(long now, Target target) {
+        if (!mPending) {
+            return -1;
+        }
+        if (now < mDue) {
+            return mDue - now;
+        }
+        mPending = false;
+        int hash = target.getHash();
+        if (mAnnounced && hash == mHash) {
+            return -1;
+        }
+        if (target.announce()) {
+            announced(hash, now);
+        }
+        return -1;
+    }
+
+    /**
+     * Register announcement made outside of announcer
+     * @param hash Hash of content announced
+     * @param now Current time in milliseconds
+     */
+    void announced(int hash, long now) {
+        mHash = hash;
+        mLast = now;
+        mAnnounced = true;
+    }
+
+    /**
+     * Forget pending request and content announced
+     */
+    void reset() {
+        mPending = false;
+        mAnnounced = false;
+    }
+
+    /**
+     * Announced AboutData
+     */
+    interface Target {
+
+        /**
+         * Get hash of current content, rebuilt if invalidated
+         * @return int
+         */
+        int getHash();
+
+        /**
+         * Announce current content on all joined networks
+         * @return boolean, true if announced
+         */
+        boolean announce();
+    }
+
+}
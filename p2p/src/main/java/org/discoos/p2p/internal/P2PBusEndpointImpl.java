@@ -138,6 +138,7 @@ public class P2PBusEndpointImpl extends P2PEndpointBase implements P2PBusEndpoin
     public final void alive(byte[] appId, String uniqueName) throws BusException {
         if(!Arrays.equals(P2PAboutData.getAppId(), appId)) {
             String id = P2PUtils.toShortId(appId);
+            P2PEventJournal.getInstance().record(P2PEventJournal.SIGNAL_ALIVE, id, null, 0, 0);
             PeerInfoImpl info = (PeerInfoImpl) P2P.getPeer(id);
             if(info != null) {
                 raise(P2P.ALIVE, info.alive(uniqueName));
@@ -156,6 +157,9 @@ public class P2PBusEndpointImpl extends P2PEndpointBase implements P2PBusEndpoin
     public void left(byte[] appId, String... networks) throws BusException {
         if(!Arrays.equals(P2PAboutData.getAppId(), appId)) {
             String id = P2PUtils.toShortId(appId);
+            for (String network : networks) {
+                P2PEventJournal.getInstance().record(P2PEventJournal.SIGNAL_LEFT, id, network, 0, 0);
+            }
             PeerInfoImpl info = (PeerInfoImpl) P2P.getPeer(id);
             if(info != null) {
                 raise(P2P.LEFT, info.remove(networks));
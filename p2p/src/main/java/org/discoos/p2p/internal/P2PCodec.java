@@ -0,0 +1,599 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary codec for peer and network stores.
+ *
+ * <pre>
+ * file    := header strings records crc
+ * header  := magic(4) version(1) kind(1)
+ * strings := varint(count) { varint(length) utf8 }
+ * records := varint(count) { record }
+ * crc     := CRC32 of all preceding bytes (4, big-endian)
+ * </pre>
+ *
+ * Strings are written as varint references into the string table, where 0 is
+ * null and n is the (n-1)th table entry. Peer ids, network names and parameter
+ * keys are shared by many records, which keeps files small and decoding cheap.
+ *
+ * Files without the magic number are written by older versions with Java
+ * serialization, see {@link #isEncoded(byte[])}.
+ *
+ * Journal entries use the same record encoding, but with strings written
+ * inline as varint(length + 1) followed by utf8, since each entry must be
+ * decodable on its own.
+ *
+ * <pre>
+ * entry   := op(1) ( record | key )
+ * </pre>
+ *
+ * @see P2PJournal
+ */
+final class P2PCodec {
+
+    /**
+     * Magic number "P2PS"
+     */
+    static final int MAGIC = 0x50325053;
+
+    /**
+     * Current format version
+     */
+    static final int VERSION = 1;
+
+    static final int KIND_PEERS = 1;
+    static final int KIND_NETWORKS = 2;
+
+    /**
+     * Journal entry operations
+     */
+    static final int OP_PUT = 1;
+    static final int OP_REMOVE = 2;
+
+    private static final int HEADER_SIZE = 6;
+    private static final int CRC_SIZE = 4;
+
+    private static final int FLAG_TIMEOUT = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_BYTES = 2;
+    private static final int TYPE_STRINGS = 3;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Only static methods
+     */
+    private P2PCodec() {}
+
+    /**
+     * Check if data starts with codec magic number
+     * @param data File content
+     * @return boolean
+     */
+    static boolean isEncoded(byte[] data) {
+        return data != null && data.length >= HEADER_SIZE + CRC_SIZE && readInt(data, 0) == MAGIC;
+    }
+
+    /**
+     * Check if data is written by older versions with Java serialization
+     * @param data File content
+     * @return boolean
+     */
+    static boolean isSerialized(byte[] data) {
+        return data != null && data.length >= 2 && (data[0] & 0xFF) == 0xAC && (data[1] & 0xFF) == 0xED;
+    }
+
+    /**
+     * Verify checksum trailer of encoded data
+     * @param data Encoded data
+     * @return boolean
+     */
+    static boolean verify(byte[] data) {
+        if (!isEncoded(data)) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - CRC_SIZE);
+        return (int) crc.getValue() == getChecksum(data);
+    }
+
+    /**
+     * Get checksum trailer of encoded data
+     * @param data Encoded data
+     * @return int
+     */
+    static int getChecksum(byte[] data) {
+        return readInt(data, data.length - CRC_SIZE);
+    }
+
+    /**
+     * Encode peers
+     * @param peers Peers to encode
+     * @return byte[]
+     */
+    static byte[] encodePeers(Collection<PeerInfoImpl> peers) {
+        Encoder encoder = new Encoder(false);
+        encoder.writeVarint(peers.size());
+        for (PeerInfoImpl info : peers) {
+            encoder.writePeer(info);
+        }
+        return encoder.toByteArray(KIND_PEERS);
+    }
+
+    /**
+     * Decode peers
+     * @param data Encoded peers
+     * @return List
+     * @throws IOException If data is corrupt or of unsupported version
+     */
+    static List<PeerInfoImpl> decodePeers(byte[] data) throws IOException {
+        Decoder decoder = new Decoder(data, KIND_PEERS);
+        int count = decoder.readVarint();
+        List<PeerInfoImpl> peers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            peers.add(decoder.readPeer());
+        }
+        return peers;
+    }
+
+    /**
+     * Encode networks
+     * @param networks Networks to encode
+     * @return byte[]
+     */
+    static byte[] encodeNetworks(Collection<P2PNetworkImpl> networks) {
+        Encoder encoder = new Encoder(false);
+        encoder.writeVarint(networks.size());
+        for (P2PNetworkImpl network : networks) {
+            encoder.writeNetwork(network);
+        }
+        return encoder.toByteArray(KIND_NETWORKS);
+    }
+
+    /**
+     * Decode networks
+     * @param data Encoded networks
+     * @return List
+     * @throws IOException If data is corrupt or of unsupported version
+     */
+    static List<P2PNetworkImpl> decodeNetworks(byte[] data) throws IOException {
+        Decoder decoder = new Decoder(data, KIND_NETWORKS);
+        int count = decoder.readVarint();
+        List<P2PNetworkImpl> networks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            networks.add(decoder.readNetwork());
+        }
+        return networks;
+    }
+
+    /**
+     * Encode journal entry for added or changed peer
+     * @param info Peer
+     * @return byte[]
+     */
+    static byte[] encodePut(PeerInfoImpl info) {
+        Encoder encoder = new Encoder(true);
+        encoder.writeByte(OP_PUT);
+        encoder.writePeer(info);
+        return encoder.toEntry();
+    }
+
+    /**
+     * Encode journal entry for added or changed network
+     * @param network Network
+     * @return byte[]
+     */
+    static byte[] encodePut(P2PNetworkImpl network) {
+        Encoder encoder = new Encoder(true);
+        encoder.writeByte(OP_PUT);
+        encoder.writeNetwork(network);
+        return encoder.toEntry();
+    }
+
+    /**
+     * Encode journal entry for removed peer or network
+     * @param key Peer id or network name
+     * @return byte[]
+     */
+    static byte[] encodeRemove(String key) {
+        Encoder encoder = new Encoder(true);
+        encoder.writeByte(OP_REMOVE);
+        encoder.writeString(key);
+        return encoder.toEntry();
+    }
+
+    /**
+     * Apply journal entries to peers in snapshot order
+     * @param peers Peers by id
+     * @param entries Journal entries
+     * @throws IOException If an entry is corrupt
+     */
+    static void replayPeers(Map<String, PeerInfoImpl> peers, List<byte[]> entries) throws IOException {
+        for (byte[] entry : entries) {
+            Decoder decoder = new Decoder(entry);
+            if (decoder.readByte() == OP_PUT) {
+                PeerInfoImpl info = decoder.readPeer();
+                peers.put(info.id, info);
+            } else {
+                peers.remove(decoder.readString());
+            }
+        }
+    }
+
+    /**
+     * Apply journal entries to networks in snapshot order
+     * @param networks Networks by name
+     * @param entries Journal entries
+     * @throws IOException If an entry is corrupt
+     */
+    static void replayNetworks(Map<String, P2PNetworkImpl> networks, List<byte[]> entries) throws IOException {
+        for (byte[] entry : entries) {
+            Decoder decoder = new Decoder(entry);
+            if (decoder.readByte() == OP_PUT) {
+                P2PNetworkImpl network = decoder.readNetwork();
+                networks.put(network.mName, network);
+            } else {
+                networks.remove(decoder.readString());
+            }
+        }
+    }
+
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24
+                | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8
+                | (data[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Growable byte buffer with varint primitives
+     */
+    static class Buffer {
+
+        byte[] mData = new byte[256];
+        int mSize;
+
+        void ensure(int extra) {
+            if (mSize + extra > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(mData.length * 2, mSize + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            mData[mSize++] = (byte) value;
+        }
+
+        void writeBytes(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, mData, mSize, value.length);
+            mSize += value.length;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                mData[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mData[mSize++] = (byte) value;
+        }
+
+        void writeVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                mData[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mData[mSize++] = (byte) value;
+        }
+
+        void writeBlob(byte[] value) {
+            writeVarint(value.length);
+            writeBytes(value);
+        }
+    }
+
+    /**
+     * Encodes records into a body while building the string table,
+     * or with inline strings if encoding a journal entry
+     */
+    static final class Encoder extends Buffer {
+
+        private final boolean mInline;
+        private final Map<String, Integer> mStrings = new HashMap<>();
+        private final List<String> mTable = new ArrayList<>();
+
+        Encoder(boolean inline) {
+            mInline = inline;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+            } else if (mInline) {
+                byte[] bytes = value.getBytes(UTF_8);
+                writeVarint(bytes.length + 1);
+                writeBytes(bytes);
+            } else {
+                Integer ref = mStrings.get(value);
+                if (ref == null) {
+                    mTable.add(value);
+                    ref = mTable.size();
+                    mStrings.put(value, ref);
+                }
+                writeVarint(ref);
+            }
+        }
+
+        void writePeer(PeerInfoImpl info) {
+            writeString(info.id);
+            writeString(info.name);
+            writeString(info.getSummary());
+            writeString(info.getDetails());
+            writeByte(info.isTimeout() ? FLAG_TIMEOUT : 0);
+            writeVarlong(info.getTimestamp().getTime());
+            Map<String, Object> params = info.getParams();
+            writeVarint(params.size());
+            for (Map.Entry<String, Object> it : params.entrySet()) {
+                writeString(it.getKey());
+                writeValue(it.getValue());
+            }
+            P2PNetworkSet membership = info.getMembership();
+            P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+            writeVarint(membership.size());
+            for (int id = membership.next(0); id >= 0; id = membership.next(id + 1)) {
+                writeString(registry.getName(id));
+                writeVarint(membership.getPort(id) & 0xFFFF);
+            }
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                writeByte(TYPE_NULL);
+            } else if (value instanceof byte[]) {
+                writeByte(TYPE_BYTES);
+                writeBlob((byte[]) value);
+            } else if (value instanceof String[]) {
+                String[] values = (String[]) value;
+                writeByte(TYPE_STRINGS);
+                writeVarint(values.length);
+                for (String it : values) {
+                    writeString(it);
+                }
+            } else {
+                writeByte(TYPE_STRING);
+                writeString(value.toString());
+            }
+        }
+
+        void writeNetwork(P2PNetworkImpl network) {
+            writeString(network.mName);
+            writeString(network.mLabel);
+            List<String> ids = network.getPeerIdList();
+            writeVarint(ids.size());
+            for (String id : ids) {
+                writeString(id);
+            }
+        }
+
+        /**
+         * Get encoded journal entry
+         * @return byte[]
+         */
+        byte[] toEntry() {
+            return Arrays.copyOf(mData, mSize);
+        }
+
+        /**
+         * Assemble header, string table, body and crc
+         * @param kind Record kind
+         * @return byte[]
+         */
+        byte[] toByteArray(int kind) {
+            Buffer out = new Buffer();
+            out.ensure(HEADER_SIZE + mSize + mTable.size() * 16 + CRC_SIZE);
+            out.mSize = 4;
+            writeInt(out.mData, 0, MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(kind);
+            out.writeVarint(mTable.size());
+            for (String it : mTable) {
+                out.writeBlob(it.getBytes(UTF_8));
+            }
+            out.ensure(mSize + CRC_SIZE);
+            System.arraycopy(mData, 0, out.mData, out.mSize, mSize);
+            out.mSize += mSize;
+            CRC32 crc = new CRC32();
+            crc.update(out.mData, 0, out.mSize);
+            writeInt(out.mData, out.mSize, (int) crc.getValue());
+            out.mSize += CRC_SIZE;
+            return Arrays.copyOf(out.mData, out.mSize);
+        }
+    }
+
+    /**
+     * Decodes records from a verified buffer or a journal entry
+     */
+    static final class Decoder {
+
+        private final byte[] mData;
+        private final int mLimit;
+        private final String[] mTable;
+        private int mPosition;
+
+        /**
+         * Create decoder of journal entry with inline strings
+         * @param entry Journal entry
+         */
+        Decoder(byte[] entry) {
+            mData = entry;
+            mLimit = entry.length;
+            mTable = null;
+            mPosition = 0;
+        }
+
+        Decoder(byte[] data, int kind) throws IOException {
+            if (!isEncoded(data)) {
+                throw new IOException("Not encoded");
+            }
+            if (!verify(data)) {
+                throw new IOException("Checksum mismatch");
+            }
+            mData = data;
+            mLimit = data.length - CRC_SIZE;
+            mPosition = 4;
+            int version = readByte();
+            if (version > VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            int actual = readByte();
+            if (actual != kind) {
+                throw new IOException("Expected kind " + kind + ", found " + actual);
+            }
+            mTable = new String[readVarint()];
+            for (int i = 0; i < mTable.length; i++) {
+                int length = readVarint();
+                check(length);
+                mTable[i] = new String(mData, mPosition, length, UTF_8);
+                mPosition += length;
+            }
+        }
+
+        private void check(int length) throws IOException {
+            if (length < 0 || mPosition + length > mLimit) {
+                throw new IOException("Unexpected end of data");
+            }
+        }
+
+        int readByte() throws IOException {
+            check(1);
+            return mData[mPosition++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        byte[] readBlob() throws IOException {
+            int length = readVarint();
+            check(length);
+            byte[] value = Arrays.copyOfRange(mData, mPosition, mPosition + length);
+            mPosition += length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            int ref = readVarint();
+            if (ref == 0) {
+                return null;
+            }
+            if (mTable == null) {
+                int length = ref - 1;
+                check(length);
+                String value = new String(mData, mPosition, length, UTF_8);
+                mPosition += length;
+                return value;
+            }
+            if (ref > mTable.length) {
+                throw new IOException("Invalid string reference " + ref);
+            }
+            return mTable[ref - 1];
+        }
+
+        Object readValue() throws IOException {
+            int type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_BYTES:
+                    return readBlob();
+                case TYPE_STRINGS:
+                    String[] values = new String[readVarint()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readString();
+                    }
+                    return values;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        PeerInfoImpl readPeer() throws IOException {
+            String id = readString();
+            String name = readString();
+            String summary = readString();
+            String details = readString();
+            boolean timeout = (readByte() & FLAG_TIMEOUT) != 0;
+            Date timestamp = new Date(readVarlong());
+            int count = readVarint();
+            Map<String, Object> params = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                params.put(readString(), readValue());
+            }
+            P2PNetworkSet membership = new P2PNetworkSet();
+            P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+            count = readVarint();
+            for (int i = 0; i < count; i++) {
+                membership.add(registry.intern(readString()), (short) readVarint());
+            }
+            return new PeerInfoImpl(id, name, summary, details, params, timeout, timestamp, membership);
+        }
+
+        P2PNetworkImpl readNetwork() throws IOException {
+            String name = readString();
+            String label = readString();
+            int count = readVarint();
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(readString());
+            }
+            return new P2PNetworkImpl(name, label, ids);
+        }
+    }
+
+}
@@ -1,6 +1,12 @@
 package org.discoos.p2p.internal;
 
 import android.content.ComponentName;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
@@ -15,13 +21,18 @@ import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 import org.discoos.signal.Observer;
 
+import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class P2PContext {
 
     private static final String TAG = "P2PContext";
 
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
     /**
      * Singleton instance
      */
@@ -47,6 +58,35 @@ public class P2PContext {
      */
     private boolean mCreated = false;
 
+    /**
+     * Selected cache backend
+     */
+    private String mCacheBackend;
+
+    /**
+     * Time when context was created, reset when first frame is drawn
+     */
+    private long mCreatedAt;
+
+    /**
+     * Staged startup of persisted state and bus
+     */
+    private P2PStartup mStartup;
+
+    /**
+     * Applies cache bounds when changed. Shared preferences only keep weak
+     * references to listeners.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                    if (P2P.PREF_CACHE_MAX_SIZE.equals(key) || P2P.PREF_CACHE_TTL.equals(key)) {
+                        applyCacheBounds(preferences);
+                    }
+                }
+            };
+
     /**
      * Stores the global state of of P2PService, which runs in the background.
      * If set, this implies that the P2PService is running. It is set by
@@ -88,6 +128,8 @@ public class P2PContext {
 
         Log.i(TAG, "onCreate()");
 
+        mCreatedAt = SystemClock.elapsedRealtime();
+
         mDispatcher.add(new Observer() {
             @Override
             public void handle(Object signal, Object observable) {
@@ -107,15 +149,133 @@ public class P2PContext {
         mNetworkCache.setDispatcher(mDispatcher);
         mPeerInfoCache.setDispatcher(mDispatcher);
 
-        // Load persisted state
-        String root = P2P.getFilesDir().getAbsolutePath();
-        P2PTaskManager.getInstance().execute(new P2PNetworkCache.LoadNetworks(root));
-        P2PTaskManager.getInstance().execute(new PeerInfoCache.LoadPeerInfoCache(root));
+        // Load persisted state and join networks in stages
+        mStartup = newStartup(P2P.getFilesDir().getAbsolutePath());
+        mStartup.start();
 
         return mCreated = true;
 
     }
 
+    /**
+     * Create startup pipeline. Native library, event journal and configuration
+     * are loaded in parallel. Networks and peers are loaded in parallel when cache backend
+     * is known, and networks are joined when both networks and peers are loaded.
+     * @param root Root directory of persisted state
+     * @return P2PStartup
+     */
+    private P2PStartup newStartup(final String root) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        P2PStartup startup = new P2PStartup(AsyncTask.THREAD_POOL_EXECUTOR, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+        P2PStartup.Stage<Void> library = startup.add(new P2PStartup.Stage<Void>("native") {
+            @Override
+            protected Void doInBackground() {
+                P2PHandler.loadLibrary();
+                return null;
+            }
+        });
+        P2PStartup.Stage<Void> journal = startup.add(new P2PStartup.Stage<Void>("journal") {
+            @Override
+            protected Void doInBackground() {
+                P2PEventJournal.getInstance().spill(
+                        new File(root, P2P.FILE_EVENT_JOURNAL), P2P.EVENT_JOURNAL_CAPACITY);
+                return null;
+            }
+        });
+        P2PStartup.Stage<SharedPreferences> config = startup.add(new P2PStartup.Stage<SharedPreferences>("config") {
+            @Override
+            protected SharedPreferences doInBackground() {
+                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(P2P.getApplication());
+                /* Blocks until preferences are loaded from file */
+                preferences.contains(P2P.PREF_CACHE_BACKEND);
+                return preferences;
+            }
+
+            @Override
+            protected void onFinished(SharedPreferences preferences) {
+                mCacheBackend = preferences.getString(P2P.PREF_CACHE_BACKEND, P2P.CACHE_BACKEND_SNAPSHOT);
+                mPeerInfoCache.setBackend(mCacheBackend);
+                mNetworkCache.setBackend(mCacheBackend);
+                applyCacheBounds(preferences);
+                preferences.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+            }
+        });
+        final P2PStartup.Stage<List<P2PNetworkImpl>> networks = startup.add(
+                new P2PStartup.Stage<List<P2PNetworkImpl>>("networks", config) {
+                    private P2PNetworkCache.LoadNetworks mTask;
+
+                    @Override
+                    protected List<P2PNetworkImpl> doInBackground() {
+                        mTask = new P2PNetworkCache.LoadNetworks(root, mNetworkCache.getBackend());
+                        return mTask.doInBackground();
+                    }
+
+                    @Override
+                    protected void onFinished(List<P2PNetworkImpl> result) {
+                        mTask.onFinished(result);
+                    }
+                });
+        P2PStartup.Stage<List<PeerInfoCache.PeerInfoImpl>> peers = startup.add(
+                new P2PStartup.Stage<List<PeerInfoCache.PeerInfoImpl>>("peers", config) {
+                    private PeerInfoCache.LoadPeerInfoCache mTask;
+
+                    @Override
+                    protected List<PeerInfoCache.PeerInfoImpl> doInBackground() {
+                        mTask = new PeerInfoCache.LoadPeerInfoCache(root, mPeerInfoCache.getBackend());
+                        return mTask.doInBackground();
+                    }
+
+                    @Override
+                    protected void onFinished(List<PeerInfoCache.PeerInfoImpl> result) {
+                        mTask.onFinished(result);
+                    }
+                });
+        startup.add(new P2PStartup.Stage<Void>("bus", library, journal, networks, peers) {
+            @Override
+            protected Void doInBackground() {
+                return null;
+            }
+
+            @Override
+            protected void onFinished(Void result) {
+                List<P2PNetworkImpl> list = networks.getResult();
+                ensure(list == null ? Collections.<P2PNetworkImpl>emptyList() : list);
+            }
+        });
+        return startup;
+    }
+
+    /**
+     * Apply cache size and time-to-live preferences to peer cache
+     * @param preferences Shared preferences
+     */
+    private void applyCacheBounds(SharedPreferences preferences) {
+        try {
+            mPeerInfoCache.setMaxSize(Integer.parseInt(preferences.getString(
+                    P2P.PREF_CACHE_MAX_SIZE, String.valueOf(P2P.CACHE_MAX_SIZE))));
+            mPeerInfoCache.setTimeToLive(Long.parseLong(preferences.getString(
+                    P2P.PREF_CACHE_TTL, String.valueOf(P2P.CACHE_TTL / DAY))) * DAY);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid cache bounds", e);
+        }
+    }
+
+    /**
+     * Log time from context was created until first activity frame was drawn
+     */
+    public void onFirstFrame() {
+        if(mCreatedAt > 0) {
+            Log.i(TAG, String.format("Startup to first frame in %d ms [%s]",
+                    SystemClock.elapsedRealtime() - mCreatedAt, mCacheBackend));
+            mCreatedAt = 0;
+        }
+    }
+
     public String getName() {
         return P2P.getApplication().getString(R.string.app_name);
     }
@@ -144,6 +304,11 @@ public class P2PContext {
      * @see P2PContext#quit()
      */
     public void ensure() {
+        if(mStartup != null && !mStartup.isFinished()) {
+            /* Networks are ensured when startup is finished */
+            Log.i(TAG, "ensure() deferred until startup is finished");
+            return;
+        }
         ensure(mNetworkCache.getNetworks());
     }
 
@@ -305,6 +470,11 @@ public class P2PContext {
     public boolean ping(String id) {
         int count = 0;
         Log.i(TAG, String.format("ping(%s)", id));
+        PeerInfoCache.PeerInfoImpl peer = mPeerInfoCache.get(id);
+        if (peer != null && !peer.probe(P2P.PING_FLAPPING_INTERVAL)) {
+            Log.i(TAG, String.format("ping(%s) skipped, peer is flapping", id));
+            return false;
+        }
         for (P2PNetwork network : mNetworkCache.getNetworks()) {
             PeerInfo info = network.getPeer(id);
             if (info != null) {
@@ -323,6 +493,14 @@ public class P2PContext {
         mDispatcher.raise(P2P.BROADCAST, event);
     }
 
+    /**
+     * Announce AboutData again to all peers if it has changed
+     */
+    public void announce() {
+        Log.i(TAG, "announce()");
+        mDispatcher.raise(P2P.ANNOUNCE, null);
+    }
+
     /**
      * Cancel broadcast signal to all peers
      */
@@ -343,9 +521,19 @@ public class P2PContext {
         Log.i(TAG, "quit()");
         mDispatcher.raise(P2P.QUIT, null);
         releaseAll();
+        flush();
+        P2PLogTail.getInstance().stop();
         mRunningService = null;
     }
 
+    /**
+     * Write pending cache changes to file now, blocks until written
+     */
+    public void flush() {
+        mNetworkCache.flush();
+        mPeerInfoCache.flush();
+    }
+
     /**
      * Get signal dispatcher
      *
@@ -380,7 +568,7 @@ public class P2PContext {
      * @return PeerInfo
      */
     public PeerInfo getPeer(String id) {
-        return mPeerInfoCache.get(id);
+        return mPeerInfoCache.find(id);
     }
 
     /**
@@ -401,4 +589,16 @@ public class P2PContext {
         return mPeerInfoCache.getList();
     }
 
+    /**
+     * Get paged view of peers ordered by last seen, most recent first.
+     * Must not be called on main thread.
+     * @param network Network name, all peers if null
+     * @param loader Executor loading pages
+     * @param deliver Executor telling listener about loaded pages
+     * @return P2PPeerPager
+     */
+    public P2PPeerPager getPeerPager(String network, Executor loader, Executor deliver) {
+        return mPeerInfoCache.getPager(network, loader, deliver);
+    }
+
 }
\ No newline at end of file
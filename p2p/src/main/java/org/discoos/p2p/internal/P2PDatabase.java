@@ -0,0 +1,564 @@
+package org.discoos.p2p.internal;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.discoos.p2p.P2P;
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite repository of peers and networks.
+ *
+ * Peers are stored with memberships and About parameters in separate tables,
+ * indexed on network, last seen and timeout, which allows paged queries
+ * without loading all peers. The database is the source of truth, only
+ * the most recently seen peers are loaded into the cache. Changes are written in one transaction per
+ * store, so a burst of changes coalesced by {@link P2PWriteBehind} costs
+ * a single commit.
+ *
+ * @see P2P#CACHE_BACKEND_SQLITE
+ */
+final class P2PDatabase extends SQLiteOpenHelper {
+
+    private static final String TAG = "P2PDatabase";
+
+    private static final int VERSION = 1;
+
+    private static final String META_PEERS = "peers";
+
+    private static final String META_NETWORKS = "networks";
+
+    private static final String PEER_COLUMNS = "p.id, p.name, p.summary, p.details, p.timeout, p.last_seen";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE peers (id TEXT PRIMARY KEY, name TEXT, summary TEXT, details TEXT, " +
+                    "timeout INTEGER NOT NULL, last_seen INTEGER NOT NULL)",
+            "CREATE INDEX peers_last_seen ON peers (last_seen)",
+            "CREATE INDEX peers_timeout ON peers (timeout, last_seen)",
+            "CREATE TABLE memberships (peer_id TEXT NOT NULL, network TEXT NOT NULL, " +
+                    "port INTEGER NOT NULL, PRIMARY KEY (peer_id, network))",
+            "CREATE INDEX memberships_network ON memberships (network, peer_id)",
+            "CREATE TABLE params (peer_id TEXT NOT NULL, key TEXT NOT NULL, value BLOB, " +
+                    "PRIMARY KEY (peer_id, key))",
+            "CREATE TABLE networks (name TEXT PRIMARY KEY, label TEXT)",
+            "CREATE TABLE network_peers (network TEXT NOT NULL, position INTEGER NOT NULL, " +
+                    "peer_id TEXT NOT NULL, PRIMARY KEY (network, position))",
+            "CREATE TABLE meta (key TEXT PRIMARY KEY, value TEXT)"
+    };
+
+    private static final String[] TABLES = {
+            "peers", "memberships", "params", "networks", "network_peers", "meta"
+    };
+
+    private static P2PDatabase INSTANCE;
+
+    private P2PDatabase(Context context) {
+        super(context, P2P.FILE_DATABASE, null, VERSION);
+    }
+
+    /**
+     * Get singleton instance
+     * @return P2PDatabase
+     */
+    static synchronized P2PDatabase getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new P2PDatabase(P2P.getApplication());
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Check if database file exists, without creating it
+     * @return boolean
+     */
+    static boolean exists() {
+        return P2P.getApplication().getDatabasePath(P2P.FILE_DATABASE).exists();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        for (String sql : SCHEMA) {
+            db.execSQL(sql);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        /* Cache only, recreated from peers discovered later */
+        for (String table : TABLES) {
+            db.execSQL("DROP TABLE IF EXISTS " + table);
+        }
+        onCreate(db);
+    }
+
+    /**
+     * Load most recently seen peers, the rest are queried on demand
+     * @param limit Maximum number of peers
+     * @return List, null if peers are not stored in database
+     */
+    List<PeerInfoImpl> loadPeers(int limit) {
+        SQLiteDatabase db = getReadableDatabase();
+        if (!isStored(db, META_PEERS)) {
+            return null;
+        }
+        return query(db, "SELECT " + PEER_COLUMNS + " FROM peers p ORDER BY p.last_seen DESC LIMIT " + limit,
+                null, true);
+    }
+
+    /**
+     * Query peer
+     * @param id Peer id
+     * @return PeerInfoImpl, null if not found
+     */
+    PeerInfoImpl queryPeer(String id) {
+        List<PeerInfoImpl> items = query(getReadableDatabase(), "SELECT " + PEER_COLUMNS +
+                " FROM peers p WHERE p.id = ?", new String[]{id}, true);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    /**
+     * Query page of peers ordered by last seen, most recent first
+     * @param network Network name, all peers if null
+     * @param offset Number of peers to skip
+     * @param limit Maximum number of peers
+     * @return List
+     */
+    List<PeerInfoImpl> queryPeers(String network, int offset, int limit) {
+        String page = " ORDER BY p.last_seen DESC LIMIT " + limit + " OFFSET " + offset;
+        if (network == null) {
+            return query(getReadableDatabase(), "SELECT " + PEER_COLUMNS + " FROM peers p" + page, null, true);
+        }
+        return query(getReadableDatabase(), "SELECT " + PEER_COLUMNS + " FROM peers p " +
+                "JOIN memberships m ON m.peer_id = p.id WHERE m.network = ?" + page, new String[]{network}, true);
+    }
+
+    /**
+     * Count peers
+     * @param network Network name, all peers if null
+     * @return int
+     */
+    int countPeers(String network) {
+        Cursor cursor = network == null
+                ? getReadableDatabase().rawQuery("SELECT COUNT(*) FROM peers", null)
+                : getReadableDatabase().rawQuery("SELECT COUNT(*) FROM memberships WHERE network = ?",
+                new String[]{network});
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remove peers last seen before given time, and least recently
+     * seen peers exceeding given size, in one transaction
+     * @param size Maximum number of peers
+     * @param before Time in milliseconds since epoch
+     * @return int Number of peers removed
+     */
+    int trimPeers(int size, long before) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int count = db.delete("peers", "last_seen < ? OR id NOT IN " +
+                    "(SELECT id FROM peers ORDER BY last_seen DESC LIMIT " + size + ")",
+                    new String[]{String.valueOf(before)});
+            if (count > 0) {
+                db.delete("memberships", "peer_id NOT IN (SELECT id FROM peers)", null);
+                db.delete("params", "peer_id NOT IN (SELECT id FROM peers)", null);
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Write changed peers in one transaction
+     * @param changes Changed peers by id, removed if null
+     */
+    void putPeers(Map<String, PeerInfoImpl> changes) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Statements statements = new Statements(db);
+            try {
+                for (Map.Entry<String, PeerInfoImpl> it : changes.entrySet()) {
+                    statements.delete(it.getKey());
+                    if (it.getValue() != null) {
+                        statements.insert(it.getValue());
+                    }
+                }
+            } finally {
+                statements.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Write given peers and mark peers as stored in one transaction. Other
+     * stored peers are kept, since the cache only holds recently seen peers.
+     * @param peers Peers in cache
+     */
+    void mergePeers(Collection<PeerInfoImpl> peers) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Statements statements = new Statements(db);
+            try {
+                for (PeerInfoImpl info : peers) {
+                    statements.delete(info.id);
+                    statements.insert(info);
+                }
+            } finally {
+                statements.close();
+            }
+            setStored(db, META_PEERS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove all peers, used when another backend takes over
+     */
+    void clearPeers() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            clearPeers(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Load all networks
+     * @return List, null if networks are not stored in database
+     */
+    List<P2PNetworkImpl> loadNetworks() {
+        SQLiteDatabase db = getReadableDatabase();
+        if (!isStored(db, META_NETWORKS)) {
+            return null;
+        }
+        Map<String, List<String>> ids = new LinkedHashMap<>();
+        Cursor cursor = db.rawQuery("SELECT network, peer_id FROM network_peers ORDER BY network, position", null);
+        try {
+            while (cursor.moveToNext()) {
+                List<String> list = ids.get(cursor.getString(0));
+                if (list == null) {
+                    list = new ArrayList<>();
+                    ids.put(cursor.getString(0), list);
+                }
+                list.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<P2PNetworkImpl> networks = new ArrayList<>();
+        cursor = db.rawQuery("SELECT name, label FROM networks ORDER BY rowid", null);
+        try {
+            while (cursor.moveToNext()) {
+                List<String> list = ids.get(cursor.getString(0));
+                networks.add(new P2PNetworkImpl(cursor.getString(0), cursor.getString(1),
+                        list == null ? new ArrayList<String>() : list));
+            }
+        } finally {
+            cursor.close();
+        }
+        return networks;
+    }
+
+    /**
+     * Write changed networks in one transaction
+     * @param changes Changed networks by name, removed if null
+     */
+    void putNetworks(Map<String, P2PNetworkImpl> changes) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, P2PNetworkImpl> it : changes.entrySet()) {
+                deleteNetwork(db, it.getKey());
+                if (it.getValue() != null) {
+                    insertNetwork(db, it.getValue());
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replace all networks in one transaction
+     * @param networks All networks
+     */
+    void replaceNetworks(Collection<P2PNetworkImpl> networks) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            clearNetworks(db);
+            for (P2PNetworkImpl network : networks) {
+                insertNetwork(db, network);
+            }
+            setStored(db, META_NETWORKS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove all networks, used when another backend takes over
+     */
+    void clearNetworks() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            clearNetworks(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void clearPeers(SQLiteDatabase db) {
+        db.delete("peers", null, null);
+        db.delete("memberships", null, null);
+        db.delete("params", null, null);
+        db.delete("meta", "key = ?", new String[]{META_PEERS});
+    }
+
+    private static void clearNetworks(SQLiteDatabase db) {
+        db.delete("networks", null, null);
+        db.delete("network_peers", null, null);
+        db.delete("meta", "key = ?", new String[]{META_NETWORKS});
+    }
+
+    private static void deleteNetwork(SQLiteDatabase db, String name) {
+        db.delete("networks", "name = ?", new String[]{name});
+        db.delete("network_peers", "network = ?", new String[]{name});
+    }
+
+    private static void insertNetwork(SQLiteDatabase db, P2PNetworkImpl network) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO networks (name, label) VALUES (?, ?)");
+        insert.bindString(1, network.mName);
+        bind(insert, 2, network.mLabel);
+        insert.executeInsert();
+        insert.close();
+        SQLiteStatement peer = db.compileStatement(
+                "INSERT INTO network_peers (network, position, peer_id) VALUES (?, ?, ?)");
+        List<String> ids = network.getPeerIdList();
+        for (int i = 0; i < ids.size(); i++) {
+            peer.bindString(1, network.mName);
+            peer.bindLong(2, i);
+            peer.bindString(3, ids.get(i));
+            peer.executeInsert();
+        }
+        peer.close();
+    }
+
+    private static boolean isStored(SQLiteDatabase db, String key) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM meta WHERE key = ?", new String[]{key});
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void setStored(SQLiteDatabase db, String key) {
+        db.execSQL("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)",
+                new Object[]{key, String.valueOf(System.currentTimeMillis())});
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Query peers with memberships and parameters
+     * @param db Database
+     * @param sql Peer query selecting {@link #PEER_COLUMNS}
+     * @param args Query arguments
+     * @param selected Only read memberships and parameters of selected peers
+     * @return List
+     */
+    private static List<PeerInfoImpl> query(SQLiteDatabase db, String sql, String[] args, boolean selected) {
+        Map<String, Row> rows = new LinkedHashMap<>();
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getString(0), new Row(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (rows.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String where = "";
+        String[] ids = null;
+        if (selected) {
+            ids = rows.keySet().toArray(new String[rows.size()]);
+            StringBuilder in = new StringBuilder(" WHERE peer_id IN (?");
+            for (int i = 1; i < ids.length; i++) {
+                in.append(", ?");
+            }
+            where = in.append(")").toString();
+        }
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        cursor = db.rawQuery("SELECT peer_id, network, port FROM memberships" + where, ids);
+        try {
+            while (cursor.moveToNext()) {
+                Row row = rows.get(cursor.getString(0));
+                if (row != null) {
+                    row.mMembership.add(registry.intern(cursor.getString(1)), (short) cursor.getInt(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = db.rawQuery("SELECT peer_id, key, value FROM params" + where, ids);
+        try {
+            while (cursor.moveToNext()) {
+                Row row = rows.get(cursor.getString(0));
+                if (row != null) {
+                    row.putParam(cursor.getString(1), cursor.getBlob(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        List<PeerInfoImpl> peers = new ArrayList<>(rows.size());
+        for (Row row : rows.values()) {
+            peers.add(row.toPeerInfo());
+        }
+        return peers;
+    }
+
+    /**
+     * Peer row with memberships and parameters read in separate queries
+     */
+    private static final class Row {
+
+        private final String mId;
+        private final String mName;
+        private final String mSummary;
+        private final String mDetails;
+        private final boolean mTimeout;
+        private final long mLastSeen;
+        private final P2PNetworkSet mMembership = new P2PNetworkSet();
+        private final Map<String, Object> mParams = new LinkedHashMap<>();
+
+        Row(Cursor cursor) {
+            mId = cursor.getString(0);
+            mName = cursor.getString(1);
+            mSummary = cursor.getString(2);
+            mDetails = cursor.getString(3);
+            mTimeout = cursor.getInt(4) != 0;
+            mLastSeen = cursor.getLong(5);
+        }
+
+        void putParam(String key, byte[] value) {
+            try {
+                mParams.put(key, new P2PCodec.Decoder(value).readValue());
+            } catch (IOException e) {
+                Log.e(TAG, String.format("Failed to decode parameter [%s] of [%s]", key, mId), e);
+            }
+        }
+
+        PeerInfoImpl toPeerInfo() {
+            return new PeerInfoImpl(mId, mName, mSummary, mDetails, mParams,
+                    mTimeout, new Date(mLastSeen), mMembership);
+        }
+    }
+
+    /**
+     * Compiled statements reused for all peers in a transaction
+     */
+    private static final class Statements {
+
+        private final SQLiteStatement mInsertPeer;
+        private final SQLiteStatement mInsertMembership;
+        private final SQLiteStatement mInsertParam;
+        private final SQLiteStatement mDeletePeer;
+        private final SQLiteStatement mDeleteMemberships;
+        private final SQLiteStatement mDeleteParams;
+
+        Statements(SQLiteDatabase db) {
+            mInsertPeer = db.compileStatement("INSERT INTO peers " +
+                    "(id, name, summary, details, timeout, last_seen) VALUES (?, ?, ?, ?, ?, ?)");
+            mInsertMembership = db.compileStatement(
+                    "INSERT INTO memberships (peer_id, network, port) VALUES (?, ?, ?)");
+            mInsertParam = db.compileStatement("INSERT INTO params (peer_id, key, value) VALUES (?, ?, ?)");
+            mDeletePeer = db.compileStatement("DELETE FROM peers WHERE id = ?");
+            mDeleteMemberships = db.compileStatement("DELETE FROM memberships WHERE peer_id = ?");
+            mDeleteParams = db.compileStatement("DELETE FROM params WHERE peer_id = ?");
+        }
+
+        void close() {
+            for (SQLiteStatement statement : new SQLiteStatement[]{mInsertPeer, mInsertMembership,
+                    mInsertParam, mDeletePeer, mDeleteMemberships, mDeleteParams}) {
+                statement.close();
+            }
+        }
+
+        void delete(String id) {
+            for (SQLiteStatement statement : new SQLiteStatement[]{mDeletePeer, mDeleteMemberships, mDeleteParams}) {
+                statement.bindString(1, id);
+                statement.executeUpdateDelete();
+            }
+        }
+
+        void insert(PeerInfoImpl info) {
+            mInsertPeer.bindString(1, info.id);
+            bind(mInsertPeer, 2, info.name);
+            bind(mInsertPeer, 3, info.getSummary());
+            bind(mInsertPeer, 4, info.getDetails());
+            mInsertPeer.bindLong(5, info.isTimeout() ? 1 : 0);
+            mInsertPeer.bindLong(6, info.getTimestamp().getTime());
+            mInsertPeer.executeInsert();
+
+            P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+            P2PNetworkSet membership = info.getMembership();
+            for (int id = membership.next(0); id >= 0; id = membership.next(id + 1)) {
+                mInsertMembership.bindString(1, info.id);
+                mInsertMembership.bindString(2, registry.getName(id));
+                mInsertMembership.bindLong(3, membership.getPort(id) & 0xFFFF);
+                mInsertMembership.executeInsert();
+            }
+
+            for (Map.Entry<String, Object> it : info.getParams().entrySet()) {
+                P2PCodec.Encoder value = new P2PCodec.Encoder(true);
+                value.writeValue(it.getValue());
+                mInsertParam.bindString(1, info.id);
+                mInsertParam.bindString(2, it.getKey());
+                mInsertParam.bindBlob(3, value.toEntry());
+                mInsertParam.executeInsert();
+            }
+        }
+    }
+}
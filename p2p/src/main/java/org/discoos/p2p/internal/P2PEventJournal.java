@@ -0,0 +1,461 @@
+package org.discoos.p2p.internal;
+
+import android.util.Log;
+
+import org.discoos.p2p.P2P;
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Structured journal of P2P events.
+ *
+ * Each event is a fixed-size binary record with type, peer id, network,
+ * latency and status, written to a lock-free ring: a writer claims a
+ * sequence number, writes the record fields and publishes the slot with
+ * the sequence number. Readers skip slots which are overwritten or not
+ * yet published. Peer ids and networks are interned, so recording an event
+ * allocates nothing once names are known. Interned names are kept in a ring
+ * of slots, when full the oldest name is evicted and events naming it are
+ * viewed without it. Records are only formatted when viewed.
+ *
+ * Records can also be spilled to a memory-mapped file, which keeps the
+ * last events across process restarts.
+ */
+public final class P2PEventJournal implements P2PLogPager.Source {
+
+    private static final String TAG = "P2PEventJournal";
+
+    public static final int ANNOUNCED = 1;
+    public static final int JOIN = 2;
+    public static final int LEAVE = 3;
+    public static final int PING = 4;
+    public static final int PING_REPLY = 5;
+    public static final int PING_FAILED = 6;
+    public static final int BROADCAST_ALIVE = 7;
+    public static final int BROADCAST_LEFT = 8;
+    public static final int SIGNAL_ALIVE = 9;
+    public static final int SIGNAL_LEFT = 10;
+    public static final int BIND = 11;
+    public static final int REGISTER = 12;
+    public static final int SESSION_JOIN = 13;
+    public static final int SESSION_LEAVE = 14;
+    public static final int SEND = 15;
+    public static final int RECEIVE = 16;
+    public static final int TRANSFER_SENT = 17;
+    public static final int TRANSFER_RECEIVED = 18;
+    public static final int GROUP_JOIN = 19;
+    public static final int GROUP_MEMBER_ADDED = 20;
+    public static final int GROUP_MEMBER_REMOVED = 21;
+    public static final int GROUP_SEND = 22;
+
+    private static final String[] NAMES = {
+            "UNKNOWN", "ANNOUNCED", "JOIN", "LEAVE", "PING", "PING_REPLY", "PING_FAILED",
+            "BROADCAST_ALIVE", "BROADCAST_LEFT", "SIGNAL_ALIVE", "SIGNAL_LEFT", "BIND", "REGISTER",
+            "SESSION_JOIN", "SESSION_LEAVE", "SEND", "RECEIVE", "TRANSFER_SENT", "TRANSFER_RECEIVED",
+            "GROUP_JOIN", "GROUP_MEMBER_ADDED", "GROUP_MEMBER_REMOVED", "GROUP_SEND"
+    };
+
+    /**
+     * Number of longs in a record: timestamp, type and status, peer and network, latency
+     */
+    private static final int FIELDS = 4;
+
+    /**
+     * Maximum number of interned names
+     */
+    static final int MAX_NAMES = 4096;
+
+    private static final int MAGIC = 0x50325045; // "P2PE"
+
+    private static final int VERSION = 1;
+
+    private static final int SPILL_HEADER = 16;
+
+    private static final int SPILL_RECORD = 96;
+
+    private static final int SPILL_PEER = 12;
+
+    private static final int SPILL_NETWORK = 56;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static P2PEventJournal INSTANCE;
+
+    private final int mCapacity;
+
+    private final AtomicLong mNext = new AtomicLong();
+
+    /**
+     * Sequence number published in each slot, -1 while written
+     */
+    private final AtomicLongArray mSeqs;
+
+    private final AtomicLongArray mRecords;
+
+    private final ConcurrentMap<String, Integer> mIds = new ConcurrentHashMap<>();
+
+    /**
+     * Interned names in slot id % MAX_NAMES
+     */
+    private final AtomicReferenceArray<Name> mNames = new AtomicReferenceArray<>(MAX_NAMES);
+
+    private final AtomicInteger mNextName = new AtomicInteger(1);
+
+    /**
+     * Names are evicted, logged once
+     */
+    private volatile boolean mEvicting;
+
+    private volatile MappedByteBuffer mSpill;
+
+    private int mSpillCapacity;
+
+    /**
+     * Get singleton instance
+     * @return P2PEventJournal
+     */
+    public static synchronized P2PEventJournal getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new P2PEventJournal(P2P.EVENT_JOURNAL_CAPACITY);
+        }
+        return INSTANCE;
+    }
+
+    P2PEventJournal(int capacity) {
+        mCapacity = capacity;
+        mSeqs = new AtomicLongArray(capacity);
+        mRecords = new AtomicLongArray(capacity * FIELDS);
+        for (int i = 0; i < capacity; i++) {
+            mSeqs.set(i, -1);
+        }
+    }
+
+    /**
+     * Record event
+     * @param type Event type
+     * @param peer Peer id, may be null
+     * @param network Network name, may be null
+     * @param latency Latency in milliseconds, 0 if not measured
+     * @param status Status code, 0 if OK
+     */
+    public void record(int type, String peer, String network, int latency, int status) {
+        long timestamp = System.currentTimeMillis();
+        long seq = mNext.getAndIncrement();
+        int slot = (int) (seq % mCapacity);
+        int offset = slot * FIELDS;
+        mSeqs.set(slot, -1);
+        mRecords.lazySet(offset, timestamp);
+        mRecords.lazySet(offset + 1, ((long) type << 32) | (status & 0xFFFFFFFFL));
+        mRecords.lazySet(offset + 2, ((long) intern(peer) << 32) | (intern(network) & 0xFFFFFFFFL));
+        mRecords.lazySet(offset + 3, latency);
+        mSeqs.set(slot, seq);
+        MappedByteBuffer spill = mSpill;
+        if (spill != null) {
+            spill(spill, seq, timestamp, type, peer, network, latency, status);
+        }
+    }
+
+    /**
+     * Get total number of events recorded
+     * @return long
+     */
+    public long getCount() {
+        return mNext.get();
+    }
+
+    /**
+     * Get events recorded after given sequence number which are still in the ring
+     * @param seq Sequence number, 0 for all
+     * @return List of events, oldest first
+     */
+    public List<Event> since(long seq) {
+        long next = mNext.get();
+        List<Event> events = new ArrayList<>();
+        for (long it = Math.max(seq, next - mCapacity); it < next; it++) {
+            Event event = get(it);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Get event
+     * @param seq Sequence number
+     * @return Event, null if overwritten or not yet published
+     */
+    public Event get(long seq) {
+        int slot = (int) (seq % mCapacity);
+        int offset = slot * FIELDS;
+        if (seq < 0 || mSeqs.get(slot) != seq) {
+            return null;
+        }
+        long timestamp = mRecords.get(offset);
+        long typeStatus = mRecords.get(offset + 1);
+        long names = mRecords.get(offset + 2);
+        long latency = mRecords.get(offset + 3);
+        if (mSeqs.get(slot) != seq) {
+            return null;
+        }
+        return new Event(seq, timestamp, (int) (typeStatus >>> 32), (int) typeStatus,
+                getName((int) (names >>> 32)), getName((int) names), (int) latency);
+    }
+
+    /**
+     * Get events matching query, formatted when viewed
+     * @param query Compiled query
+     * @param prefetch Executor loading pages ahead of viewed position
+     * @return Pager of matching events, newest first
+     */
+    public P2PLogPager query(P2PLogQuery query, Executor prefetch) {
+        P2PLogIndex.Postings seqs = new P2PLogIndex.Postings();
+        for (Event event : since(0)) {
+            if (query.isEmpty() || query.matches(event.toLogItem())) {
+                seqs.add(event.seq);
+            }
+        }
+        return new P2PLogPager(this, query, seqs, prefetch);
+    }
+
+    @Override
+    public void load(long[] seqs, LogItem[] items) {
+        for (int i = 0; i < seqs.length; i++) {
+            Event event = get(seqs[i]);
+            items[i] = event == null ? null : event.toLogItem();
+        }
+    }
+
+    /**
+     * Spill events to memory-mapped file. If nothing is recorded yet,
+     * events of a previous process are restored from the file first.
+     * @param file Spill file
+     * @param capacity Maximum number of events in file
+     */
+    public synchronized void spill(File file, int capacity) {
+        if (mSpill != null) {
+            return;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                long size = SPILL_HEADER + (long) capacity * SPILL_RECORD;
+                boolean exists = raf.length() == size;
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (exists && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                        && buffer.getInt(8) == capacity && mNext.get() == 0) {
+                    restore(buffer, capacity);
+                } else {
+                    for (int i = 0; i < capacity; i++) {
+                        buffer.putLong(SPILL_HEADER + i * SPILL_RECORD, -1);
+                    }
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(8, capacity);
+                }
+                mSpillCapacity = capacity;
+                mSpill = buffer;
+            } finally {
+                /* Mapping stays valid after close */
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Failed to map [%s]", file), e);
+        }
+    }
+
+    /**
+     * Restore events from spill file, keeping their sequence numbers
+     */
+    private void restore(MappedByteBuffer buffer, int capacity) {
+        long count = 0;
+        for (int i = 0; i < capacity; i++) {
+            long seq = buffer.getLong(SPILL_HEADER + i * SPILL_RECORD);
+            if (seq >= 0 && seq % capacity == i) {
+                count = Math.max(count, seq + 1);
+            }
+        }
+        byte[] peer = new byte[SPILL_PEER];
+        byte[] network = new byte[SPILL_NETWORK];
+        for (long seq = Math.max(0, count - Math.min(capacity, mCapacity)); seq < count; seq++) {
+            int offset = SPILL_HEADER + (int) (seq % capacity) * SPILL_RECORD;
+            if (buffer.getLong(offset) != seq) {
+                continue;
+            }
+            readBytes(buffer, offset + 28, peer);
+            readBytes(buffer, offset + 28 + SPILL_PEER, network);
+            int slot = (int) (seq % mCapacity);
+            mRecords.set(slot * FIELDS, buffer.getLong(offset + 8));
+            mRecords.set(slot * FIELDS + 1, ((long) buffer.getShort(offset + 16) << 32)
+                    | (buffer.getInt(offset + 20) & 0xFFFFFFFFL));
+            mRecords.set(slot * FIELDS + 2, ((long) intern(decode(peer)) << 32)
+                    | (intern(decode(network)) & 0xFFFFFFFFL));
+            mRecords.set(slot * FIELDS + 3, buffer.getInt(offset + 24));
+            mSeqs.set(slot, seq);
+        }
+        /* Continue after restored events */
+        mNext.set(count);
+        Log.i(TAG, String.format("Restored %d events", count));
+    }
+
+    /**
+     * Write record to spill file. Concurrent writers use disjoint slots,
+     * a slot is valid when it holds a sequence number in its own position.
+     */
+    private void spill(MappedByteBuffer buffer, long seq, long timestamp, int type,
+                       String peer, String network, int latency, int status) {
+        int offset = SPILL_HEADER + (int) (seq % mSpillCapacity) * SPILL_RECORD;
+        buffer.putLong(offset, -1);
+        buffer.putLong(offset + 8, timestamp);
+        buffer.putShort(offset + 16, (short) type);
+        buffer.putInt(offset + 20, status);
+        buffer.putInt(offset + 24, latency);
+        writeAscii(buffer, offset + 28, SPILL_PEER, peer);
+        writeAscii(buffer, offset + 28 + SPILL_PEER, SPILL_NETWORK, network);
+        buffer.putLong(offset, seq);
+    }
+
+    private static void writeAscii(MappedByteBuffer buffer, int offset, int length, String value) {
+        int count = value == null ? 0 : Math.min(length, value.length());
+        for (int i = 0; i < length; i++) {
+            char c = i < count ? value.charAt(i) : 0;
+            buffer.put(offset + i, (byte) (c < 128 ? c : '?'));
+        }
+    }
+
+    private static void readBytes(MappedByteBuffer buffer, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        return length == 0 ? null : new String(bytes, 0, length, UTF8);
+    }
+
+    /**
+     * Intern name, evicts the name in its slot if table is full
+     * @return int, 0 if null
+     */
+    private int intern(String name) {
+        if (name == null) {
+            return 0;
+        }
+        Integer id = mIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        int next;
+        do {
+            next = mNextName.getAndIncrement() & Integer.MAX_VALUE;
+        } while (next == 0);
+        Name evicted = mNames.getAndSet(next % MAX_NAMES, new Name(next, name));
+        if (evicted != null) {
+            mIds.remove(evicted.name, evicted.id);
+            if (!mEvicting) {
+                mEvicting = true;
+                Log.w(TAG, String.format("More than %d names, evicting oldest", MAX_NAMES));
+            }
+        }
+        id = mIds.putIfAbsent(name, next);
+        return id == null ? next : id;
+    }
+
+    /**
+     * Get interned name
+     * @return String, null if 0 or evicted
+     */
+    private String getName(int id) {
+        Name name = id == 0 ? null : mNames.get(id % MAX_NAMES);
+        return name != null && name.id == id ? name.name : null;
+    }
+
+    /**
+     * Interned name and its id
+     */
+    private static final class Name {
+
+        final int id;
+
+        final String name;
+
+        Name(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Journal event
+     */
+    public static final class Event {
+
+        public final long seq;
+        public final long timestamp;
+        public final int type;
+        public final int status;
+        public final String peer;
+        public final String network;
+        public final int latency;
+
+        Event(long seq, long timestamp, int type, int status, String peer, String network, int latency) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.status = status;
+            this.peer = peer;
+            this.network = network;
+            this.latency = latency;
+        }
+
+        public String getName() {
+            return type > 0 && type < NAMES.length ? NAMES[type] : NAMES[0];
+        }
+
+        /**
+         * Format event as log item
+         * @return LogItem
+         */
+        public LogItem toLogItem() {
+            return new LogItem(timestamp, "-", TAG, status == 0 ? "I" : "W", toString());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(getName());
+            if (peer != null) {
+                text.append(" peer=").append(peer);
+            }
+            if (network != null) {
+                text.append(" network=").append(network);
+            }
+            if (latency > 0) {
+                text.append(" latency=").append(latency).append("ms");
+            }
+            if (status != 0) {
+                text.append(String.format(" status=0x%04x", status));
+            }
+            return text.toString();
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Multipoint group session of a network and its members.
+ *
+ * Members join the session hosted by the member with the lowest peer id
+ * they know of. A member which knows of no lower peer id hosts the session
+ * and waits for others to join. The host is elected again when the session
+ * is lost or its host is removed, and when a lower peer id is discovered,
+ * which merges sessions hosted by different members. Membership is tracked
+ * from session member added and removed callbacks, which are called on
+ * router threads.
+ */
+final class P2PGroup {
+
+    /**
+     * Open groups by network name
+     */
+    private static final ConcurrentMap<String, P2PGroup> GROUPS = new ConcurrentHashMap<>();
+
+    final String network;
+
+    /**
+     * Session id, -1 if not in session. Guarded by this.
+     */
+    private int mSessionId = -1;
+
+    /**
+     * Peer id of host, null if hosted by this peer. Guarded by this.
+     */
+    private String mHostId;
+
+    /**
+     * Bus unique name of host, null if hosted by this peer. Guarded by this.
+     */
+    private String mHost;
+
+    /**
+     * Peer id of host of session being joined, null if none. Guarded by this.
+     */
+    private String mJoining;
+
+    /**
+     * Bus unique names of other members. Guarded by this.
+     */
+    private final Set<String> mMembers = new HashSet<>();
+
+    P2PGroup(String network) {
+        this.network = network;
+    }
+
+    /**
+     * Open group of network
+     * @param network Network name
+     * @return P2PGroup
+     */
+    static P2PGroup open(String network) {
+        P2PGroup group = new P2PGroup(network);
+        GROUPS.put(network, group);
+        return group;
+    }
+
+    /**
+     * Get open group of network
+     * @param network Network name
+     * @return P2PGroup, null if not open
+     */
+    static P2PGroup get(String network) {
+        return GROUPS.get(network);
+    }
+
+    /**
+     * Close group of network
+     * @param network Network name
+     * @return P2PGroup, null if not open
+     */
+    static P2PGroup close(String network) {
+        return GROUPS.remove(network);
+    }
+
+    /**
+     * Elect host of group session among members which are not timed out
+     * @param selfId Peer id of this peer
+     * @param peers Known members of network
+     * @param lostId Peer id of host of lost session, not elected, null if none
+     * @return PeerInfoImpl, null if this peer is elected
+     */
+    static PeerInfoImpl elect(String selfId, Collection<PeerInfoImpl> peers, String lostId) {
+        PeerInfoImpl host = null;
+        for (PeerInfoImpl it : peers) {
+            if (!it.isTimeout() && !it.id.equals(lostId) && it.id.compareTo(selfId) < 0
+                    && (host == null || it.id.compareTo(host.id) < 0)) {
+                host = it;
+            }
+        }
+        return host;
+    }
+
+    /**
+     * Register join of session hosted by given peer as pending
+     * @param hostId Peer id of host, null to forget pending join
+     * @return boolean, false if join of session hosted by given peer is already pending
+     */
+    synchronized boolean joining(String hostId) {
+        if (hostId == null ? mJoining == null : hostId.equals(mJoining)) {
+            return false;
+        }
+        mJoining = hostId;
+        return true;
+    }
+
+    /**
+     * Register pending join of session hosted by given peer as finished
+     * @param hostId Peer id of host
+     * @return boolean, false if join is no longer pending
+     */
+    synchronized boolean finished(String hostId) {
+        if (!hostId.equals(mJoining)) {
+            return false;
+        }
+        mJoining = null;
+        return true;
+    }
+
+    /**
+     * Register session joined with host
+     * @param sessionId Session id
+     * @param hostId Peer id of host, null if hosted by this peer
+     * @param host Bus unique name of host, null if hosted by this peer
+     */
+    synchronized void joined(int sessionId, String hostId, String host) {
+        if (mSessionId != sessionId) {
+            mMembers.clear();
+        }
+        mSessionId = sessionId;
+        mHostId = hostId;
+        mHost = host;
+        if (host != null) {
+            mMembers.add(host);
+        }
+    }
+
+    /**
+     * Register member added to session
+     * @param sessionId Session id
+     * @param uniqueName Bus unique name of member
+     * @return boolean, true if added
+     */
+    synchronized boolean added(int sessionId, String uniqueName) {
+        return sessionId == mSessionId && mMembers.add(uniqueName);
+    }
+
+    /**
+     * Register member removed from session
+     * @param sessionId Session id
+     * @param uniqueName Bus unique name of member
+     * @return boolean, true if removed
+     */
+    synchronized boolean removed(int sessionId, String uniqueName) {
+        return sessionId == mSessionId && mMembers.remove(uniqueName);
+    }
+
+    /**
+     * Register session lost or left
+     * @param sessionId Session id
+     * @return boolean, true if current session
+     */
+    synchronized boolean lost(int sessionId) {
+        if (sessionId != mSessionId) {
+            return false;
+        }
+        mSessionId = -1;
+        mHostId = null;
+        mHost = null;
+        mMembers.clear();
+        return true;
+    }
+
+    /**
+     * Check if in session hosted by given peer
+     * @param hostId Peer id of host, null if hosted by this peer
+     * @return boolean
+     */
+    synchronized boolean isHostedBy(String hostId) {
+        return mSessionId >= 0 && (hostId == null ? mHostId == null : hostId.equals(mHostId));
+    }
+
+    /**
+     * Check if given member is host of current session
+     * @param uniqueName Bus unique name of member
+     * @return boolean
+     */
+    synchronized boolean isHost(String uniqueName) {
+        return mHost != null && mHost.equals(uniqueName);
+    }
+
+    /**
+     * Get session id
+     * @return int, -1 if not in session
+     */
+    synchronized int getSessionId() {
+        return mSessionId;
+    }
+
+    /**
+     * Get peer id of host
+     * @return String, null if hosted by this peer or not in session
+     */
+    synchronized String getHostId() {
+        return mHostId;
+    }
+
+    /**
+     * Get bus unique names of other members
+     * @return Set
+     */
+    synchronized Set<String> getMembers() {
+        return Collections.unmodifiableSet(new HashSet<>(mMembers));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: session=%d, host=%s, members=%d",
+                network, mSessionId, mHostId == null ? "me" : mHostId, mMembers.size());
+    }
+}
@@ -27,33 +27,53 @@
  */
 package org.discoos.p2p.internal;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.util.Log;
 
 import org.alljoyn.bus.AboutListener;
 import org.alljoyn.bus.AboutObj;
 import org.alljoyn.bus.AboutObjectDescription;
 import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
 import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.Mutable;
+import org.alljoyn.bus.OnJoinSessionListener;
 import org.alljoyn.bus.OnPingListener;
+import org.alljoyn.bus.SessionListener;
+import org.alljoyn.bus.SessionOpts;
 import org.alljoyn.bus.SignalEmitter;
 import org.alljoyn.bus.Status;
 import org.alljoyn.bus.Variant;
 import org.discoos.p2p.P2P;
 import org.discoos.p2p.P2PUtils;
+import org.discoos.p2p.PeerCapabilities;
 import org.discoos.p2p.PeerInfo;
 import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
 import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -84,15 +104,32 @@ final class P2PHandler implements AboutListener {
 
     private static final String TAG = "P2PHandler";
 
-    /*
-     * Load the native alljoyn_java library.  The actual AllJoyn code is
-     * written in C++ and the alljoyn_java library provides the language
-     * bindings from Java to C++ and vice versa.
+    /**
+     * Features advertised in AboutData capabilities
+     */
+    private static final int FEATURES = PeerCapabilities.FEATURE_PING | PeerCapabilities.FEATURE_BROADCAST
+            | PeerCapabilities.FEATURE_TRANSFER;
+
+    /**
+     * Native library is loaded
      */
-    static {
-        Log.i(TAG, "System.loadLibrary(\"alljoyn_java\")");
-        System.loadLibrary("alljoyn_java");
+    private static boolean sLoaded;
 
+    /**
+     * Load the native alljoyn_java library once. The actual AllJoyn code is
+     * written in C++ and the alljoyn_java library provides the language
+     * bindings from Java to C++ and vice versa. Loaded by the "native"
+     * startup stage on a background thread, and again by {@link #onInit()}
+     * in case the handler is initialized before that stage has finished,
+     * for instance when the service is restarted by the system.
+     * @see P2PContext#onCreate()
+     */
+    static synchronized void loadLibrary() {
+        if (!sLoaded) {
+            Log.i(TAG, "System.loadLibrary(\"alljoyn_java\")");
+            System.loadLibrary("alljoyn_java");
+            sLoaded = true;
+        }
     }
 
     /**
@@ -205,10 +242,22 @@ final class P2PHandler implements AboutListener {
             public boolean execute(Message msg) {
                 return onBroadcast((Event)msg.obj);
             }
+        }).in(new P2PHandle(P2P.ANNOUNCE) {
+            public boolean execute(Message msg) {
+                return onAnnounce((Long)msg.obj);
+            }
         }).in(new P2PHandle(P2P.CANCEL) {
             public boolean execute(Message msg) {
                 return onCancel((Event)msg.obj);
             }
+        }).in(new P2PHandle(P2P.SEND) {
+            public boolean execute(Message msg) {
+                return onSend((P2PMessage)msg.obj);
+            }
+        }).in(new P2PHandle(P2P.TRANSFER) {
+            public boolean execute(Message msg) {
+                return onTransfer((P2PTransfer)msg.obj);
+            }
         }).in(new P2PHandle(P2P.PING) {
             public boolean execute(Message msg) {
                 return onPing(msg);
@@ -229,10 +278,26 @@ final class P2PHandler implements AboutListener {
         return new Handler(looper, new Handler.Callback() {
             @Override
             public boolean handleMessage(Message msg) {
+                mQueueDepth.decrementAndGet();
                 handle(msg, mInbound);
+                onLoadChanged();
                 return true;
             }
-        });
+        }) {
+            @Override
+            public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+                /* Count signals only, posted callbacks are not handled by callback above */
+                boolean signal = msg.getCallback() == null;
+                if (signal) {
+                    mQueueDepth.incrementAndGet();
+                }
+                boolean queued = super.sendMessageAtTime(msg, uptimeMillis);
+                if (signal && !queued) {
+                    mQueueDepth.decrementAndGet();
+                }
+                return queued;
+            }
+        };
 
     }
 
@@ -263,6 +328,16 @@ final class P2PHandler implements AboutListener {
                 mDispatcher.raise(P2P.LEFT, msg.obj);
                 return false;
             }
+        }).out(new P2PHandle(P2P.RECEIVED) {
+            public boolean execute(Message msg) {
+                mDispatcher.raise(P2P.RECEIVED, msg.obj);
+                return false;
+            }
+        }).out(new P2PHandle(P2P.TRANSFERRED) {
+            public boolean execute(Message msg) {
+                mDispatcher.raise(P2P.TRANSFERRED, msg.obj);
+                return false;
+            }
         });
 
         /**
@@ -291,6 +366,7 @@ final class P2PHandler implements AboutListener {
             error(String.format(msg, mAppName));
             return false;
         }
+        loadLibrary();
         mBus = new BusAttachment(mAppName, BusAttachment.RemoteMessage.Receive);
         mAboutObj = new AboutObj(mBus);
 
@@ -304,6 +380,25 @@ final class P2PHandler implements AboutListener {
         }
 
         mAboutData = new P2PAboutData(mBus.getUniqueName());
+        mProfileObserver = new ContentObserver(mInboundHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                P2PAboutData.invalidate();
+                onAnnounce(null);
+            }
+        };
+        P2P.getApplication().getContentResolver().registerContentObserver(
+                ContactsContract.Profile.CONTENT_URI, true, mProfileObserver);
+        mBatteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mBatteryLevel = P2PUtils.getBatteryLevel(intent);
+                mFreeStorage = P2PUtils.getFreeStorage();
+                onLoadChanged();
+            }
+        };
+        P2P.getApplication().registerReceiver(mBatteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, mInboundHandler);
         mBusEndpoint = new P2PBusEndpointImpl(mOutboundHandler);
         if(!mBusEndpoint.onRegister(mBus)) {
             error(String.format("Failed to register bus endpoint, status: %s", mBusEndpoint));
@@ -356,10 +451,11 @@ final class P2PHandler implements AboutListener {
                 for (AboutObjectDescription it : descriptions) {
                     if (P2PUtils.contains(it.interfaces, P2PNetworkEndpoint.NAME)) {
                         String name = it.path.substring(1).replaceAll("/", "\\.");
-                        String msg = "ANNOUNCED: %s@%s%s";
-                        Log.i(TAG, String.format(msg, P2PUtils.toShortId(data), name, busName));
+                        P2PEventJournal.getInstance().record(P2PEventJournal.ANNOUNCED,
+                                P2PUtils.toShortId(data), name, 0, 0);
                         PeerInfoImpl info = PeerInfoCache.getInstance().newInstance(data).add(name, port);
                         P2PUtils.raise(P2P.ANNOUNCED, mOutboundHandler, info);
+                        onGroupDiscovered(name);
                     }
                 }
             }
@@ -372,10 +468,34 @@ final class P2PHandler implements AboutListener {
      * @param name Network name
      * @return boolean
      */
-    boolean join(String name) {
-        return P2PUtils.raise(P2P.JOIN, mInboundHandler, name);
+    boolean join(String name, boolean group) {
+        return P2PUtils.raise(P2P.JOIN, mInboundHandler, new Object[]{name, group});
     }
 
+    /**
+     * Join group session of network hosted by member with lowest peer id,
+     * on background thread
+     * @param name Network name
+     */
+    private void onGroupDiscovered(String name) {
+
+        P2PNetworkEndpointImpl endpoint = mNetworkEndpointMap.get(name);
+        if(endpoint == null || P2PGroup.get(name) == null) {
+            return;
+        }
+        endpoint.onGroupElect(null);
+    }
+
+    /**
+     * Executor of group host elections on handler thread
+     */
+    private final Executor mElections = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mInboundHandler.post(command);
+        }
+    };
+
     /**
      * About object registered with bus attachment in {@link #onInit()}
      */
@@ -386,6 +506,157 @@ final class P2PHandler implements AboutListener {
      */
     private P2PAboutData mAboutData;
 
+    /**
+     * Observer of owner profile shown in AboutData
+     */
+    private ContentObserver mProfileObserver;
+
+    /**
+     * Receiver of battery changes, sampling load advertised in AboutData
+     */
+    private BroadcastReceiver mBatteryReceiver;
+
+    /**
+     * Battery level in percent, sampled on bus thread
+     */
+    private int mBatteryLevel = PeerCapabilities.BATTERY_UNKNOWN;
+
+    /**
+     * Free storage in bytes, sampled on bus thread, -1 until sampled
+     */
+    private long mFreeStorage = -1;
+
+    /**
+     * Number of inbound signals waiting to be handled
+     */
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+
+    /**
+     * Load level of inbound signals, used on bus thread
+     */
+    private final P2PLoadLevel mLoadLevel = new P2PLoadLevel(P2P.LOAD_HOLD_TIME);
+
+    /**
+     * Publish load level when held, posted on bus thread
+     */
+    private final Runnable mLoadTask = new Runnable() {
+        @Override
+        public void run() {
+            mLoadScheduled = false;
+            onLoadChanged();
+        }
+    };
+
+    private boolean mLoadScheduled;
+
+    /**
+     * Announcement manager of AboutData, used on bus thread
+     */
+    private final P2PAnnouncer mAnnouncer = new P2PAnnouncer(
+            P2P.ANNOUNCE_MIN_INTERVAL, P2P.ANNOUNCE_SETTLE_DELAY);
+
+    /**
+     * Announce AboutData when due, posted on bus thread
+     */
+    private final Runnable mAnnounceTask = new Runnable() {
+        @Override
+        public void run() {
+            onAnnounceDue();
+        }
+    };
+
+    /**
+     * Announce AboutData again if changed
+     * @param minInterval Minimum interval between announcements in milliseconds
+     * @return boolean
+     */
+    boolean announce(long minInterval) {
+        return P2PUtils.raise(P2P.ANNOUNCE, mInboundHandler, minInterval);
+    }
+
+    /**
+     * Handle announce on background thread. Rapid requests are merged into
+     * one announcement which is rate limited by {@link P2PAnnouncer}.
+     * @param minInterval Minimum interval in milliseconds, null if unchanged
+     * @return boolean
+     */
+    private boolean onAnnounce(Long minInterval) {
+
+        if(!isConnected()) {
+            /* Announced when joined */
+            return false;
+        }
+
+        if(minInterval != null) {
+            mAnnouncer.setMinInterval(minInterval);
+        }
+
+        long delay = mAnnouncer.request(SystemClock.elapsedRealtime());
+        if(delay >= 0) {
+            mInboundHandler.postDelayed(mAnnounceTask, delay);
+        }
+        return true;
+    }
+
+    /**
+     * Advertise capabilities and load in AboutData, announced again
+     * only when a load value crosses a level threshold. A new queue
+     * load level is published when it has held for {@link P2P#LOAD_HOLD_TIME}.
+     */
+    private void onLoadChanged() {
+
+        if(!isConnected() || mFreeStorage < 0) {
+            return;
+        }
+
+        long delay = mLoadLevel.update(mQueueDepth.get(), SystemClock.elapsedRealtime());
+        if(delay >= 0 && !mLoadScheduled) {
+            mLoadScheduled = true;
+            mInboundHandler.postDelayed(mLoadTask, delay);
+        }
+
+        PeerCapabilities capabilities = PeerCapabilities.of(FEATURES,
+                mBatteryLevel, mLoadLevel.getLevel(), mFreeStorage);
+        if(mAboutData.setCapabilities(capabilities)) {
+            onAnnounce(null);
+        }
+    }
+
+    /**
+     * Handle due announcement on background thread. AboutData is only
+     * announced if its content has changed since last announced.
+     */
+    private void onAnnounceDue() {
+
+        if(!isConnected()) {
+            return;
+        }
+
+        long delay = mAnnouncer.run(SystemClock.elapsedRealtime(), new P2PAnnouncer.Target() {
+            @Override
+            public int getHash() {
+                return mAboutData.getHash();
+            }
+
+            @Override
+            public boolean announce() {
+                boolean announced = true;
+                for(P2PNetworkEndpointImpl it : mNetworkEndpointMap.values()) {
+                    Status status = mAboutObj.announce(it.mPort, mAboutData);
+                    if (status != Status.OK) {
+                        String msg = "Failed to announce network endpoint %s, status: %s, code: %s";
+                        error(String.format(msg, it.mName, status.name(), status.getErrorCode()));
+                        announced = false;
+                    }
+                }
+                return announced;
+            }
+        });
+        if(delay >= 0) {
+            mInboundHandler.postDelayed(mAnnounceTask, delay);
+        }
+    }
+
     /**
      * Handle join network
      * @param info NetworkInfo
@@ -396,7 +667,8 @@ final class P2PHandler implements AboutListener {
         P2PNetworkEndpointImpl endpoint = mNetworkEndpointMap.get(info.name);
 
         if(endpoint == null) {
-            endpoint = new P2PNetworkEndpointImpl(info.name, info.port, mOutboundHandler);
+            endpoint = new P2PNetworkEndpointImpl(info.name, info.port, mOutboundHandler, mTransfers,
+                    mElections, info.group);
             mNetworkEndpointMap.put(info.name, endpoint);
         } else {
             String msg = "Already joined network %s on bus %s%s";
@@ -409,6 +681,11 @@ final class P2PHandler implements AboutListener {
         }
 
         Status status = mAboutObj.announce(info.port, mAboutData);
+        if (status == Status.OK) {
+            mAnnouncer.announced(mAboutData.getHash(), SystemClock.elapsedRealtime());
+        }
+        P2PEventJournal.getInstance().record(P2PEventJournal.JOIN, null, info.name, 0,
+                status == Status.OK ? 0 : status.getErrorCode());
         if (status != Status.OK) {
             String msg = "Failed to announce network endpoint, status: %s, code: %s";
             error(String.format(msg, status.name(), status.getErrorCode()));
@@ -443,6 +720,8 @@ final class P2PHandler implements AboutListener {
         if(!endpoint.onLeave()) {
             return false;
         }
+        mSessionPool.close(name);
+        P2PEventJournal.getInstance().record(P2PEventJournal.LEAVE, null, name, 0, 0);
         if(!onBroadcast(new Event(P2P.LEFT, this, new String[]{name}))) {
             String msg = "Failed to broadcast P2P.LEFT for network %s";
             warning(String.format(msg, name));
@@ -469,7 +748,9 @@ final class P2PHandler implements AboutListener {
         PeerInfo info = (PeerInfo)((Object[])msg.obj)[0];
         int timeout = (int)((Object[])msg.obj)[1];
 
-        Log.i(TAG, String.format("onPing(): %s", info.getName()));
+        final P2PEventJournal journal = P2PEventJournal.getInstance();
+        final long start = SystemClock.elapsedRealtime();
+        journal.record(P2PEventJournal.PING, info.getId(), null, 0, 0);
 
         /* Invoke asynchronous ping request */
         Status status = mBus.ping(info.getName(), timeout, new OnPingListener() {
@@ -485,9 +766,19 @@ final class P2PHandler implements AboutListener {
                      * there no need for post on inbound handler */
 
                     PeerInfoImpl info = (PeerInfoImpl) observable;
+
+                    /* Resolve current instance, given instance may be replaced since ping */
+                    PeerInfoImpl current = PeerInfoCache.getInstance().getByUniqueName(info.name);
+                    if (current != null && current.id.equals(info.id)) {
+                        info = current;
+                    }
+
+                    int latency = (int) (SystemClock.elapsedRealtime() - start);
                     if (Status.OK == status) {
+                        journal.record(P2PEventJournal.PING_REPLY, info.id, null, latency, 0);
                         P2PUtils.raise(P2P.ALIVE, mOutboundHandler, info.alive());
                     } else {
+                        journal.record(P2PEventJournal.PING_FAILED, info.id, null, latency, status.getErrorCode());
                         P2PUtils.raise(P2P.TIMEOUT, mOutboundHandler, info.timeout());
                     }
 
@@ -498,6 +789,320 @@ final class P2PHandler implements AboutListener {
         return Status.OK == status;
     }
 
+    /**
+     * Pool of sessions joined with peers, used on bus thread
+     */
+    private final P2PSessionPool mSessionPool = new P2PSessionPool(new P2PSessionPool.Connector() {
+        @Override
+        public boolean join(P2PSessionPool.Session session, short port) {
+            return onJoinSession(session, port);
+        }
+
+        @Override
+        public P2PNetworkEndpoint open(String network, int id) {
+            SignalEmitter emitter = new SignalEmitter(mNetworkEndpointMap.get(network), id,
+                    SignalEmitter.GlobalBroadcast.Off);
+            return emitter.getInterface(P2PNetworkEndpoint.class);
+        }
+
+        @Override
+        public void leave(int id) {
+            Status status = mBus.leaveSession(id);
+            P2PEventJournal.getInstance().record(P2PEventJournal.SESSION_LEAVE, null, null, 0,
+                    status == Status.OK ? 0 : status.getErrorCode());
+        }
+    }, P2P.SESSION_IDLE_TIMEOUT, P2P.SESSION_PENDING_MESSAGES);
+
+    /**
+     * Remove sessions lost by bus from pool, called on router thread
+     */
+    private final SessionListener mSessionListener = new SessionListener() {
+        @Override
+        public void sessionLost(final int sessionId, int reason) {
+            mInboundHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mSessionPool.lost(sessionId);
+                }
+            });
+        }
+    };
+
+    /**
+     * Close idle sessions, posted on bus thread while sessions are pooled
+     */
+    private final Runnable mEvictTask = new Runnable() {
+        @Override
+        public void run() {
+            mEvictScheduled = false;
+            if(isConnected()) {
+                scheduleEvict(mSessionPool.evict(SystemClock.elapsedRealtime()));
+            }
+        }
+    };
+
+    private boolean mEvictScheduled;
+
+    /* Send message to peer */
+    boolean send(P2PMessage message) {
+        return P2PUtils.raise(P2P.SEND, mInboundHandler, message);
+    }
+
+    /**
+     * Handle send message on background thread. The session with the peer
+     * is joined on first message and reused until idle, messages are queued
+     * in the session until joined.
+     * @return boolean
+     */
+    private boolean onSend(P2PMessage message) {
+
+        if(!isReady("onSend")) {
+            return false;
+        }
+
+        P2PNetworkEndpointImpl endpoint = mNetworkEndpointMap.get(message.network);
+        if(endpoint == null) {
+            warning(String.format("onSend(): Network %s not joined", message.network));
+            return false;
+        }
+
+        if(message.peer == null) {
+            return onSendGroup(endpoint, message);
+        }
+
+        short port = message.peer.getPort(message.network);
+        P2PSessionPool.Session session = mSessionPool.acquire(message.peer.id, message.peer.name,
+                message.network, port, SystemClock.elapsedRealtime());
+        if(session == null) {
+            return false;
+        }
+        scheduleEvict(P2P.SESSION_IDLE_TIMEOUT);
+
+        if(!session.isJoined()) {
+            if(!session.offer(message.data)) {
+                warning(String.format("onSend(): Session with %s is joining, queue is full", message.peer.id));
+                return false;
+            }
+            return true;
+        }
+        return emit(session, message.data);
+    }
+
+    /**
+     * Emit message in joined session on background thread
+     * @return boolean
+     */
+    private boolean emit(P2PSessionPool.Session session, byte[] data) {
+        try {
+            session.emitter.message(data);
+            P2PEventJournal.getInstance().record(P2PEventJournal.SEND, session.peerId,
+                    session.network, 0, 0);
+        } catch (BusException e) {
+            /* Session is rejoined by next message */
+            mSessionPool.close(session);
+            exception(String.format("Failed to send message to %s in network %s",
+                    session.peerId, session.network), e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send message to members of group session on background thread
+     * @return boolean
+     */
+    private boolean onSendGroup(P2PNetworkEndpointImpl endpoint, P2PMessage message) {
+        try {
+            if(!endpoint.onGroupSend(message.data)) {
+                warning(String.format("onSend(): Not in group session of network %s", message.network));
+                return false;
+            }
+            P2PEventJournal.getInstance().record(P2PEventJournal.GROUP_SEND, null,
+                    message.network, 0, 0);
+        } catch (BusException e) {
+            exception(String.format("Failed to send group message %s", message), e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start joining session with peer on background thread, the bus thread
+     * is not blocked while the peer answers.
+     * @return boolean, false if join could not be started
+     */
+    private boolean onJoinSession(P2PSessionPool.Session session, short port) {
+
+        SessionOpts opts = mNetworkEndpointMap.get(session.network).createSessionOpts();
+        final long start = SystemClock.elapsedRealtime();
+        Status status = mBus.joinSession(session.uniqueName, port, opts, mSessionListener,
+                new OnJoinSessionListener() {
+            @Override
+            public void onJoinSession(final Status status, final int sessionId,
+                                      SessionOpts opts, final Object context) {
+                /* Invoked on router thread, pool is only used on bus thread */
+                mInboundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSessionJoined((P2PSessionPool.Session) context, status, sessionId, start);
+                    }
+                });
+            }
+        }, session);
+        if (status != Status.OK) {
+            onSessionJoined(session, status, -1, start);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Complete session join on background thread, messages queued while
+     * joining are sent, or dropped if join failed.
+     */
+    private void onSessionJoined(P2PSessionPool.Session session, Status status, int id, long start) {
+
+        int latency = (int) (SystemClock.elapsedRealtime() - start);
+        P2PEventJournal.getInstance().record(P2PEventJournal.SESSION_JOIN, session.peerId,
+                session.network, latency, status == Status.OK ? 0 : status.getErrorCode());
+
+        if (status != Status.OK) {
+            int dropped = mSessionPool.failed(session);
+            String msg = "Failed to join session with %s in network %s, status: %s, code: %s, dropped %d messages";
+            error(String.format(msg, session.uniqueName, session.network, status.name(),
+                    status.getErrorCode(), dropped));
+            return;
+        }
+
+        if (!isConnected()) {
+            return;
+        }
+
+        /* Closed while joining */
+        if (!mSessionPool.joined(session, id)) {
+            session.drain();
+            return;
+        }
+
+        for (byte[] data : session.drain()) {
+            if (!emit(session, data)) {
+                break;
+            }
+        }
+    }
+
+    private void scheduleEvict(long delay) {
+        if(delay >= 0 && !mEvictScheduled) {
+            mEvictScheduled = true;
+            mInboundHandler.postDelayed(mEvictTask, delay);
+        }
+    }
+
+    /**
+     * Executor of bulk transfers, keeping blocking socket I/O off the bus thread
+     */
+    private final ExecutorService mTransfers = Executors.newCachedThreadPool();
+
+    /* Transfer file to peer */
+    boolean transfer(P2PTransfer transfer) {
+        return P2PUtils.raise(P2P.TRANSFER, mInboundHandler, transfer);
+    }
+
+    /**
+     * Handle transfer on background thread. A raw reliable session is joined
+     * asynchronously with the peer, and its socket is handed to a transfer thread.
+     * @return boolean, false if join could not be started
+     */
+    private boolean onTransfer(final P2PTransfer transfer) {
+
+        if(!isReady("onTransfer")) {
+            return false;
+        }
+
+        P2PNetworkEndpointImpl endpoint = mNetworkEndpointMap.get(transfer.network);
+        if(endpoint == null) {
+            warning(String.format("onTransfer(): Network %s not joined", transfer.network));
+            return false;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        short port = P2PNetworkEndpointImpl.toRawPort(transfer.peer.getPort(transfer.network));
+        Status status = mBus.joinSession(transfer.peer.name, port, endpoint.createRawSessionOpts(),
+                new SessionListener(), new OnJoinSessionListener() {
+            @Override
+            public void onJoinSession(final Status status, final int sessionId,
+                                      SessionOpts opts, Object context) {
+                /* Invoked on router thread, socket is opened on bus thread */
+                mInboundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTransferJoined(transfer, status, sessionId, start);
+                    }
+                });
+            }
+        }, null);
+        if (status != Status.OK) {
+            onTransferJoined(transfer, status, -1, start);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hand socket of joined transfer session to transfer thread, on background thread
+     */
+    private void onTransferJoined(final P2PTransfer transfer, Status status, int id, final long start) {
+        if (status == Status.OK) {
+            if (!isConnected()) {
+                return;
+            }
+            Mutable.IntegerValue fd = new Mutable.IntegerValue();
+            status = mBus.getSessionFd(id, fd);
+            if (status == Status.OK) {
+                final ParcelFileDescriptor socket = ParcelFileDescriptor.adoptFd(fd.value);
+                mTransfers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTransferred(transfer, socket, start);
+                    }
+                });
+                return;
+            }
+            mBus.leaveSession(id);
+        }
+        int latency = (int) (SystemClock.elapsedRealtime() - start);
+        P2PEventJournal.getInstance().record(P2PEventJournal.TRANSFER_SENT, transfer.peer.id,
+                transfer.network, latency, status.getErrorCode());
+        String msg = "Failed to open transfer session %s, status: %s, code: %s";
+        error(String.format(msg, transfer, status.name(), status.getErrorCode()));
+    }
+
+    /**
+     * Stream file to session socket on transfer thread
+     */
+    private void onTransferred(P2PTransfer transfer, ParcelFileDescriptor socket, long start) {
+        int status = 0;
+        FileOutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(socket);
+        try {
+            FileInputStream in = new FileInputStream(transfer.file);
+            try {
+                P2PTransfer.write(transfer.file.getName(), in.getChannel(), out.getChannel());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            status = Status.FAIL.getErrorCode();
+            exception(String.format("Failed to transfer %s", transfer), e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) { /*CONSUME*/ }
+        }
+        int latency = (int) (SystemClock.elapsedRealtime() - start);
+        P2PEventJournal.getInstance().record(P2PEventJournal.TRANSFER_SENT, transfer.peer.id,
+                transfer.network, latency, status);
+    }
+
     /* Broadcast signal to all peers in network */
     boolean broadcast(Event event) {
         return P2PUtils.raise(P2P.BROADCAST, mInboundHandler, event);
@@ -529,12 +1134,16 @@ final class P2PHandler implements AboutListener {
             switch(signal) {
                 case P2P.ALIVE:
                     broadcast.alive(P2PAboutData.getAppId(), mBus.getUniqueName());
-                    Log.i(TAG, String.format(msg, "Alive " + mBus.getUniqueName()));
+                    P2PEventJournal.getInstance().record(P2PEventJournal.BROADCAST_ALIVE,
+                            null, null, 0, 0);
                     break;
                 case P2P.LEFT:
                     String[] networks = (String[])event.getObservable();
                     broadcast.left(P2PAboutData.getAppId(), networks);
-                    Log.i(TAG, String.format(msg, "Left networks " + Arrays.toString(networks)));
+                    for (String network : networks) {
+                        P2PEventJournal.getInstance().record(P2PEventJournal.BROADCAST_LEFT,
+                                null, network, 0, 0);
+                    }
                     break;
                 default:
                     Log.i(TAG, String.format(msg, "Unknown signal " + event));
@@ -635,6 +1244,7 @@ final class P2PHandler implements AboutListener {
                 mAboutObj.unannounce();
             }
 
+            mSessionPool.closeAll();
             mBusEndpoint.onUnRegister();
 
             for(P2PNetworkEndpointImpl it : mNetworkEndpointMap.values()) {
@@ -653,6 +1263,20 @@ final class P2PHandler implements AboutListener {
         mBus = null;
         mAboutObj = null;
         mAboutData = null;
+        mInboundHandler.removeCallbacks(mAnnounceTask);
+        mInboundHandler.removeCallbacks(mEvictTask);
+        mEvictScheduled = false;
+        mInboundHandler.removeCallbacks(mLoadTask);
+        mLoadScheduled = false;
+        mAnnouncer.reset();
+        if(mProfileObserver != null) {
+            P2P.getApplication().getContentResolver().unregisterContentObserver(mProfileObserver);
+            mProfileObserver = null;
+        }
+        if(mBatteryReceiver != null) {
+            P2P.getApplication().unregisterReceiver(mBatteryReceiver);
+            mBatteryReceiver = null;
+        }
         mBusEndpoint = null;
 
         mInbound.clear();
@@ -733,9 +1357,11 @@ final class P2PHandler implements AboutListener {
 
     private NetworkInfo createNetworkInfo(Object args) {
         String name;
+        boolean group;
         short port = 0;
         try {
-            name = String.valueOf(args);
+            name = String.valueOf(((Object[]) args)[0]);
+            group = (boolean) ((Object[]) args)[1];
             /** Ensure monotonously increasing port number */
             for(P2PNetworkEndpointImpl it : mNetworkEndpointMap.values()) {
                 port = (short)Math.max((int)port, (int)it.mPort);
@@ -746,16 +1372,18 @@ final class P2PHandler implements AboutListener {
             error(String.format(msg, args, e.toString()));
             return null;
         }
-        return new NetworkInfo(name, port);
+        return new NetworkInfo(name, port, group);
     }
 
     private final class NetworkInfo {
         final String name;
         final short port;
+        final boolean group;
 
-        public NetworkInfo(String name, short port) {
+        public NetworkInfo(String name, short port, boolean group) {
             this.name = name;
             this.port = port;
+            this.group = group;
         }
     }
 
@@ -0,0 +1,213 @@
+package org.discoos.p2p.internal;
+
+import android.util.Log;
+
+import org.discoos.p2p.P2P;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of store changes.
+ *
+ * <pre>
+ * journal := header { frame }
+ * header  := magic(4) version(1) kind(1) base(4)
+ * frame   := varint(length) entry crc
+ * crc     := CRC32 of entry (4, big-endian)
+ * </pre>
+ *
+ * The base is the checksum trailer of the snapshot the journal applies to. A
+ * journal left behind by a crash between writing a new snapshot and resetting
+ * the journal does not match the new snapshot, and is discarded on replay
+ * instead of replaying stale entries over newer state.
+ *
+ * A frame torn by a crash is detected on replay and truncated, so entries
+ * appended afterwards are not lost behind it. The journal is folded into the
+ * snapshot by compaction, after which it is reset.
+ *
+ * @see P2PCodec
+ */
+final class P2PJournal {
+
+    private static final String TAG = "P2PJournal";
+
+    /**
+     * Magic number "P2PJ"
+     */
+    static final int MAGIC = 0x5032504A;
+
+    private static final int HEADER_SIZE = 10;
+
+    private final File mFile;
+
+    private final File mSnapshot;
+
+    private final int mKind;
+
+    /**
+     * Create journal
+     * @param root Root directory
+     * @param filename Journal file name
+     * @param snapshot Snapshot file name
+     * @param kind Record kind
+     */
+    P2PJournal(String root, String filename, String snapshot, int kind) {
+        mFile = new File(root, filename);
+        mSnapshot = new File(root, snapshot);
+        mKind = kind;
+    }
+
+    /**
+     * Check if journal should be folded into snapshot
+     * @param journal Journal size in bytes
+     * @param snapshot Snapshot size in bytes
+     * @return boolean
+     */
+    static boolean isCompactable(long journal, long snapshot) {
+        return journal > Math.max(P2P.CACHE_JOURNAL_MIN_SIZE, snapshot * P2P.CACHE_JOURNAL_RATIO);
+    }
+
+    /**
+     * Get journal size in bytes
+     * @return long
+     */
+    long length() {
+        return mFile.length();
+    }
+
+    /**
+     * Append entries to journal
+     * @param entries Encoded entries
+     * @throws IOException If entries could not be written
+     */
+    void append(List<byte[]> entries) throws IOException {
+        P2PCodec.Buffer buffer = new P2PCodec.Buffer();
+        if(mFile.length() < HEADER_SIZE) {
+            buffer.ensure(HEADER_SIZE);
+            P2PCodec.writeInt(buffer.mData, 0, MAGIC);
+            buffer.mSize = 4;
+            buffer.writeByte(P2PCodec.VERSION);
+            buffer.writeByte(mKind);
+            buffer.ensure(4);
+            P2PCodec.writeInt(buffer.mData, buffer.mSize, getBase());
+            buffer.mSize += 4;
+        }
+        CRC32 crc = new CRC32();
+        for(byte[] entry : entries) {
+            buffer.writeBlob(entry);
+            crc.reset();
+            crc.update(entry, 0, entry.length);
+            buffer.ensure(4);
+            P2PCodec.writeInt(buffer.mData, buffer.mSize, (int) crc.getValue());
+            buffer.mSize += 4;
+        }
+        FileOutputStream out = new FileOutputStream(mFile, mFile.length() >= HEADER_SIZE);
+        try {
+            out.write(buffer.mData, 0, buffer.mSize);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read all valid entries in journal. A torn or corrupt tail is truncated.
+     * @param base Checksum trailer of loaded snapshot, 0 if none
+     * @return List of encoded entries
+     * @throws IOException If journal could not be read
+     */
+    List<byte[]> replay(int base) throws IOException {
+        List<byte[]> entries = new ArrayList<>();
+        if(!mFile.exists()) {
+            return entries;
+        }
+        byte[] data = new byte[(int) mFile.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        if(data.length < HEADER_SIZE || P2PCodec.readInt(data, 0) != MAGIC
+                || (data[4] & 0xFF) > P2PCodec.VERSION || (data[5] & 0xFF) != mKind) {
+            Log.w(TAG, String.format("Discarded invalid journal [%s]", mFile));
+            reset();
+            return entries;
+        }
+        if(P2PCodec.readInt(data, 6) != base) {
+            Log.w(TAG, String.format("Discarded journal [%s] not matching snapshot", mFile));
+            reset();
+            return entries;
+        }
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while(position < data.length) {
+            int length = 0;
+            int next = position;
+            for(int shift = 0; next < data.length && shift < 32; shift += 7) {
+                int b = data[next++] & 0xFF;
+                length |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if(length < 0 || next + length + 4 > data.length) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, next, length);
+            if((int) crc.getValue() != P2PCodec.readInt(data, next + length)) {
+                break;
+            }
+            byte[] entry = new byte[length];
+            System.arraycopy(data, next, entry, 0, length);
+            entries.add(entry);
+            position = next + length + 4;
+        }
+        if(position < data.length) {
+            Log.w(TAG, String.format("Truncated torn journal [%s] at %d of %d bytes",
+                    mFile, position, data.length));
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(position);
+            } finally {
+                file.close();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Get checksum trailer of live snapshot
+     * @return int, 0 if no snapshot
+     * @throws IOException If snapshot could not be read
+     */
+    private int getBase() throws IOException {
+        if(mSnapshot.length() < 4) {
+            return 0;
+        }
+        RandomAccessFile file = new RandomAccessFile(mSnapshot, "r");
+        try {
+            file.seek(file.length() - 4);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reset journal after compaction
+     */
+    void reset() {
+        if(mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, String.format("Failed to delete journal [%s]", mFile));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.PeerCapabilities;
+
+/**
+ * Load level of signal queue advertised in AboutData.
+ *
+ * Queue depth is mapped to idle, busy and overloaded levels with hysteresis,
+ * a level is left only when the depth falls to a quarter of the depth at
+ * which it was entered. A new level is only published when it has held for
+ * the hold time, so short bursts are not announced.
+ *
+ * Only used on bus thread, times are given by the caller.
+ */
+final class P2PLoadLevel {
+
+    private final long mHoldTime;
+
+    /**
+     * Published level
+     */
+    private int mLevel = PeerCapabilities.LOAD_IDLE;
+
+    /**
+     * Current level of queue, published when held since {@link #mSince}
+     */
+    private int mCurrent = PeerCapabilities.LOAD_IDLE;
+
+    private long mSince;
+
+    /**
+     * Create load level
+     * @param holdTime Minimum time a level must hold before published in milliseconds
+     */
+    P2PLoadLevel(long holdTime) {
+        mHoldTime = holdTime;
+    }
+
+    /**
+     * Update with current queue depth
+     * @param queueDepth Number of signals waiting to be handled
+     * @param now Current time in milliseconds
+     * @return Delay until current level is published in milliseconds, -1 if published
+     */
+    long update(int queueDepth, long now) {
+        int level = next(mCurrent, queueDepth);
+        if (level != mCurrent) {
+            mCurrent = level;
+            mSince = now;
+        }
+        if (mCurrent == mLevel) {
+            return -1;
+        }
+        if (now - mSince >= mHoldTime) {
+            mLevel = mCurrent;
+            return -1;
+        }
+        return mSince + mHoldTime - now;
+    }
+
+    /**
+     * Get published level
+     * @return int, see PeerCapabilities LOAD_* levels
+     */
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Get level of queue depth given current level
+     * @param level Current level
+     * @param queueDepth Number of signals waiting to be handled
+     * @return int
+     */
+    static int next(int level, int queueDepth) {
+        int entered = PeerCapabilities.toLoad(queueDepth);
+        if (entered >= level) {
+            return entered;
+        }
+        /* Leave level only when well below its threshold */
+        int threshold = level == PeerCapabilities.LOAD_OVERLOADED
+                ? PeerCapabilities.OVERLOADED_QUEUE_DEPTH : PeerCapabilities.BUSY_QUEUE_DEPTH;
+        return queueDepth <= threshold / 4 ? next(level - 1, queueDepth) : level;
+    }
+}
@@ -0,0 +1,202 @@
+package org.discoos.p2p.internal;
+
+import android.util.Log;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming export of logcat to a gzip file.
+ *
+ * Output of {@code logcat -d -v threadtime} is piped through a gzip stream
+ * in fixed-size chunks, so memory use does not depend on the size of the
+ * log. With a query, lines are parsed one at a time and only matching
+ * lines are written.
+ */
+public final class P2PLogExport {
+
+    private static final String TAG = "P2PLogExport";
+
+    /**
+     * Size of copy and gzip buffers
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private P2PLogExport() { }
+
+    /**
+     * Export logcat to file
+     * @param file Gzip file
+     * @param query Log query, empty exports all lines
+     * @return Summary
+     * @throws IOException if logcat could not be read or file not written
+     */
+    public static Summary export(File file, String query) throws IOException {
+        Process process = Runtime.getRuntime().exec(new String[]{"logcat", "-d", "-v", "threadtime"});
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                Summary summary = export(process.getInputStream(), out, P2PLogQuery.compile(query));
+                Log.i(TAG, String.format("Exported %s to [%s]", summary, file));
+                return summary;
+            } finally {
+                out.close();
+            }
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Export log from stream
+     * @param in Log lines in threadtime format
+     * @param out Stream written as gzip, not closed
+     * @param query Compiled query
+     * @return Summary
+     * @throws IOException if not read or written
+     */
+    static Summary export(InputStream in, OutputStream out, P2PLogQuery query) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        GZIPOutputStream gzip = new GZIPOutputStream(counter, CHUNK_SIZE);
+        Summary summary;
+        if (query.isEmpty()) {
+            summary = copy(in, gzip);
+        } else {
+            summary = filter(in, gzip, query);
+        }
+        gzip.finish();
+        gzip.flush();
+        summary.mCompressed = counter.mCount;
+        return summary;
+    }
+
+    private static Summary copy(InputStream in, OutputStream out) throws IOException {
+        Summary summary = new Summary();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int count;
+        while ((count = in.read(chunk)) != -1) {
+            out.write(chunk, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (chunk[i] == '\n') {
+                    summary.mLines++;
+                }
+            }
+            summary.mSize += count;
+        }
+        summary.mExported = summary.mLines;
+        return summary;
+    }
+
+    private static Summary filter(InputStream in, OutputStream out, P2PLogQuery query) throws IOException {
+        Summary summary = new Summary();
+        P2PLogParser parser = new P2PLogParser();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), CHUNK_SIZE);
+        /* Count encoded bytes, as copied without query */
+        CountingOutputStream counter = new CountingOutputStream(out);
+        Writer writer = new OutputStreamWriter(counter, "UTF-8");
+        String line;
+        while ((line = reader.readLine()) != null) {
+            summary.mLines++;
+            LogItem item = parser.parse(line);
+            if (item != null && query.matches(item)) {
+                writer.write(line);
+                writer.write('\n');
+                summary.mExported++;
+            }
+        }
+        writer.flush();
+        summary.mSize = counter.mCount;
+        return summary;
+    }
+
+    /**
+     * Export summary
+     */
+    public static final class Summary {
+
+        private long mLines;
+
+        private long mExported;
+
+        private long mSize;
+
+        private long mCompressed;
+
+        /**
+         * Get number of lines read
+         * @return long
+         */
+        public long getLines() {
+            return mLines;
+        }
+
+        /**
+         * Get number of lines exported
+         * @return long
+         */
+        public long getExported() {
+            return mExported;
+        }
+
+        /**
+         * Get uncompressed size of exported lines
+         * @return long, number of bytes
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * Get size of exported file
+         * @return long
+         */
+        public long getCompressed() {
+            return mCompressed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d lines, %d KB (%d KB compressed)",
+                    mExported, mLines, mSize / 1024, mCompressed / 1024);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+    }
+
+}
@@ -0,0 +1,464 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of log items by sequence number.
+ *
+ * Tags and levels are indexed exactly. Thread, tag, level and message are
+ * split into lower case tokens of letters and digits, and the vocabulary
+ * of tokens is indexed by each substring of up to {@link #GRAM} characters.
+ * A text term selects items with tokens containing each token of the text,
+ * so substring semantics are kept while only tokens sharing a gram with the
+ * term are visited. A query is answered with a superset of matching sequence
+ * numbers, which the caller verifies with {@link P2PLogQuery#matches(LogItem)}
+ * unless the answer is exact, see {@link #isExact(P2PLogQuery)}. Evicted
+ * sequence numbers are ignored until postings are compacted, once per
+ * capacity evictions.
+ *
+ * Not thread-safe, guarded by owner.
+ */
+final class P2PLogIndex {
+
+    /**
+     * Maximum length of indexed substrings of tokens
+     */
+    private static final int GRAM = 3;
+
+    private final int mCapacity;
+
+    private final Map<String, Postings> mTags = new HashMap<>();
+
+    private final Map<String, Postings> mLevels = new HashMap<>();
+
+    private final Map<String, Postings> mTokens = new HashMap<>();
+
+    /**
+     * Tokens by substrings of up to {@link #GRAM} characters, rebuilt when compacted
+     */
+    private final Map<String, List<String>> mGrams = new HashMap<>();
+
+    private final StringBuilder mToken = new StringBuilder();
+
+    /**
+     * Oldest sequence number not evicted
+     */
+    private long mFirst;
+
+    /**
+     * Oldest sequence number at last compaction
+     */
+    private long mCompacted;
+
+    /**
+     * Next sequence number
+     */
+    private long mNext;
+
+    P2PLogIndex(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Add item to index
+     * @param seq Sequence number, must be larger than previous
+     * @param item Log item
+     */
+    void add(long seq, LogItem item) {
+        add(mTags, item.module, seq);
+        add(mLevels, item.level, seq);
+        addTokens(item.thread, seq);
+        addTokens(item.module, seq);
+        addTokens(item.level, seq);
+        addTokens(item.message, seq);
+        mNext = seq + 1;
+    }
+
+    /**
+     * Evict items older than given sequence number
+     * @param first Oldest sequence number kept
+     */
+    void evict(long first) {
+        mFirst = Math.max(mFirst, first);
+        if (mFirst - mCompacted >= mCapacity) {
+            compact(mTags);
+            compact(mLevels);
+            if (compact(mTokens)) {
+                mGrams.clear();
+                for (String token : mTokens.keySet()) {
+                    addGrams(token);
+                }
+            }
+            mCompacted = mFirst;
+        }
+    }
+
+    /**
+     * Get candidates of query
+     * @param query Compiled query
+     * @return Sequence numbers in ascending order, null if all items are candidates
+     */
+    Postings select(P2PLogQuery query) {
+        return select(query.getRoot());
+    }
+
+    private Postings select(P2PLogQuery.Node node) {
+        if (node instanceof P2PLogQuery.And) {
+            Postings result = null;
+            for (P2PLogQuery.Node it : ((P2PLogQuery.And) node).mNodes) {
+                result = intersect(result, select(it));
+            }
+            return result;
+        }
+        if (node instanceof P2PLogQuery.Or) {
+            Postings result = new Postings();
+            for (P2PLogQuery.Node it : ((P2PLogQuery.Or) node).mNodes) {
+                Postings selected = select(it);
+                if (selected == null) {
+                    return null;
+                }
+                result = union(result, selected);
+            }
+            return result;
+        }
+        if (node instanceof P2PLogQuery.TagLevel) {
+            P2PLogQuery.TagLevel term = (P2PLogQuery.TagLevel) node;
+            Postings tags = term.mTag == null ? null : get(mTags, term.mTag);
+            Postings levels = term.mLevel == null ? null : get(mLevels, term.mLevel);
+            return intersect(tags, levels);
+        }
+        if (node instanceof P2PLogQuery.Text) {
+            Postings result = null;
+            for (String token : tokenize(((P2PLogQuery.Text) node).mText)) {
+                result = intersect(result, containing(token));
+            }
+            return result;
+        }
+        /* Negation can not be answered from postings */
+        return null;
+    }
+
+    /**
+     * Check if {@link #select(P2PLogQuery)} answers given query exactly, which is
+     * the case when it only has tag and level terms and text terms of a single
+     * token, combined by AND or OR. Such answers need no verification, but may
+     * include evicted sequence numbers.
+     * @param query Compiled query
+     * @return boolean
+     */
+    boolean isExact(P2PLogQuery query) {
+        return query.getRoot() != null && isExact(query.getRoot());
+    }
+
+    private static boolean isExact(P2PLogQuery.Node node) {
+        List<P2PLogQuery.Node> nodes = null;
+        if (node instanceof P2PLogQuery.And) {
+            nodes = ((P2PLogQuery.And) node).mNodes;
+        } else if (node instanceof P2PLogQuery.Or) {
+            nodes = ((P2PLogQuery.Or) node).mNodes;
+        } else if (node instanceof P2PLogQuery.TagLevel) {
+            return true;
+        } else if (node instanceof P2PLogQuery.Text) {
+            /* A token contains the text if and only if a field does */
+            String text = ((P2PLogQuery.Text) node).mText;
+            List<String> tokens = tokenize(text);
+            return tokens.size() == 1 && tokens.get(0).length() == text.length();
+        }
+        if (nodes != null) {
+            for (P2PLogQuery.Node it : nodes) {
+                if (!isExact(it)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Union of postings of all tokens containing given token
+     */
+    private Postings containing(String token) {
+        int live = (int) (mNext - mFirst);
+        List<String> tokens = lookup(token);
+        for (String it : tokens) {
+            if (mTokens.get(it).size(mFirst) == live) {
+                /* In every item */
+                return Postings.range(mFirst, mNext);
+            }
+        }
+        /* Many tokens may match, mark live items instead of merging pairwise */
+        BitSet marks = new BitSet(live);
+        for (String it : tokens) {
+            Postings postings = mTokens.get(it);
+            for (int i = postings.skip(mFirst); i < postings.mEnd; i++) {
+                marks.set((int) (postings.mSeqs[i] - mFirst));
+            }
+        }
+        Postings result = new Postings();
+        for (int i = marks.nextSetBit(0); i >= 0; i = marks.nextSetBit(i + 1)) {
+            result.add(mFirst + i);
+        }
+        return result;
+    }
+
+    /**
+     * Find tokens containing given token. Only tokens with the least
+     * frequent gram of given token are visited.
+     * @param token Token
+     * @return List of tokens
+     */
+    private List<String> lookup(String token) {
+        if (token.length() <= GRAM) {
+            List<String> tokens = mGrams.get(token);
+            return tokens == null ? new ArrayList<String>() : tokens;
+        }
+        List<String> rarest = null;
+        for (int i = 0; i + GRAM <= token.length(); i++) {
+            List<String> tokens = mGrams.get(token.substring(i, i + GRAM));
+            if (tokens == null) {
+                return new ArrayList<>();
+            }
+            if (rarest == null || tokens.size() < rarest.size()) {
+                rarest = tokens;
+            }
+        }
+        List<String> found = new ArrayList<>();
+        for (String it : rarest) {
+            if (it.contains(token)) {
+                found.add(it);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Add token to each list of tokens by its grams
+     */
+    private void addGrams(String token) {
+        for (int length = 1; length <= GRAM; length++) {
+            for (int i = 0; i + length <= token.length(); i++) {
+                String gram = token.substring(i, i + length);
+                List<String> tokens = mGrams.get(gram);
+                if (tokens == null) {
+                    tokens = new ArrayList<>(2);
+                    mGrams.put(gram, tokens);
+                }
+                /* Repeated gram in same token */
+                if (tokens.isEmpty() || tokens.get(tokens.size() - 1) != token) {
+                    tokens.add(token);
+                }
+            }
+        }
+    }
+
+    private Postings get(Map<String, Postings> map, String key) {
+        Postings postings = map.get(key);
+        return postings == null ? new Postings() : postings;
+    }
+
+    /**
+     * Add sequence number to postings of key
+     * @return boolean, true if key was added
+     */
+    private boolean add(Map<String, Postings> map, String key, long seq) {
+        Postings postings = map.get(key);
+        boolean added = postings == null;
+        if (added) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        postings.add(seq);
+        return added;
+    }
+
+    private void addTokens(String text, long seq) {
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                mToken.append(Character.toLowerCase(c));
+            } else if (mToken.length() > 0) {
+                String token = mToken.toString();
+                if (add(mTokens, token, seq)) {
+                    addGrams(token);
+                }
+                mToken.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Split text into tokens as indexed
+     * @param text Text
+     * @return List of tokens
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Trim postings and remove keys without live items
+     * @return boolean, true if keys were removed
+     */
+    private boolean compact(Map<String, Postings> map) {
+        boolean removed = false;
+        Iterator<Postings> it = map.values().iterator();
+        while (it.hasNext()) {
+            Postings postings = it.next();
+            postings.trim(mFirst);
+            if (postings.size() == 0) {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private Postings intersect(Postings a, Postings b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        Postings result = new Postings();
+        int i = a.mStart, j = b.mStart;
+        while (i < a.mEnd && j < b.mEnd) {
+            long x = a.mSeqs[i], y = b.mSeqs[j];
+            if (x == y) {
+                if (x >= mFirst) {
+                    result.add(x);
+                }
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private Postings union(Postings a, Postings b) {
+        Postings result = new Postings();
+        int i = a.skip(mFirst), j = b.skip(mFirst);
+        while (i < a.mEnd || j < b.mEnd) {
+            long x = i < a.mEnd ? a.mSeqs[i] : Long.MAX_VALUE;
+            long y = j < b.mEnd ? b.mSeqs[j] : Long.MAX_VALUE;
+            long min = Math.min(x, y);
+            result.add(min);
+            if (x == min) {
+                i++;
+            }
+            if (y == min) {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ascending sequence numbers
+     */
+    static final class Postings {
+
+        private long[] mSeqs = new long[4];
+
+        private int mStart;
+
+        private int mEnd;
+
+        /**
+         * Create postings of consecutive sequence numbers
+         * @param first First sequence number
+         * @param end Sequence number after last
+         * @return Postings
+         */
+        static Postings range(long first, long end) {
+            Postings postings = new Postings();
+            int size = (int) (end - first);
+            postings.mSeqs = new long[Math.max(4, size)];
+            for (int i = 0; i < size; i++) {
+                postings.mSeqs[i] = first + i;
+            }
+            postings.mEnd = size;
+            return postings;
+        }
+
+        void add(long seq) {
+            if (mEnd > mStart && mSeqs[mEnd - 1] == seq) {
+                return;
+            }
+            if (mEnd == mSeqs.length) {
+                int size = mEnd - mStart;
+                long[] seqs = size * 2 > mSeqs.length ? new long[mSeqs.length * 2] : mSeqs;
+                System.arraycopy(mSeqs, mStart, seqs, 0, size);
+                mSeqs = seqs;
+                mStart = 0;
+                mEnd = size;
+            }
+            mSeqs[mEnd++] = seq;
+        }
+
+        int size() {
+            return mEnd - mStart;
+        }
+
+        /**
+         * Get number of sequence numbers not less than given
+         */
+        int size(long first) {
+            return mEnd - skip(first);
+        }
+
+        long get(int index) {
+            return mSeqs[mStart + index];
+        }
+
+        /**
+         * Get index of first sequence number not less than given
+         */
+        private int skip(long first) {
+            int lo = mStart, hi = mEnd;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mSeqs[mid] < first) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Remove sequence numbers less than given
+         */
+        void trim(long first) {
+            mStart = skip(first);
+            if (mStart == mEnd) {
+                mStart = mEnd = 0;
+            }
+        }
+    }
+
+}
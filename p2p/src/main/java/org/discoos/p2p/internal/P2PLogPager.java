@@ -0,0 +1,299 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Paged view of log items matching a query, newest first.
+ *
+ * Only sequence numbers of matching items are kept. Items are loaded from
+ * the source in pages of {@link #PAGE_SIZE} when first viewed, and the
+ * most recently viewed pages are cached. The page ahead of the viewed
+ * position is prefetched in the background, unless it is the newest page
+ * which is still filled by appended items. Pages are numbered from the
+ * oldest item ever matched, so appending newer items or evicting older
+ * items does not move cached pages.
+ *
+ * Except for prefetching, only used on main thread.
+ */
+public final class P2PLogPager {
+
+    /**
+     * Number of items in a page
+     */
+    static final int PAGE_SIZE = 100;
+
+    /**
+     * Maximum number of pages cached
+     */
+    static final int MAX_PAGES = 8;
+
+    /**
+     * Distance from viewed position to prefetched position
+     */
+    private static final int PREFETCH = PAGE_SIZE / 2;
+
+    private final Source mSource;
+
+    private final P2PLogQuery mQuery;
+
+    private final P2PLogIndex.Postings mSeqs;
+
+    private final Executor mPrefetch;
+
+    /**
+     * Pages by page number, in access order. Guarded by itself.
+     */
+    private final Map<Long, LogItem[]> mPages = new LinkedHashMap<Long, LogItem[]>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LogItem[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    /**
+     * Pages being prefetched. Guarded by {@link #mPages}.
+     */
+    private final Set<Long> mPending = new HashSet<>();
+
+    /**
+     * Number of matching items evicted
+     */
+    private long mEvicted;
+
+    private Listener mListener;
+
+    /**
+     * Create pager
+     * @param source Source of items
+     * @param query Query matched by sequence numbers, used to filter appended items
+     * @param seqs Sequence numbers of matching items, ascending
+     * @param prefetch Executor loading pages ahead of viewed position
+     */
+    P2PLogPager(Source source, P2PLogQuery query, P2PLogIndex.Postings seqs, Executor prefetch) {
+        mSource = source;
+        mQuery = query;
+        mSeqs = seqs;
+        mPrefetch = prefetch;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Get number of matching items
+     * @return int
+     */
+    public int size() {
+        return mSeqs.size();
+    }
+
+    /**
+     * Get item at position, loading its page if not cached
+     * @param position Position, 0 is newest
+     * @return LogItem, null if no longer kept by source
+     */
+    public LogItem get(int position) {
+        long index = toIndex(position);
+        long page = index / PAGE_SIZE;
+        LogItem[] items;
+        synchronized (mPages) {
+            items = mPages.get(page);
+        }
+        if (items == null) {
+            items = load(page, seqs(page));
+        }
+        prefetch(position + PREFETCH);
+        prefetch(position - PREFETCH);
+        return items[(int) (index % PAGE_SIZE)];
+    }
+
+    /**
+     * Append items matching query
+     * @param seq Sequence number of first item
+     * @param items Items, oldest first
+     * @return Number of items inserted at position 0
+     */
+    public int append(long seq, List<LogItem> items) {
+        int inserted = 0;
+        for (int i = 0; i < items.size(); i++) {
+            LogItem item = items.get(i);
+            if (seq + i >= next() && mQuery.matches(item)) {
+                mSeqs.add(seq + i);
+                cache(mEvicted + mSeqs.size() - 1, item);
+                inserted++;
+            }
+        }
+        if (inserted > 0 && mListener != null) {
+            mListener.onInserted(inserted);
+        }
+        return inserted;
+    }
+
+    /**
+     * Evict items older than given sequence number
+     * @param first Oldest sequence number kept by source
+     * @return Number of items removed from the end
+     */
+    public int evict(long first) {
+        int size = mSeqs.size();
+        mSeqs.trim(first);
+        int removed = size - mSeqs.size();
+        if (removed > 0) {
+            mEvicted += removed;
+            long oldest = mEvicted / PAGE_SIZE;
+            synchronized (mPages) {
+                Iterator<Long> it = mPages.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next() < oldest) {
+                        it.remove();
+                    }
+                }
+            }
+            if (mListener != null) {
+                mListener.onRemoved(mSeqs.size(), removed);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get number of cached pages
+     * @return int
+     */
+    int getPageCount() {
+        synchronized (mPages) {
+            return mPages.size();
+        }
+    }
+
+    /**
+     * Get sequence number after newest matching item
+     */
+    private long next() {
+        return mSeqs.size() == 0 ? 0 : mSeqs.get(mSeqs.size() - 1) + 1;
+    }
+
+    /**
+     * Get index of item at position, counted from oldest item ever matched
+     */
+    private long toIndex(int position) {
+        return mEvicted + mSeqs.size() - 1 - position;
+    }
+
+    /**
+     * Get sequence numbers of items in page still matched
+     */
+    private long[] seqs(long page) {
+        long first = page * PAGE_SIZE;
+        long[] seqs = new long[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            long index = first + i - mEvicted;
+            seqs[i] = index >= 0 && index < mSeqs.size() ? mSeqs.get((int) index) : -1;
+        }
+        return seqs;
+    }
+
+    private LogItem[] load(long page, long[] seqs) {
+        LogItem[] items = new LogItem[PAGE_SIZE];
+        mSource.load(seqs, items);
+        synchronized (mPages) {
+            LogItem[] cached = mPages.get(page);
+            if (cached != null) {
+                /* Loaded concurrently, keep items appended since */
+                return cached;
+            }
+            mPages.put(page, items);
+        }
+        return items;
+    }
+
+    private void prefetch(int position) {
+        if (position < 0 || position >= mSeqs.size()) {
+            return;
+        }
+        final long page = toIndex(position) / PAGE_SIZE;
+        if ((page + 1) * PAGE_SIZE > mEvicted + mSeqs.size()) {
+            /* Newest page is still filled by appended items, loaded when viewed */
+            return;
+        }
+        synchronized (mPages) {
+            if (mPages.containsKey(page) || !mPending.add(page)) {
+                return;
+            }
+        }
+        final long[] seqs = seqs(page);
+        mPrefetch.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(page, seqs);
+                } finally {
+                    synchronized (mPages) {
+                        mPending.remove(page);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Put appended item in its page. A new page is started when the item
+     * is first in it, partially cached pages are loaded when viewed.
+     */
+    private void cache(long index, LogItem item) {
+        long page = index / PAGE_SIZE;
+        int offset = (int) (index % PAGE_SIZE);
+        synchronized (mPages) {
+            LogItem[] items = mPages.get(page);
+            if (items == null && offset == 0) {
+                items = new LogItem[PAGE_SIZE];
+                mPages.put(page, items);
+            }
+            if (items != null) {
+                items[offset] = item;
+            }
+        }
+    }
+
+    /**
+     * Source of paged items
+     */
+    interface Source {
+
+        /**
+         * Load items, called on any thread
+         * @param seqs Sequence numbers, -1 for no item
+         * @param items Items loaded, null if not kept
+         */
+        void load(long[] seqs, LogItem[] items);
+    }
+
+    /**
+     * Listener of changes, called on main thread
+     */
+    public interface Listener {
+
+        /**
+         * Called when newer items are inserted at position 0
+         * @param count Number of items
+         */
+        void onInserted(int count);
+
+        /**
+         * Called when older items are removed from the end
+         * @param position Position of first item removed
+         * @param count Number of items
+         */
+        void onRemoved(int position, int count);
+    }
+
+}
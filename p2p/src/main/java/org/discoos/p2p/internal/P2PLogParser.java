@@ -0,0 +1,186 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.util.Calendar;
+
+/**
+ * Scanner of logcat lines in {@code -v threadtime} format
+ * <pre>
+ * MM-dd HH:mm:ss.SSS   PID   TID L TAG     : message
+ * </pre>
+ * Fields are parsed by offset without regular expressions. Timestamps are
+ * parsed into milliseconds since epoch in the current year, with the start
+ * of day cached across lines. Levels, tags and thread ids repeat, so their
+ * strings are reused from small tables, leaving the message as the only
+ * string allocated per line.
+ *
+ * Not thread-safe, use one parser per reading thread.
+ */
+public final class P2PLogParser {
+
+    private static final int TABLE_SIZE = 256;
+
+    private static final String LEVELS = "VDIWEFA";
+
+    private static final String[] LEVEL_NAMES = {"V", "D", "I", "W", "E", "F", "A"};
+
+    private final String[] mTags = new String[TABLE_SIZE];
+
+    private final int[] mTids = new int[TABLE_SIZE];
+
+    private final String[] mThreads = new String[TABLE_SIZE];
+
+    /**
+     * Month and day of cached start of day, -1 if none
+     */
+    private int mDay = -1;
+
+    private long mDayStart;
+
+    /**
+     * Parse line
+     * @param line Log line
+     * @return LogItem, null if line is not in threadtime format
+     */
+    public LogItem parse(CharSequence line) {
+        int end = line.length();
+        if (end < 18 || line.charAt(2) != '-' || line.charAt(5) != ' ' || line.charAt(8) != ':'
+                || line.charAt(11) != ':' || line.charAt(14) != '.') {
+            return null;
+        }
+        int month = digits(line, 0, 2);
+        int day = digits(line, 3, 2);
+        int hour = digits(line, 6, 2);
+        int minute = digits(line, 9, 2);
+        int second = digits(line, 12, 2);
+        int millis = digits(line, 15, 3);
+        if ((month | day | hour | minute | second | millis) < 0 || month < 1 || month > 12) {
+            return null;
+        }
+
+        /* Process id is not kept */
+        int i = skip(line, 18, end);
+        int pid = i;
+        while (i < end && isDigit(line.charAt(i))) {
+            i++;
+        }
+        if (i == pid) {
+            return null;
+        }
+        i = skip(line, i, end);
+        int tid = 0;
+        int start = i;
+        while (i < end && isDigit(line.charAt(i))) {
+            tid = tid * 10 + line.charAt(i++) - '0';
+        }
+        if (i == start) {
+            return null;
+        }
+        i = skip(line, i, end);
+        int level = i < end ? LEVELS.indexOf(line.charAt(i)) : -1;
+        if (level < 0 || ++i >= end || line.charAt(i) != ' ') {
+            return null;
+        }
+
+        /* Tag is padded with spaces before the colon */
+        start = skip(line, i, end);
+        int colon = start;
+        while (colon < end && !(line.charAt(colon) == ':' && (colon + 1 == end || line.charAt(colon + 1) == ' '))) {
+            colon++;
+        }
+        if (colon == end) {
+            return null;
+        }
+        int tagEnd = colon;
+        while (tagEnd > start && line.charAt(tagEnd - 1) == ' ') {
+            tagEnd--;
+        }
+        String message = colon + 2 <= end ? line.subSequence(colon + 2, end).toString() : "";
+
+        return new LogItem(
+                getTimestamp(month, day, hour, minute, second, millis),
+                getThread(tid),
+                getTag(line, start, tagEnd),
+                LEVEL_NAMES[level],
+                message);
+    }
+
+    private long getTimestamp(int month, int day, int hour, int minute, int second, int millis) {
+        int key = month * 32 + day;
+        if (key != mDay) {
+            Calendar calendar = Calendar.getInstance();
+            int year = calendar.get(Calendar.YEAR);
+            /* Lines from last year are read around new year */
+            if (month - 1 > calendar.get(Calendar.MONTH)) {
+                year--;
+            }
+            calendar.clear();
+            calendar.set(year, month - 1, day);
+            mDayStart = calendar.getTimeInMillis();
+            mDay = key;
+        }
+        return mDayStart + ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+    }
+
+    private String getThread(int tid) {
+        int slot = tid & (TABLE_SIZE - 1);
+        String thread = mThreads[slot];
+        if (thread == null || mTids[slot] != tid) {
+            thread = Integer.toString(tid);
+            mThreads[slot] = thread;
+            mTids[slot] = tid;
+        }
+        return thread;
+    }
+
+    private String getTag(CharSequence line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TABLE_SIZE - 1);
+        String tag = mTags[slot];
+        if (tag == null || !equals(tag, line, start, end)) {
+            tag = line.subSequence(start, end).toString();
+            mTags[slot] = tag;
+        }
+        return tag;
+    }
+
+    private static boolean equals(String tag, CharSequence line, int start, int end) {
+        if (tag.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (tag.charAt(i - start) != line.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(CharSequence line, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static int skip(CharSequence line, int i, int end) {
+        while (i < end && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
@@ -0,0 +1,427 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log query compiled once into a predicate tree.
+ * <pre>
+ * query := or
+ * or    := and { "OR" and }
+ * and   := unary { "AND" unary }
+ * unary := ( "NOT" | "-" ) unary | "(" query ")" | term
+ * term  := tag:level | text | "quoted text"
+ * </pre>
+ * Terms without an operator between them are combined with OR, which
+ * keeps the meaning of the space separated filters used before.
+ * {@code tag:level} matches tag and level exactly, where {@code *} matches
+ * any. Text is matched case-insensitively as a substring of thread, tag,
+ * level or message, using a Horspool shift table computed at compile time.
+ */
+public final class P2PLogQuery {
+
+    private static final P2PLogQuery ALL = new P2PLogQuery(null);
+
+    private final Node mRoot;
+
+    private P2PLogQuery(Node root) {
+        mRoot = root;
+    }
+
+    /**
+     * Compile query
+     * @param query Query string, empty matches all
+     * @return P2PLogQuery
+     */
+    public static P2PLogQuery compile(String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return ALL;
+        }
+        return new P2PLogQuery(new Parser(tokens).parse());
+    }
+
+    /**
+     * Check if query matches all items
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return mRoot == null;
+    }
+
+    public boolean matches(LogItem item) {
+        return mRoot == null || mRoot.matches(item);
+    }
+
+    /**
+     * Check if every item matching this query also matches given query,
+     * which is the case when a term is refined by typing more of it,
+     * or when terms are added with AND
+     * @param query Previous query
+     * @return boolean, false if not known
+     */
+    boolean narrows(P2PLogQuery query) {
+        return query.mRoot == null || mRoot != null && implies(mRoot, query.mRoot);
+    }
+
+    /**
+     * Check if every item matching a also matches b
+     * @return boolean, false if not known
+     */
+    private static boolean implies(Node a, Node b) {
+        if (b instanceof And) {
+            for (Node it : ((And) b).mNodes) {
+                if (!implies(a, it)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Or) {
+            for (Node it : ((Or) a).mNodes) {
+                if (!implies(it, b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof And) {
+            for (Node it : ((And) a).mNodes) {
+                if (implies(it, b)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (b instanceof Or) {
+            for (Node it : ((Or) b).mNodes) {
+                if (implies(a, it)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (a instanceof Text && b instanceof Text) {
+            return ((Text) a).contains((Text) b);
+        }
+        if (a instanceof TagLevel && b instanceof TagLevel) {
+            TagLevel x = (TagLevel) a, y = (TagLevel) b;
+            return (y.mTag == null || y.mTag.equals(x.mTag))
+                    && (y.mLevel == null || y.mLevel.equals(x.mLevel));
+        }
+        if (a instanceof Not && b instanceof Not) {
+            return implies(((Not) b).mNode, ((Not) a).mNode);
+        }
+        return false;
+    }
+
+    /**
+     * Get predicate tree, used to select candidates from an index
+     * @return Root node, null if query matches all
+     */
+    Node getRoot() {
+        return mRoot;
+    }
+
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int end = query.length();
+        while (i < end) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int close = query.indexOf('"', i + 1);
+                close = close < 0 ? end : close;
+                /* Quoted text is always a text term */
+                tokens.add(query.substring(i, close));
+                i = close + 1;
+            } else {
+                int start = i;
+                while (i < end && !Character.isWhitespace(query.charAt(i))
+                        && query.charAt(i) != '(' && query.charAt(i) != ')') {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Parser {
+
+        private final List<String> mTokens;
+
+        private int mNext;
+
+        Parser(List<String> tokens) {
+            mTokens = tokens;
+        }
+
+        Node parse() {
+            List<Node> nodes = new ArrayList<>();
+            while (mNext < mTokens.size()) {
+                if (")".equals(mTokens.get(mNext))) {
+                    /* Unbalanced closing parenthesis */
+                    mNext++;
+                } else {
+                    nodes.add(parseOr());
+                }
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+        }
+
+        private Node parseOr() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(parseAnd());
+            while (mNext < mTokens.size() && !")".equals(mTokens.get(mNext))) {
+                if ("OR".equals(mTokens.get(mNext))) {
+                    mNext++;
+                }
+                if (mNext < mTokens.size() && !")".equals(mTokens.get(mNext))) {
+                    nodes.add(parseAnd());
+                }
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+        }
+
+        private Node parseAnd() {
+            List<Node> nodes = new ArrayList<>();
+            nodes.add(parseUnary());
+            while (mNext + 1 < mTokens.size() && "AND".equals(mTokens.get(mNext))) {
+                mNext++;
+                nodes.add(parseUnary());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new And(nodes);
+        }
+
+        private Node parseUnary() {
+            String token = mTokens.get(mNext++);
+            if (("NOT".equals(token) || "-".equals(token)) && mNext < mTokens.size()) {
+                return new Not(parseUnary());
+            }
+            if (token.length() > 1 && token.charAt(0) == '-' && token.charAt(1) != '"') {
+                return new Not(term(token.substring(1)));
+            }
+            if ("(".equals(token)) {
+                if (mNext == mTokens.size() || ")".equals(mTokens.get(mNext))) {
+                    mNext = Math.min(mNext + 1, mTokens.size());
+                    return new Or(new ArrayList<Node>());
+                }
+                Node node = parseOr();
+                if (mNext < mTokens.size()) {
+                    /* Skip closing parenthesis, unbalanced is closed at end */
+                    mNext++;
+                }
+                return node;
+            }
+            return term(token);
+        }
+
+        private static Node term(String token) {
+            if (token.charAt(0) == '"') {
+                return new Text(token.substring(1));
+            }
+            int colon = token.indexOf(':');
+            if (colon > 0 && colon == token.length() - 2 && isTagLevel(token)) {
+                return new TagLevel(token.substring(0, colon), token.substring(colon + 1));
+            }
+            return new Text(token);
+        }
+
+        private static boolean isTagLevel(String token) {
+            int colon = token.length() - 2;
+            String tag = token.substring(0, colon);
+            if (!"*".equals(tag)) {
+                for (int i = 0; i < tag.length(); i++) {
+                    char c = tag.charAt(i);
+                    if (!(Character.isLetterOrDigit(c) || c == '_')) {
+                        return false;
+                    }
+                }
+            }
+            char level = token.charAt(colon + 1);
+            return level == '*' || Character.isLetterOrDigit(level) || level == '_';
+        }
+    }
+
+    /**
+     * Query predicate
+     */
+    abstract static class Node {
+        abstract boolean matches(LogItem item);
+    }
+
+    static final class And extends Node {
+
+        final List<Node> mNodes;
+
+        And(List<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        boolean matches(LogItem item) {
+            for (Node node : mNodes) {
+                if (!node.matches(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Or extends Node {
+
+        final List<Node> mNodes;
+
+        Or(List<Node> nodes) {
+            mNodes = nodes;
+        }
+
+        @Override
+        boolean matches(LogItem item) {
+            for (Node node : mNodes) {
+                if (node.matches(item)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Not extends Node {
+
+        final Node mNode;
+
+        Not(Node node) {
+            mNode = node;
+        }
+
+        @Override
+        boolean matches(LogItem item) {
+            return !mNode.matches(item);
+        }
+    }
+
+    static final class TagLevel extends Node {
+
+        /**
+         * Tag, null matches any
+         */
+        final String mTag;
+
+        /**
+         * Level, null matches any
+         */
+        final String mLevel;
+
+        TagLevel(String tag, String level) {
+            mTag = "*".equals(tag) ? null : tag;
+            mLevel = "*".equals(level) ? null : level;
+        }
+
+        @Override
+        boolean matches(LogItem item) {
+            return (mTag == null || mTag.equals(item.module))
+                    && (mLevel == null || mLevel.equals(item.level));
+        }
+    }
+
+    /**
+     * Case-insensitive substring term using Boyer-Moore-Horspool
+     */
+    static final class Text extends Node {
+
+        /**
+         * Lower case of ASCII characters
+         */
+        private static final char[] LOWER = new char[128];
+
+        static {
+            for (char c = 0; c < LOWER.length; c++) {
+                LOWER[c] = Character.toLowerCase(c);
+            }
+        }
+
+        final String mText;
+
+        private final char[] mNeedle;
+
+        /**
+         * Shift for ASCII characters, other characters shift by {@link #mShift}
+         */
+        private final int[] mShifts = new int[128];
+
+        private final int mShift;
+
+        Text(String text) {
+            mText = text;
+            mNeedle = new char[text.length()];
+            for (int i = 0; i < mNeedle.length; i++) {
+                /* Same folding as haystack, independent of locale */
+                mNeedle[i] = lower(text.charAt(i));
+            }
+            int length = mNeedle.length;
+            int shift = length;
+            for (int i = 0; i < mShifts.length; i++) {
+                mShifts[i] = length;
+            }
+            for (int i = 0; i < length - 1; i++) {
+                char c = mNeedle[i];
+                if (c < 128) {
+                    mShifts[c] = length - 1 - i;
+                } else {
+                    /* Non-ASCII in needle, shift conservatively */
+                    shift = 1;
+                }
+            }
+            mShift = Math.max(1, Math.min(shift, length));
+        }
+
+        @Override
+        boolean matches(LogItem item) {
+            return indexOf(item.message) >= 0 || indexOf(item.module) >= 0
+                    || indexOf(item.thread) >= 0 || indexOf(item.level) >= 0;
+        }
+
+        /**
+         * Check if text contains given text ignoring case
+         */
+        boolean contains(Text text) {
+            return text.indexOf(mText) >= 0;
+        }
+
+        private static char lower(char c) {
+            return c < 128 ? LOWER[c] : Character.toLowerCase(c);
+        }
+
+        int indexOf(String haystack) {
+            int length = mNeedle.length;
+            if (length == 0) {
+                return 0;
+            }
+            int last = length - 1;
+            int i = 0;
+            int end = haystack.length() - length;
+            while (i <= end) {
+                int j = last;
+                while (lower(haystack.charAt(i + j)) == mNeedle[j]) {
+                    if (j-- == 0) {
+                        return i;
+                    }
+                }
+                char c = lower(haystack.charAt(i + last));
+                i += c < 128 ? mShifts[c] : mShift;
+            }
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,410 @@
+package org.discoos.p2p.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.discoos.p2p.P2P;
+import org.discoos.p2p.P2PUtils.LogItem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Streaming logcat tail.
+ *
+ * A single long-running {@code logcat -v threadtime} process is read on a
+ * background thread. Lines are parsed as they arrive, indexed and kept in a
+ * bounded ring of parsed fields, with tags and levels as ids into a table
+ * of symbols. Items read in one burst are appended as one batch, and each
+ * batch is pushed to listeners on the main thread. Queries are answered from
+ * the index and verified against the ring without parsing or reading logcat
+ * again, and items are only created when viewed through a {@link P2PLogPager}.
+ */
+public final class P2PLogTail implements P2PLogPager.Source {
+
+    private static final String TAG = "P2PLogTail";
+
+    /**
+     * Maximum number of lines in one batch
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static P2PLogTail INSTANCE;
+
+    private final int mCapacity;
+
+    private final long[] mTimes;
+
+    private final String[] mThreads;
+
+    /**
+     * Tag ids into {@link #mSymbols}
+     */
+    private final int[] mTags;
+
+    /**
+     * Level ids into {@link #mSymbols}
+     */
+    private final int[] mLevels;
+
+    private final String[] mMessages;
+
+    /**
+     * Tags and levels, rebuilt from the ring when larger than capacity
+     */
+    private final List<String> mSymbols = new ArrayList<>();
+
+    private final Map<String, Integer> mSymbolIds = new HashMap<>();
+
+    private final P2PLogIndex mIndex;
+
+    /**
+     * Last query, refined queries only verify its matches and later items
+     */
+    private P2PLogQuery mLastQuery;
+
+    private P2PLogIndex.Postings mLastMatches;
+
+    private long mLastCount;
+
+    private final Executor mMain;
+
+    /**
+     * Parser only used by reading thread
+     */
+    private final P2PLogParser mParser = new P2PLogParser();
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Total number of items appended
+     */
+    private long mCount;
+
+    private Thread mThread;
+
+    private Process mProcess;
+
+    /**
+     * Get singleton instance
+     * @return P2PLogTail
+     */
+    public static synchronized P2PLogTail getInstance() {
+        if (INSTANCE == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            INSTANCE = new P2PLogTail(P2P.LOG_TAIL_CAPACITY, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            });
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Create logcat tail
+     * @param capacity Maximum number of items kept
+     * @param main Executor delivering batches to listeners
+     */
+    P2PLogTail(int capacity, Executor main) {
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+        mThreads = new String[capacity];
+        mTags = new int[capacity];
+        mLevels = new int[capacity];
+        mMessages = new String[capacity];
+        mIndex = new P2PLogIndex(capacity);
+        mMain = main;
+    }
+
+    /**
+     * Start reading logcat unless already started
+     */
+    public synchronized void start() {
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tail();
+                }
+            }, TAG);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop reading logcat. Items already read are kept.
+     */
+    public synchronized void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+            if (mProcess != null) {
+                mProcess.destroy();
+                mProcess = null;
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Get total number of items appended since start, including evicted items
+     * @return long
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get items appended after given sequence number which are still in the ring
+     * @param seq Sequence number, 0 for all items
+     * @return List of items, oldest first
+     */
+    public synchronized List<LogItem> since(long seq) {
+        long first = Math.max(seq, mCount - mCapacity);
+        if (first >= mCount) {
+            return Collections.emptyList();
+        }
+        List<LogItem> items = new ArrayList<>((int) (mCount - first));
+        for (long i = first; i < mCount; i++) {
+            items.add(get(i));
+        }
+        return items;
+    }
+
+    /**
+     * Get sequence number of oldest item in the ring
+     * @return long
+     */
+    public synchronized long getFirst() {
+        return Math.max(0, mCount - mCapacity);
+    }
+
+    /**
+     * Get items in the ring matching query
+     * @param query Compiled query
+     * @param prefetch Executor loading pages ahead of viewed position
+     * @return Pager of matching items, newest first
+     */
+    public P2PLogPager query(P2PLogQuery query, Executor prefetch) {
+        return new P2PLogPager(this, query, select(query), prefetch);
+    }
+
+    @Override
+    public synchronized void load(long[] seqs, LogItem[] items) {
+        long first = Math.max(0, mCount - mCapacity);
+        for (int i = 0; i < seqs.length; i++) {
+            items[i] = seqs[i] >= first && seqs[i] < mCount ? get(seqs[i]) : null;
+        }
+    }
+
+    /**
+     * Create item from fields in the ring. Must be called while holding the lock.
+     * @param seq Sequence number in the ring
+     * @return LogItem
+     */
+    private LogItem get(long seq) {
+        int slot = (int) (seq % mCapacity);
+        return new LogItem(mTimes[slot], mThreads[slot], mSymbols.get(mTags[slot]),
+                mSymbols.get(mLevels[slot]), mMessages[slot]);
+    }
+
+    /**
+     * Get sequence numbers of items in the ring matching query
+     * @param query Compiled query
+     * @return Sequence numbers, ascending
+     */
+    synchronized P2PLogIndex.Postings select(P2PLogQuery query) {
+        long first = Math.max(0, mCount - mCapacity);
+        P2PLogIndex.Postings matches = new P2PLogIndex.Postings();
+        if (query.isEmpty()) {
+            for (long seq = first; seq < mCount; seq++) {
+                matches.add(seq);
+            }
+            return matches;
+        }
+        P2PLogIndex.Postings candidates;
+        boolean exact = mIndex.isExact(query);
+        if (exact) {
+            candidates = mIndex.select(query);
+        } else if (mLastQuery != null && query.narrows(mLastQuery)) {
+            candidates = mLastMatches;
+            for (long seq = Math.max(first, mLastCount); seq < mCount; seq++) {
+                candidates.add(seq);
+            }
+        } else {
+            candidates = mIndex.select(query);
+        }
+        if (candidates == null) {
+            for (long seq = first; seq < mCount; seq++) {
+                match(query, seq, matches);
+            }
+        } else {
+            for (int i = 0; i < candidates.size(); i++) {
+                long seq = candidates.get(i);
+                if (seq < first) {
+                    continue;
+                }
+                if (exact) {
+                    matches.add(seq);
+                } else {
+                    match(query, seq, matches);
+                }
+            }
+        }
+        mLastQuery = query;
+        mLastMatches = matches;
+        mLastCount = mCount;
+        /* Copy, refinements append to last matches */
+        P2PLogIndex.Postings result = new P2PLogIndex.Postings();
+        for (int i = 0; i < matches.size(); i++) {
+            result.add(matches.get(i));
+        }
+        return result;
+    }
+
+    private void match(P2PLogQuery query, long seq, P2PLogIndex.Postings matches) {
+        if (query.matches(get(seq))) {
+            matches.add(seq);
+        }
+    }
+
+    private void tail() {
+        Process process;
+        try {
+            process = Runtime.getRuntime().exec(new String[]{"logcat", "-v", "threadtime"});
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start logcat", e);
+            return;
+        }
+        synchronized (this) {
+            if (mThread != Thread.currentThread()) {
+                process.destroy();
+                return;
+            }
+            mProcess = process;
+        }
+        try {
+            read(new BufferedReader(new InputStreamReader(process.getInputStream())));
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                Log.e(TAG, "Failed to read logcat", e);
+            }
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Read lines until end of stream or interrupted. A batch is appended when
+     * the reader would block or the batch is full.
+     * @param reader Reader of lines in threadtime format
+     * @throws IOException if read failed
+     */
+    void read(BufferedReader reader) throws IOException {
+        List<LogItem> batch = new ArrayList<>();
+        String line;
+        while (!Thread.currentThread().isInterrupted() && (line = reader.readLine()) != null) {
+            LogItem item = mParser.parse(line);
+            if (item != null) {
+                batch.add(item);
+            }
+            if (batch.size() == BATCH_SIZE || !reader.ready()) {
+                append(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        append(batch);
+    }
+
+    private void append(final List<LogItem> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final long first;
+        synchronized (this) {
+            first = mCount;
+            for (LogItem item : batch) {
+                int slot = (int) (mCount % mCapacity);
+                mTimes[slot] = item.timestamp;
+                mThreads[slot] = item.thread;
+                mTags[slot] = symbol(item.module);
+                mLevels[slot] = symbol(item.level);
+                mMessages[slot] = item.message;
+                mIndex.add(mCount++, item);
+            }
+            mIndex.evict(mCount - mCapacity);
+            if (mSymbols.size() > mCapacity) {
+                compactSymbols();
+            }
+        }
+        mMain.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onAppended(first, batch);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get id of tag or level. Must be called while holding the lock.
+     */
+    private int symbol(String name) {
+        Integer id = mSymbolIds.get(name);
+        if (id == null) {
+            id = mSymbols.size();
+            mSymbols.add(name);
+            mSymbolIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Drop symbols of evicted items. Must be called while holding the lock.
+     */
+    private void compactSymbols() {
+        List<String> symbols = new ArrayList<>(mSymbols);
+        mSymbols.clear();
+        mSymbolIds.clear();
+        long first = Math.max(0, mCount - mCapacity);
+        for (long seq = first; seq < mCount; seq++) {
+            int slot = (int) (seq % mCapacity);
+            mTags[slot] = symbol(symbols.get(mTags[slot]));
+            mLevels[slot] = symbol(symbols.get(mLevels[slot]));
+        }
+    }
+
+    /**
+     * Listener of appended items, called on main thread
+     */
+    public interface Listener {
+
+        /**
+         * Called when items are appended
+         * @param seq Sequence number of first item
+         * @param items Appended items, oldest first
+         */
+        void onAppended(long seq, List<LogItem> items);
+    }
+
+}
@@ -0,0 +1,410 @@
+package org.discoos.p2p.internal;
+
+import android.util.Log;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped peer store with fixed-size records and an overflow heap.
+ *
+ * <pre>
+ * file    := header records heap crc
+ * heap    := index fields
+ * header  := magic(4) version(1) reserved(3) count(4) networks(8) index(4) reserved(8)
+ * record  := id(6) name(6) timestamp(8) flags(1) reserved(1) networks(8) fields(8) reserved(2)
+ * ref     := offset(4) length(2|4) into heap
+ * networks:= header: count (name)*, record: count (index port)* as varints
+ * crc     := CRC32 of all preceding bytes (4, big-endian)
+ * </pre>
+ *
+ * Opening the store maps the file and decodes only what the cache needs to
+ * index peers (id, unique name, timestamp, timeout and network membership).
+ * Network names are stored once in a table referenced by index from records.
+ * Index data is stored ahead of the fields in the heap. Records and index
+ * data are copied from the mapping in one bulk read when the store is opened,
+ * while fields are read from the mapping only when a peer is resolved.
+ * Summary, details and About parameters are decoded from the mapped heap
+ * when first accessed, so the first peer list can be shown without
+ * deserializing all peers.
+ *
+ * The checksum is not verified on open, since that would touch every page.
+ * Snapshots are written atomically (see {@link P2PSnapshot}), and all heap
+ * references are bounds checked when decoded.
+ */
+final class P2PMappedPeerStore {
+
+    private static final String TAG = "P2PMappedPeerStore";
+
+    /**
+     * Magic number "P2PM"
+     */
+    static final int MAGIC = 0x5032504D;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int RECORD_SIZE = 40;
+
+    private static final int CRC_SIZE = 4;
+
+    private static final int FLAG_TIMEOUT = 1;
+
+    private final File mFile;
+
+    private final ByteBuffer mBuffer;
+
+    private final int mCount;
+
+    private final int mHeapOffset;
+
+    private final int mHeapLimit;
+
+    /**
+     * Copy of header, records and index data
+     */
+    private final byte[] mIndex;
+
+    private final ByteBuffer mRecords;
+
+    /**
+     * Network table mapped to registry ids
+     */
+    private final int[] mNetworks;
+
+    private P2PMappedPeerStore(File file, ByteBuffer buffer) throws IOException {
+        mFile = file;
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE + CRC_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped peer store");
+        }
+        if ((buffer.get(4) & 0xFF) > VERSION) {
+            throw new IOException("Unsupported version " + (buffer.get(4) & 0xFF));
+        }
+        mCount = buffer.getInt(8);
+        mHeapLimit = buffer.capacity() - CRC_SIZE;
+        if (mCount < 0 || mCount > (mHeapLimit - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IOException("Truncated mapped peer store");
+        }
+        mHeapOffset = HEADER_SIZE + mCount * RECORD_SIZE;
+        int index = buffer.getInt(20);
+        if (index < 0 || index > mHeapLimit - mHeapOffset) {
+            throw new IOException("Truncated mapped peer store");
+        }
+        mIndex = new byte[mHeapOffset + index];
+        ByteBuffer copy = buffer.duplicate();
+        copy.get(mIndex);
+        mRecords = ByteBuffer.wrap(mIndex);
+        P2PCodec.Decoder decoder = new P2PCodec.Decoder(readIndex(buffer.getInt(12), buffer.getInt(16)));
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        mNetworks = new int[decoder.readVarint()];
+        for (int i = 0; i < mNetworks.length; i++) {
+            mNetworks[i] = registry.intern(decoder.readString());
+        }
+    }
+
+    /**
+     * Open store by mapping file read-only
+     * @param file Store file
+     * @return P2PMappedPeerStore, null if file does not exist or is invalid
+     */
+    static P2PMappedPeerStore open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                /* Mapping stays valid after channel is closed */
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                return new P2PMappedPeerStore(file, buffer);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Failed to open [%s]", file), e);
+        }
+        return null;
+    }
+
+    /**
+     * Verify magic and checksum trailer of mapped store data
+     * @param data File content
+     * @return boolean
+     */
+    static boolean verify(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE + CRC_SIZE || P2PCodec.readInt(data, 0) != MAGIC) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - CRC_SIZE);
+        return (int) crc.getValue() == P2PCodec.readInt(data, data.length - CRC_SIZE);
+    }
+
+    /**
+     * Get number of peers in store
+     * @return int
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Get checksum trailer of store
+     * @return int
+     */
+    int getChecksum() {
+        return mBuffer.getInt(mHeapLimit);
+    }
+
+    /**
+     * Load all peers with summary, details and parameters decoded lazily
+     * @return List
+     * @throws IOException If a record is corrupt
+     */
+    List<PeerInfoImpl> load() throws IOException {
+        List<PeerInfoImpl> peers = new ArrayList<>(mCount);
+        for (int i = 0; i < mCount; i++) {
+            peers.add(get(i));
+        }
+        return peers;
+    }
+
+    /**
+     * Get peer at given record index, O(1)
+     * @param index Record index
+     * @return PeerInfoImpl
+     * @throws IOException If record is corrupt
+     */
+    PeerInfoImpl get(int index) throws IOException {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        String id = readString(position);
+        String name = readString(position + 6);
+        Date timestamp = new Date(mRecords.getLong(position + 12));
+        boolean timeout = (mRecords.get(position + 20) & FLAG_TIMEOUT) != 0;
+        P2PCodec.Decoder decoder = new P2PCodec.Decoder(
+                readIndex(mRecords.getInt(position + 22), mRecords.getInt(position + 26)));
+        P2PNetworkSet membership = new P2PNetworkSet();
+        int count = decoder.readVarint();
+        for (int i = 0; i < count; i++) {
+            int network = decoder.readVarint();
+            if (network >= mNetworks.length) {
+                throw new IOException(String.format("Invalid network %d in [%s]", network, mFile));
+            }
+            membership.add(mNetworks[network], (short) decoder.readVarint());
+        }
+        Record record = new Record(this, mRecords.getInt(position + 30), mRecords.getInt(position + 34));
+        return new PeerInfoImpl(id, name, timeout, timestamp, membership, record);
+    }
+
+    private String readString(int position) throws IOException {
+        int length = mRecords.getShort(position + 4) & 0xFFFF;
+        if (length == 0) {
+            return null;
+        }
+        int offset = check(mRecords.getInt(position), length - 1, mIndex.length);
+        return new String(mIndex, offset, length - 1, P2PCodec.UTF_8);
+    }
+
+    private byte[] readIndex(int offset, int length) throws IOException {
+        int position = check(offset, length, mIndex.length);
+        return Arrays.copyOfRange(mIndex, position, position + length);
+    }
+
+    private byte[] readHeap(int offset, int length) throws IOException {
+        int position = check(offset, length, mHeapLimit);
+        byte[] bytes = new byte[length];
+        /* Relative reads are not thread-safe on shared buffer */
+        ByteBuffer heap = mBuffer.duplicate();
+        heap.position(position);
+        heap.get(bytes);
+        return bytes;
+    }
+
+    private int check(int offset, int length, int limit) throws IOException {
+        if (offset < 0 || length < 0 || offset > limit - mHeapOffset - length) {
+            throw new IOException(String.format("Invalid heap reference %d+%d in [%s]", offset, length, mFile));
+        }
+        return mHeapOffset + offset;
+    }
+
+    /**
+     * Encode peers into mapped store format. Fields of peers not yet decoded
+     * are copied from the heap they were loaded from without decoding.
+     * @param peers Peers to encode
+     * @return byte[]
+     */
+    static byte[] encode(Collection<PeerInfoImpl> peers) {
+        int count = peers.size();
+        P2PCodec.Buffer records = new P2PCodec.Buffer();
+        records.ensure(HEADER_SIZE + count * RECORD_SIZE);
+        P2PCodec.Buffer heap = new P2PCodec.Buffer();
+        P2PCodec.Buffer fields = new P2PCodec.Buffer();
+        ByteBuffer out = ByteBuffer.wrap(records.mData);
+        out.putInt(0, MAGIC);
+        out.put(4, (byte) VERSION);
+        out.putInt(8, count);
+        int position = HEADER_SIZE;
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        Map<Integer, Integer> table = new LinkedHashMap<>();
+        for (PeerInfoImpl info : peers) {
+            putString(out, position, heap, info.id);
+            putString(out, position + 6, heap, info.name);
+            out.putLong(position + 12, info.getTimestamp().getTime());
+            out.put(position + 20, (byte) (info.isTimeout() ? FLAG_TIMEOUT : 0));
+
+            P2PCodec.Encoder networks = new P2PCodec.Encoder(true);
+            P2PNetworkSet membership = info.getMembership();
+            networks.writeVarint(membership.size());
+            for (int id = membership.next(0); id >= 0; id = membership.next(id + 1)) {
+                Integer index = table.get(id);
+                if (index == null) {
+                    index = table.size();
+                    table.put(id, index);
+                }
+                networks.writeVarint(index);
+                networks.writeVarint(membership.getPort(id) & 0xFFFF);
+            }
+            putBytes(out, position + 22, heap, networks.toEntry());
+
+            Record record = info.getRecord();
+            byte[] bytes;
+            if (record != null) {
+                try {
+                    bytes = record.getBytes();
+                } catch (IOException e) {
+                    bytes = encodeFields(info);
+                }
+            } else {
+                bytes = encodeFields(info);
+            }
+            /* Offset relative to fields, relocated below */
+            putBytes(out, position + 30, fields, bytes);
+            position += RECORD_SIZE;
+        }
+        P2PCodec.Encoder names = new P2PCodec.Encoder(true);
+        names.writeVarint(table.size());
+        for (Integer id : table.keySet()) {
+            names.writeString(registry.getName(id));
+        }
+        putBytes(out, 12, heap, names.toEntry());
+        for (int i = HEADER_SIZE; i < position; i += RECORD_SIZE) {
+            out.putInt(i + 30, out.getInt(i + 30) + heap.mSize);
+        }
+        out.putInt(20, heap.mSize);
+        byte[] data = new byte[position + heap.mSize + fields.mSize + CRC_SIZE];
+        System.arraycopy(records.mData, 0, data, 0, position);
+        System.arraycopy(heap.mData, 0, data, position, heap.mSize);
+        System.arraycopy(fields.mData, 0, data, position + heap.mSize, fields.mSize);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - CRC_SIZE);
+        P2PCodec.writeInt(data, data.length - CRC_SIZE, (int) crc.getValue());
+        return data;
+    }
+
+    private static byte[] encodeFields(PeerInfoImpl info) {
+        P2PCodec.Encoder fields = new P2PCodec.Encoder(true);
+        fields.writeString(info.getSummary());
+        fields.writeString(info.getDetails());
+        Map<String, Object> params = info.getParams();
+        fields.writeVarint(params.size());
+        for (Map.Entry<String, Object> it : params.entrySet()) {
+            fields.writeString(it.getKey());
+            fields.writeValue(it.getValue());
+        }
+        return fields.toEntry();
+    }
+
+    private static void putString(ByteBuffer out, int position, P2PCodec.Buffer heap, String value) {
+        if (value == null) {
+            out.putInt(position, 0);
+            out.putShort(position + 4, (short) 0);
+        } else {
+            byte[] bytes = value.getBytes(P2PCodec.UTF_8);
+            out.putInt(position, heap.mSize);
+            out.putShort(position + 4, (short) (bytes.length + 1));
+            heap.writeBytes(bytes);
+        }
+    }
+
+    private static void putBytes(ByteBuffer out, int position, P2PCodec.Buffer heap, byte[] bytes) {
+        out.putInt(position, heap.mSize);
+        out.putInt(position + 4, bytes.length);
+        heap.writeBytes(bytes);
+    }
+
+    /**
+     * Reference to summary, details and parameters of a peer in the mapped heap
+     */
+    static final class Record {
+
+        private final P2PMappedPeerStore mStore;
+
+        private final int mOffset;
+
+        private final int mLength;
+
+        Record(P2PMappedPeerStore store, int offset, int length) {
+            mStore = store;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        byte[] getBytes() throws IOException {
+            return mStore.readHeap(mOffset, mLength);
+        }
+
+        /**
+         * Decode fields from heap
+         * @return Fields, empty if record is corrupt
+         */
+        Fields decode() {
+            try {
+                P2PCodec.Decoder decoder = new P2PCodec.Decoder(getBytes());
+                String summary = decoder.readString();
+                String details = decoder.readString();
+                int count = decoder.readVarint();
+                Map<String, Object> params = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    params.put(decoder.readString(), decoder.readValue());
+                }
+                return new Fields(summary, details, params);
+            } catch (IOException e) {
+                Log.e(TAG, String.format("Failed to decode record in [%s]", mStore.mFile), e);
+                return new Fields(null, null, Collections.<String, Object>emptyMap());
+            }
+        }
+    }
+
+    /**
+     * Lazily decoded fields of a peer
+     */
+    static final class Fields {
+
+        final String summary;
+        final String details;
+        final Map<String, Object> params;
+
+        Fields(String summary, String details, Map<String, Object> params) {
+            this.summary = summary;
+            this.details = details;
+            this.params = params;
+        }
+    }
+}
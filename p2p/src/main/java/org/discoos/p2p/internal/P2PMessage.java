@@ -0,0 +1,32 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+/**
+ * Message sent to or received from a peer in a network
+ */
+final class P2PMessage {
+
+    /**
+     * Network name
+     */
+    final String network;
+
+    /**
+     * Peer sent to or received from, null if sent to group
+     */
+    final PeerInfoImpl peer;
+
+    final byte[] data;
+
+    P2PMessage(String network, PeerInfoImpl peer, byte[] data) {
+        this.network = network;
+        this.peer = peer;
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s: %d bytes", peer != null ? peer.id : "group", network, data.length);
+    }
+}
@@ -1,5 +1,6 @@
 package org.discoos.p2p.internal;
 
+import android.database.SQLException;
 import android.util.Log;
 
 import org.discoos.p2p.P2P;
@@ -9,10 +10,11 @@ import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 import org.discoos.signal.Observer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,9 +25,25 @@ public class P2PNetworkCache {
 
     /**
      * Stores cache to file (lacy initialization)
-     * @see P2PNetworkCache#onNetworkChanged()
+     * @see P2PNetworkCache#onNetworkChanged(String...)
      */
-    private P2PTask mStoreNetworkCache;
+    private P2PWriteBehind mStoreNetworkCache;
+
+    /**
+     * Names of networks changed or removed since last store
+     */
+    private final Set<String> mDirty = new LinkedHashSet<>();
+
+    /**
+     * Fold journal into snapshot on next store
+     */
+    private boolean mCompact;
+
+    /**
+     * Cache backend, networks are stored in snapshot unless
+     * {@link P2P#CACHE_BACKEND_SQLITE} is selected
+     */
+    private String mBackend = P2P.CACHE_BACKEND_SNAPSHOT;
 
     /**
      * Reference to singleton instance
@@ -42,6 +60,11 @@ public class P2PNetworkCache {
      */
     private final Map<String, P2PNetworkImpl> mNetworkMap = new LinkedHashMap<>();
 
+    /**
+     * Set of networks in cache encoded as bitset of network ids
+     */
+    private final P2PNetworkSet mNetworkSet = new P2PNetworkSet();
+
     /**
      * Only allowed to instantiate from this class
      */
@@ -55,6 +78,18 @@ public class P2PNetworkCache {
         return INSTANCE;
     }
 
+    /**
+     * Select cache backend, must be set before cache is loaded
+     * @param backend Cache backend
+     */
+    void setBackend(String backend) {
+        mBackend = backend;
+    }
+
+    String getBackend() {
+        return mBackend;
+    }
+
     void setDispatcher(Dispatcher dispatcher) {
         if(mDispatcher != null) {
             mDispatcher.remove(mObserver);
@@ -67,14 +102,22 @@ public class P2PNetworkCache {
         public void handle(Object signal, Object observable) {
             if(P2P.isEvent(observable)) {
                 Event event = (Event)observable;
-                if(P2P.isPeerChange(event)) {
+                if(P2P.isPeerChange(event) && P2P.REMOVED == (int)event.getSignal()) {
+                    /**
+                     * Remove evicted peer from all networks
+                     */
+                    PeerInfoImpl info = (PeerInfoImpl)event.getObservable();
+                    for(P2PNetworkImpl network : mNetworkMap.values()) {
+                        network.remove(info.id);
+                    }
+                }
+                else if(P2P.isPeerChange(event)) {
                     /**
                      * All all new networks to cache
                      */
                     PeerInfoImpl info = (PeerInfoImpl)event.getObservable();
-                    Set<String> names = new HashSet<>(info.getNetworks());
-                    names.removeAll(mNetworkMap.keySet());
-                    for(String name : names) {
+                    P2PNetworkSet added = info.getMembership().andNot(mNetworkSet);
+                    for(String name : added.getNames()) {
                         P2PNetworkImpl network = new P2PNetworkImpl(name, name);
                         add(network.init());
                         // Add manually since network was added after the signal was raised
@@ -139,9 +182,10 @@ public class P2PNetworkCache {
      * @return P2PNetwork
      */
     P2PNetworkImpl add(P2PNetworkImpl network) {
+        mNetworkSet.add(P2PNetworkRegistry.getInstance().intern(network.mName), (short) 0);
         network = mNetworkMap.put(network.mName, network);
         mDispatcher.raise(P2P.CHANGED, new Event(P2P.ADDED, this, network));
-        onNetworkChanged();
+        onNetworkChanged(network.mName);
         return network;
     }
 
@@ -152,8 +196,9 @@ public class P2PNetworkCache {
      */
     boolean remove(P2PNetworkImpl network) {
         if(mNetworkMap.remove(network.mName) != null) {
+            mNetworkSet.remove(P2PNetworkRegistry.getInstance().lookup(network.mName));
             mDispatcher.raise(P2P.CHANGED, new Event(P2P.REMOVED, this, network));
-            return onNetworkChanged();
+            return onNetworkChanged(network.mName);
         }
         return false;
     }
@@ -163,64 +208,245 @@ public class P2PNetworkCache {
      */
     void removeAll() {
         int count = mNetworkMap.size();
+        String[] names = mNetworkMap.keySet().toArray(new String[count]);
         mNetworkMap.clear();
+        mNetworkSet.clear();
         mDispatcher.raise(P2P.CHANGED, new Event(P2P.REMOVED, this, count));
-        onNetworkChanged();
+        onNetworkChanged(names);
     }
 
     /**
      * Perform change actions
+     * @param names Names of changed networks
      * @return boolean
      */
-    boolean onNetworkChanged() {
+    boolean onNetworkChanged(String... names) {
+        synchronized (mDirty) {
+            Collections.addAll(mDirty, names);
+        }
         if (mStoreNetworkCache == null) {
-            mStoreNetworkCache = new StoreNetworkCache(P2P.getFilesDir().getAbsolutePath());
+            mStoreNetworkCache = new P2PWriteBehind(P2P.FILE_NETWORK_LIST,
+                    new StoreNetworkCache(P2P.getFilesDir().getAbsolutePath(), mBackend),
+                    P2P.CACHE_STORE_DELAY, P2P.CACHE_STORE_MAX_LATENCY);
         }
-        P2PTaskManager.getInstance().schedule(mStoreNetworkCache, P2P.CACHE_STORE_DELAY);
+        mStoreNetworkCache.mark();
         return true;
     }
 
     /**
-     * Load stored networks
+     * Write pending changes to file now
+     */
+    void flush() {
+        if (mStoreNetworkCache != null) {
+            mStoreNetworkCache.flush();
+        }
+    }
+
+    /**
+     * Load stored networks from snapshot and journal
      */
     final static class LoadNetworks extends P2PTask<List<P2PNetworkImpl>> {
 
         private final String mRoot;
 
-        public LoadNetworks(String root) {
+        private final boolean mDatabase;
+
+        public LoadNetworks(String root, String backend) {
             mRoot = root;
+            mDatabase = P2P.CACHE_BACKEND_SQLITE.equals(backend);
         }
 
+        /**
+         * Snapshot in legacy format or journal not replayed cleanly
+         */
+        private boolean mCompact;
+
+        /**
+         * Checksum of loaded snapshot
+         */
+        private int mBase;
+
         @Override
         protected List<P2PNetworkImpl> doInBackground() {
+            Map<String, P2PNetworkImpl> networks = new LinkedHashMap<>();
+            List<P2PNetworkImpl> list = mDatabase ? readDatabase() : readSnapshot();
+            if (list == null) {
+                /* Migrate from other backend by compaction */
+                list = mDatabase ? readSnapshot() : readDatabase();
+                /* Empty database must also be marked as authoritative */
+                mCompact = list != null || mDatabase;
+            }
+            if (list != null) {
+                for (P2PNetworkImpl network : list) {
+                    networks.put(network.mName, network);
+                }
+            }
+            try {
+                P2PJournal journal = new P2PJournal(mRoot, P2P.FILE_NETWORK_JOURNAL,
+                        P2P.FILE_NETWORK_LIST, P2PCodec.KIND_NETWORKS);
+                P2PCodec.replayNetworks(networks, journal.replay(mBase));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to replay network journal", e);
+                mCompact = true;
+            }
+            return new ArrayList<>(networks.values());
+        }
+
+        /**
+         * Read networks from database
+         * @return List, null if networks are not stored in database
+         */
+        private List<P2PNetworkImpl> readDatabase() {
+            if (!P2PDatabase.exists()) {
+                return null;
+            }
+            try {
+                return P2PDatabase.getInstance().loadNetworks();
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to load networks from database", e);
+                return null;
+            }
+        }
+
+        /**
+         * Read networks from snapshot
+         * @return List, null if no valid snapshot exists
+         */
+        private List<P2PNetworkImpl> readSnapshot() {
+            byte[] data = new P2PSnapshot(mRoot, P2P.FILE_NETWORK_LIST).read();
+            if(data == null) {
+                return null;
+            }
+            if(P2PCodec.isEncoded(data)) {
+                mBase = P2PCodec.getChecksum(data);
+                try {
+                    return P2PCodec.decodeNetworks(data);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to decode network list", e);
+                    return Collections.emptyList();
+                }
+            }
+            /* Legacy format, migrated by compaction */
+            mCompact = true;
             return P2PUtils.readList(mRoot, P2P.FILE_NETWORK_LIST, P2PNetworkImpl.class);
         }
 
         @Override
         protected void onFinished(List<P2PNetworkImpl> result) {
-            P2P.getContext().ensure(result);
+            if(mCompact) {
+                P2PNetworkCache cache = P2PNetworkCache.getInstance();
+                synchronized (cache.mDirty) {
+                    cache.mCompact = true;
+                }
+                cache.onNetworkChanged();
+            }
         }
     }
 
     /**
-     * Store current networks
+     * Store current networks. Changes are appended to the journal, which is folded
+     * into the snapshot when it exceeds {@link P2P#CACHE_JOURNAL_RATIO} of the snapshot size.
      */
     final class StoreNetworkCache extends P2PTask<Void> {
 
-        private final String mRoot;
+        private final P2PSnapshot mSnapshot;
 
-        public StoreNetworkCache(String root) {
-            mRoot = root;
+        private final P2PJournal mJournal;
+
+        private final boolean mDatabase;
+
+        public StoreNetworkCache(String root, String backend) {
+            mDatabase = P2P.CACHE_BACKEND_SQLITE.equals(backend);
+            mSnapshot = new P2PSnapshot(root, P2P.FILE_NETWORK_LIST);
+            mJournal = new P2PJournal(root, P2P.FILE_NETWORK_JOURNAL,
+                    P2P.FILE_NETWORK_LIST, P2PCodec.KIND_NETWORKS);
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         protected Void doInBackground() {
-            P2PUtils.writeObject(mRoot, P2P.FILE_NETWORK_LIST,
-                    new ArrayList(mNetworkMap.values()));
+            return mDatabase ? storeDatabase() : storeFiles();
+        }
+
+        /**
+         * Write all changes since last store in one transaction
+         */
+        private Void storeDatabase() {
+            Map<String, P2PNetworkImpl> changes = new LinkedHashMap<>();
+            boolean compact;
+            synchronized (mDirty) {
+                for (String name : mDirty) {
+                    changes.put(name, mNetworkMap.get(name));
+                }
+                mDirty.clear();
+                compact = mCompact;
+                mCompact = false;
+            }
+            try {
+                if (compact) {
+                    P2PDatabase.getInstance().replaceNetworks(new ArrayList<>(mNetworkMap.values()));
+                    /* Files are stale now */
+                    mSnapshot.delete();
+                    mJournal.reset();
+                } else if (!changes.isEmpty()) {
+                    P2PDatabase.getInstance().putNetworks(changes);
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to store networks in database", e);
+                compact();
+            }
             return null;
         }
 
+        private Void storeFiles() {
+            List<byte[]> entries = new ArrayList<>();
+            int length = 0;
+            boolean compact;
+            synchronized (mDirty) {
+                for (String name : mDirty) {
+                    P2PNetworkImpl network = mNetworkMap.get(name);
+                    byte[] entry = network == null ? P2PCodec.encodeRemove(name) : P2PCodec.encodePut(network);
+                    length += entry.length;
+                    entries.add(entry);
+                }
+                mDirty.clear();
+                compact = mCompact;
+                mCompact = false;
+            }
+            long size = mSnapshot.length();
+            if (compact || size == 0 || P2PJournal.isCompactable(mJournal.length() + length, size)) {
+                try {
+                    mSnapshot.write(P2PCodec.encodeNetworks(new ArrayList<>(mNetworkMap.values())));
+                    mJournal.reset();
+                    if (P2PDatabase.exists()) {
+                        P2PDatabase.getInstance().clearNetworks();
+                    }
+                    return null;
+                } catch (IOException | SQLException e) {
+                    Log.e(TAG, "Failed to write network list", e);
+                    compact();
+                }
+            }
+            if (!entries.isEmpty()) {
+                try {
+                    /* Journal applies to current snapshot until compacted */
+                    mJournal.append(entries);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to append to network journal", e);
+                    compact();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Retry with full snapshot on next store
+         */
+        private void compact() {
+            synchronized (mDirty) {
+                mCompact = true;
+            }
+        }
+
         @Override
         protected void onFinished(Void result) {
             Log.d(TAG, "Stored network list");
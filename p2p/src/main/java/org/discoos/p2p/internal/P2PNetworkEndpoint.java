@@ -1,11 +1,23 @@
 package org.discoos.p2p.internal;
 
+import org.alljoyn.bus.BusException;
 import org.alljoyn.bus.BusObject;
 import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
 
 @BusInterface(name = P2PNetworkEndpoint.NAME, announced="true")
 public interface P2PNetworkEndpoint extends BusObject {
 
     String NAME = "org.discoos.p2p.network";
 
+    String MESSAGE_SIGNAL = "message";
+
+    /**
+     * Invoked when peer sends a message in a point-to-point session
+     * @param data Message data
+     * @throws BusException
+     */
+    @BusSignal(name = MESSAGE_SIGNAL)
+    void message(byte[] data) throws BusException;
+
 }
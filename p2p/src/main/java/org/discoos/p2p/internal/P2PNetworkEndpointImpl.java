@@ -2,18 +2,33 @@ package org.discoos.p2p.internal;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.MessageContext;
 import org.alljoyn.bus.Mutable;
+import org.alljoyn.bus.OnJoinSessionListener;
+import org.alljoyn.bus.SessionListener;
 import org.alljoyn.bus.SessionOpts;
 import org.alljoyn.bus.SessionPortListener;
+import org.alljoyn.bus.SignalEmitter;
 import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
 import org.discoos.p2p.P2P;
 import org.discoos.p2p.P2PUtils;
 import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
 /**
  * Implements P2PNetworkEndpoint interface.
  * TODO: Describe usage. Requirement is all handler methods are invoked on background thread.
@@ -22,6 +37,16 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
 
     private static final String TAG = "P2PNetworkEndpoint";
 
+    /**
+     * Offset of raw session port from network port
+     */
+    private static final short RAW_PORT_OFFSET = 0x4000;
+
+    /**
+     * Offset of multipoint group session port from network port
+     */
+    private static final short GROUP_PORT_OFFSET = 0x2000;
+
     /**
      * Network name
      */
@@ -32,6 +57,34 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
      */
     final short mPort;
 
+    /**
+     * Network port of raw reliable sessions for bulk transfers
+     */
+    final short mRawPort;
+
+    /**
+     * Executor of bulk transfers
+     */
+    private final Executor mTransfers;
+
+    /**
+     * Executor on background thread, electing group host again when session or host
+     * is lost, and completing joins of group sessions
+     */
+    private final Executor mElections;
+
+    /**
+     * Network port of multipoint group session
+     */
+    final short mGroupPort;
+
+    /**
+     * Group session of network, null if not enabled or not joined
+     */
+    private volatile P2PGroup mGroup;
+
+    private final boolean mGroupEnabled;
+
     /**
      * Bus attachment
      */
@@ -42,13 +95,22 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
      * @param name Network name
      * @param port Network port
      * @param handler Handler instance
+     * @param transfers Executor of bulk transfers
+     * @param elections Executor on background thread of group host elections and joins
+     * @param group Enable multipoint group session
      */
-    P2PNetworkEndpointImpl(String name, short port, Handler handler) {
+    P2PNetworkEndpointImpl(String name, short port, Handler handler, Executor transfers,
+                           Executor elections, boolean group) {
         super("/".concat(name.replaceAll("\\.","/")), handler);
         assert Looper.getMainLooper() == handler.getLooper() :
                 String.format("Not main looper: %s",handler.getLooper());
         mName = name;
         mPort = port;
+        mRawPort = toRawPort(port);
+        mTransfers = transfers;
+        mElections = elections;
+        mGroupPort = toGroupPort(port);
+        mGroupEnabled = group;
     }
 
     /**
@@ -77,6 +139,9 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
         /* Bind peer to point-to-point session for this network */
         if (!onBind()) return false;
 
+        /* Bind peer to multipoint group session for this network */
+        if (mGroupEnabled && !onBindGroup()) return false;
+
         /* Register network bus object and listen for signals */
         return onRegister();
 
@@ -111,16 +176,261 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
          * BusAttachments use when joining a session.
          */
         Status status = mBus.bindSessionPort(port, sessionOpts, listener);
+        P2PEventJournal.getInstance().record(P2PEventJournal.BIND, null, mName, 0,
+                status == Status.OK ? 0 : status.getErrorCode());
         if (status != Status.OK) {
             error(String.format("Failed to bind to session port=%s, status=%s", port, status));
             return false;
         }
 
+        return onBindRaw();
+    }
+
+    /**
+     * Bind port of raw reliable sessions joined by peers transferring files
+     */
+    private boolean onBindRaw() {
+
+        Mutable.ShortValue port = new Mutable.ShortValue(mRawPort);
+        SessionPortListener listener = new SessionPortListener() {
+            public boolean acceptSessionJoiner(short sessionPort, String joiner, SessionOpts sessionOpts) {
+                return sessionPort == mRawPort;
+            }
+
+            public void sessionJoined(short sessionPort, int id, String joiner) {
+                onTransferJoined(id, joiner);
+            }
+        };
+
+        Status status = mBus.bindSessionPort(port, createRawSessionOpts(), listener);
+        if (status != Status.OK) {
+            error(String.format("Failed to bind to raw session port=%s, status=%s", port, status));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Bind port of multipoint group session hosted by this peer
+     */
+    private boolean onBindGroup() {
+
+        mGroup = P2PGroup.open(mName);
+        Mutable.ShortValue port = new Mutable.ShortValue(mGroupPort);
+        SessionPortListener listener = new SessionPortListener() {
+            public boolean acceptSessionJoiner(short sessionPort, String joiner, SessionOpts sessionOpts) {
+                return sessionPort == mGroupPort && mGroup != null && mGroup.getHostId() == null;
+            }
+
+            public void sessionJoined(short sessionPort, int id, String joiner) {
+                BusAttachment bus = mBus;
+                P2PGroup group = mGroup;
+                if(bus != null && group != null) {
+                    bus.setSessionListener(id, mGroupListener);
+                    if(group.getSessionId() != id) {
+                        group.joined(id, null, null);
+                        P2PEventJournal.getInstance().record(P2PEventJournal.GROUP_JOIN, null, mName, 0, 0);
+                    }
+                    mGroupListener.sessionMemberAdded(id, joiner);
+                }
+            }
+        };
+
+        Status status = mBus.bindSessionPort(port, createGroupSessionOpts(), listener);
+        if (status != Status.OK) {
+            error(String.format("Failed to bind to group session port=%s, status=%s", port, status));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tracks members of group session, called on router thread
+     */
+    private final SessionListener mGroupListener = new SessionListener() {
+        @Override
+        public void sessionLost(int sessionId, int reason) {
+            P2PGroup group = mGroup;
+            String hostId = group != null ? group.getHostId() : null;
+            if(group != null && group.lost(sessionId)) {
+                info(String.format("Group session %s lost, reason: %s", sessionId, reason));
+                elect(hostId);
+            }
+        }
+
+        @Override
+        public void sessionMemberAdded(int sessionId, String uniqueName) {
+            P2PGroup group = mGroup;
+            if(group != null && group.added(sessionId, uniqueName)) {
+                PeerInfoImpl info = PeerInfoCache.getInstance().getByUniqueName(uniqueName);
+                P2PEventJournal.getInstance().record(P2PEventJournal.GROUP_MEMBER_ADDED,
+                        info != null ? info.id : null, mName, 0, 0);
+            }
+        }
+
+        @Override
+        public void sessionMemberRemoved(int sessionId, String uniqueName) {
+            P2PGroup group = mGroup;
+            String hostId = group != null && group.isHost(uniqueName) ? group.getHostId() : null;
+            if(group != null && group.removed(sessionId, uniqueName)) {
+                PeerInfoImpl info = PeerInfoCache.getInstance().getByUniqueName(uniqueName);
+                P2PEventJournal.getInstance().record(P2PEventJournal.GROUP_MEMBER_REMOVED,
+                        info != null ? info.id : null, mName, 0, 0);
+                if(hostId != null) {
+                    info(String.format("Host %s left group session %s", hostId, sessionId));
+                    elect(hostId);
+                }
+            }
+        }
+
+        private void elect(final String lostId) {
+            mElections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onGroupElect(lostId);
+                }
+            });
+        }
+    };
+
+    /**
+     * Elect host of group session among known members of network and join its
+     * session, or host the session if elected. Must be called from background thread.
+     * @param lostId Peer id of host of lost session, not elected, null if none
+     * @return boolean
+     */
+    boolean onGroupElect(String lostId) {
+
+        if(!isJoined() || mGroup == null) {
+            return false;
+        }
+
+        String me = P2PUtils.toShortId(P2PAboutData.getAppId());
+        PeerInfoImpl host = P2PGroup.elect(me, PeerInfoCache.getInstance().getList(mName), lostId);
+        if(host != null) {
+            return onGroupJoin(host);
+        }
+
+        /* Elected, leave session of host not elected and wait for others to join */
+        mGroup.joining(null);
+        int current = mGroup.getSessionId();
+        if(current >= 0 && !mGroup.isHostedBy(null)) {
+            mBus.leaveSession(current);
+            mGroup.lost(current);
+        }
         return true;
     }
 
+    /**
+     * Start joining group session hosted by elected member, the bus thread is
+     * not blocked while the host answers. Must be called from background thread.
+     * @param host Elected host
+     * @return boolean, false if join could not be started
+     */
+    boolean onGroupJoin(final PeerInfoImpl host) {
+
+        if(!isJoined() || mGroup == null) {
+            return false;
+        }
+
+        if(mGroup.isHostedBy(host.id) || !mGroup.joining(host.id)) {
+            /* Already joined or joining */
+            return true;
+        }
+        int current = mGroup.getSessionId();
+        if(current >= 0) {
+            /* Lower host discovered, move to its session. Members of
+             * a session hosted here lose it and elect it as well. */
+            mBus.leaveSession(current);
+            mGroup.lost(current);
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        Status status = mBus.joinSession(host.name, toGroupPort(host.getPort(mName)),
+                createGroupSessionOpts(), mGroupListener, new OnJoinSessionListener() {
+            @Override
+            public void onJoinSession(final Status status, final int sessionId,
+                                      SessionOpts opts, Object context) {
+                /* Invoked on router thread, group is joined on bus thread */
+                mElections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onGroupJoined(host, status, sessionId, start);
+                    }
+                });
+            }
+        }, null);
+        if (status != Status.OK) {
+            onGroupJoined(host, status, -1, start);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Complete join of group session. Must be called from background thread.
+     */
+    private void onGroupJoined(PeerInfoImpl host, Status status, int id, long start) {
+
+        int latency = (int) (SystemClock.elapsedRealtime() - start);
+        P2PEventJournal.getInstance().record(P2PEventJournal.GROUP_JOIN, host.id, mName, latency,
+                status == Status.OK ? 0 : status.getErrorCode());
+
+        P2PGroup group = mGroup;
+        if (group == null || !group.finished(host.id)) {
+            /* Network left or other host elected while joining */
+            BusAttachment bus = mBus;
+            if (status == Status.OK && bus != null) {
+                bus.leaveSession(id);
+            }
+            return;
+        }
+        if (status != Status.OK) {
+            String msg = "Failed to join group session hosted by %s, status: %s";
+            error(String.format(msg, host.id, status));
+            return;
+        }
+        group.joined(id, host.id, host.name);
+    }
+
+    /**
+     * Send message to all members of group session. Must be called from background thread.
+     * @param data Message data
+     * @return boolean, false if not in group session
+     * @throws BusException
+     */
+    boolean onGroupSend(byte[] data) throws BusException {
+        int id = mGroup != null ? mGroup.getSessionId() : -1;
+        if(id < 0) {
+            return false;
+        }
+        SignalEmitter emitter = new SignalEmitter(this, id, SignalEmitter.GlobalBroadcast.Off);
+        emitter.getInterface(P2PNetworkEndpoint.class).message(data);
+        return true;
+    }
+
+    /**
+     * Get port of multipoint group session
+     * @param port Network port
+     * @return short
+     */
+    static short toGroupPort(short port) {
+        return (short) (port + GROUP_PORT_OFFSET);
+    }
+
+    /**
+     * Get port of raw reliable sessions
+     * @param port Network port
+     * @return short
+     */
+    static short toRawPort(short port) {
+        return (short) (port + RAW_PORT_OFFSET);
+    }
+
     @NonNull
-    private SessionOpts createSessionOpts() {
+    SessionOpts createSessionOpts() {
         SessionOpts sessionOpts = new SessionOpts();
         sessionOpts.traffic = SessionOpts.TRAFFIC_MESSAGES;
         sessionOpts.isMultipoint = false;
@@ -129,6 +439,20 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
         return sessionOpts;
     }
 
+    @NonNull
+    SessionOpts createGroupSessionOpts() {
+        SessionOpts sessionOpts = createSessionOpts();
+        sessionOpts.isMultipoint = true;
+        return sessionOpts;
+    }
+
+    @NonNull
+    SessionOpts createRawSessionOpts() {
+        SessionOpts sessionOpts = createSessionOpts();
+        sessionOpts.traffic = SessionOpts.TRAFFIC_RAW_RELIABLE;
+        return sessionOpts;
+    }
+
     /**
      * This method registers network bus object listeners and handlers of session-less signals
      * @return boolean
@@ -138,15 +462,50 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
         debug("onRegister()");
 
         Status status = mBus.registerBusObject(this, mPath);
+        P2PEventJournal.getInstance().record(P2PEventJournal.REGISTER, null, mName, 0,
+                status == Status.OK ? 0 : status.getErrorCode());
         if (status != Status.OK) {
             String msg = "Failed to register bus object, status: %s:%s";
             error(String.format(msg, status.name(), status.getErrorCode()));
             return false;
         }
 
+        /* Handle messages sent in sessions */
+        status = mBus.registerSignalHandlers(this);
+        if (status != Status.OK) {
+            String msg = "Failed to register signal handlers, status: %s:%s";
+            error(String.format(msg, status.name(), status.getErrorCode()));
+            return false;
+        }
+
         return true;
     }
 
+    /**
+     * Implements handler for signal {@link #message(byte[])}. Messages sent by
+     * endpoints of other networks in sessions with this peer are ignored.
+     * @param data Message data
+     * @throws BusException
+     */
+    @BusSignalHandler(iface = NAME, signal = MESSAGE_SIGNAL)
+    public void message(byte[] data) throws BusException {
+        BusAttachment bus = mBus;
+        if(bus == null) {
+            return;
+        }
+        MessageContext context = bus.getMessageContext();
+        if(!mPath.equals(context.objectPath)) {
+            return;
+        }
+        PeerInfoImpl info = PeerInfoCache.getInstance().getByUniqueName(context.sender);
+        if(info == null) {
+            warning(String.format("Message from unknown peer %s", context.sender));
+            return;
+        }
+        P2PEventJournal.getInstance().record(P2PEventJournal.RECEIVE, info.id, mName, 0, 0);
+        raise(P2P.RECEIVED, new P2PMessage(mName, info, data));
+    }
+
     /**
      * Leave network. Must be called from background thread.
      * @return boolean
@@ -160,8 +519,19 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
             return false;
         }
 
+        mBus.unregisterSignalHandlers(this);
         mBus.unregisterBusObject(this);
         mBus.unbindSessionPort(mPort);
+        mBus.unbindSessionPort(mRawPort);
+        if(mGroup != null) {
+            int id = mGroup.getSessionId();
+            if(id >= 0) {
+                mBus.leaveSession(id);
+            }
+            mBus.unbindSessionPort(mGroupPort);
+            P2PGroup.close(mName);
+            mGroup = null;
+        }
 
         /** Notify listeners that this bus ("me") has left the network */
         String id = P2PUtils.toShortId((P2PAboutData.getAppId()));
@@ -174,6 +544,107 @@ final class P2PNetworkEndpointImpl extends P2PEndpointBase implements P2PNetwork
         return true;
     }
 
+    /**
+     * Take session socket of transfer joined by peer, called on router thread
+     * @param id Session id
+     * @param joiner Bus unique name of peer
+     */
+    private void onTransferJoined(int id, String joiner) {
+
+        BusAttachment bus = mBus;
+        if(bus == null) {
+            return;
+        }
+
+        /* Allow blocking bus call in callback */
+        bus.enableConcurrentCallbacks();
+        Mutable.IntegerValue fd = new Mutable.IntegerValue();
+        Status status = bus.getSessionFd(id, fd);
+        if (status != Status.OK) {
+            error(String.format("Failed to get socket of transfer session %s, status=%s", id, status));
+            return;
+        }
+
+        final ParcelFileDescriptor socket = ParcelFileDescriptor.adoptFd(fd.value);
+        final PeerInfoImpl info = PeerInfoCache.getInstance().getByUniqueName(joiner);
+        if(info == null) {
+            warning(String.format("Transfer from unknown peer %s", joiner));
+            close(socket);
+            return;
+        }
+        mTransfers.execute(new Runnable() {
+            @Override
+            public void run() {
+                onReceive(socket, info);
+            }
+        });
+    }
+
+    /**
+     * Receive file from peer into transfers folder, on transfer thread
+     * @param socket Session socket, closed when received
+     * @param info Peer
+     */
+    private void onReceive(ParcelFileDescriptor socket, PeerInfoImpl info) {
+
+        long start = SystemClock.elapsedRealtime();
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(socket);
+        File file = null;
+        File part = null;
+        try {
+            FileChannel channel = in.getChannel();
+            P2PTransfer.Header header = P2PTransfer.readHeader(channel);
+            String name = new File(header.name).getName();
+            if (name.isEmpty() || name.startsWith(".")) {
+                throw new IOException(String.format("Invalid transfer name [%s]", header.name));
+            }
+            /* Reject before writing, sender controls the size */
+            long limit = Math.min(P2P.TRANSFER_MAX_SIZE, P2PUtils.getFreeStorage());
+            if (header.size < 0 || header.size > limit) {
+                throw new IOException(String.format("Transfer [%s] of %d bytes exceeds limit of %d bytes",
+                        name, header.size, limit));
+            }
+            File dir = new File(P2P.getFilesDir(), P2P.DIR_TRANSFERS + File.separator + info.id);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException(String.format("Failed to create folder [%s]", dir));
+            }
+            part = new File(dir, name + ".part");
+            FileOutputStream out = new FileOutputStream(part);
+            try {
+                P2PTransfer.read(channel, out.getChannel(), header.size);
+            } finally {
+                out.close();
+            }
+            file = new File(dir, name);
+            if (!part.renameTo(file)) {
+                throw new IOException(String.format("Failed to rename [%s]", part));
+            }
+        } catch (IOException e) {
+            exception(String.format("Failed to receive transfer from %s", info.id), e);
+            if (part != null && part.exists() && !part.delete()) {
+                warning(String.format("Failed to delete [%s]", part));
+            }
+            file = null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) { /*CONSUME*/ }
+        }
+
+        int latency = (int) (SystemClock.elapsedRealtime() - start);
+        P2PEventJournal.getInstance().record(P2PEventJournal.TRANSFER_RECEIVED, info.id, mName,
+                latency, file != null ? 0 : Status.FAIL.getErrorCode());
+        if(file != null) {
+            raise(P2P.TRANSFERRED, new P2PTransfer(mName, info, file));
+        }
+    }
+
+    private static void close(ParcelFileDescriptor socket) {
+        try {
+            socket.close();
+        } catch (IOException e) { /*CONSUME*/ }
+    }
+
     private void debug(String msg) {
         Log.d(TAG, String.format("[name=%s, path=%s] %s", mName, mPath, msg));
         P2PUtils.raise(P2P.ERROR, mHandler);
@@ -38,6 +38,7 @@ import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 import org.discoos.signal.Observer;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -62,6 +63,16 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
 
     private transient Set<Observer> mObservers;
 
+    /**
+     * Receivers of messages, only used on main thread
+     */
+    private transient List<Receiver> mReceivers;
+
+    /**
+     * Listeners of transferred files, only used on main thread
+     */
+    private transient List<TransferListener> mTransferListeners;
+
     /**
      * A array of peer ids.
      */
@@ -76,6 +87,15 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
         mLabel = label;
     }
 
+    /**
+     * Restore network from store
+     * @see P2PCodec
+     */
+    P2PNetworkImpl(String name, String label, List<String> ids) {
+        this(name, label);
+        mPeerList.addAll(ids);
+    }
+
     /**
      * Register signal handles
      */
@@ -116,9 +136,29 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
                         mDispatcher.schedule(P2P.CHANGED, new Event(P2P.REMOVED, this, info));
                     }
                 }
+            })).add(P2P.RECEIVED, register(new Observer() {
+                @Override
+                public void handle(Object signal, Object observable) {
+                    P2PMessage message = (P2PMessage) observable;
+                    if(mName.equals(message.network) && mReceivers != null) {
+                        for(Receiver it : new ArrayList<>(mReceivers)) {
+                            it.onReceive(P2PNetworkImpl.this, message.peer, message.data);
+                        }
+                    }
+                }
+            })).add(P2P.TRANSFERRED, register(new Observer() {
+                @Override
+                public void handle(Object signal, Object observable) {
+                    P2PTransfer transfer = (P2PTransfer) observable;
+                    if(mName.equals(transfer.network) && mTransferListeners != null) {
+                        for(TransferListener it : new ArrayList<>(mTransferListeners)) {
+                            it.onTransferred(P2PNetworkImpl.this, transfer.peer, transfer.file);
+                        }
+                    }
+                }
             }));
             int count = 0;
-            for(PeerInfo it : P2P.getPeerList()) {
+            for(PeerInfo it : PeerInfoCache.getInstance().getList(mName)) {
                 PeerInfoImpl info = add(it);
                 if(info != null) {
                     log("JOINED", info);
@@ -180,23 +220,109 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
         return Collections.unmodifiableSet(new HashSet<>(mPeerList));
     }
 
+    /**
+     * Get peer ids in join order
+     * @return List
+     */
+    List<String> getPeerIdList() {
+        return new ArrayList<>(mPeerList);
+    }
+
 
     @Override
     public List<PeerInfo> getPeerList() {
         List<PeerInfo> items = new ArrayList<>();
         synchronized (PeerInfoCache.class) {
             for(String id : mPeerList) {
-                items.add(PeerInfoCache.getInstance().get(id));
+                PeerInfoImpl info = PeerInfoCache.getInstance().get(id);
+                if(info != null) {
+                    items.add(info);
+                }
             }
         }
         return Collections.unmodifiableList(items);
     }
 
+    @Override
+    public boolean send(String peerId, byte[] data) {
+        PeerInfoImpl info = PeerInfoCache.getInstance().get(peerId);
+        if(info == null || info.isMe() || !info.isMemberOf(mName)) {
+            return false;
+        }
+        P2P.getDispatcher().raise(P2P.SEND, new P2PMessage(mName, info, data));
+        return true;
+    }
+
+    @Override
+    public boolean sendGroup(byte[] data) {
+        if(P2PGroup.get(mName) == null) {
+            return false;
+        }
+        P2P.getDispatcher().raise(P2P.SEND, new P2PMessage(mName, null, data));
+        return true;
+    }
+
+    @Override
+    public List<PeerInfo> getGroupMembers() {
+        List<PeerInfo> items = new ArrayList<>();
+        P2PGroup group = P2PGroup.get(mName);
+        if(group != null) {
+            for(String it : group.getMembers()) {
+                PeerInfoImpl info = PeerInfoCache.getInstance().getByUniqueName(it);
+                if(info != null) {
+                    items.add(info);
+                }
+            }
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    @Override
+    public boolean transfer(String peerId, File file) {
+        PeerInfoImpl info = PeerInfoCache.getInstance().get(peerId);
+        if(info == null || info.isMe() || !info.isMemberOf(mName)) {
+            return false;
+        }
+        P2P.getDispatcher().raise(P2P.TRANSFER, new P2PTransfer(mName, info, file));
+        return true;
+    }
+
+    @Override
+    public void addReceiver(Receiver receiver) {
+        if(mReceivers == null) {
+            mReceivers = new ArrayList<>();
+        }
+        mReceivers.add(receiver);
+    }
+
+    @Override
+    public void removeReceiver(Receiver receiver) {
+        if(mReceivers != null) {
+            mReceivers.remove(receiver);
+        }
+    }
+
+    @Override
+    public void addTransferListener(TransferListener listener) {
+        if(mTransferListeners == null) {
+            mTransferListeners = new ArrayList<>();
+        }
+        mTransferListeners.add(listener);
+    }
+
+    @Override
+    public void removeTransferListener(TransferListener listener) {
+        if(mTransferListeners != null) {
+            mTransferListeners.remove(listener);
+        }
+    }
+
     PeerInfoImpl add(Object observable) {
         PeerInfoImpl info = (PeerInfoImpl) observable;
         if(info != null && info.isMemberOf(mName)) {
-            if (!mPeerList.contains(info.id)) {
-                P2PNetworkCache.getInstance().onNetworkChanged();
+            /* Evicted peers are not added */
+            if (!mPeerList.contains(info.id) && PeerInfoCache.getInstance().contains(info.id)) {
+                P2PNetworkCache.getInstance().onNetworkChanged(mName);
                 mPeerList.add(info.id);
                 return info;
             }
@@ -215,7 +341,7 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
     PeerInfoImpl remove(String id) {
         synchronized (PeerInfoCache.class) {
             if(mPeerList.remove(id)) {
-                P2PNetworkCache.getInstance().onNetworkChanged();
+                P2PNetworkCache.getInstance().onNetworkChanged(mName);
                 return PeerInfoCache.getInstance().get(id);
             }
         }
@@ -225,7 +351,7 @@ public class P2PNetworkImpl implements P2PNetwork, Serializable {
     private int clear() {
         int count = mPeerList.size();
         mPeerList.clear();
-        P2PNetworkCache.getInstance().onNetworkChanged();
+        P2PNetworkCache.getInstance().onNetworkChanged(mName);
         return count;
     }
 
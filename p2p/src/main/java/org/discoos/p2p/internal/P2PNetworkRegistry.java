@@ -0,0 +1,81 @@
+package org.discoos.p2p.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of network names interned to small integer ids. Ids are assigned in
+ * registration order and are never reused, which allows network membership to be
+ * stored as bitsets.
+ *
+ * <b>Note</b> that ids are only valid in this process, never persist them.
+ *
+ * @see P2PNetworkSet
+ */
+final class P2PNetworkRegistry {
+
+    /**
+     * Reference to singleton instance
+     */
+    private final static P2PNetworkRegistry INSTANCE = new P2PNetworkRegistry();
+
+    /**
+     * Map of network name to id
+     */
+    private final Map<String, Integer> mIds = new HashMap<>();
+
+    /**
+     * List of network names indexed by id
+     */
+    private final List<String> mNames = new ArrayList<>();
+
+    /**
+     * Only allowed to instantiate from this class
+     */
+    private P2PNetworkRegistry() {}
+
+    /**
+     * Get singleton instance
+     * @return P2PNetworkRegistry
+     */
+    static P2PNetworkRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get id of given network name, register name if not found
+     * @param name Network name
+     * @return int
+     */
+    synchronized int intern(String name) {
+        Integer id = mIds.get(name);
+        if(id == null) {
+            id = mNames.size();
+            mNames.add(name);
+            mIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get id of given network name
+     * @param name Network name
+     * @return int Network id, -1 if not registered
+     */
+    synchronized int lookup(String name) {
+        Integer id = mIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get network name from id
+     * @param id Network id
+     * @return String
+     */
+    synchronized String getName(int id) {
+        return mNames.get(id);
+    }
+
+}
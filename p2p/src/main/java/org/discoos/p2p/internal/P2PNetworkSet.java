@@ -0,0 +1,188 @@
+package org.discoos.p2p.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact set of networks encoded as a bitset of network ids, with
+ * session ports stored in a side table indexed by network id.
+ *
+ * <b>Note</b> that this class is not thread-safe. Access to sets owned by
+ * cached peers must be protected by the lock on PeerInfoCache.class.
+ *
+ * @see P2PNetworkRegistry
+ */
+final class P2PNetworkSet {
+
+    /**
+     * Network membership bits indexed by network id
+     */
+    private final BitSet mBits;
+
+    /**
+     * Session ports indexed by network id
+     */
+    private short[] mPorts;
+
+    /**
+     * Create empty set
+     */
+    P2PNetworkSet() {
+        mBits = new BitSet();
+        mPorts = new short[0];
+    }
+
+    /**
+     * Create copy of given set
+     * @param other Set to copy
+     */
+    P2PNetworkSet(P2PNetworkSet other) {
+        mBits = (BitSet) other.mBits.clone();
+        mPorts = other.mPorts.clone();
+    }
+
+    /**
+     * Check if network with given id is member of set
+     * @param id Network id
+     * @return boolean
+     */
+    boolean contains(int id) {
+        return id >= 0 && mBits.get(id);
+    }
+
+    /**
+     * Get session port of network with given id
+     * @param id Network id
+     * @return short Session port, 0 if not member of set
+     */
+    short getPort(int id) {
+        return contains(id) ? mPorts[id] : 0;
+    }
+
+    /**
+     * Add network with given id to set
+     * @param id Network id
+     * @param port Session port
+     * @return boolean true if set changed
+     */
+    boolean add(int id, short port) {
+        boolean changed = !mBits.get(id) || mPorts[id] != port;
+        if(id >= mPorts.length) {
+            mPorts = Arrays.copyOf(mPorts, id + 1);
+        }
+        mBits.set(id);
+        mPorts[id] = port;
+        return changed;
+    }
+
+    /**
+     * Remove network with given id from set
+     * @param id Network id
+     * @return boolean true if set changed
+     */
+    boolean remove(int id) {
+        if(contains(id)) {
+            mBits.clear(id);
+            mPorts[id] = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove all networks from set
+     */
+    void clear() {
+        mBits.clear();
+        Arrays.fill(mPorts, (short) 0);
+    }
+
+    /**
+     * Add all networks in given set to this set (union)
+     * @param other Network set
+     */
+    void addAll(P2PNetworkSet other) {
+        for (int id = other.next(0); id >= 0; id = other.next(id + 1)) {
+            add(id, other.mPorts[id]);
+        }
+    }
+
+    /**
+     * Get networks in this set which are not in given set
+     * @param other Network set
+     * @return P2PNetworkSet
+     */
+    P2PNetworkSet andNot(P2PNetworkSet other) {
+        P2PNetworkSet result = new P2PNetworkSet(this);
+        result.mBits.andNot(other.mBits);
+        for (int id = other.next(0); id >= 0 && id < result.mPorts.length; id = other.next(id + 1)) {
+            result.mPorts[id] = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Get next network id in set
+     * @param from Network id to start from (inclusive)
+     * @return int Network id, -1 if none
+     */
+    int next(int from) {
+        return mBits.nextSetBit(from);
+    }
+
+    boolean isEmpty() {
+        return mBits.isEmpty();
+    }
+
+    int size() {
+        return mBits.cardinality();
+    }
+
+    /**
+     * Get network names in set in network id order
+     * @return List
+     */
+    List<String> getNames() {
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        List<String> names = new ArrayList<>(size());
+        for (int id = next(0); id >= 0; id = next(id + 1)) {
+            names.add(registry.getName(id));
+        }
+        return names;
+    }
+
+    /**
+     * Get map of network names to session ports
+     * @return Map
+     */
+    Map<String, Short> toMap() {
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        Map<String, Short> networks = new LinkedHashMap<>();
+        for (int id = next(0); id >= 0; id = next(id + 1)) {
+            networks.put(registry.getName(id), mPorts[id]);
+        }
+        return networks;
+    }
+
+    /**
+     * Create set from map of network names to session ports
+     * @param networks Map of network names to session ports
+     * @return P2PNetworkSet
+     */
+    static P2PNetworkSet fromMap(Map<String, Short> networks) {
+        P2PNetworkSet set = new P2PNetworkSet();
+        if(networks != null) {
+            P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+            for (Map.Entry<String, Short> it : networks.entrySet()) {
+                Short port = it.getValue();
+                set.add(registry.intern(it.getKey()), port == null ? 0 : port);
+            }
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,164 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.PeerInfo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Paged view of peers ordered by last seen, most recent first.
+ *
+ * The number of peers is fixed when the pager is created, see
+ * {@link PeerInfoCache#getPager(String, Executor, Executor)}. Pages are
+ * loaded from the source in the background when first viewed, and the
+ * listener is told when they are loaded. Peers removed from the source
+ * since the pager was created are viewed as null.
+ *
+ * Except for loading, only used on main thread.
+ */
+public final class P2PPeerPager {
+
+    /**
+     * Number of peers in a page
+     */
+    public static final int PAGE_SIZE = 50;
+
+    private final Source mSource;
+
+    private final int mSize;
+
+    private final Executor mLoader;
+
+    private final Executor mDeliver;
+
+    /**
+     * Pages by page number. Guarded by itself.
+     */
+    private final Map<Integer, List<? extends PeerInfo>> mPages = new HashMap<>();
+
+    /**
+     * Pages being loaded. Guarded by {@link #mPages}.
+     */
+    private final Set<Integer> mPending = new HashSet<>();
+
+    private Listener mListener;
+
+    /**
+     * Create pager
+     * @param source Source of peers
+     * @param size Number of peers
+     * @param loader Executor loading pages
+     * @param deliver Executor telling listener about loaded pages
+     */
+    P2PPeerPager(Source source, int size, Executor loader, Executor deliver) {
+        mSource = source;
+        mSize = size;
+        mLoader = loader;
+        mDeliver = deliver;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Get number of peers
+     * @return int
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get peer at position, its page is loaded in the background if not loaded
+     * @param position Position, 0 is most recently seen
+     * @return PeerInfo, null if not loaded yet or removed since counted
+     */
+    public PeerInfo get(int position) {
+        final int page = position / PAGE_SIZE;
+        List<? extends PeerInfo> items;
+        synchronized (mPages) {
+            items = mPages.get(page);
+            if (items == null) {
+                if (mPending.add(page)) {
+                    mLoader.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadPage(page);
+                            deliver(page);
+                        }
+                    });
+                }
+                return null;
+            }
+        }
+        int index = position % PAGE_SIZE;
+        return index < items.size() ? items.get(index) : null;
+    }
+
+    /**
+     * Load page of position on calling thread, if not loaded
+     * @param position Position, 0 is most recently seen
+     */
+    public void load(int position) {
+        int page = position / PAGE_SIZE;
+        synchronized (mPages) {
+            if (mPages.containsKey(page)) {
+                return;
+            }
+        }
+        loadPage(page);
+    }
+
+    private void loadPage(int page) {
+        List<? extends PeerInfo> items = mSource.load(page * PAGE_SIZE, PAGE_SIZE);
+        synchronized (mPages) {
+            mPages.put(page, items);
+            mPending.remove(page);
+        }
+    }
+
+    private void deliver(final int page) {
+        mDeliver.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    int position = page * PAGE_SIZE;
+                    mListener.onLoaded(position, Math.min(PAGE_SIZE, mSize - position));
+                }
+            }
+        });
+    }
+
+    /**
+     * Source of paged peers
+     */
+    interface Source {
+
+        /**
+         * Load peers ordered by last seen, called on any thread
+         * @param offset Number of peers to skip
+         * @param limit Maximum number of peers
+         * @return List
+         */
+        List<? extends PeerInfo> load(int offset, int limit);
+    }
+
+    /**
+     * Listener of loaded pages, called on main thread
+     */
+    public interface Listener {
+
+        /**
+         * Called when peers are loaded
+         * @param position Position of first peer
+         * @param count Number of peers
+         */
+        void onLoaded(int position, int count);
+    }
+
+}
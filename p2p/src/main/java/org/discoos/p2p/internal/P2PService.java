@@ -189,7 +189,7 @@ public final class P2PService extends Service {
         Log.i(TAG, String.format("onJoin(): network=%s", name));
 
         /** Forward action to handler */
-        if(!mHandler.join(name)){
+        if(!mHandler.join(name, mPreferences.getBoolean("group_sessions", false))){
             Log.e(TAG, String.format("Failed to join network %s", name));
             return false;
         }
@@ -208,6 +208,16 @@ public final class P2PService extends Service {
                         case P2P.CANCEL:
                             mHandler.cancel((Event)observable);
                             break;
+                        case P2P.ANNOUNCE:
+                            int interval = Integer.parseInt(mPreferences.getString("announce_interval", "10"));
+                            mHandler.announce(interval * 1000L);
+                            break;
+                        case P2P.SEND:
+                            mHandler.send((P2PMessage) observable);
+                            break;
+                        case P2P.TRANSFER:
+                            mHandler.transfer((P2PTransfer) observable);
+                            break;
                         case P2P.PING:
                             int timeout = Integer.parseInt(mPreferences.getString("ping_timeout", "60"));
                             mHandler.ping((PeerInfo) observable, timeout * 1000);
@@ -322,6 +332,9 @@ public final class P2PService extends Service {
         /* Release references*/
         mObserver = null;
         mPreferences = null;
+
+        /* Persist pending cache changes */
+        P2P.getContext().flush();
     }
 
 
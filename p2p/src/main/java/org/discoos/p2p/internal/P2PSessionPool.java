@@ -0,0 +1,294 @@
+package org.discoos.p2p.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of point-to-point sessions joined with peers, keyed by peer and network.
+ *
+ * A session is joined when a message is first sent to a peer in a network,
+ * and reused for later messages until it has been idle for the idle timeout,
+ * is lost, or the peer is attached to the bus with another unique name.
+ * Sessions are joined asynchronously, messages sent while the join is
+ * pending are queued in the session until {@link #joined} or {@link #failed}.
+ *
+ * Only used on bus thread, times are given by the caller.
+ */
+final class P2PSessionPool {
+
+    private final Connector mConnector;
+
+    private final long mIdleTimeout;
+
+    private final int mMaxPending;
+
+    /**
+     * Sessions by peer id and network
+     */
+    private final Map<String, Session> mSessions = new HashMap<>();
+
+    /**
+     * Create pool
+     * @param connector Joins and leaves sessions
+     * @param idleTimeout Time in milliseconds a session is kept when not used
+     * @param maxPending Maximum number of messages queued while session is joined
+     */
+    P2PSessionPool(Connector connector, long idleTimeout, int maxPending) {
+        mConnector = connector;
+        mIdleTimeout = idleTimeout;
+        mMaxPending = maxPending;
+    }
+
+    /**
+     * Get session with peer, join is started if not pooled
+     * @param peerId Peer id
+     * @param uniqueName Bus unique name of peer
+     * @param network Network name
+     * @param port Session port of network bound by peer
+     * @param now Current time in milliseconds
+     * @return Session, pending until joined, null if join could not be started
+     */
+    Session acquire(String peerId, String uniqueName, String network, short port, long now) {
+        String key = toKey(peerId, network);
+        Session session = mSessions.get(key);
+        if (session != null && !session.uniqueName.equals(uniqueName)) {
+            /* Peer is attached with another unique name, session is stale */
+            leave(key);
+            session = null;
+        }
+        if (session == null) {
+            session = new Session(peerId, uniqueName, network, mMaxPending);
+            if (!mConnector.join(session, port)) {
+                return null;
+            }
+            mSessions.put(key, session);
+        }
+        session.mUsed = now;
+        return session;
+    }
+
+    /**
+     * Complete pending session joined by bus
+     * @param session Pending session
+     * @param id Session id
+     * @return boolean, true if pooled, false if closed while pending and left again
+     */
+    boolean joined(Session session, int id) {
+        if (mSessions.get(toKey(session.peerId, session.network)) != session) {
+            mConnector.leave(id);
+            return false;
+        }
+        session.id = id;
+        session.emitter = mConnector.open(session.network, id);
+        return true;
+    }
+
+    /**
+     * Remove pending session which failed to join, queued messages are dropped
+     * @param session Pending session
+     * @return Number of dropped messages
+     */
+    int failed(Session session) {
+        String key = toKey(session.peerId, session.network);
+        if (mSessions.get(key) == session) {
+            mSessions.remove(key);
+        }
+        return session.drain().size();
+    }
+
+    /**
+     * Remove lost session, already left by bus
+     * @param id Session id
+     * @return boolean, true if pooled
+     */
+    boolean lost(int id) {
+        Iterator<Session> it = mSessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            if (session.isJoined() && session.id == id) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close session, for instance after it failed
+     * @param session Session
+     */
+    void close(Session session) {
+        leave(toKey(session.peerId, session.network));
+    }
+
+    /**
+     * Close sessions idle longer than idle timeout
+     * @param now Current time in milliseconds
+     * @return Delay in milliseconds until next session expires, -1 if pool is empty
+     */
+    long evict(long now) {
+        long next = -1;
+        Iterator<Session> it = mSessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            /* Pending sessions are kept until joined or failed */
+            long expires = session.isJoined() ? session.mUsed + mIdleTimeout : now + mIdleTimeout;
+            if (expires <= now) {
+                it.remove();
+                mConnector.leave(session.id);
+            } else if (next < 0 || expires - now < next) {
+                next = expires - now;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Close all sessions in network
+     * @param network Network name
+     */
+    void close(String network) {
+        Iterator<Session> it = mSessions.values().iterator();
+        while (it.hasNext()) {
+            Session session = it.next();
+            if (session.network.equals(network)) {
+                it.remove();
+                leave(session);
+            }
+        }
+    }
+
+    /**
+     * Close all sessions
+     */
+    void closeAll() {
+        for (Session it : mSessions.values()) {
+            leave(it);
+        }
+        mSessions.clear();
+    }
+
+    /**
+     * Get number of pooled sessions
+     * @return int
+     */
+    int size() {
+        return mSessions.size();
+    }
+
+    private void leave(String key) {
+        Session session = mSessions.remove(key);
+        if (session != null) {
+            leave(session);
+        }
+    }
+
+    /* Pending sessions are left when joined, see joined() */
+    private void leave(Session session) {
+        if (session.isJoined()) {
+            mConnector.leave(session.id);
+        }
+    }
+
+    private static String toKey(String peerId, String network) {
+        return peerId + '@' + network;
+    }
+
+    /**
+     * Session with peer, pending until joined
+     */
+    static final class Session {
+
+        final String peerId;
+
+        final String uniqueName;
+
+        final String network;
+
+        /**
+         * Session id, -1 while pending
+         */
+        int id = -1;
+
+        /**
+         * Network endpoint interface emitting signals in this session, null while pending
+         */
+        P2PNetworkEndpoint emitter;
+
+        private final int mMaxPending;
+
+        private final List<byte[]> mPending = new ArrayList<>();
+
+        private long mUsed;
+
+        Session(String peerId, String uniqueName, String network, int maxPending) {
+            this.peerId = peerId;
+            this.uniqueName = uniqueName;
+            this.network = network;
+            mMaxPending = maxPending;
+        }
+
+        boolean isJoined() {
+            return emitter != null;
+        }
+
+        /**
+         * Queue message until session is joined
+         * @param data Message data
+         * @return boolean, false if queue is full
+         */
+        boolean offer(byte[] data) {
+            if (mPending.size() >= mMaxPending) {
+                return false;
+            }
+            mPending.add(data);
+            return true;
+        }
+
+        /**
+         * Remove queued messages
+         * @return List of messages in order queued
+         */
+        List<byte[]> drain() {
+            if (mPending.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<byte[]> pending = new ArrayList<>(mPending);
+            mPending.clear();
+            return pending;
+        }
+    }
+
+    /**
+     * Joins and leaves sessions on bus
+     */
+    interface Connector {
+
+        /**
+         * Start joining session with peer, completed with {@link #joined} or {@link #failed}
+         * @param session Pending session
+         * @param port Session port of network bound by peer
+         * @return boolean, false if join could not be started
+         */
+        boolean join(Session session, short port);
+
+        /**
+         * Open signal emitter in session
+         * @param network Network name
+         * @param id Session id
+         * @return P2PNetworkEndpoint emitting signals to peer
+         */
+        P2PNetworkEndpoint open(String network, int id);
+
+        /**
+         * Leave session
+         * @param id Session id
+         */
+        void leave(int id);
+    }
+
+}
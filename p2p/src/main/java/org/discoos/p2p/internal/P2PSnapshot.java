@@ -0,0 +1,134 @@
+package org.discoos.p2p.internal;
+
+import android.util.Log;
+
+import org.discoos.p2p.P2PUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Crash-safe snapshot file with one previous generation.
+ *
+ * Snapshots are written to a temporary file, synced to disk and renamed into
+ * place, so the live file is never partially written. The replaced snapshot is
+ * kept as previous generation, and is used when the live file is missing or
+ * fails checksum verification, e.g. after a crash between the two renames.
+ * The previous generation is then restored as live snapshot, so journals
+ * appended afterwards match the snapshot they are replayed on.
+ *
+ * @see P2PCodec#verify(byte[])
+ * @see P2PMappedPeerStore#verify(byte[])
+ */
+final class P2PSnapshot {
+
+    private static final String TAG = "P2PSnapshot";
+
+    private static final String SUFFIX_TEMP = ".tmp";
+
+    private static final String SUFFIX_PREVIOUS = ".bak";
+
+    private final String mRoot;
+
+    private final String mFilename;
+
+    /**
+     * Create snapshot
+     * @param root Root directory
+     * @param filename Snapshot file name
+     */
+    P2PSnapshot(String root, String filename) {
+        mRoot = root;
+        mFilename = filename;
+    }
+
+    File getFile() {
+        return new File(mRoot, mFilename);
+    }
+
+    /**
+     * Get size of live snapshot in bytes
+     * @return long
+     */
+    long length() {
+        return getFile().length();
+    }
+
+    /**
+     * Read latest valid generation of snapshot. Files written by older
+     * versions without checksum are returned as-is.
+     * @return byte[], null if no valid generation exists
+     */
+    byte[] read() {
+        byte[] data = P2PUtils.readBytes(mRoot, mFilename);
+        if(P2PCodec.isSerialized(data) || verify(data)) {
+            return data;
+        }
+        byte[] previous = P2PUtils.readBytes(mRoot, mFilename + SUFFIX_PREVIOUS);
+        if(previous != null && verify(previous)) {
+            Log.w(TAG, String.format("Snapshot [%s] %s, using previous generation",
+                    mFilename, data == null ? "missing" : "corrupt"));
+            try {
+                write(previous, false);
+            } catch (IOException e) {
+                Log.e(TAG, String.format("Failed to restore snapshot [%s]", mFilename), e);
+            }
+            return previous;
+        }
+        if(data != null) {
+            Log.e(TAG, String.format("Snapshot [%s] corrupt, no valid previous generation", mFilename));
+        }
+        return null;
+    }
+
+    private static boolean verify(byte[] data) {
+        return P2PCodec.verify(data) || P2PMappedPeerStore.verify(data);
+    }
+
+    /**
+     * Delete all generations of snapshot
+     */
+    void delete() {
+        for (String suffix : new String[]{"", SUFFIX_PREVIOUS, SUFFIX_TEMP}) {
+            File file = new File(mRoot, mFilename + suffix);
+            if(file.exists() && !file.delete()) {
+                Log.w(TAG, String.format("Failed to delete [%s]", file));
+            }
+        }
+    }
+
+    /**
+     * Write snapshot atomically, keeping current snapshot as previous generation
+     * @param data Encoded snapshot with checksum trailer
+     * @throws IOException If snapshot could not be written
+     */
+    void write(byte[] data) throws IOException {
+        write(data, true);
+    }
+
+    private void write(byte[] data, boolean rotate) throws IOException {
+        File file = getFile();
+        File temp = new File(mRoot, mFilename + SUFFIX_TEMP);
+        File previous = new File(mRoot, mFilename + SUFFIX_PREVIOUS);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if(rotate && file.exists()) {
+            if(previous.exists() && !previous.delete()) {
+                throw new IOException(String.format("Failed to delete [%s]", previous));
+            }
+            if(!file.renameTo(previous)) {
+                throw new IOException(String.format("Failed to rename [%s]", file));
+            }
+        }
+        if(!temp.renameTo(file)) {
+            throw new IOException(String.format("Failed to rename [%s]", temp));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.discoos.p2p.internal;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Staged startup pipeline.
+ *
+ * Each stage runs {@link P2PTask#doInBackground()} on the background executor
+ * when all its dependencies have finished, so independent stages run in
+ * parallel. {@link P2PTask#onFinished(Object)} is called on the main executor
+ * before dependent stages are started, which gives a defined order of effects
+ * on shared state. The duration of each stage is recorded in a startup trace.
+ */
+final class P2PStartup {
+
+    private static final String TAG = "P2PStartup";
+
+    private final Executor mBackground;
+
+    private final Executor mMain;
+
+    private final List<Stage<?>> mStages = new ArrayList<>();
+
+    private long mStartedAt;
+
+    private int mFinished;
+
+    /**
+     * Create startup pipeline
+     * @param background Executor running stages
+     * @param main Executor delivering stage results on main thread
+     */
+    P2PStartup(Executor background, Executor main) {
+        mBackground = background;
+        mMain = main;
+    }
+
+    /**
+     * Add stage to pipeline. Dependencies must be added first.
+     * @param stage Stage
+     * @return Stage
+     */
+    <T extends Stage<?>> T add(T stage) {
+        Stage<?> added = stage;
+        for (Stage<?> it : added.mDependencies) {
+            if (!mStages.contains(it)) {
+                throw new IllegalArgumentException(String.format(
+                        "Dependency [%s] of [%s] not added", it.mName, added.mName));
+            }
+        }
+        mStages.add(added);
+        return stage;
+    }
+
+    /**
+     * Start all stages without pending dependencies. Must be called on main thread.
+     */
+    void start() {
+        mStartedAt = SystemClock.elapsedRealtime();
+        Log.i(TAG, String.format("Starting %d stages", mStages.size()));
+        for (Stage<?> stage : mStages) {
+            stage.mReadyAt = mStartedAt;
+            if (stage.mPending == 0) {
+                execute(stage);
+            }
+        }
+    }
+
+    /**
+     * Check if all stages are finished
+     * @return boolean
+     */
+    boolean isFinished() {
+        return mStartedAt > 0 && mFinished == mStages.size();
+    }
+
+    /**
+     * Get startup trace
+     * @return String with duration and wait time of each stage
+     */
+    String getTrace() {
+        StringBuilder trace = new StringBuilder();
+        for (Stage<?> stage : mStages) {
+            if (trace.length() > 0) {
+                trace.append(", ");
+            }
+            trace.append(stage);
+        }
+        return trace.toString();
+    }
+
+    @SuppressWarnings(value = "unchecked")
+    private void execute(final Stage stage) {
+        mBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                stage.mStartedAt = SystemClock.elapsedRealtime();
+                Object result = null;
+                try {
+                    result = stage.doInBackground();
+                } catch (Exception e) {
+                    Log.e(TAG, String.format("Stage [%s] failed", stage.mName), e);
+                }
+                stage.mFinishedAt = SystemClock.elapsedRealtime();
+                final Object finished = result;
+                mMain.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFinished(stage, finished);
+                    }
+                });
+            }
+        });
+    }
+
+    @SuppressWarnings(value = "unchecked")
+    private void onFinished(Stage stage, Object result) {
+        stage.mResult = result;
+        try {
+            stage.onFinished(result);
+        } catch (Exception e) {
+            Log.e(TAG, String.format("Stage [%s] failed to finish", stage.mName), e);
+        }
+        mFinished++;
+        long now = SystemClock.elapsedRealtime();
+        for (Stage<?> it : mStages) {
+            if (it.mDependencies.contains(stage) && --it.mPending == 0) {
+                it.mReadyAt = now;
+                execute(it);
+            }
+        }
+        if (isFinished()) {
+            Log.i(TAG, String.format("Startup finished in %d ms: %s", now - mStartedAt, getTrace()));
+        }
+    }
+
+    /**
+     * Startup stage
+     * @param <R> Result type
+     */
+    abstract static class Stage<R> extends P2PTask<R> {
+
+        private final String mName;
+
+        private final List<Stage<?>> mDependencies;
+
+        private int mPending;
+
+        private R mResult;
+
+        /**
+         * Time when all dependencies were finished
+         */
+        private long mReadyAt;
+
+        private long mStartedAt;
+
+        private long mFinishedAt;
+
+        /**
+         * Create stage
+         * @param name Stage name used in trace
+         * @param dependencies Stages which must finish before this stage is run
+         */
+        Stage(String name, Stage<?>... dependencies) {
+            mName = name;
+            mDependencies = Arrays.asList(dependencies);
+            mPending = dependencies.length;
+        }
+
+        /**
+         * Get result of finished stage
+         * @return R, null if not finished
+         */
+        R getResult() {
+            return mResult;
+        }
+
+        /**
+         * Get time spent in {@link #doInBackground()}
+         * @return long, -1 if not finished
+         */
+        long getDuration() {
+            return mFinishedAt > 0 ? mFinishedAt - mStartedAt : -1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%dms (queued %dms)", mName, getDuration(), mStartedAt - mReadyAt);
+        }
+    }
+}
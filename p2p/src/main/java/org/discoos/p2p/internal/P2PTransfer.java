@@ -0,0 +1,167 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Bulk transfer of a file to or from a peer over a raw reliable session.
+ *
+ * The session socket carries a header followed by the file content:
+ * <pre>
+ * header := magic (4) version (1) name length (2) name (UTF-8) size (8)
+ * </pre>
+ * Content is sent with {@link FileChannel#transferTo}, which lets the kernel
+ * copy bytes from file to socket, and received through a direct buffer.
+ * Content is never copied through the Java heap.
+ */
+final class P2PTransfer {
+
+    private static final int MAGIC = 0x50325054; // "P2PT"
+
+    private static final int VERSION = 1;
+
+    private static final int MAX_NAME = 1024;
+
+    /**
+     * Size of direct buffer reading content from sockets
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Network name
+     */
+    final String network;
+
+    /**
+     * Peer transferred to or from
+     */
+    final PeerInfoImpl peer;
+
+    final File file;
+
+    P2PTransfer(String network, PeerInfoImpl peer, File file) {
+        this.network = network;
+        this.peer = peer;
+        this.file = file;
+    }
+
+    /**
+     * Write header and file content to channel
+     * @param name Name of content
+     * @param source File channel, read from current position to end
+     * @param target Session channel
+     * @return long Number of content bytes written
+     * @throws IOException
+     */
+    static long write(String name, FileChannel source, WritableByteChannel target) throws IOException {
+        byte[] bytes = name.getBytes(UTF_8);
+        if (bytes.length > MAX_NAME) {
+            throw new IOException(String.format("Name too long [%s]", name));
+        }
+        long position = source.position();
+        long size = source.size() - position;
+        ByteBuffer header = ByteBuffer.allocateDirect(15 + bytes.length);
+        header.putInt(MAGIC).put((byte) VERSION).putShort((short) bytes.length).put(bytes).putLong(size);
+        header.flip();
+        while (header.hasRemaining()) {
+            target.write(header);
+        }
+        long written = 0;
+        while (written < size) {
+            written += source.transferTo(position + written, size - written, target);
+        }
+        return written;
+    }
+
+    /**
+     * Read header from channel
+     * @param source Session channel
+     * @return Header
+     * @throws IOException if not a valid header
+     */
+    static Header readHeader(ReadableByteChannel source) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(7);
+        fill(source, buffer);
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IOException("Invalid transfer header");
+        }
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > MAX_NAME) {
+            throw new IOException(String.format("Name too long [%d]", length));
+        }
+        buffer = ByteBuffer.allocate(length + 8);
+        fill(source, buffer);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new Header(new String(bytes, UTF_8), buffer.getLong());
+    }
+
+    /**
+     * Read file content from channel
+     * @param source Session channel, positioned after header
+     * @param target File channel, written from position 0
+     * @param size Number of bytes in content
+     * @return long Number of bytes read
+     * @throws IOException, {@link EOFException} if channel ends before content
+     */
+    static long read(ReadableByteChannel source, FileChannel target, long size) throws IOException {
+        /* Session sockets can not be mapped, so transferFrom would copy through a
+         * small buffer. A large direct buffer is filled by the kernel instead. */
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(size, 1)));
+        long read = 0;
+        while (read < size) {
+            buffer.clear();
+            if (size - read < buffer.capacity()) {
+                buffer.limit((int) (size - read));
+            }
+            if (source.read(buffer) < 0) {
+                throw new EOFException(String.format("Transfer ended after %d of %d bytes", read, size));
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                read += target.write(buffer, read);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s: %s", peer.id, network, file.getName());
+    }
+
+    private static void fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                throw new EOFException("Transfer ended in header");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Transfer header
+     */
+    static final class Header {
+
+        final String name;
+
+        final long size;
+
+        Header(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package org.discoos.p2p.internal;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Write-behind scheduler for cache store tasks.
+ *
+ * Each change pushes the write {@code delay} milliseconds into the future
+ * (trailing edge debounce), so a burst of changes is written once after the
+ * burst has settled. A write is never postponed more than {@code maxLatency}
+ * milliseconds after the first unwritten change. If the store task is still
+ * running when the write is due, the write is retried after {@code delay},
+ * so changes made during a write are never left behind.
+ *
+ * A flush runs the store task on the calling thread, after any write in
+ * progress has finished, so changes are on disk when it returns. A write
+ * queued on the executor but not yet started is done by the flush instead.
+ */
+@SuppressWarnings("unchecked")
+final class P2PWriteBehind {
+
+    private static final String TAG = "P2PWriteBehind";
+
+    private final String mName;
+
+    private final P2PTask mTask;
+
+    private final int mDelay;
+
+    private final int mMaxLatency;
+
+    private final Executor mExecutor;
+
+    /**
+     * Handler on main thread, changes are marked from any thread
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Time of first unwritten change, 0 if none
+     */
+    private long mFirst;
+
+    /**
+     * Number of unwritten changes
+     */
+    private int mPending;
+
+    /**
+     * True from write is queued until store task has finished
+     */
+    private boolean mInFlight;
+
+    /**
+     * Total number of changes written
+     */
+    private long mChanges;
+
+    /**
+     * Total number of writes
+     */
+    private long mWrites;
+
+    /**
+     * Held while store task runs, writes and flushes never run concurrently
+     */
+    private final Object mStoreLock = new Object();
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    /**
+     * Store task executed asynchronously, skipped if written by flush since queued
+     */
+    private final Runnable mStore = new Runnable() {
+        @Override
+        public void run() {
+            final Object result;
+            synchronized (mStoreLock) {
+                synchronized (P2PWriteBehind.this) {
+                    if (!mInFlight) {
+                        return;
+                    }
+                }
+                try {
+                    result = mTask.doInBackground();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, String.format("Failed to write [%s]", mName), e);
+                    return;
+                } finally {
+                    synchronized (P2PWriteBehind.this) {
+                        mInFlight = false;
+                    }
+                }
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTask.onFinished(result);
+                }
+            });
+        }
+    };
+
+    /**
+     * Create write-behind scheduler
+     * @param name Name used in log
+     * @param task Store task
+     * @param delay Quiet period before write (milliseconds)
+     * @param maxLatency Maximum time from first change to write (milliseconds)
+     */
+    P2PWriteBehind(String name, P2PTask task, int delay, int maxLatency) {
+        this(name, task, delay, maxLatency, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Create write-behind scheduler
+     * @param name Name used in log
+     * @param task Store task
+     * @param delay Quiet period before write (milliseconds)
+     * @param maxLatency Maximum time from first change to write (milliseconds)
+     * @param executor Executor of store task
+     */
+    P2PWriteBehind(String name, P2PTask task, int delay, int maxLatency, Executor executor) {
+        mName = name;
+        mTask = task;
+        mDelay = delay;
+        mMaxLatency = maxLatency;
+        mExecutor = executor;
+    }
+
+    /**
+     * Mark change and (re)schedule write
+     */
+    synchronized void mark() {
+        long now = SystemClock.uptimeMillis();
+        if (mPending++ == 0) {
+            mFirst = now;
+        }
+        mHandler.removeCallbacks(mWrite);
+        mHandler.postAtTime(mWrite, getDeadline(now, mFirst, mDelay, mMaxLatency));
+    }
+
+    /**
+     * Write pending changes on calling thread, blocks until written. Must not
+     * be called while holding locks taken by the store task.
+     */
+    void flush() {
+        synchronized (mStoreLock) {
+            synchronized (this) {
+                mHandler.removeCallbacks(mWrite);
+                if (mPending == 0 && !mInFlight) {
+                    return;
+                }
+                if (mPending > 0) {
+                    written("Flushing");
+                }
+                /* Queued write is done here */
+                mInFlight = false;
+            }
+            mTask.onFinished(mTask.doInBackground());
+        }
+    }
+
+    /**
+     * Get average number of changes per write
+     * @return float
+     */
+    synchronized float getCoalescingRatio() {
+        return mWrites == 0 ? 0 : (float) mChanges / mWrites;
+    }
+
+    /**
+     * Get time of next write
+     * @param now Time of change
+     * @param first Time of first unwritten change
+     * @param delay Quiet period before write
+     * @param maxLatency Maximum time from first change to write
+     * @return long
+     */
+    static long getDeadline(long now, long first, int delay, int maxLatency) {
+        return Math.min(now + delay, first + maxLatency);
+    }
+
+    /**
+     * Queue write of pending changes, called on main thread when due
+     */
+    synchronized void write() {
+        if (mPending == 0) {
+            return;
+        }
+        if (mInFlight) {
+            /* Still writing previous changes */
+            mHandler.postDelayed(mWrite, mDelay);
+            return;
+        }
+        mInFlight = true;
+        mExecutor.execute(mStore);
+        written("Writing");
+    }
+
+    private void written(String action) {
+        mChanges += mPending;
+        mWrites++;
+        Log.d(TAG, String.format("%s [%s] after %d changes in %d ms, %d changes in %d writes (%.1f per write)",
+                action, mName, mPending, SystemClock.uptimeMillis() - mFirst, mChanges, mWrites,
+                getCoalescingRatio()));
+        mPending = 0;
+        mFirst = 0;
+    }
+
+}
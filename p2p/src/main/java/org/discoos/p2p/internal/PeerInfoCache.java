@@ -1,24 +1,34 @@
 package org.discoos.p2p.internal;
 
+import android.database.SQLException;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.alljoyn.bus.Variant;
 import org.discoos.p2p.P2P;
 import org.discoos.p2p.P2PUtils;
+import org.discoos.p2p.PeerCapabilities;
 import org.discoos.p2p.PeerInfo;
 import org.discoos.signal.Dispatcher;
 import org.discoos.signal.Event;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * PeerInfoCache implementation
@@ -36,7 +46,15 @@ public final class PeerInfoCache {
      * Stores cache to file (lacy initialization)
      * @see PeerInfoCache#onPeerChanged(int, PeerInfoImpl)
      */
-    private P2PTask mStorePeerInfoCache;
+    private P2PWriteBehind mStorePeerInfoCache;
+
+    /**
+     * Cache backend
+     * @see P2P#CACHE_BACKEND_SNAPSHOT
+     * @see P2P#CACHE_BACKEND_MAPPED
+     * @see P2P#CACHE_BACKEND_SQLITE
+     */
+    private String mBackend = P2P.CACHE_BACKEND_SNAPSHOT;
 
     /**
      * Get signal dispatcher
@@ -49,9 +67,9 @@ public final class PeerInfoCache {
     private Handler mHandler = new Handler();
 
     /**
-     * Only allowed to instantiate from this class
+     * Only allowed to instantiate from this class, and from tests
      */
-    private PeerInfoCache() {}
+    PeerInfoCache() {}
 
     /**
      * Get singleton instance
@@ -65,6 +83,98 @@ public final class PeerInfoCache {
         mDispatcher = dispatcher;
     }
 
+    /**
+     * Select cache backend, must be set before cache is loaded
+     * @param backend Cache backend
+     */
+    void setBackend(String backend) {
+        mBackend = backend;
+    }
+
+    String getBackend() {
+        return mBackend;
+    }
+
+    /**
+     * Maximum number of peers in cache
+     */
+    private int mMaxSize = P2P.CACHE_MAX_SIZE;
+
+    /**
+     * Peer time-to-live in cache since last seen (milliseconds)
+     */
+    private long mTimeToLive = P2P.CACHE_TTL;
+
+    /**
+     * Number of peers evicted because cache was full
+     */
+    private long mSizeEvictions;
+
+    /**
+     * Number of peers evicted because time-to-live was exceeded
+     */
+    private long mExpiredEvictions;
+
+    /**
+     * Number of changes to evicted peers which was ignored
+     */
+    private long mTombstoneHits;
+
+    /**
+     * Tombstones of evicted peers (id -> time of eviction). Prevents late signals
+     * for evicted peers from recreating them. Only a new announcement revives a peer.
+     */
+    private final Map<String, Long> mTombstones = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > mMaxSize ||
+                    System.currentTimeMillis() - eldest.getValue() > P2P.CACHE_TOMBSTONE_TTL;
+        }
+    };
+
+    /**
+     * Ids of peers changed or evicted since last store
+     */
+    private final Set<String> mDirty = new LinkedHashSet<>();
+
+    /**
+     * Fold journal into snapshot on next store
+     */
+    private boolean mCompact;
+
+    /**
+     * Set maximum number of peers in cache
+     * @param size Maximum number of peers
+     */
+    public void setMaxSize(int size) {
+        synchronized (PeerInfoCache.class) {
+            mMaxSize = Math.max(1, size);
+            evict();
+        }
+    }
+
+    /**
+     * Set peer time-to-live in cache since last seen
+     * @param millis Time-to-live in milliseconds
+     */
+    public void setTimeToLive(long millis) {
+        synchronized (PeerInfoCache.class) {
+            mTimeToLive = millis;
+            evict();
+        }
+    }
+
+    /**
+     * Get snapshot of cache metrics
+     * @return Metrics
+     */
+    public Metrics getMetrics() {
+        synchronized (PeerInfoCache.class) {
+            return new Metrics(mPeerCache.size(), mTombstones.size(),
+                    mSizeEvictions, mExpiredEvictions, mTombstoneHits);
+        }
+    }
+
 
     public boolean contains(String id) {
         synchronized (PeerInfoCache.class) {
@@ -78,6 +188,24 @@ public final class PeerInfoCache {
         }
     }
 
+    /**
+     * Get peer from cache, or from database with the {@link P2P#CACHE_BACKEND_SQLITE}
+     * backend if the peer is not among the recently seen peers loaded into the cache
+     * @param id Peer id
+     * @return PeerInfoImpl, null if not found
+     */
+    public PeerInfoImpl find(String id) {
+        PeerInfoImpl info = get(id);
+        if(info == null && P2P.CACHE_BACKEND_SQLITE.equals(mBackend) && P2PDatabase.exists()) {
+            try {
+                info = P2PDatabase.getInstance().queryPeer(id);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to query peer from database", e);
+            }
+        }
+        return info;
+    }
+
     public PeerInfoImpl getMe() {
         String id = P2PUtils.toShortId(P2PAboutData.getAppId());
         return get(id);
@@ -93,10 +221,96 @@ public final class PeerInfoCache {
         }
     }
 
+    /**
+     * Get unmodifiable list of peers which are member of given network
+     * @param network Network name
+     * @return List
+     */
+    public List<PeerInfoImpl> getList(String network) {
+        synchronized (PeerInfoCache.class) {
+            return toList(mNetworkIndex.get(P2PNetworkRegistry.getInstance().lookup(network)));
+        }
+    }
+
+    /**
+     * Get paged view of peers ordered by last seen, most recent first. With the
+     * {@link P2P#CACHE_BACKEND_SQLITE} backend peers are counted and paged in the
+     * database, which may lag the cache by {@link P2P#CACHE_STORE_MAX_LATENCY}.
+     * Otherwise peers in cache are sorted once into a snapshot which is paged.
+     * Reads the database, must not be called on main thread.
+     * @param network Network name, all peers if null
+     * @param loader Executor loading pages
+     * @param deliver Executor telling listener about loaded pages
+     * @return P2PPeerPager
+     */
+    public P2PPeerPager getPager(final String network, Executor loader, Executor deliver) {
+        if(P2P.CACHE_BACKEND_SQLITE.equals(mBackend) && P2PDatabase.exists()) {
+            try {
+                final P2PDatabase database = P2PDatabase.getInstance();
+                return new P2PPeerPager(new P2PPeerPager.Source() {
+                    @Override
+                    public List<? extends PeerInfo> load(int offset, int limit) {
+                        try {
+                            /* Rows are not swapped for cached instances, which may order differently */
+                            return database.queryPeers(network, offset, limit);
+                        } catch (SQLException e) {
+                            Log.e(TAG, "Failed to query peers from database", e);
+                            return Collections.emptyList();
+                        }
+                    }
+                }, database.countPeers(network), loader, deliver);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to count peers in database", e);
+            }
+        }
+        final List<PeerInfoImpl> items = new ArrayList<>(network == null ? getList() : getList(network));
+        Collections.sort(items, new Comparator<PeerInfoImpl>() {
+            @Override
+            public int compare(PeerInfoImpl lhs, PeerInfoImpl rhs) {
+                return rhs.getTimestamp().compareTo(lhs.getTimestamp());
+            }
+        });
+        return new P2PPeerPager(new P2PPeerPager.Source() {
+            @Override
+            public List<? extends PeerInfo> load(int offset, int limit) {
+                int from = Math.min(offset, items.size());
+                return items.subList(from, Math.min(from + limit, items.size()));
+            }
+        }, items.size(), loader, deliver);
+    }
+
+    /**
+     * Get unmodifiable list of peers in given timeout state
+     * @param timeout Timeout state
+     * @return List
+     */
+    public List<PeerInfoImpl> getList(boolean timeout) {
+        synchronized (PeerInfoCache.class) {
+            return toList(timeout ? mTimeoutIndex : mAliveIndex);
+        }
+    }
+
+    /**
+     * Get peer from current bus unique name
+     * @param uniqueName Bus unique name
+     * @return PeerInfoImpl
+     */
+    public PeerInfoImpl getByUniqueName(String uniqueName) {
+        synchronized (PeerInfoCache.class) {
+            String id = mUniqueNameIndex.get(uniqueName);
+            return id == null ? null : mPeerCache.get(id);
+        }
+    }
+
     PeerInfoImpl put(PeerInfoImpl info) {
         PeerInfoImpl previous;
         synchronized (PeerInfoCache.class) {
+            if(mTombstones.containsKey(info.id) ||
+                    !info.isMe() && isExpired(info, System.currentTimeMillis())) {
+                return null;
+            }
             previous = mPeerCache.put(info.id, info);
+            index(info);
         }
         if(!info.equals(previous)) {
             onPeerChanged(previous == null ? P2P.ADDED : P2P.CHANGED, info);
@@ -109,24 +323,202 @@ public final class PeerInfoCache {
      */
     private final Map<String, PeerInfoImpl> mPeerCache = new LinkedHashMap<>();
 
+    /**
+     * Secondary index of peer ids by network id
+     */
+    private final Map<Integer, Set<String>> mNetworkIndex = new HashMap<>();
+
+    /**
+     * Secondary index of peer id by bus unique name
+     */
+    private final Map<String, String> mUniqueNameIndex = new HashMap<>();
+
+    /**
+     * Secondary index of peer ids in timeout state
+     */
+    private final Set<String> mTimeoutIndex = new LinkedHashSet<>();
+
+    /**
+     * Secondary index of peer ids not in timeout state
+     */
+    private final Set<String> mAliveIndex = new LinkedHashSet<>();
+
+    /**
+     * Networks each peer id is indexed by (used to remove stale index entries)
+     */
+    private final Map<String, P2PNetworkSet> mIndexedNetworks = new HashMap<>();
+
+    /**
+     * Bus unique name each peer id is indexed by (used to remove stale index entries)
+     */
+    private final Map<String, String> mIndexedNames = new HashMap<>();
+
+    /**
+     * Update secondary indexes with current state of given peer.
+     * Must be called while holding the lock on PeerInfoCache.class,
+     * after the primary map is updated.
+     * @param info Peer info
+     */
+    private void index(PeerInfoImpl info) {
+
+        /* Network index, only networks added or removed since last indexed are visited */
+        P2PNetworkSet networks = info.getMembership();
+        P2PNetworkSet indexed = mIndexedNetworks.put(info.id, networks);
+        if(indexed != null) {
+            unindex(info.id, indexed.andNot(networks));
+            networks = networks.andNot(indexed);
+        }
+        for(int network = networks.next(0); network >= 0; network = networks.next(network + 1)) {
+            Set<String> ids = mNetworkIndex.get(network);
+            if(ids == null) {
+                ids = new LinkedHashSet<>();
+                mNetworkIndex.put(network, ids);
+            }
+            ids.add(info.id);
+        }
+
+        /* Unique name index */
+        String name = mIndexedNames.put(info.id, info.name);
+        if(name != null && !name.equals(info.name) && info.id.equals(mUniqueNameIndex.get(name))) {
+            mUniqueNameIndex.remove(name);
+        }
+        if(info.name != null) {
+            mUniqueNameIndex.put(info.name, info.id);
+        }
+
+        /* Timeout index */
+        if(info.isTimeout()) {
+            mAliveIndex.remove(info.id);
+            mTimeoutIndex.add(info.id);
+        } else {
+            mTimeoutIndex.remove(info.id);
+            mAliveIndex.add(info.id);
+        }
+    }
+
+    /**
+     * Remove peer from secondary indexes.
+     * Must be called while holding the lock on PeerInfoCache.class.
+     * @param id Peer id
+     */
+    private void unindex(String id) {
+        P2PNetworkSet networks = mIndexedNetworks.remove(id);
+        if(networks != null) {
+            unindex(id, networks);
+        }
+        String name = mIndexedNames.remove(id);
+        if(name != null && id.equals(mUniqueNameIndex.get(name))) {
+            mUniqueNameIndex.remove(name);
+        }
+        mTimeoutIndex.remove(id);
+        mAliveIndex.remove(id);
+    }
+
+    /**
+     * Evict expired peers and least recently seen peers exceeding maximum cache size.
+     * Must be called while holding the lock on PeerInfoCache.class.
+     * @return int Number of peers evicted
+     */
+    int evict() {
+        long now = System.currentTimeMillis();
+        List<PeerInfoImpl> candidates = new ArrayList<>();
+        int count = 0;
+        for(PeerInfoImpl it : mPeerCache.values()) {
+            if(isExpired(it, now)) {
+                candidates.add(it);
+            }
+        }
+        for(PeerInfoImpl it : candidates) {
+            if(evict(it, now)) {
+                mExpiredEvictions++;
+                count++;
+            }
+        }
+        if(mPeerCache.size() > mMaxSize) {
+            /* Evict down to 90% of maximum size to amortize the cost of sorting */
+            candidates = new ArrayList<>(mPeerCache.values());
+            Collections.sort(candidates, new Comparator<PeerInfoImpl>() {
+                @Override
+                public int compare(PeerInfoImpl lhs, PeerInfoImpl rhs) {
+                    return lhs.timestamp.compareTo(rhs.timestamp);
+                }
+            });
+            int excess = mPeerCache.size() - (mMaxSize - mMaxSize / 10);
+            for(int i = 0; i < candidates.size() && excess > 0; i++) {
+                if(evict(candidates.get(i), now)) {
+                    mSizeEvictions++;
+                    excess--;
+                    count++;
+                }
+            }
+        }
+        if(count > 0) {
+            Log.d(TAG, String.format("Evicted %s peers, %s", count, getMetrics()));
+        }
+        return count;
+    }
+
+    private void unindex(String id, P2PNetworkSet networks) {
+        for(int network = networks.next(0); network >= 0; network = networks.next(network + 1)) {
+            Set<String> ids = mNetworkIndex.get(network);
+            ids.remove(id);
+            if(ids.isEmpty()) {
+                mNetworkIndex.remove(network);
+            }
+        }
+    }
+
+    private boolean isExpired(PeerInfoImpl info, long now) {
+        return now - info.timestamp.getTime() > mTimeToLive;
+    }
+
+    private boolean evict(PeerInfoImpl info, long now) {
+        if(info.isMe()) {
+            return false;
+        }
+        mPeerCache.remove(info.id);
+        unindex(info.id);
+        mDirty.add(info.id);
+        mTombstones.put(info.id, now);
+        raise(P2P.REMOVED, info);
+        return true;
+    }
+
+    private void raise(int type, Object info) {
+        final Event event = new Event(type, this, info);
+        /** Ensure executed on main thread */
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.raise(P2P.CHANGED, event);
+            }
+
+        });
+    }
+
+    private List<PeerInfoImpl> toList(Set<String> ids) {
+        if(ids == null) {
+            return Collections.emptyList();
+        }
+        List<PeerInfoImpl> items = new ArrayList<>(ids.size());
+        for(String id : ids) {
+            items.add(mPeerCache.get(id));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
     PeerInfoImpl newInstance(Map<String, Variant> data) {
         PeerInfoImpl info;
-        String id = P2PUtils.toShortId(data);
+        /* Decoded in one pass, other fields decoded when read */
+        P2PAboutRecord about = P2PAboutRecord.decode(data);
+        String id = about.getId();
         synchronized (PeerInfoCache.class) {
+            /* Announced peers are alive, revive if evicted */
+            mTombstones.remove(id);
             if(mPeerCache.containsKey(id)) {
-                info = mPeerCache.get(id).update(
-                        P2PUtils.toUniqueName(data),
-                        P2PUtils.toSummary(data),
-                        P2PUtils.toDetails(data),
-                        P2PUtils.toParams(data)
-                );
+                info = mPeerCache.get(id).update(about);
             } else {
-                info = new PeerInfoImpl(id,
-                        P2PUtils.toUniqueName(data),
-                        P2PUtils.toSummary(data),
-                        P2PUtils.toDetails(data),
-                        P2PUtils.toParams(data)
-                );
+                info = new PeerInfoImpl(about);
                 onPeerChanged(P2P.ADDED, info);
             }
         }
@@ -135,21 +527,76 @@ public final class PeerInfoCache {
 
     void onPeerChanged(int type, PeerInfoImpl info) {
         synchronized (PeerInfoCache.class) {
+            if(mTombstones.containsKey(info.id)) {
+                /* Late change to evicted peer, do not recreate it */
+                mTombstoneHits++;
+                return;
+            }
+            mDirty.add(info.id);
             mPeerCache.put(info.id, info);
+            index(info);
+            if(mPeerCache.size() > mMaxSize) {
+                evict();
+            }
             if(mStorePeerInfoCache == null) {
                 String root = P2P.getFilesDir().getAbsolutePath();
-                mStorePeerInfoCache = new StorePeerInfoCache(root);
+                P2PTask task = P2P.CACHE_BACKEND_SQLITE.equals(mBackend)
+                        ? new StorePeerInfoDatabase(root) : new StorePeerInfoCache(root, mBackend);
+                mStorePeerInfoCache = new P2PWriteBehind(mBackend, task,
+                        P2P.CACHE_STORE_DELAY, P2P.CACHE_STORE_MAX_LATENCY);
             }
-            P2PTaskManager.getInstance().schedule(mStorePeerInfoCache, P2P.CACHE_STORE_DELAY);
-            final Event event = new Event(type, this, info);
-            /** Ensure executed on main thread */
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mDispatcher.raise(P2P.CHANGED, event);
-                }
+            mStorePeerInfoCache.mark();
+            raise(type, info);
+        }
+    }
 
-            });
+    /**
+     * Set write-behind scheduler of store task, created on first change if not set
+     * @param store P2PWriteBehind
+     */
+    void setStore(P2PWriteBehind store) {
+        synchronized (PeerInfoCache.class) {
+            mStorePeerInfoCache = store;
+        }
+    }
+
+    /**
+     * Write pending changes to file now
+     */
+    void flush() {
+        P2PWriteBehind store;
+        synchronized (PeerInfoCache.class) {
+            store = mStorePeerInfoCache;
+        }
+        /* Store task locks cache */
+        if(store != null) {
+            store.flush();
+        }
+    }
+
+    /**
+     * Immutable snapshot of cache metrics
+     */
+    public static final class Metrics {
+
+        public final int size;
+        public final int tombstones;
+        public final long sizeEvictions;
+        public final long expiredEvictions;
+        public final long tombstoneHits;
+
+        Metrics(int size, int tombstones, long sizeEvictions, long expiredEvictions, long tombstoneHits) {
+            this.size = size;
+            this.tombstones = tombstones;
+            this.sizeEvictions = sizeEvictions;
+            this.expiredEvictions = expiredEvictions;
+            this.tombstoneHits = tombstoneHits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%s, tombstones=%s, evicted(size)=%s, evicted(ttl)=%s, tombstone hits=%s",
+                    size, tombstones, sizeEvictions, expiredEvictions, tombstoneHits);
         }
     }
 
@@ -162,14 +609,40 @@ public final class PeerInfoCache {
 
         public final String id;
         public final String name;
-        public final String summary;
-        public final String details;
-        public final Map<String, Object> params;
+
+        private String summary;
+        private String details;
+        private Map<String, Object> params;
 
         private boolean timeout;
         private Date timestamp;
 
-        private Map<String, Short> networks = new LinkedHashMap<>();
+        /**
+         * Network membership encoded as bitset of network ids
+         */
+        private transient P2PNetworkSet membership = new P2PNetworkSet();
+
+        /**
+         * Legacy serialized form of network membership, only set while (de)serializing
+         */
+        private Map<String, Short> networks;
+
+        /**
+         * Liveness history, shared by all instances of the same peer
+         */
+        private transient PeerLivenessHistory history = new PeerLivenessHistory();
+
+        /**
+         * Mapped store record of summary, details and parameters not yet decoded
+         * @see P2PMappedPeerStore
+         */
+        private transient P2PMappedPeerStore.Record record;
+
+        /**
+         * Announced AboutData not yet decoded
+         * @see P2PAboutRecord
+         */
+        private transient P2PAboutRecord about;
 
         PeerInfoImpl(String id, String name, String summary, String details, Map<String, Object> params) {
             this.id = id;
@@ -181,13 +654,115 @@ public final class PeerInfoCache {
             this.timestamp = Calendar.getInstance().getTime();
         }
 
+        /**
+         * Restore peer from store
+         * @see P2PCodec
+         */
+        PeerInfoImpl(String id, String name, String summary, String details, Map<String, Object> params,
+                     boolean timeout, Date timestamp, P2PNetworkSet membership) {
+            this.id = id;
+            this.name = name;
+            this.summary = summary;
+            this.details = details;
+            this.params = Collections.unmodifiableMap(params);
+            this.timeout = timeout;
+            this.timestamp = timestamp;
+            this.membership = membership;
+        }
+
+        /**
+         * Restore peer from mapped store with fields decoded when first accessed
+         * @see P2PMappedPeerStore
+         */
+        PeerInfoImpl(String id, String name, boolean timeout, Date timestamp,
+                     P2PNetworkSet membership, P2PMappedPeerStore.Record record) {
+            this.id = id;
+            this.name = name;
+            this.timeout = timeout;
+            this.timestamp = timestamp;
+            this.membership = membership;
+            this.record = record;
+        }
+
+        /**
+         * Create peer from announced AboutData with fields decoded when first accessed,
+         * at the latest when the peer is stored
+         * @see P2PAboutRecord
+         */
+        PeerInfoImpl(P2PAboutRecord about) {
+            this.id = about.getId();
+            this.name = about.getUniqueName();
+            this.about = about;
+            this.timeout = false;
+            this.timestamp = Calendar.getInstance().getTime();
+        }
+
+        /**
+         * Decode lazy fields from mapped store or announced AboutData
+         */
+        private synchronized void resolve() {
+            if(record != null) {
+                P2PMappedPeerStore.Fields fields = record.decode();
+                summary = fields.summary;
+                details = fields.details;
+                params = Collections.unmodifiableMap(fields.params);
+                record = null;
+            } else if(about != null) {
+                summary = about.getSummary();
+                details = about.getDetails();
+                params = about.getParams();
+                about = null;
+            }
+        }
+
+        /**
+         * Get announced AboutData if fields are not decoded yet
+         * @return P2PAboutRecord, null if decoded
+         */
+        private synchronized P2PAboutRecord getAbout() {
+            return about;
+        }
+
+        /**
+         * Get mapped store record if fields are not decoded yet
+         * @return P2PMappedPeerStore.Record, null if decoded
+         */
+        synchronized P2PMappedPeerStore.Record getRecord() {
+            return record;
+        }
+
         public List<String> getNetworks() {
-            return Collections.unmodifiableList(new ArrayList<>(networks.keySet()));
+            synchronized (PeerInfoCache.class) {
+                return Collections.unmodifiableList(membership.getNames());
+            }
         }
 
         @Override
         public boolean isMemberOf(String network) {
-            return networks.containsKey(network);
+            synchronized (PeerInfoCache.class) {
+                return membership.contains(P2PNetworkRegistry.getInstance().lookup(network));
+            }
+        }
+
+        /**
+         * Get session port of given network
+         * @param network Network name
+         * @return short Session port, 0 if not member of network
+         */
+        short getPort(String network) {
+            synchronized (PeerInfoCache.class) {
+                return membership.getPort(P2PNetworkRegistry.getInstance().lookup(network));
+            }
+        }
+
+        /**
+         * Get copy of network membership
+         * @return P2PNetworkSet
+         */
+        P2PNetworkSet getMembership() {
+            synchronized (PeerInfoCache.class) {
+                return new P2PNetworkSet(membership);
+            }
         }
 
         public String getId() {
@@ -199,57 +774,110 @@ public final class PeerInfoCache {
         }
 
         public String getSummary() {
+            resolve();
             return summary;
         }
 
         public String getDetails() {
+            resolve();
             return details;
         }
 
+        Map<String, Object> getParams() {
+            resolve();
+            return params;
+        }
+
         public boolean isTimeout() {
             return timeout;
         }
 
         public Object get(String parameter) {
-            return params.get(parameter);
+            return getParams().get(parameter);
         }
 
         public Date getTimestamp() {
             return timestamp;
         }
 
+        @Override
+        public PeerCapabilities getCapabilities() {
+            P2PAboutRecord about = getAbout();
+            Object value = about != null ? about.get(P2PAboutData.CAPABILITIES) : get(P2PAboutData.CAPABILITIES);
+            return value instanceof byte[] ? PeerCapabilities.decode((byte[]) value) : null;
+        }
+
         public boolean isMe() {
             return id.equals(P2PUtils.toShortId(P2PAboutData.getAppId()));
         }
 
+        @Override
+        public double getUptime() {
+            return history.getUptime(System.currentTimeMillis());
+        }
+
+        @Override
+        public long getMeanTimeBetweenFailures() {
+            return history.getMeanTimeBetweenFailures(System.currentTimeMillis());
+        }
+
+        @Override
+        public double getFlapRate() {
+            return history.getFlapRate(System.currentTimeMillis());
+        }
+
+        @Override
+        public boolean isFlapping() {
+            return history.isFlapping(System.currentTimeMillis());
+        }
+
+        /**
+         * Check if peer should be probed now, flapping peers are probed less often.
+         * @param interval Minimum interval between probes of flapping peers
+         * @return boolean
+         */
+        boolean probe(long interval) {
+            return history.probe(System.currentTimeMillis(), interval);
+        }
+
         PeerInfoImpl alive() {
             return alive(name);
         }
 
         PeerInfoImpl alive(String name) {
             synchronized (PeerInfoCache.class) {
-                return cache(new PeerInfoImpl(id, name, summary, details, params));
+                P2PAboutRecord about = getAbout();
+                if(about != null && about.getUniqueName() != null && about.getUniqueName().equals(name)) {
+                    /* Keep fields undecoded */
+                    return cache(new PeerInfoImpl(about));
+                }
+                return cache(new PeerInfoImpl(id, name, getSummary(), getDetails(), getParams()));
             }
         }
 
         PeerInfoImpl timeout() {
             synchronized (PeerInfoCache.class) {
                 this.timeout = true;
+                history.record(P2P.TIMEOUT, System.currentTimeMillis());
                 PeerInfoCache.getInstance().onPeerChanged(P2P.CHANGED, this);
                 return this;
             }
         }
 
-        PeerInfoImpl update(String name, String summary, String details, Map<String, Object> params) {
+        PeerInfoImpl update(P2PAboutRecord about) {
             synchronized (PeerInfoCache.class) {
-                return cache(new PeerInfoImpl(id, name, summary, details, params));
+                return cache(new PeerInfoImpl(about));
             }
         }
 
-        PeerInfoImpl add(String network, Short port) {
+        PeerInfoImpl add(String network, short port) {
             synchronized (PeerInfoCache.class) {
-                Short previous = networks.put(network, port);
-                if(port != previous) {
+                int id = P2PNetworkRegistry.getInstance().intern(network);
+                boolean joined = !membership.contains(id);
+                if(membership.add(id, port)) {
+                    if(joined) {
+                        history.record(P2P.JOIN, System.currentTimeMillis());
+                    }
                     PeerInfoCache.getInstance().onPeerChanged(P2P.CHANGED, this);
                 }
                 return this;
@@ -258,7 +886,13 @@ public final class PeerInfoCache {
 
         PeerInfoImpl remove(String... networks) {
             synchronized (PeerInfoCache.class) {
-                if(this.networks.keySet().removeAll(Arrays.asList(networks))) {
+                boolean changed = false;
+                P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+                for(String network : networks) {
+                    changed |= membership.remove(registry.lookup(network));
+                }
+                if(changed) {
+                    history.record(P2P.LEFT, System.currentTimeMillis());
                     PeerInfoCache.getInstance().onPeerChanged(P2P.CHANGED, this);
                 }
                 return this;
@@ -266,69 +900,351 @@ public final class PeerInfoCache {
         }
 
         private PeerInfoImpl cache(PeerInfoImpl info) {
-            info.networks = new LinkedHashMap<>(networks);
+            info.membership = new P2PNetworkSet(membership);
+            info.history = history;
+            history.record(P2P.ALIVE, info.timestamp.getTime());
             PeerInfoCache.getInstance().onPeerChanged(P2P.CHANGED, info);
             return info;
         }
 
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            resolve();
+            synchronized (PeerInfoCache.class) {
+                networks = membership.toMap();
+                try {
+                    out.defaultWriteObject();
+                } finally {
+                    networks = null;
+                }
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            membership = P2PNetworkSet.fromMap(networks);
+            networks = null;
+            history = new PeerLivenessHistory();
+        }
+
         @Override
         public String toString() {
-            return summary;
+            return getSummary();
         }
     }
 
     /**
-     * Load PeerInfo cache
+     * Load PeerInfo cache from snapshot and journal, or from database
      */
     static final class LoadPeerInfoCache extends P2PTask<List<PeerInfoImpl>> {
 
+        private static final String[] BACKENDS = {
+                P2P.CACHE_BACKEND_SNAPSHOT, P2P.CACHE_BACKEND_MAPPED, P2P.CACHE_BACKEND_SQLITE
+        };
+
         private final String mRoot;
 
-        public LoadPeerInfoCache(String root) {
+        private final String mBackend;
+
+        /**
+         * Snapshot in legacy format, written by other backend
+         * or journal not replayed cleanly
+         */
+        private boolean mCompact;
+
+        /**
+         * Checksum of loaded snapshot
+         */
+        private int mBase;
+
+        public LoadPeerInfoCache(String root, String backend) {
             mRoot = root;
+            mBackend = backend;
         }
 
         @Override
         protected List<PeerInfoImpl> doInBackground() {
+            long start = SystemClock.elapsedRealtime();
+            List<PeerInfoImpl> list = read(mBackend);
+            for (int i = 0; list == null && i < BACKENDS.length; i++) {
+                if(!BACKENDS[i].equals(mBackend)) {
+                    /* Migrate from other backend by compaction */
+                    list = read(BACKENDS[i]);
+                    mCompact = list != null;
+                }
+            }
+            if(list == null && P2P.CACHE_BACKEND_SQLITE.equals(mBackend)) {
+                /* Mark empty database as authoritative */
+                mCompact = true;
+            }
+            Map<String, PeerInfoImpl> peers = new LinkedHashMap<>();
+            if(list != null) {
+                for (PeerInfoImpl info : list) {
+                    peers.put(info.id, info);
+                }
+            }
+            Log.i(TAG, String.format("Loaded %d peers in %d ms [%s]", peers.size(),
+                    SystemClock.elapsedRealtime() - start, mBackend));
+            try {
+                P2PJournal journal = new P2PJournal(mRoot, P2P.FILE_PEERINFO_JOURNAL,
+                        P2P.FILE_PEERINFO_LIST, P2PCodec.KIND_PEERS);
+                List<byte[]> entries = journal.replay(mBase);
+                P2PCodec.replayPeers(peers, entries);
+                Log.d(TAG, String.format("Replayed %d journal entries", entries.size()));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to replay peerinfo journal", e);
+                mCompact = true;
+            }
+            return new ArrayList<>(peers.values());
+        }
+
+        private List<PeerInfoImpl> read(String backend) {
+            if(P2P.CACHE_BACKEND_MAPPED.equals(backend)) {
+                return readMapped();
+            } else if(P2P.CACHE_BACKEND_SQLITE.equals(backend)) {
+                return readDatabase();
+            }
+            return readSnapshot();
+        }
+
+        /**
+         * Read most recently seen peers from database, other peers are queried
+         * on demand. Database is written directly, the journal is empty when
+         * peers are stored in database.
+         * @return List, null if peers are not stored in database
+         */
+        private List<PeerInfoImpl> readDatabase() {
+            if(!P2PDatabase.exists()) {
+                return null;
+            }
+            try {
+                return P2PDatabase.getInstance().loadPeers(P2P.CACHE_SQLITE_WORKING_SET);
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to load peers from database", e);
+                return null;
+            }
+        }
+
+        /**
+         * Read peers from memory-mapped store
+         * @return List, null if no valid store exists
+         */
+        private List<PeerInfoImpl> readMapped() {
+            P2PSnapshot snapshot = new P2PSnapshot(mRoot, P2P.FILE_PEERINFO_MAP);
+            P2PMappedPeerStore store = P2PMappedPeerStore.open(snapshot.getFile());
+            if(store == null && snapshot.read() != null) {
+                /* Previous generation restored */
+                store = P2PMappedPeerStore.open(snapshot.getFile());
+            }
+            if(store == null) {
+                return null;
+            }
+            mBase = store.getChecksum();
+            try {
+                return store.load();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to load peerinfo map", e);
+                return Collections.emptyList();
+            }
+        }
+
+        /**
+         * Read peers from snapshot
+         * @return List, null if no valid snapshot exists
+         */
+        private List<PeerInfoImpl> readSnapshot() {
+            byte[] data = new P2PSnapshot(mRoot, P2P.FILE_PEERINFO_LIST).read();
+            if(data == null) {
+                return null;
+            }
+            if(P2PCodec.isEncoded(data)) {
+                mBase = P2PCodec.getChecksum(data);
+                try {
+                    return P2PCodec.decodePeers(data);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to decode peerinfo list", e);
+                    return Collections.emptyList();
+                }
+            }
+            /* Legacy format, migrated by compaction */
+            mCompact = true;
             return P2PUtils.readList(mRoot, P2P.FILE_PEERINFO_LIST, PeerInfoImpl.class);
         }
 
         @Override
         protected void onFinished(List<PeerInfoImpl> result) {
             synchronized (PeerInfoCache.class) {
+                PeerInfoCache cache = PeerInfoCache.getInstance();
                 for (PeerInfoImpl info : result) {
-                    if (!PeerInfoCache.getInstance().contains(info.id)) {
-                        PeerInfoCache.getInstance().put(info);
+                    if (!cache.contains(info.id)) {
+                        cache.put(info);
+                        /* Already persisted */
+                        cache.mDirty.remove(info.id);
                     }
                 }
+                cache.mCompact |= mCompact;
             }
         }
     }
 
     /**
-     * Store PeerInfo cache
+     * Store PeerInfo cache. Changes are appended to the journal, which is folded
+     * into the snapshot when it exceeds {@link P2P#CACHE_JOURNAL_RATIO} of the snapshot size.
      */
     static final class StorePeerInfoCache extends P2PTask<Void> {
 
+        private final boolean mMapped;
+
+        private final P2PSnapshot mSnapshot;
+
+        /**
+         * Snapshot of other backend, deleted when compacted
+         */
+        private final P2PSnapshot mOther;
+
+        private final P2PJournal mJournal;
+
+        public StorePeerInfoCache(String root, String backend) {
+            boolean mapped = P2P.CACHE_BACKEND_MAPPED.equals(backend);
+            String filename = mapped ? P2P.FILE_PEERINFO_MAP : P2P.FILE_PEERINFO_LIST;
+            mMapped = mapped;
+            mSnapshot = new P2PSnapshot(root, filename);
+            mOther = new P2PSnapshot(root, mapped ? P2P.FILE_PEERINFO_LIST : P2P.FILE_PEERINFO_MAP);
+            mJournal = new P2PJournal(root, P2P.FILE_PEERINFO_JOURNAL, filename, P2PCodec.KIND_PEERS);
+        }
+
+        @Override
+        protected Void doInBackground() {
+            byte[] snapshot = null;
+            List<byte[]> entries = new ArrayList<>();
+            long size = mSnapshot.length();
+            synchronized (PeerInfoCache.class) {
+                PeerInfoCache cache = PeerInfoCache.getInstance();
+                /* Expired peers are not persisted */
+                cache.evict();
+                int length = 0;
+                for (String id : cache.mDirty) {
+                    PeerInfoImpl info = cache.mPeerCache.get(id);
+                    byte[] entry = info == null ? P2PCodec.encodeRemove(id) : P2PCodec.encodePut(info);
+                    length += entry.length;
+                    entries.add(entry);
+                }
+                cache.mDirty.clear();
+                if (cache.mCompact || size == 0 || P2PJournal.isCompactable(mJournal.length() + length, size)) {
+                    snapshot = mMapped ? P2PMappedPeerStore.encode(cache.getList())
+                            : P2PCodec.encodePeers(cache.getList());
+                    cache.mCompact = false;
+                }
+            }
+            if (snapshot != null) {
+                try {
+                    mSnapshot.write(snapshot);
+                    mJournal.reset();
+                    mOther.delete();
+                    if(P2PDatabase.exists()) {
+                        P2PDatabase.getInstance().clearPeers();
+                    }
+                    Log.d(TAG, String.format("Compacted peerinfo journal into %d bytes", snapshot.length));
+                    return null;
+                } catch (IOException | SQLException e) {
+                    Log.e(TAG, "Failed to write peerinfo list", e);
+                    compact();
+                }
+            }
+            if (!entries.isEmpty()) {
+                try {
+                    /* Journal applies to current snapshot until compacted */
+                    mJournal.append(entries);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to append to peerinfo journal", e);
+                    compact();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Retry with full snapshot on next store
+         */
+        private void compact() {
+            synchronized (PeerInfoCache.class) {
+                PeerInfoCache.getInstance().mCompact = true;
+            }
+        }
+
+        @Override
+        protected void onFinished(Void result) {
+            Log.d(TAG, "Stored peerinfo list, " + PeerInfoCache.getInstance().getMetrics());
+        }
+
+    }
+
+    /**
+     * Store PeerInfo cache in database. All changes since last store are
+     * written in one transaction.
+     */
+    static final class StorePeerInfoDatabase extends P2PTask<Void> {
+
         private final String mRoot;
 
-        public StorePeerInfoCache(String root) {
+        public StorePeerInfoDatabase(String root) {
             mRoot = root;
         }
 
         @Override
         protected Void doInBackground() {
+            Map<String, PeerInfoImpl> changes = new LinkedHashMap<>();
+            List<PeerInfoImpl> peers = null;
+            int size;
+            long before;
             synchronized (PeerInfoCache.class) {
-                P2PUtils.writeObject(mRoot, P2P.FILE_PEERINFO_LIST,
-                        new ArrayList<>(PeerInfoCache.getInstance().getList()));
+                PeerInfoCache cache = PeerInfoCache.getInstance();
+                /* Expired peers are not persisted */
+                cache.evict();
+                for (String id : cache.mDirty) {
+                    changes.put(id, cache.mPeerCache.get(id));
+                }
+                cache.mDirty.clear();
+                if (cache.mCompact) {
+                    peers = cache.getList();
+                    cache.mCompact = false;
+                }
+                size = cache.mMaxSize;
+                before = System.currentTimeMillis() - cache.mTimeToLive;
+            }
+            try {
+                P2PDatabase database = P2PDatabase.getInstance();
+                if (peers != null) {
+                    database.mergePeers(peers);
+                    /* Files of other backends are stale now */
+                    new P2PSnapshot(mRoot, P2P.FILE_PEERINFO_LIST).delete();
+                    new P2PSnapshot(mRoot, P2P.FILE_PEERINFO_MAP).delete();
+                    new P2PJournal(mRoot, P2P.FILE_PEERINFO_JOURNAL,
+                            P2P.FILE_PEERINFO_LIST, P2PCodec.KIND_PEERS).reset();
+                    Log.d(TAG, String.format("Merged %d peers into database", peers.size()));
+                }
+                if (!changes.isEmpty()) {
+                    database.putPeers(changes);
+                }
+                /* Bound peers not loaded into cache */
+                int count = database.trimPeers(size, before);
+                if (count > 0) {
+                    Log.d(TAG, String.format("Removed %d peers from database", count));
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to store peers in database", e);
+                synchronized (PeerInfoCache.class) {
+                    PeerInfoCache cache = PeerInfoCache.getInstance();
+                    /* Retry on next store, a merge would not remove deleted peers */
+                    cache.mDirty.addAll(changes.keySet());
+                    cache.mCompact |= peers != null;
+                }
             }
             return null;
         }
 
         @Override
         protected void onFinished(Void result) {
-            Log.d(TAG, "Stored peerinfo list");
+            Log.d(TAG, "Stored peers in database, " + PeerInfoCache.getInstance().getMetrics());
         }
-
     }
 }
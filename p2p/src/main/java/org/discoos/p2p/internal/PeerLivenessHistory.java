@@ -0,0 +1,203 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2P;
+
+/**
+ * Fixed-size ring buffer of peer liveness transitions. Transitions are stored
+ * as primitive timestamps and signal types, no objects are allocated when recording.
+ *
+ * Recorded signals are {@link P2P#ALIVE}, {@link P2P#TIMEOUT}, {@link P2P#JOIN}
+ * and {@link P2P#LEFT}. Peers are regarded as up after ALIVE or JOIN and down
+ * after TIMEOUT. LEFT is recorded, but does not change liveness state since
+ * leaving a network does not imply that the peer is unresponsive.
+ */
+final class PeerLivenessHistory {
+
+    /**
+     * Number of transitions kept in history
+     */
+    static final int CAPACITY = 64;
+
+    /**
+     * Flap rate (up/down changes per hour) above which peers are flapping
+     */
+    static final double FLAPPING_RATE = 4.0;
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private final long[] mTimes = new long[CAPACITY];
+
+    private final byte[] mTypes = new byte[CAPACITY];
+
+    /**
+     * Index of next transition to write
+     */
+    private int mHead;
+
+    /**
+     * Number of transitions in history
+     */
+    private int mCount;
+
+    /**
+     * Current liveness state
+     */
+    private boolean mUp;
+
+    /**
+     * Time of last probe of peer
+     */
+    private long mLastProbe;
+
+    /**
+     * Record liveness transition. Repeated ALIVE signals while up are not recorded.
+     * @param signal Signal type
+     * @param time Time of transition
+     */
+    synchronized void record(int signal, long time) {
+        switch (signal) {
+            case P2P.ALIVE:
+            case P2P.JOIN:
+                if(mUp && signal == P2P.ALIVE) {
+                    return;
+                }
+                mUp = true;
+                break;
+            case P2P.TIMEOUT:
+                if(!mUp && mCount > 0) {
+                    return;
+                }
+                mUp = false;
+                break;
+            case P2P.LEFT:
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected signal " + signal);
+        }
+        mTimes[mHead] = time;
+        mTypes[mHead] = (byte) signal;
+        mHead = (mHead + 1) % CAPACITY;
+        mCount = Math.min(mCount + 1, CAPACITY);
+    }
+
+    /**
+     * Get number of transitions in history
+     * @return int
+     */
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Get fraction of time peer was up, from first transition in history until given time
+     * @param now Current time
+     * @return double Uptime in range [0,1], 1 if history is empty
+     */
+    synchronized double getUptime(long now) {
+        long total = now - first();
+        return mCount == 0 || total <= 0 ? 1.0 : (double) getUpTime(now) / total;
+    }
+
+    /**
+     * Get mean time between failures (up time divided by number of up to down changes)
+     * @param now Current time
+     * @return long Mean time in milliseconds, -1 if no failures in history
+     */
+    synchronized long getMeanTimeBetweenFailures(long now) {
+        int failures = count(false);
+        return failures == 0 ? -1 : getUpTime(now) / failures;
+    }
+
+    /**
+     * Get number of up/down changes per hour, from first transition in history until given time
+     * @param now Current time
+     * @return double
+     */
+    synchronized double getFlapRate(long now) {
+        long total = now - first();
+        if(mCount == 0 || total <= 0) {
+            return 0.0;
+        }
+        return (count(false) + count(true)) * (double) HOUR / Math.max(total, HOUR / 60);
+    }
+
+    /**
+     * Check if peer is flapping
+     * @param now Current time
+     * @return boolean
+     */
+    boolean isFlapping(long now) {
+        return getFlapRate(now) > FLAPPING_RATE;
+    }
+
+    /**
+     * Check if peer should be probed now. Flapping peers are probed at most once
+     * every given interval, other peers are always probed.
+     * @param now Current time
+     * @param interval Minimum interval between probes of flapping peers
+     * @return boolean true if probe should be sent, false otherwise
+     */
+    synchronized boolean probe(long now, long interval) {
+        if(isFlapping(now) && now - mLastProbe < interval) {
+            return false;
+        }
+        mLastProbe = now;
+        return true;
+    }
+
+    /**
+     * Get time of first transition in history
+     */
+    private long first() {
+        return mTimes[(mHead - mCount + CAPACITY) % CAPACITY];
+    }
+
+    /**
+     * Get total time peer was up in history
+     */
+    private long getUpTime(long now) {
+        long up = 0;
+        long since = -1;
+        for(int i = 0; i < mCount; i++) {
+            int index = (mHead - mCount + i + CAPACITY) % CAPACITY;
+            switch (mTypes[index]) {
+                case P2P.ALIVE:
+                case P2P.JOIN:
+                    if(since < 0) {
+                        since = mTimes[index];
+                    }
+                    break;
+                case P2P.TIMEOUT:
+                    if(since >= 0) {
+                        up += mTimes[index] - since;
+                        since = -1;
+                    }
+                    break;
+            }
+        }
+        return since >= 0 ? up + now - since : up;
+    }
+
+    /**
+     * Count number of changes to given state in history
+     */
+    private int count(boolean up) {
+        int count = 0;
+        int state = -1;
+        int target = up ? 1 : 0;
+        for(int i = 0; i < mCount; i++) {
+            int index = (mHead - mCount + i + CAPACITY) % CAPACITY;
+            int type = mTypes[index];
+            if(type == P2P.LEFT) {
+                continue;
+            }
+            int next = type == P2P.TIMEOUT ? 0 : 1;
+            if(state >= 0 && next == target && state != target) {
+                count++;
+            }
+            state = next;
+        }
+        return count;
+    }
+
+}
@@ -27,27 +27,62 @@
  */
 package org.discoos.p2p.loader;
 
+import android.os.AsyncTask;
 import android.support.v4.content.AsyncTaskLoader;
 
 import org.discoos.p2p.P2P;
-import org.discoos.p2p.P2PUtils;
 import org.discoos.p2p.P2PUtils.LogItem;
+import org.discoos.p2p.internal.P2PEventJournal;
+import org.discoos.p2p.internal.P2PLogPager;
+import org.discoos.p2p.internal.P2PLogQuery;
+import org.discoos.p2p.internal.P2PLogTail;
 
 import java.util.List;
 
 /**
- * Loader of application logcat entries into LogItems
+ * Loader of application logcat entries into a paged view of LogItems
  *<p>
  * Adapted from <a href="http://www.androiddesignpatterns.com/2012/08/implementing-loaders.html">Implementing Loaders (part 3)</a>
  * by <a href="https://google.com/+AlexLockwood">Alex Lockwood</a>.
  * </p>
+ * <p>
+ * Items are read from {@link P2PLogTail}. Each load queries the items
+ * kept by the tail and delivers a new {@link P2PLogPager}, which loads
+ * items when viewed. Appended items are added to the delivered pager,
+ * use {@link P2PLogPager#setListener(P2PLogPager.Listener)} to update the view.
+ * </p>
+ * <p>
+ * Events are read from {@link P2PEventJournal} instead, formatted when viewed.
+ * Events recorded after a load are shown by the next load.
+ * </p>
  */
-public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
+public class LogItemLoader extends AsyncTaskLoader<P2PLogPager>
+        implements P2PLogTail.Listener {
+
+    private P2PLogQuery mQuery;
+    private boolean mEvents;
+    private P2PLogPager mData;
+
+    /**
+     * Sequence number of next item not yet seen
+     */
+    private long mSeq;
 
-    private String mQuery;
-    private List<LogItem> mData;
+    /**
+     * Sequence number of next item after last load
+     */
+    private volatile long mLoadedSeq;
 
     public LogItemLoader(String query) {
+        this(query, false);
+    }
+
+    /**
+     * Create loader
+     * @param query Log query
+     * @param events Load events from journal instead of logcat
+     */
+    public LogItemLoader(String query, boolean events) {
         // Loaders may be used across multiple Activitys (assuming they aren't
         // bound to the LoaderManager), so NEVER hold a reference to the context
         // directly. Doing so will cause you to leak an entire Activity's context.
@@ -55,7 +90,8 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
         // Context instead, and can be retrieved with a call to getContext().
         super(P2P.getApplication().getApplicationContext());
 
-        mQuery = query;
+        mQuery = P2PLogQuery.compile(query);
+        mEvents = events;
     }
 
     /****************************************************/
@@ -63,10 +99,18 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
     /****************************************************/
 
     @Override
-    public List<LogItem> loadInBackground() {
+    public P2PLogPager loadInBackground() {
         // This method is called on a background thread and should generate a
         // new set of data to be delivered back to the client.
-        return P2PUtils.readLog(mQuery);
+        if (mEvents) {
+            return P2PEventJournal.getInstance().query(mQuery, AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        P2PLogTail tail = P2PLogTail.getInstance();
+        tail.start();
+        synchronized (tail) {
+            mLoadedSeq = tail.getCount();
+            return tail.query(mQuery, AsyncTask.THREAD_POOL_EXECUTOR);
+        }
     }
 
     /********************************************************/
@@ -74,7 +118,7 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
     /********************************************************/
 
     @Override
-    public void deliverResult(List<LogItem> data) {
+    public void deliverResult(P2PLogPager data) {
 
         if (isReset()) {
             // The Loader has been reset; ignore the result and invalidate the data.
@@ -82,21 +126,36 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
             return;
         }
 
-        // Hold a reference to the old data so it doesn't get garbage collected.
-        // We must protect it until the new data has been delivered.
-        List<LogItem> oldData = mData;
-        mData = data;
+        if (data != mData) {
+            // Loaded in background, catch up with items appended since.
+            mData = data;
+            mSeq = mLoadedSeq;
+            if (!mEvents) {
+                append(mSeq, P2PLogTail.getInstance().since(mSeq));
+            }
+        }
 
         if (isStarted()) {
             // If the Loader is in a started state, deliver the results to the
             // client. The superclass method does this for us.
-            super.deliverResult(data);
+            super.deliverResult(mData);
         }
+    }
 
-        // Invalidate the old data as we don't need it any more.
-        if (oldData != null && oldData != data) {
-            releaseResources(oldData);
+    @Override
+    public void onAppended(long seq, List<LogItem> items) {
+        if (mData == null || !isStarted()) {
+            // Appended items are caught up with on next load
+            return;
         }
+        append(seq, items);
+    }
+
+    private void append(long seq, List<LogItem> items) {
+        // Pager notifies its listener of inserted and removed items
+        mData.append(seq, items);
+        mData.evict(P2PLogTail.getInstance().getFirst());
+        mSeq = Math.max(mSeq, seq + items.size());
     }
 
     /*********************************************************/
@@ -106,6 +165,10 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
     @Override
     protected void onStartLoading() {
 
+        if (!mEvents) {
+            P2PLogTail.getInstance().addListener(this);
+        }
+
         if (mData != null) {
             // Deliver any previously loaded data immediately.
             deliverResult(mData);
@@ -126,9 +189,9 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
         // current load (if there is one).
         cancelLoad();
 
-        // Note that we leave the observer as is. Loaders in a stopped state
-        // should still monitor the data source for changes so that the Loader
-        // will know to force a new load if it is ever started again.
+        // Items appended while stopped are caught up with by a new load.
+        P2PLogTail.getInstance().removeListener(this);
+        onContentChanged();
     }
 
     @Override
@@ -144,7 +207,7 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
     }
 
     @Override
-    public void onCanceled(List<LogItem> data) {
+    public void onCanceled(P2PLogPager data) {
         // Attempt to cancel the current asynchronous load.
         super.onCanceled(data);
 
@@ -153,8 +216,8 @@ public class LogItemLoader extends AsyncTaskLoader<List<LogItem>> {
         releaseResources(data);
     }
 
-    private void releaseResources(List<LogItem> data) {
-        // For a simple List, there is nothing to do. For something like a Cursor, we 
+    private void releaseResources(P2PLogPager data) {
+        // For a pager, there is nothing to do. For something like a Cursor, we 
         // would close it in this method. All resources associated with the Loader
         // should be released here.
     }
@@ -0,0 +1,121 @@
+/*
+ * Copyright DISCO Open Source. All rights reserved
+ *
+ *    Redistribution and use in source and binary forms, with or without
+ *    modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this
+ *       list of conditions and the following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *
+ *    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *    ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *    WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ *    ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *    (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *    LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *    ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *    (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    The views and conclusions contained in the software and documentation are those
+ *    of the authors and should not be interpreted as representing official policies,
+ *    either expressed or implied, of DISCO Open Source.
+ */
+package org.discoos.p2p.loader;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.AsyncTaskLoader;
+
+import org.discoos.p2p.P2P;
+import org.discoos.p2p.internal.P2PPeerPager;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Loader of known peers into a paged view of PeerInfos
+ * <p>
+ * Each load counts peers, or sorts a snapshot of peers in cache, and loads
+ * the first page in the background. Later pages are loaded when viewed, use
+ * {@link P2PPeerPager#setListener(P2PPeerPager.Listener)} to update the view.
+ * Call {@link #onContentChanged()} when peers change to load again.
+ * </p>
+ */
+public class PeerInfoLoader extends AsyncTaskLoader<P2PPeerPager> {
+
+    private final String mNetwork;
+    private P2PPeerPager mData;
+
+    /**
+     * Tells listeners of loaded pages on main thread
+     */
+    private final Executor mDeliver = new Executor() {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    /**
+     * Create loader
+     * @param network Network name, all peers if null
+     */
+    public PeerInfoLoader(String network) {
+        // Never hold a reference to the activity context, see LogItemLoader
+        super(P2P.getApplication().getApplicationContext());
+
+        mNetwork = network;
+    }
+
+    @Override
+    public P2PPeerPager loadInBackground() {
+        P2PPeerPager pager = P2P.getPeerPager(mNetwork, AsyncTask.THREAD_POOL_EXECUTOR, mDeliver);
+        pager.load(0);
+        return pager;
+    }
+
+    @Override
+    public void deliverResult(P2PPeerPager data) {
+        if (isReset()) {
+            // The Loader has been reset; ignore the result.
+            return;
+        }
+
+        mData = data;
+
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mData != null) {
+            // Deliver any previously loaded data immediately.
+            deliverResult(mData);
+        }
+
+        if (takeContentChanged() || mData == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        mData = null;
+    }
+
+}
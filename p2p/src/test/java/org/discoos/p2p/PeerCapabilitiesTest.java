@@ -0,0 +1,68 @@
+package org.discoos.p2p;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of capability block encoding and load levels
+ */
+public class PeerCapabilitiesTest {
+
+    @Test
+    public void encode_isDecoded() {
+        PeerCapabilities capabilities = PeerCapabilities.of(
+                PeerCapabilities.FEATURE_PING, 87, PeerCapabilities.LOAD_BUSY, 3000L << 20);
+        byte[] data = capabilities.encode();
+        assertEquals(PeerCapabilities.SIZE, data.length);
+
+        PeerCapabilities decoded = PeerCapabilities.decode(data);
+        assertEquals(capabilities, decoded);
+        assertEquals(PeerCapabilities.VERSION, decoded.getVersion());
+        assertTrue(decoded.supports(PeerCapabilities.FEATURE_PING));
+        assertFalse(decoded.supports(PeerCapabilities.FEATURE_BROADCAST));
+        assertEquals(80, decoded.getBattery());
+        assertEquals(PeerCapabilities.LOAD_BUSY, decoded.getLoad());
+        assertEquals(2048, decoded.getFreeStorage());
+    }
+
+    @Test
+    public void decode_acceptsNewerVersions() {
+        byte[] data = PeerCapabilities.of(PeerCapabilities.FEATURE_PING,
+                PeerCapabilities.BATTERY_UNKNOWN, 0, 0).encode();
+        byte[] newer = Arrays.copyOf(data, data.length + 4);
+        newer[0] = PeerCapabilities.VERSION + 1;
+
+        PeerCapabilities decoded = PeerCapabilities.decode(newer);
+        assertEquals(PeerCapabilities.VERSION + 1, decoded.getVersion());
+        assertEquals(PeerCapabilities.BATTERY_UNKNOWN, decoded.getBattery());
+        assertTrue(decoded.supports(PeerCapabilities.FEATURE_PING));
+
+        assertNull(PeerCapabilities.decode(Arrays.copyOf(data, 4)));
+        assertNull(PeerCapabilities.decode(null));
+    }
+
+    @Test
+    public void decode_limitsLoadLevel() {
+        byte[] data = PeerCapabilities.of(0, 50, PeerCapabilities.LOAD_IDLE, 0).encode();
+        /* Load level is big-endian short after features and battery */
+        data[5] = PeerCapabilities.LOAD_BUSY;
+        assertEquals(PeerCapabilities.LOAD_BUSY, PeerCapabilities.decode(data).getLoad());
+        data[4] = 1;
+        assertEquals(PeerCapabilities.LOAD_OVERLOADED, PeerCapabilities.decode(data).getLoad());
+    }
+
+    @Test
+    public void smallChanges_doNotCrossLevels() {
+        PeerCapabilities capabilities = PeerCapabilities.of(0, 87, PeerCapabilities.LOAD_IDLE, 3000L << 20);
+        assertEquals(capabilities, PeerCapabilities.of(0, 81, PeerCapabilities.LOAD_IDLE, 2100L << 20));
+        assertNotEquals(capabilities, PeerCapabilities.of(0, 79, PeerCapabilities.LOAD_IDLE, 3000L << 20));
+        assertNotEquals(capabilities, PeerCapabilities.of(0, 87, PeerCapabilities.LOAD_BUSY, 3000L << 20));
+        assertNotEquals(capabilities, PeerCapabilities.of(0, 87, PeerCapabilities.LOAD_IDLE, 2000L << 20));
+        assertEquals(PeerCapabilities.LOAD_IDLE, PeerCapabilities.toLoad(7));
+        assertEquals(PeerCapabilities.LOAD_BUSY, PeerCapabilities.toLoad(8));
+        assertEquals(PeerCapabilities.LOAD_OVERLOADED, PeerCapabilities.toLoad(64));
+    }
+}
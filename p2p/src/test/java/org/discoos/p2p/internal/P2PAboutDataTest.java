@@ -0,0 +1,62 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of AboutData content hash and comparison
+ */
+public class P2PAboutDataTest {
+
+    @Test
+    public void hash_isContentBased() {
+        Map<String, Object> values = values("192.168.1.2");
+        Map<String, Object> copy = new HashMap<>(values("192.168.1.2"));
+        assertEquals(P2PAboutData.hash(values), P2PAboutData.hash(copy));
+    }
+
+    @Test
+    public void hash_changesWithContent() {
+        int hash = P2PAboutData.hash(values("192.168.1.2"));
+        assertNotEquals(hash, P2PAboutData.hash(values("192.168.1.3")));
+
+        Map<String, Object> values = values("192.168.1.2");
+        values.put(P2PAboutData.USER_NAME, "Owner");
+        assertNotEquals(hash, P2PAboutData.hash(values));
+    }
+
+    @Test
+    public void equals_comparesArrayContent() {
+        Map<String, Object> values = values("192.168.1.2");
+        assertTrue(P2PAboutData.equals(values, new HashMap<>(values("192.168.1.2"))));
+        assertFalse(P2PAboutData.equals(values, values("192.168.1.3")));
+
+        Map<String, Object> other = values("192.168.1.2");
+        other.put(P2PAboutData.APP_ID, new byte[]{1, 2, 3, 5});
+        assertFalse(P2PAboutData.equals(values, other));
+
+        other = values("192.168.1.2");
+        other.put(P2PAboutData.SUPPORTED_LANGUAGES, new String[]{"en", "nb"});
+        assertFalse(P2PAboutData.equals(values, other));
+
+        /* Missing and null values differ */
+        other = values("192.168.1.2");
+        other.remove(P2PAboutData.INET_6_ADDRESS);
+        other.put(P2PAboutData.USER_NAME, null);
+        assertFalse(P2PAboutData.equals(values, other));
+    }
+
+    private static Map<String, Object> values(String address) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put(P2PAboutData.APP_ID, new byte[]{1, 2, 3, 4});
+        values.put(P2PAboutData.SUPPORTED_LANGUAGES, new String[]{"en"});
+        values.put(P2PAboutData.INET_4_ADDRESS, address);
+        values.put(P2PAboutData.INET_6_ADDRESS, null);
+        return values;
+    }
+}
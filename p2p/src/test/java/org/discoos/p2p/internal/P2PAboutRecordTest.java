@@ -0,0 +1,155 @@
+package org.discoos.p2p.internal;
+
+import org.alljoyn.bus.AnnotationBusException;
+import org.alljoyn.bus.Variant;
+import org.discoos.p2p.P2PUtils;
+import org.discoos.p2p.PeerCapabilities;
+import org.discoos.p2p.PeerInfo;
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of single pass AboutData decoding
+ */
+public class P2PAboutRecordTest {
+
+    private static final int ANNOUNCEMENTS = 20000;
+
+    @Test
+    public void decode_matchesMapDecoding() {
+        Map<String, Variant> data = data(42);
+        P2PAboutRecord record = P2PAboutRecord.decode(data);
+
+        assertEquals(P2PUtils.toShortId(data), record.getId());
+        assertEquals(P2PUtils.toUniqueName(data), record.getUniqueName());
+        assertEquals(P2PUtils.toSummary(data), record.getSummary());
+        assertEquals(P2PUtils.toDetails(data), record.getDetails());
+        assertEquals(P2PUtils.toParams(data).keySet(), record.getParams().keySet());
+        assertEquals("Owner 42", record.get(P2PAboutData.USER_NAME));
+        assertNull(record.get("Unknown"));
+    }
+
+    @Test
+    public void decode_onlyDecodesIdAndNameAtIngest() {
+        final int[] decoded = new int[1];
+        Map<String, Variant> data = data(1);
+        data.put(P2PAboutData.DESCRIPTION, new Variant("Description") {
+            @Override
+            public String getSignature() throws AnnotationBusException {
+                decoded[0]++;
+                return super.getSignature();
+            }
+        });
+        P2PAboutRecord record = P2PAboutRecord.decode(data);
+        assertEquals(0, decoded[0]);
+        record.getSummary();
+        assertEquals(1, decoded[0]);
+        record.getDetails();
+        assertEquals(1, decoded[0]);
+    }
+
+    @Test
+    public void capabilities_areDecodedByPeer() {
+        Map<String, Variant> idle = data(1);
+        idle.put(P2PAboutData.CAPABILITIES, new Variant(PeerCapabilities.of(
+                PeerCapabilities.FEATURE_PING, 90, PeerCapabilities.LOAD_IDLE, 1L << 30).encode()));
+        Map<String, Variant> busy = data(2);
+        busy.put(P2PAboutData.CAPABILITIES, new Variant(PeerCapabilities.of(
+                PeerCapabilities.FEATURE_PING, 90, PeerCapabilities.LOAD_BUSY, 1L << 30).encode()));
+
+        PeerInfo none = new PeerInfoImpl(P2PAboutRecord.decode(data(3)));
+        PeerInfo first = new PeerInfoImpl(P2PAboutRecord.decode(busy));
+        PeerInfo second = new PeerInfoImpl(P2PAboutRecord.decode(idle));
+        assertNull(none.getCapabilities());
+        assertEquals(PeerCapabilities.LOAD_BUSY, first.getCapabilities().getLoad());
+
+        List<PeerInfo> peers = new ArrayList<>(Arrays.asList(none, first, second));
+        Collections.sort(peers, PeerCapabilities.LEAST_LOADED);
+        assertEquals(Arrays.asList(second, first, none), peers);
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_ingest() throws Exception {
+        final List<Map<String, Variant>> announcements = announcements();
+
+        P2PBenchmark.assertFaster(ANNOUNCEMENTS + " announcements", 2, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                ingestMap(announcements);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                ingestRecord(announcements);
+            }
+        });
+    }
+
+    /**
+     * Decode as PeerInfoCache did before AboutRecord
+     */
+    private static int ingestMap(List<Map<String, Variant>> announcements) {
+        int count = 0;
+        for (Map<String, Variant> data : announcements) {
+            count += P2PUtils.toShortId(data).length();
+            count += P2PUtils.toUniqueName(data).length();
+            count += P2PUtils.toSummary(data).length();
+            count += P2PUtils.toDetails(data).length();
+            count += P2PUtils.toParams(data).size();
+        }
+        return count;
+    }
+
+    private static int ingestRecord(List<Map<String, Variant>> announcements) {
+        int count = 0;
+        for (Map<String, Variant> data : announcements) {
+            P2PAboutRecord record = P2PAboutRecord.decode(data);
+            count += record.getId().length();
+            count += record.getUniqueName().length();
+        }
+        return count;
+    }
+
+    private static List<Map<String, Variant>> announcements() {
+        List<Map<String, Variant>> announcements = new ArrayList<>(ANNOUNCEMENTS);
+        for (int i = 0; i < ANNOUNCEMENTS; i++) {
+            announcements.add(data(i % 100));
+        }
+        return announcements;
+    }
+
+    private static Map<String, Variant> data(int peer) {
+        Map<String, Variant> data = new HashMap<>();
+        data.put(P2PAboutData.APP_ID, new Variant(new byte[]{
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, (byte) peer}));
+        data.put(P2PAboutData.APP_NAME, new Variant("P2PApp"));
+        data.put(P2PAboutData.DEFAULT_LANGUAGE, new Variant("en"));
+        data.put(P2PAboutData.MODEL_NUMBER, new Variant("Nexus 5"));
+        data.put(P2PAboutData.SUPPORTED_LANGUAGES, new Variant(new String[]{"en"}));
+        data.put(P2PAboutData.SOFTWARE_VERSION, new Variant("1.0"));
+        data.put(P2PAboutData.HARDWARE_VERSION, new Variant("0123456789"));
+        data.put(P2PAboutData.AJ_SOFTWARE_VERSION, new Variant("15.04"));
+        data.put(P2PAboutData.SUPPORT_URL, new Variant("http://www.discoos.org"));
+        data.put(P2PAboutData.DEVICE_ID, new Variant("0123456789"));
+        data.put(P2PAboutData.DEVICE_NAME, new Variant("hammerhead"));
+        data.put(P2PAboutData.DEVICE_BRAND, new Variant("google"));
+        data.put(P2PAboutData.MANUFACTURER, new Variant("LGE"));
+        data.put(P2PAboutData.DESCRIPTION, new Variant("P2P proximity network test"));
+        data.put(P2PAboutData.INET_4_ADDRESS, new Variant("192.168.1." + peer));
+        data.put(P2PAboutData.INET_6_ADDRESS, new Variant("fe80::1:" + peer));
+        data.put(P2PAboutData.BUS_UNIQUE_NAME, new Variant(":abc.d" + peer));
+        data.put(P2PAboutData.USER_NAME, new Variant("Owner " + peer));
+        return data;
+    }
+}
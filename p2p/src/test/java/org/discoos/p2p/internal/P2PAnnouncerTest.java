@@ -0,0 +1,104 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of announcement merging and rate limiting
+ */
+public class P2PAnnouncerTest {
+
+    private static final long INTERVAL = 10000;
+
+    private static final long SETTLE = 2000;
+
+    @Test
+    public void requests_areMergedIntoOneAnnouncement() {
+        P2PAnnouncer announcer = new P2PAnnouncer(INTERVAL, SETTLE);
+        Target target = new Target(1);
+
+        assertEquals(SETTLE, announcer.request(0));
+        /* Connectivity flaps postpone announcement */
+        assertEquals(-1, announcer.request(500));
+        assertEquals(-1, announcer.request(1500));
+        assertEquals(1500, announcer.run(2000, target));
+        assertEquals(0, target.announced);
+
+        assertEquals(-1, announcer.run(3500, target));
+        assertEquals(1, target.announced);
+        assertEquals(-1, announcer.run(3600, target));
+        assertEquals(1, target.announced);
+    }
+
+    @Test
+    public void unchangedContent_isNotAnnounced() {
+        P2PAnnouncer announcer = new P2PAnnouncer(INTERVAL, SETTLE);
+        Target target = new Target(1);
+        announcer.announced(1, 0);
+
+        long delay = announcer.request(20000);
+        announcer.run(20000 + delay, target);
+        assertEquals(0, target.announced);
+
+        target.hash = 2;
+        delay = announcer.request(30000);
+        announcer.run(30000 + delay, target);
+        assertEquals(1, target.announced);
+    }
+
+    @Test
+    public void announcements_areRateLimited() {
+        P2PAnnouncer announcer = new P2PAnnouncer(INTERVAL, SETTLE);
+        Target target = new Target(1);
+        announcer.announced(0, 1000);
+
+        assertEquals(INTERVAL + 1000 - 3000, announcer.request(3000));
+        assertEquals(INTERVAL + 1000 - 5000, announcer.run(5000, target));
+        assertEquals(-1, announcer.run(INTERVAL + 1000, target));
+        assertEquals(1, target.announced);
+
+        /* Shorter interval applies to next request */
+        announcer.setMinInterval(0);
+        target.hash = 2;
+        assertEquals(SETTLE, announcer.request(INTERVAL + 1000));
+    }
+
+    @Test
+    public void failedAnnouncement_isRetriedOnNextRequest() {
+        P2PAnnouncer announcer = new P2PAnnouncer(INTERVAL, SETTLE);
+        Target target = new Target(1);
+        target.fail = true;
+
+        announcer.run(announcer.request(0), target);
+        assertEquals(1, target.announced);
+
+        target.fail = false;
+        announcer.run(SETTLE + announcer.request(SETTLE), target);
+        assertEquals(2, target.announced);
+    }
+
+    private static class Target implements P2PAnnouncer.Target {
+
+        int hash;
+
+        int announced;
+
+        boolean fail;
+
+        Target(int hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public int getHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean announce() {
+            announced++;
+            return !fail;
+        }
+    }
+}
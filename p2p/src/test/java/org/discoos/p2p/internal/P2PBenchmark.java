@@ -0,0 +1,72 @@
+package org.discoos.p2p.internal;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Wall-clock comparison of a candidate against the baseline it replaces.
+ *
+ * Both are warmed up and then run interleaved, and the best time of each is
+ * compared, since allocation heavy paths are disturbed by garbage collection.
+ * Also used as JUnit category of benchmarks, which are excluded from unit
+ * test runs unless the build is given the "benchmark" property.
+ */
+final class P2PBenchmark {
+
+    private static final int WARMUP = 20;
+
+    private static final int ROUNDS = 20;
+
+    private P2PBenchmark() {}
+
+    /**
+     * Assert that candidate is faster than baseline by given factor
+     * @param name Name of benchmark
+     * @param factor Minimum speedup of candidate
+     * @param baseline Baseline task
+     * @param candidate Candidate task
+     * @throws Exception if a task fails
+     */
+    static void assertFaster(String name, double factor, Task baseline, Task candidate) throws Exception {
+        assertFaster(name, factor, WARMUP, ROUNDS, baseline, candidate);
+    }
+
+    /**
+     * Assert that candidate is faster than baseline by given factor
+     * @param name Name of benchmark
+     * @param factor Minimum speedup of candidate
+     * @param warmup Number of rounds before timing
+     * @param rounds Number of timed rounds
+     * @param baseline Baseline task
+     * @param candidate Candidate task
+     * @throws Exception if a task fails
+     */
+    static void assertFaster(String name, double factor, int warmup, int rounds,
+                             Task baseline, Task candidate) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            baseline.run();
+            candidate.run();
+        }
+        long before = Long.MAX_VALUE, after = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            baseline.run();
+            before = Math.min(before, System.nanoTime() - start);
+            start = System.nanoTime();
+            candidate.run();
+            after = Math.min(after, System.nanoTime() - start);
+        }
+        String result = String.format("%s: baseline=%dus, candidate=%dus (%.1fx)",
+                name, before / 1000, after / 1000, (double) before / Math.max(after, 1));
+        System.out.println(result);
+        assertTrue(String.format("%s, expected at least %.1fx", result, factor), after * factor < before);
+    }
+
+    /**
+     * Benchmarked task
+     */
+    abstract static class Task {
+
+        abstract void run() throws Exception;
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests and load/store benchmark of the binary store codec
+ */
+public class P2PCodecTest {
+
+    private static final int PEERS = 10000;
+
+    @Test
+    public void peers_roundTrip() throws Exception {
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(3);
+        List<PeerInfoImpl> decoded = P2PCodec.decodePeers(P2PCodec.encodePeers(peers));
+        assertEquals(peers.size(), decoded.size());
+        for (int i = 0; i < peers.size(); i++) {
+            PeerInfoImpl expected = peers.get(i);
+            PeerInfoImpl actual = decoded.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.name, actual.name);
+            assertEquals(expected.getSummary(), actual.getSummary());
+            assertEquals(expected.getDetails(), actual.getDetails());
+            assertEquals(expected.isTimeout(), actual.isTimeout());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getNetworks(), actual.getNetworks());
+            assertEquals(expected.getPort("network.a"), actual.getPort("network.a"));
+            assertArrayEquals((byte[]) expected.get("AppId"), (byte[]) actual.get("AppId"));
+            assertArrayEquals((String[]) expected.get("SupportedLanguages"),
+                    (String[]) actual.get("SupportedLanguages"));
+            assertEquals(expected.get("DeviceName"), actual.get("DeviceName"));
+            assertNull(actual.get("Missing"));
+            assertTrue(actual.getParams().containsKey("Missing"));
+        }
+    }
+
+    @Test
+    public void networks_roundTrip() throws Exception {
+        List<P2PNetworkImpl> networks = Arrays.asList(
+                new P2PNetworkImpl("network.a", "A", Arrays.asList("p1", "p2")),
+                new P2PNetworkImpl("network.b", null, new ArrayList<String>()));
+        List<P2PNetworkImpl> decoded = P2PCodec.decodeNetworks(P2PCodec.encodeNetworks(networks));
+        assertEquals(2, decoded.size());
+        assertEquals("network.a", decoded.get(0).mName);
+        assertEquals("A", decoded.get(0).mLabel);
+        assertEquals(Arrays.asList("p1", "p2"), decoded.get(0).getPeerIdList());
+        assertNull(decoded.get(1).mLabel);
+        assertTrue(decoded.get(1).getPeerIdList().isEmpty());
+    }
+
+    @Test
+    public void corrupt_isRejected() throws Exception {
+        byte[] data = P2PCodec.encodePeers(P2PTestPeers.createPeers(2));
+        data[data.length / 2] ^= 0x01;
+        try {
+            P2PCodec.decodePeers(data);
+            fail("Corrupt data decoded");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void kind_isChecked() throws Exception {
+        byte[] data = P2PCodec.encodePeers(P2PTestPeers.createPeers(1));
+        try {
+            P2PCodec.decodeNetworks(data);
+            fail("Peers decoded as networks");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void legacy_isDetected() throws Exception {
+        byte[] legacy = serialize(P2PTestPeers.createPeers(1));
+        assertFalse(P2PCodec.isEncoded(legacy));
+        assertTrue(P2PCodec.isEncoded(P2PCodec.encodePeers(P2PTestPeers.createPeers(1))));
+        assertFalse(P2PCodec.isEncoded(null));
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_loadStore() throws Exception {
+        final List<PeerInfoImpl> peers = P2PTestPeers.createPeers(PEERS);
+        final byte[] serial = serialize(peers);
+        final byte[] codec = P2PCodec.encodePeers(peers);
+        assertTrue(codec.length < serial.length);
+
+        P2PBenchmark.assertFaster(PEERS + " peers store", 2, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                serialize(peers);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                P2PCodec.encodePeers(peers);
+            }
+        });
+        P2PBenchmark.assertFaster(PEERS + " peers load", 4, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                assertEquals(PEERS, deserialize(serial).size());
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                assertEquals(PEERS, P2PCodec.decodePeers(codec).size());
+            }
+        });
+    }
+
+    private static byte[] serialize(List<PeerInfoImpl> peers) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<>(peers));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<?> deserialize(byte[] data) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (List<?>) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of event journal ring and spill file
+ */
+public class P2PEventJournalTest {
+
+    private static final int EVENTS = 200000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void record_isReadBackInOrder() {
+        P2PEventJournal journal = new P2PEventJournal(8);
+        journal.record(P2PEventJournal.JOIN, null, "org.discoos.p2p.test", 0, 0);
+        journal.record(P2PEventJournal.PING_REPLY, "a1b2c", null, 42, 0);
+        journal.record(P2PEventJournal.PING_FAILED, "a1b2c", null, 5000, 0x0901);
+
+        List<P2PEventJournal.Event> events = journal.since(0);
+        assertEquals(3, events.size());
+        assertEquals(P2PEventJournal.JOIN, events.get(0).type);
+        assertEquals("org.discoos.p2p.test", events.get(0).network);
+        assertEquals("JOIN network=org.discoos.p2p.test", events.get(0).toString());
+        assertEquals("PING_REPLY peer=a1b2c latency=42ms", events.get(1).toString());
+        assertEquals("PING_FAILED peer=a1b2c latency=5000ms status=0x0901", events.get(2).toString());
+        assertEquals("W", events.get(2).toLogItem().level);
+        assertEquals(1, journal.since(2).size());
+    }
+
+    @Test
+    public void ring_keepsNewestWhenWrapped() {
+        P2PEventJournal journal = new P2PEventJournal(4);
+        for (int i = 0; i < 10; i++) {
+            journal.record(P2PEventJournal.PING, "peer" + i, null, i, 0);
+        }
+        List<P2PEventJournal.Event> events = journal.since(0);
+        assertEquals(10, journal.getCount());
+        assertEquals(4, events.size());
+        assertEquals(6, events.get(0).seq);
+        assertEquals("peer9", events.get(3).peer);
+    }
+
+    @Test
+    public void names_areEvictedWhenFull() {
+        int count = P2PEventJournal.MAX_NAMES + 100;
+        P2PEventJournal journal = new P2PEventJournal(count);
+        for (int i = 0; i < count; i++) {
+            journal.record(P2PEventJournal.PING, "peer" + i, "network", 0, 0);
+        }
+        List<P2PEventJournal.Event> events = journal.since(0);
+        assertEquals(count, events.size());
+
+        /* Events naming evicted names are viewed without them, never with another name */
+        for (int i = 0; i < count; i++) {
+            String peer = events.get(i).peer;
+            assertTrue(peer, peer == null || peer.equals("peer" + i));
+        }
+        assertNull(events.get(0).peer);
+        assertEquals("peer" + (count - 1), events.get(count - 1).peer);
+
+        /* Evicted names are interned again */
+        journal.record(P2PEventJournal.PING, "peer0", "network", 0, 0);
+        assertEquals("peer0", journal.get(count).peer);
+        assertEquals("network", journal.get(count).network);
+    }
+
+    @Test
+    public void concurrentWriters_areNotLost() throws InterruptedException {
+        final P2PEventJournal journal = new P2PEventJournal(4 * 1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final String peer = "peer" + t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        journal.record(P2PEventJournal.SIGNAL_ALIVE, peer, null, i, 0);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<P2PEventJournal.Event> events = journal.since(0);
+        assertEquals(4000, events.size());
+        int[] latencies = new int[4];
+        for (P2PEventJournal.Event event : events) {
+            int t = event.peer.charAt(4) - '0';
+            /* Events of each writer are in order */
+            assertEquals(latencies[t]++, event.latency);
+        }
+    }
+
+    @Test
+    public void spill_isRestored() throws Exception {
+        File file = new File(mFolder.getRoot(), "events.journal");
+        P2PEventJournal journal = new P2PEventJournal(16);
+        journal.spill(file, 4);
+        for (int i = 0; i < 6; i++) {
+            journal.record(P2PEventJournal.ANNOUNCED, "peer" + i, "network", 0, i);
+        }
+
+        P2PEventJournal restored = new P2PEventJournal(16);
+        restored.spill(file, 4);
+        List<P2PEventJournal.Event> events = restored.since(0);
+        assertEquals(6, restored.getCount());
+        assertEquals(4, events.size());
+        assertEquals("peer2", events.get(0).peer);
+        assertEquals("network", events.get(0).network);
+        assertEquals(5, events.get(3).status);
+
+        /* Recording continues after restored events */
+        restored.record(P2PEventJournal.LEAVE, null, "network", 0, 0);
+        assertEquals(6, restored.since(6).get(0).seq);
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_record() throws Exception {
+        final P2PEventJournal journal = new P2PEventJournal(4096);
+        final StringBuilder log = new StringBuilder();
+
+        P2PBenchmark.assertFaster(EVENTS + " events", 2, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                format(log, EVENTS);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                record(journal, EVENTS);
+            }
+        });
+    }
+
+    private static void record(P2PEventJournal journal, int count) {
+        for (int i = 0; i < count; i++) {
+            journal.record(P2PEventJournal.PING_REPLY, "a1b2c", "org.discoos.p2p.test", i, 0);
+        }
+    }
+
+    /**
+     * Format as log messages were before the journal
+     */
+    private static void format(StringBuilder log, int count) {
+        for (int i = 0; i < count; i++) {
+            log.setLength(0);
+            log.append(String.format("ANNOUNCED: %s@%s%s", "a1b2c", "org.discoos.p2p.test", ":1.42"));
+        }
+    }
+}
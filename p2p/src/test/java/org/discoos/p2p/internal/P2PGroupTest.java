@@ -0,0 +1,125 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of group host election and membership tracking
+ */
+public class P2PGroupTest {
+
+    @Test
+    public void join_isPendingOncePerHost() {
+        P2PGroup group = new P2PGroup("network");
+        assertTrue(group.joining("a1b2c"));
+        assertFalse(group.joining("a1b2c"));
+
+        /* Lower host elected while joining, first join is stale */
+        assertTrue(group.joining("0a1b2"));
+        assertFalse(group.finished("a1b2c"));
+        assertTrue(group.finished("0a1b2"));
+        assertTrue(group.joining("a1b2c"));
+
+        /* Elected while joining */
+        assertTrue(group.joining(null));
+        assertFalse(group.finished("a1b2c"));
+    }
+
+    @Test
+    public void members_areTrackedPerSession() {
+        P2PGroup group = new P2PGroup("network");
+        group.joined(7, "a1b2c", ":1.42");
+        assertTrue(group.added(7, ":1.43"));
+        assertFalse(group.added(7, ":1.43"));
+        /* Callbacks of previous sessions are ignored */
+        assertFalse(group.added(6, ":1.44"));
+        assertEquals(2, group.getMembers().size());
+
+        assertTrue(group.removed(7, ":1.43"));
+        assertEquals(Collections.singleton(":1.42"), group.getMembers());
+
+        /* Moving to another session forgets members */
+        group.joined(8, "0a1b2", ":1.40");
+        assertEquals(Collections.singleton(":1.40"), group.getMembers());
+        assertFalse(group.lost(7));
+        assertTrue(group.lost(8));
+        assertEquals(-1, group.getSessionId());
+        assertNull(group.getHostId());
+        assertTrue(group.getMembers().isEmpty());
+    }
+
+    @Test
+    public void hostedSession_hasNoHostId() {
+        P2PGroup group = new P2PGroup("network");
+        group.joined(9, null, null);
+        assertTrue(group.added(9, ":1.50"));
+        assertNull(group.getHostId());
+        assertEquals(9, group.getSessionId());
+    }
+
+    @Test
+    public void hostLost_electsNextLowestAlivePeer() {
+        /* Peers 00000000 and 00000003 are timed out */
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(6);
+        P2PGroup group = new P2PGroup("network");
+        PeerInfoImpl host = P2PGroup.elect("00000005", peers, null);
+        assertEquals("00000001", host.id);
+        group.joined(7, host.id, host.name);
+        assertTrue(group.isHost(host.name));
+        assertFalse(group.isHost(":1.43"));
+
+        /* Lost host is not elected again before it times out */
+        String lostId = group.getHostId();
+        assertTrue(group.lost(7));
+        assertFalse(group.isHost(host.name));
+        host = P2PGroup.elect("00000005", peers, lostId);
+        assertEquals("00000002", host.id);
+        assertFalse(group.isHostedBy(host.id));
+        group.joined(8, host.id, host.name);
+        assertTrue(group.isHostedBy(host.id));
+
+        /* Lowest alive peer hosts the session when its host is lost */
+        assertNull(P2PGroup.elect("00000001", peers, "00000002"));
+    }
+
+    @Test
+    public void lowerHost_mergesHostedSession() {
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(6);
+        /* Hosting, only peers with higher ids known */
+        P2PGroup group = new P2PGroup("network");
+        assertNull(P2PGroup.elect("00000002", peers.subList(2, 6), null));
+        group.joined(9, null, null);
+        assertTrue(group.added(9, ":1.50"));
+        assertTrue(group.isHostedBy(null));
+
+        /* Lower peer discovered while hosting, move to its session */
+        PeerInfoImpl host = P2PGroup.elect("00000002", peers, null);
+        assertEquals("00000001", host.id);
+        assertFalse(group.isHostedBy(host.id));
+        assertTrue(group.lost(9));
+        group.joined(10, host.id, host.name);
+        assertTrue(group.isHostedBy(host.id));
+        assertFalse(group.isHostedBy(null));
+        assertEquals(Collections.singleton(host.name), group.getMembers());
+
+        /* Members of the left session see their host removed and elect the same host */
+        P2PGroup member = new P2PGroup("network");
+        member.joined(9, "00000002", ":bus.00000002.2");
+        assertTrue(member.isHost(":bus.00000002.2"));
+        assertTrue(member.removed(9, ":bus.00000002.2"));
+        assertEquals(host.id, P2PGroup.elect("00000004", peers, "00000002").id);
+    }
+
+    @Test
+    public void groups_areOpenedPerNetwork() {
+        P2PGroup group = P2PGroup.open("org.discoos.p2p.group");
+        assertSame(group, P2PGroup.get("org.discoos.p2p.group"));
+        assertSame(group, P2PGroup.close("org.discoos.p2p.group"));
+        assertNull(P2PGroup.get("org.discoos.p2p.group"));
+    }
+}
@@ -0,0 +1,118 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of journal append, replay and crash recovery
+ */
+public class P2PJournalTest {
+
+    private static final String JOURNAL = "peerinfo.journal";
+
+    private static final String SNAPSHOT = "peerinfo.list";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private String mRoot;
+
+    private P2PJournal mJournal;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mFolder.getRoot().getAbsolutePath();
+        write(SNAPSHOT, P2PCodec.encodePeers(Arrays.asList(peer("p1"), peer("p2"))));
+        mJournal = new P2PJournal(mRoot, JOURNAL, SNAPSHOT, P2PCodec.KIND_PEERS);
+    }
+
+    @Test
+    public void replay_appliesEntriesInOrder() throws Exception {
+        mJournal.append(Arrays.asList(P2PCodec.encodePut(peer("p3")), P2PCodec.encodeRemove("p1")));
+        mJournal.append(Collections.singletonList(P2PCodec.encodePut(peer("p4"))));
+
+        Map<String, PeerInfoImpl> peers = snapshot();
+        P2PCodec.replayPeers(peers, mJournal.replay(base()));
+        assertEquals(Arrays.asList("p2", "p3", "p4"), Arrays.asList(peers.keySet().toArray()));
+    }
+
+    @Test
+    public void replay_truncatesTornTail() throws Exception {
+        mJournal.append(Arrays.asList(P2PCodec.encodePut(peer("p3")), P2PCodec.encodePut(peer("p4"))));
+        long length = mJournal.length();
+        RandomAccessFile file = new RandomAccessFile(new File(mRoot, JOURNAL), "rw");
+        file.setLength(length - 3);
+        file.close();
+
+        List<byte[]> entries = mJournal.replay(base());
+        assertEquals(1, entries.size());
+        assertTrue(mJournal.length() < length - 3);
+
+        /* Entries appended after recovery are not lost behind the torn frame */
+        mJournal.append(Collections.singletonList(P2PCodec.encodeRemove("p2")));
+        Map<String, PeerInfoImpl> peers = snapshot();
+        P2PCodec.replayPeers(peers, mJournal.replay(base()));
+        assertEquals(Arrays.asList("p1", "p3"), Arrays.asList(peers.keySet().toArray()));
+    }
+
+    @Test
+    public void replay_discardsJournalOfOlderSnapshot() throws Exception {
+        mJournal.append(Collections.singletonList(P2PCodec.encodeRemove("p1")));
+
+        /* Compaction wrote new snapshot, but crashed before journal was reset */
+        write(SNAPSHOT, P2PCodec.encodePeers(Arrays.asList(peer("p1"), peer("p5"))));
+
+        assertTrue(mJournal.replay(base()).isEmpty());
+        assertEquals(0, mJournal.length());
+    }
+
+    @Test
+    public void isCompactable_respectsMinimumSizeAndRatio() {
+        assertFalse(P2PJournal.isCompactable(1024, 100));
+        assertFalse(P2PJournal.isCompactable(100 * 1024, 200 * 1024));
+        assertTrue(P2PJournal.isCompactable(300 * 1024, 200 * 1024));
+    }
+
+    private Map<String, PeerInfoImpl> snapshot() throws Exception {
+        byte[] data = new byte[(int) new File(mRoot, SNAPSHOT).length()];
+        RandomAccessFile file = new RandomAccessFile(new File(mRoot, SNAPSHOT), "r");
+        file.readFully(data);
+        file.close();
+        Map<String, PeerInfoImpl> peers = new LinkedHashMap<>();
+        for (PeerInfoImpl info : P2PCodec.decodePeers(data)) {
+            peers.put(info.id, info);
+        }
+        return peers;
+    }
+
+    private int base() throws Exception {
+        return P2PCodec.getChecksum(new P2PSnapshot(mRoot, SNAPSHOT).read());
+    }
+
+    private void write(String name, byte[] data) throws Exception {
+        FileOutputStream out = new FileOutputStream(new File(mRoot, name));
+        out.write(data);
+        out.close();
+    }
+
+    private static PeerInfoImpl peer(String id) {
+        return new PeerInfoImpl(id, ":bus." + id, "Summary " + id, "Details " + id,
+                new HashMap<String, Object>(), false, new Date(), new P2PNetworkSet());
+    }
+}
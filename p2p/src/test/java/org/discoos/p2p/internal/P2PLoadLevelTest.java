@@ -0,0 +1,47 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.PeerCapabilities;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of load level hysteresis and hold time
+ */
+public class P2PLoadLevelTest {
+
+    private static final long HOLD = 5000;
+
+    @Test
+    public void queueDepth_flappingAroundThreshold_keepsLevel() {
+        assertEquals(PeerCapabilities.LOAD_BUSY, P2PLoadLevel.next(PeerCapabilities.LOAD_IDLE, 8));
+        assertEquals(PeerCapabilities.LOAD_BUSY, P2PLoadLevel.next(PeerCapabilities.LOAD_BUSY, 3));
+        assertEquals(PeerCapabilities.LOAD_IDLE, P2PLoadLevel.next(PeerCapabilities.LOAD_BUSY, 2));
+        assertEquals(PeerCapabilities.LOAD_OVERLOADED, P2PLoadLevel.next(PeerCapabilities.LOAD_OVERLOADED, 17));
+        assertEquals(PeerCapabilities.LOAD_BUSY, P2PLoadLevel.next(PeerCapabilities.LOAD_OVERLOADED, 16));
+        assertEquals(PeerCapabilities.LOAD_IDLE, P2PLoadLevel.next(PeerCapabilities.LOAD_OVERLOADED, 0));
+    }
+
+    @Test
+    public void level_isPublishedWhenHeld() {
+        P2PLoadLevel load = new P2PLoadLevel(HOLD);
+        assertEquals(-1, load.update(0, 0));
+        assertEquals(HOLD, load.update(10, 1000));
+        assertEquals(PeerCapabilities.LOAD_IDLE, load.getLevel());
+        assertEquals(HOLD - 1000, load.update(4, 2000));
+        assertEquals(-1, load.update(5, 1000 + HOLD));
+        assertEquals(PeerCapabilities.LOAD_BUSY, load.getLevel());
+    }
+
+    @Test
+    public void burst_isNotPublished() {
+        P2PLoadLevel load = new P2PLoadLevel(HOLD);
+        for (int i = 0; i < 100; i++) {
+            /* Queue alternates between empty and busy */
+            load.update(i % 2 == 0 ? 0 : 10, i * 100);
+            assertEquals(PeerCapabilities.LOAD_IDLE, load.getLevel());
+        }
+        /* Idle level held again, nothing pending */
+        assertEquals(-1, load.update(0, 100 * 100 + HOLD));
+    }
+}
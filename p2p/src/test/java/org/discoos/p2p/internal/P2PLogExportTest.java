@@ -0,0 +1,75 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of streaming gzip log export
+ */
+public class P2PLogExportTest {
+
+    private static final int LINES = 50000;
+
+    @Test
+    public void all_isExportedUnchanged() throws Exception {
+        byte[] log = createLog(LINES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        P2PLogExport.Summary summary = P2PLogExport.export(
+                new ByteArrayInputStream(log), out, P2PLogQuery.compile(""));
+
+        assertEquals(LINES, summary.getLines());
+        assertEquals(LINES, summary.getExported());
+        assertEquals(log.length, summary.getSize());
+        assertEquals(out.size(), summary.getCompressed());
+        assertTrue(summary.getCompressed() < log.length);
+        assertEquals(LINES, gunzip(out.toByteArray()).size());
+    }
+
+    @Test
+    public void query_filtersLines() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        P2PLogExport.Summary summary = P2PLogExport.export(
+                new ByteArrayInputStream(createLog(LINES)), out, P2PLogQuery.compile("P2PHandler:E"));
+
+        List<String> lines = gunzip(out.toByteArray());
+        assertEquals(LINES, summary.getLines());
+        assertEquals(lines.size(), summary.getExported());
+        assertTrue(lines.size() > 0 && lines.size() < LINES);
+        long size = 0;
+        for (String line : lines) {
+            assertTrue(line, line.contains(" E P2PHandler: "));
+            size += line.getBytes("UTF-8").length + 1;
+        }
+        /* Bytes, not characters, as when not filtered */
+        assertEquals(size, summary.getSize());
+    }
+
+    private static List<String> gunzip(byte[] data) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(data)), "UTF-8"));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static byte[] createLog(int count) throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            log.append(String.format("10-18 12:00:00.%03d  1234  5678 %s %s: message \u00f8 %d\n",
+                    i % 1000, "VDIWE".charAt(i % 5), i % 2 == 0 ? "P2PHandler" : "dalvikvm", i));
+        }
+        return log.toString().getBytes("UTF-8");
+    }
+}
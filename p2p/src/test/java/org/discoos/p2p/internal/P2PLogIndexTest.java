@@ -0,0 +1,136 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of log index answers against full scan
+ */
+public class P2PLogIndexTest {
+
+    private static final int CAPACITY = 20000;
+
+    private static final String[] QUERIES = {
+            "session", "SESS", "lost: reason", "P2PHandler:W", "*:E", "peer 1a",
+            "session AND NOT P2PHandler:*", "-session", "(joined OR freed) AND *:I",
+            "\"reason [2]\"", "123", "dalvikvm:D gc_concurrent", "nothing", "s", "ession", "7",
+            "session AND 7", "P2PHandler:* AND lost"
+    };
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void query_matchesScan() throws Exception {
+        P2PLogTail tail = new P2PLogTail(CAPACITY, DIRECT);
+        tail.read(lines(0, CAPACITY / 2));
+        assertMatchesScan(tail);
+    }
+
+    @Test
+    public void query_ignoresEvicted() throws Exception {
+        P2PLogTail tail = new P2PLogTail(CAPACITY, DIRECT);
+        /* Several compactions */
+        tail.read(lines(0, CAPACITY * 3 + 123));
+        assertMatchesScan(tail);
+        P2PLogIndex.Postings matches = tail.select(P2PLogQuery.compile("message"));
+        assertEquals(CAPACITY, matches.size());
+        assertEquals(CAPACITY * 2 + 123, matches.get(0));
+    }
+
+    @Test
+    public void query_refinesLastMatches() throws Exception {
+        P2PLogTail tail = new P2PLogTail(CAPACITY, DIRECT);
+        tail.read(lines(0, CAPACITY / 2));
+        List<LogItem> all = tail.since(0);
+        String[] typed = {"lost:", "lost: r", "lost: reason", "lost: reason AND P2PHandler:*",
+                "lost: reason AND P2PHandler:W", "lost: reason AND P2PHandler:W AND 12"};
+        for (String query : typed) {
+            P2PLogQuery compiled = P2PLogQuery.compile(query);
+            assertEquals(query, scan(compiled, all).size(), tail.select(compiled).size());
+        }
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_refine() throws Exception {
+        final P2PLogTail tail = new P2PLogTail(CAPACITY, DIRECT);
+        tail.read(lines(0, CAPACITY));
+        final List<LogItem> all = tail.since(0);
+
+        /* Search as you type */
+        String[] typed = {"s", "se", "ses", "sess", "sessi", "sessio", "session", "session 7",
+                "lost:", "lost: r", "lost: reason"};
+        final P2PLogQuery[] queries = new P2PLogQuery[typed.length];
+        for (int i = 0; i < typed.length; i++) {
+            queries[i] = P2PLogQuery.compile(typed[i]);
+            assertEquals(typed[i], scan(queries[i], all).size(), tail.select(queries[i]).size());
+        }
+        P2PBenchmark.assertFaster("Log query", 1.0, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                for (P2PLogQuery query : queries) {
+                    scan(query, all);
+                }
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                for (P2PLogQuery query : queries) {
+                    tail.select(query);
+                }
+            }
+        });
+    }
+
+    private static void assertMatchesScan(P2PLogTail tail) {
+        List<LogItem> all = tail.since(0);
+        for (String query : QUERIES) {
+            P2PLogQuery compiled = P2PLogQuery.compile(query);
+            P2PLogIndex.Postings matches = tail.select(compiled);
+            List<LogItem> scanned = scan(compiled, all);
+            assertEquals(query, scanned.size(), matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                LogItem item = all.get((int) (matches.get(i) - tail.getFirst()));
+                assertSame(query, scanned.get(i), item);
+            }
+        }
+    }
+
+    private static List<LogItem> scan(P2PLogQuery query, List<LogItem> items) {
+        List<LogItem> matched = new ArrayList<>();
+        for (LogItem item : items) {
+            if (query.matches(item)) {
+                matched.add(item);
+            }
+        }
+        return matched;
+    }
+
+    private static BufferedReader lines(int from, int count) {
+        String[] tags = {"P2PHandler", "P2PBusEndpointImpl", "dalvikvm"};
+        String[] messages = {
+                "Session lost: reason [%d]", "Joined session to peer %x", "GC_CONCURRENT freed %dK"
+        };
+        StringBuilder log = new StringBuilder();
+        for (int i = from; i < from + count; i++) {
+            log.append(String.format("10-18 12:00:00.%03d  1234  %4d %s %s: %s message %d\n",
+                    i % 1000, 1000 + i % 5, "VDIWE".charAt(i % 5), tags[i % 3],
+                    String.format(messages[(i / 3) % 3], i % 4096), i));
+        }
+        return new BufferedReader(new StringReader(log.toString()));
+    }
+}
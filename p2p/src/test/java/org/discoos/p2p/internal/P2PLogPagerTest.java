@@ -0,0 +1,151 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of paged log view
+ */
+public class P2PLogPagerTest {
+
+    private static final int LINES = 100000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void get_isNewestFirst() throws Exception {
+        P2PLogTail tail = new P2PLogTail(LINES, DIRECT);
+        tail.read(lines(0, LINES));
+        P2PLogPager pager = tail.query(P2PLogQuery.compile(""), DIRECT);
+
+        assertEquals(LINES, pager.size());
+        assertEquals("message " + (LINES - 1), pager.get(0).message);
+        assertEquals("message 0", pager.get(LINES - 1).message);
+        for (int i = 0; i < LINES; i += 97) {
+            assertEquals("message " + (LINES - 1 - i), pager.get(i).message);
+        }
+        assertTrue(pager.getPageCount() <= P2PLogPager.MAX_PAGES);
+    }
+
+    @Test
+    public void append_insertsNewestAndEvictsOldest() throws Exception {
+        P2PLogTail tail = new P2PLogTail(250, DIRECT);
+        tail.read(lines(0, 200));
+        P2PLogPager pager = tail.query(P2PLogQuery.compile("message"), DIRECT);
+        final List<int[]> changes = new ArrayList<>();
+        pager.setListener(new P2PLogPager.Listener() {
+            @Override
+            public void onInserted(int count) {
+                changes.add(new int[]{0, count});
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                changes.add(new int[]{position, -count});
+            }
+        });
+        assertEquals("message 150", pager.get(49).message);
+
+        long seq = tail.getCount();
+        tail.read(lines(200, 100));
+        List<LogItem> appended = tail.since(seq);
+        assertEquals(100, pager.append(seq, appended));
+        /* Items seen before are ignored */
+        assertEquals(0, pager.append(seq, appended));
+        assertEquals(50, pager.evict(tail.getFirst()));
+
+        assertEquals(250, pager.size());
+        assertArrayEquals(new int[]{0, 100}, changes.get(0));
+        assertArrayEquals(new int[]{250, -50}, changes.get(1));
+        assertEquals("message 299", pager.get(0).message);
+        assertEquals("message 150", pager.get(149).message);
+        assertEquals("message 50", pager.get(249).message);
+    }
+
+    @Test
+    public void prefetch_loadsPageAhead() throws Exception {
+        P2PLogTail tail = new P2PLogTail(1000, DIRECT);
+        tail.read(lines(0, 1000));
+        final List<Runnable> pending = new ArrayList<>();
+        P2PLogPager pager = tail.query(P2PLogQuery.compile(""), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        });
+
+        pager.get(0);
+        assertEquals(1, pager.getPageCount());
+        for (int i = 1; i <= P2PLogPager.PAGE_SIZE / 2; i++) {
+            pager.get(i);
+        }
+        /* Next page is scheduled once */
+        assertEquals(1, pending.size());
+        assertEquals(1, pager.getPageCount());
+        pending.get(0).run();
+        assertEquals(2, pager.getPageCount());
+        assertEquals("message 899", pager.get(P2PLogPager.PAGE_SIZE).message);
+        assertEquals(2, pager.getPageCount());
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_firstScreen() throws Exception {
+        final P2PLogTail tail = new P2PLogTail(LINES, DIRECT);
+        tail.read(lines(0, LINES));
+        final P2PLogQuery query = P2PLogQuery.compile("");
+
+        P2PBenchmark.assertFaster(LINES + " lines to first screen", 2, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                copy(tail);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                screen(tail.query(query, DIRECT));
+            }
+        });
+    }
+
+    private static void screen(P2PLogPager pager) {
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(pager.get(i));
+        }
+    }
+
+    /**
+     * Load all items and reverse them, as the log list did before paging
+     */
+    private static void copy(P2PLogTail tail) {
+        List<LogItem> items = tail.since(0);
+        Collections.reverse(items);
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(items.get(i));
+        }
+    }
+
+    private static BufferedReader lines(int from, int count) {
+        StringBuilder log = new StringBuilder();
+        for (int i = from; i < from + count; i++) {
+            log.append(String.format(
+                    "10-18 12:00:00.%03d  1234  5678 I P2PHandler: message %d\n", i % 1000, i));
+        }
+        return new BufferedReader(new StringReader(log.toString()));
+    }
+}
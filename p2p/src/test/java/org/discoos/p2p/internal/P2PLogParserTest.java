@@ -0,0 +1,147 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of threadtime log line scanner
+ */
+public class P2PLogParserTest {
+
+    private static final int LINES = 100000;
+
+    private static final int ROUNDS = 3;
+
+    /**
+     * Android threadtime log format, as parsed before the scanner
+     */
+    private static final String LOG_PATTERN
+            = "(\\d{2}-\\d{2})\\s*(\\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\s*(\\d*)\\s*(\\d*)\\s*(\\w)\\s*(\\w+):\\s*(.*)";
+
+    private static final SimpleDateFormat LOG_DATE_FORMAT = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+
+    private static final String[] TAGS = {
+            "P2PHandler", "P2PBusEndpointImpl", "ActivityManager", "dalvikvm", "P2PNetworkEndpointImpl"
+    };
+
+    @Test
+    public void line_isParsed() {
+        LogItem item = new P2PLogParser().parse(
+                "10-18 12:34:56.789  1234  5678 W P2PHandler: Session lost: reason [2]");
+        assertNotNull(item);
+        assertEquals("5678", item.thread);
+        assertEquals("P2PHandler", item.module);
+        assertEquals("W", item.level);
+        assertEquals("Session lost: reason [2]", item.message);
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(item.timestamp);
+        assertEquals(Calendar.OCTOBER, calendar.get(Calendar.MONTH));
+        assertEquals(18, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals(12, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(34, calendar.get(Calendar.MINUTE));
+        assertEquals(56, calendar.get(Calendar.SECOND));
+        assertEquals(789, calendar.get(Calendar.MILLISECOND));
+    }
+
+    @Test
+    public void paddedTag_isTrimmed() {
+        LogItem item = new P2PLogParser().parse("10-18 12:34:56.789   12   345 D dalvikvm: GC freed");
+        assertEquals("dalvikvm", item.module);
+        item = new P2PLogParser().parse("10-18 12:34:56.789   12   345 I Tag     : padded");
+        assertEquals("Tag", item.module);
+        assertEquals("padded", item.message);
+    }
+
+    @Test
+    public void invalid_isRejected() {
+        P2PLogParser parser = new P2PLogParser();
+        assertNull(parser.parse("--------- beginning of main"));
+        assertNull(parser.parse("10-18 12:34:56.789  1234  5678 X P2PHandler: level"));
+        assertNull(parser.parse("10-18 12:34:56.789  1234 W P2PHandler: no tid"));
+        assertNull(parser.parse("10-18 12:34:56.789  1234  5678 W P2PHandler no colon"));
+        assertNull(parser.parse(""));
+    }
+
+    @Test
+    public void repeatedFields_areShared() {
+        P2PLogParser parser = new P2PLogParser();
+        LogItem a = parser.parse("10-18 12:34:56.789  1234  5678 I P2PHandler: a");
+        LogItem b = parser.parse("10-18 12:34:56.790  1234  5678 I P2PHandler: b");
+        assertSame(a.module, b.module);
+        assertSame(a.thread, b.thread);
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_parse() throws Exception {
+        final List<String> lines = createLines(LINES);
+
+        P2PBenchmark.assertFaster(LINES + " lines parsed", 4, 2, ROUNDS, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                assertEquals(LINES, parseRegex(lines));
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                assertEquals(LINES, parseScanner(lines));
+            }
+        });
+    }
+
+    /**
+     * Parse with regular expression as log was read before the scanner
+     */
+    private static int parseRegex(List<String> lines) {
+        int count = 0;
+        for (String line : lines) {
+            Matcher matcher = Pattern.compile(LOG_PATTERN).matcher(line);
+            if (matcher.matches()) {
+                Date timestamp;
+                try {
+                    timestamp = LOG_DATE_FORMAT.parse(matcher.group(2));
+                } catch (ParseException e) {
+                    timestamp = Calendar.getInstance().getTime();
+                }
+                new LogItem(timestamp.getTime(),
+                        matcher.group(4), matcher.group(6), matcher.group(5), matcher.group(7));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int parseScanner(List<String> lines) {
+        P2PLogParser parser = new P2PLogParser();
+        int count = 0;
+        for (String line : lines) {
+            if (parser.parse(line) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> createLines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(String.format("10-18 %02d:%02d:%02d.%03d %5d %5d %s %s: Message number %d with some payload [%08x]",
+                    (i / 3600000) % 24, (i / 60000) % 60, (i / 1000) % 60, i % 1000,
+                    1234, 1234 + i % 7, "VDIWE".charAt(i % 5), TAGS[i % TAGS.length], i, i * 31));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,154 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of compiled log queries
+ */
+public class P2PLogQueryTest {
+
+    private static final int LINES = 100000;
+
+    private static final LogItem SESSION = item("P2PHandler", "W", "Session lost: reason [2]");
+
+    private static final LogItem JOINED = item("P2PBusEndpointImpl", "I", "Joined session to peer");
+
+    private static final LogItem GC = item("dalvikvm", "D", "GC_CONCURRENT freed 2048K");
+
+    @Test
+    public void empty_matchesAll() {
+        P2PLogQuery query = P2PLogQuery.compile("  ");
+        assertTrue(query.isEmpty());
+        assertTrue(query.matches(GC));
+    }
+
+    @Test
+    public void tagLevel_matchesExactly() {
+        assertTrue(P2PLogQuery.compile("P2PHandler:W").matches(SESSION));
+        assertFalse(P2PLogQuery.compile("P2PHandler:I").matches(SESSION));
+        assertTrue(P2PLogQuery.compile("*:D").matches(GC));
+        assertTrue(P2PLogQuery.compile("dalvikvm:*").matches(GC));
+        assertFalse(P2PLogQuery.compile("dalvik:*").matches(GC));
+    }
+
+    @Test
+    public void text_matchesSubstringIgnoringCase() {
+        assertTrue(P2PLogQuery.compile("SESSION").matches(SESSION));
+        assertTrue(P2PLogQuery.compile("session").matches(JOINED));
+        assertTrue(P2PLogQuery.compile("busendpoint").matches(JOINED));
+        assertTrue(P2PLogQuery.compile("\"lost: reason\"").matches(SESSION));
+        assertFalse(P2PLogQuery.compile("reasons").matches(SESSION));
+        assertFalse(P2PLogQuery.compile("session").matches(GC));
+    }
+
+    @Test
+    public void operators_areApplied() {
+        /* Terms without operator are combined with OR */
+        P2PLogQuery query = P2PLogQuery.compile("lost freed");
+        assertTrue(query.matches(SESSION));
+        assertTrue(query.matches(GC));
+        assertFalse(query.matches(JOINED));
+
+        query = P2PLogQuery.compile("session AND NOT P2PHandler:*");
+        assertFalse(query.matches(SESSION));
+        assertTrue(query.matches(JOINED));
+
+        query = P2PLogQuery.compile("-session");
+        assertFalse(query.matches(SESSION));
+        assertTrue(query.matches(GC));
+
+        query = P2PLogQuery.compile("(lost OR joined) AND *:W");
+        assertTrue(query.matches(SESSION));
+        assertFalse(query.matches(JOINED));
+    }
+
+    @Test
+    public void malformed_isTolerated() {
+        assertTrue(P2PLogQuery.compile("(lost").matches(SESSION));
+        assertTrue(P2PLogQuery.compile("lost ) freed").matches(GC));
+        assertFalse(P2PLogQuery.compile("()").matches(GC));
+        assertTrue(P2PLogQuery.compile("freed AND").matches(GC));
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_filter() throws Exception {
+        final List<LogItem> items = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            items.add(item(i % 3 == 0 ? "P2PHandler" : "ActivityManager", "VDIWE".substring(i % 5, i % 5 + 1),
+                    String.format("Message number %d with some payload [%08x]", i, i * 31)));
+        }
+        final P2PLogQuery query = P2PLogQuery.compile("P2PHandler:E 4242 session");
+        final String[] filters = "P2PHandler:E 4242 session".split("\\s");
+        final int count = filter(query, items);
+        assertTrue(count > 0 && count < LINES);
+        assertEquals(count, filterRegex(filters, items));
+
+        P2PBenchmark.assertFaster(LINES + " lines filtered", 4, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                filterRegex(filters, items);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() {
+                filter(query, items);
+            }
+        });
+    }
+
+    /**
+     * Filter with regular expressions as log was read before compiled queries
+     */
+    private static int filterRegex(String[] filters, List<LogItem> items) {
+        int count = 0;
+        for (LogItem item : items) {
+            if (matchesRegex(filters, item)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean matchesRegex(String[] filters, LogItem item) {
+        for (String filter : filters) {
+            if (filter.matches("(\\w+|\\*):[\\w|\\*]")) {
+                String[] matches = filter.split(":");
+                if ((matches[0].equals("*") || matches[0].equals(item.module)) &&
+                        (matches[1].equals("*") || matches[1].equals(item.level))) {
+                    return true;
+                }
+            } else {
+                Pattern pattern = Pattern.compile(".*" + Pattern.quote(filter) + ".*", Pattern.CASE_INSENSITIVE);
+                for (String field : new String[]{item.thread, item.module, item.level, item.message}) {
+                    if (pattern.matcher(field).matches()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int filter(P2PLogQuery query, List<LogItem> items) {
+        int count = 0;
+        for (LogItem item : items) {
+            if (query.matches(item)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static LogItem item(String tag, String level, String message) {
+        return new LogItem(0, "1234", tag, level, message);
+    }
+}
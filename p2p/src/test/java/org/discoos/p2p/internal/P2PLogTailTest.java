@@ -0,0 +1,71 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils.LogItem;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of logcat tail ring and batch delivery
+ */
+public class P2PLogTailTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void ring_keepsNewestItems() throws Exception {
+        P2PLogTail tail = new P2PLogTail(3, DIRECT);
+        tail.read(lines(5));
+
+        assertEquals(5, tail.getCount());
+        List<LogItem> items = tail.since(0);
+        assertEquals(3, items.size());
+        assertEquals("message 2", items.get(0).message);
+        assertEquals("message 4", items.get(2).message);
+        assertEquals(1, tail.since(4).size());
+        assertTrue(tail.since(5).isEmpty());
+    }
+
+    @Test
+    public void listener_receivesAppendedBatches() throws Exception {
+        P2PLogTail tail = new P2PLogTail(10, DIRECT);
+        final List<Long> seqs = new ArrayList<>();
+        final List<LogItem> appended = new ArrayList<>();
+        tail.addListener(new P2PLogTail.Listener() {
+            @Override
+            public void onAppended(long seq, List<LogItem> items) {
+                seqs.add(seq);
+                appended.addAll(items);
+            }
+        });
+        tail.read(lines(2));
+        tail.read(new BufferedReader(new StringReader("not a log line\n")));
+        tail.read(lines(1));
+
+        assertEquals(3, appended.size());
+        assertEquals(Long.valueOf(0), seqs.get(0));
+        assertEquals(Long.valueOf(2), seqs.get(seqs.size() - 1));
+        assertEquals("P2PHandler", appended.get(2).module);
+        assertEquals("I", appended.get(2).level);
+    }
+
+    private static BufferedReader lines(int count) {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            log.append(String.format(
+                    "10-18 12:00:00.%03d  1234  5678 I P2PHandler: message %d\n", i, i));
+        }
+        return new BufferedReader(new StringReader(log.toString()));
+    }
+}
@@ -0,0 +1,120 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2PUtils;
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests and warm start benchmark of the memory-mapped peer store
+ */
+public class P2PMappedPeerStoreTest {
+
+    private static final int PEERS = 10000;
+
+    /**
+     * Number of peers shown in first frame of peer list
+     */
+    private static final int FIRST_FRAME = 20;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void peers_roundTrip() throws Exception {
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(3);
+        P2PMappedPeerStore store = P2PMappedPeerStore.open(write(P2PMappedPeerStore.encode(peers)));
+        assertNotNull(store);
+        assertEquals(3, store.size());
+        for (int i = 0; i < peers.size(); i++) {
+            PeerInfoImpl expected = peers.get(i);
+            PeerInfoImpl actual = store.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.name, actual.name);
+            assertEquals(expected.isTimeout(), actual.isTimeout());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getNetworks(), actual.getNetworks());
+            assertEquals(expected.getPort("network.a"), actual.getPort("network.a"));
+            assertEquals(expected.getSummary(), actual.getSummary());
+            assertEquals(expected.getDetails(), actual.getDetails());
+            assertArrayEquals((byte[]) expected.get("AppId"), (byte[]) actual.get("AppId"));
+            assertEquals(expected.get("DeviceName"), actual.get("DeviceName"));
+        }
+    }
+
+    @Test
+    public void fields_areDecodedLazily() throws Exception {
+        P2PMappedPeerStore store = P2PMappedPeerStore.open(write(P2PMappedPeerStore.encode(P2PTestPeers.createPeers(1))));
+        PeerInfoImpl info = store.get(0);
+        assertNotNull(info.getRecord());
+        assertEquals("Details 0", info.getDetails());
+        assertNull(info.getRecord());
+    }
+
+    @Test
+    public void lazyPeers_areCopiedWithoutDecoding() throws Exception {
+        List<PeerInfoImpl> peers = P2PMappedPeerStore.open(write(P2PMappedPeerStore.encode(P2PTestPeers.createPeers(2)))).load();
+        byte[] data = P2PMappedPeerStore.encode(peers);
+        assertNotNull(peers.get(0).getRecord());
+        assertTrue(P2PMappedPeerStore.verify(data));
+        PeerInfoImpl copy = P2PMappedPeerStore.open(write(data)).get(1);
+        assertEquals("Device 1", copy.get("DeviceName"));
+    }
+
+    @Test
+    public void invalid_isRejected() throws Exception {
+        File file = write(P2PMappedPeerStore.encode(P2PTestPeers.createPeers(2)));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(P2PMappedPeerStore.HEADER_SIZE + P2PMappedPeerStore.RECORD_SIZE);
+        raf.close();
+        assertNull(P2PMappedPeerStore.open(file));
+        assertNull(P2PMappedPeerStore.open(new File(mFolder.getRoot(), "missing")));
+        assertFalse(P2PMappedPeerStore.verify(P2PCodec.encodePeers(P2PTestPeers.createPeers(1))));
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_warmStart() throws Exception {
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(PEERS);
+        final File snapshot = write(P2PCodec.encodePeers(peers));
+        final File mapped = write(P2PMappedPeerStore.encode(peers));
+
+        P2PBenchmark.assertFaster(PEERS + " peers to first " + FIRST_FRAME, 1.5, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                firstFrame(P2PCodec.decodePeers(
+                        P2PUtils.readBytes(snapshot.getParent(), snapshot.getName())));
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                firstFrame(P2PMappedPeerStore.open(mapped).load());
+            }
+        });
+    }
+
+    private static void firstFrame(List<PeerInfoImpl> peers) {
+        assertEquals(PEERS, peers.size());
+        for (int i = 0; i < FIRST_FRAME; i++) {
+            assertNotNull(peers.get(i).getSummary());
+        }
+    }
+
+    private File write(byte[] data) throws Exception {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+}
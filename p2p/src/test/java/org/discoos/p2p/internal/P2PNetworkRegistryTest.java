@@ -0,0 +1,33 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of network name interning
+ */
+public class P2PNetworkRegistryTest {
+
+    @Test
+    public void intern_isStable() {
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        int a = registry.intern("network.registry.a");
+        int b = registry.intern("network.registry.b");
+        assertTrue(a >= 0);
+        assertEquals(a + 1, b);
+        assertEquals(a, registry.intern("network.registry.a"));
+        assertEquals(b, registry.intern("network.registry.b"));
+        assertEquals("network.registry.a", registry.getName(a));
+        assertEquals("network.registry.b", registry.getName(b));
+    }
+
+    @Test
+    public void lookup_doesNotIntern() {
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        assertEquals(-1, registry.lookup("network.registry.unknown"));
+        assertEquals(-1, registry.lookup("network.registry.unknown"));
+        int id = registry.intern("network.registry.known");
+        assertEquals(id, registry.lookup("network.registry.known"));
+    }
+}
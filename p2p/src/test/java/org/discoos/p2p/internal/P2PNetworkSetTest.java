@@ -0,0 +1,121 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of network membership bits and session ports
+ */
+public class P2PNetworkSetTest {
+
+    @Test
+    public void bits_andPortsAreEncodedById() {
+        P2PNetworkSet set = new P2PNetworkSet();
+        assertTrue(set.isEmpty());
+        assertEquals(-1, set.next(0));
+
+        assertTrue(set.add(3, (short) 42));
+        assertTrue(set.add(70, (short) 43));
+        /* Same port is not a change, new port is */
+        assertFalse(set.add(3, (short) 42));
+        assertTrue(set.add(3, (short) 44));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(3));
+        assertTrue(set.contains(70));
+        assertFalse(set.contains(4));
+        assertFalse(set.contains(-1));
+        assertEquals(44, set.getPort(3));
+        assertEquals(43, set.getPort(70));
+        assertEquals(0, set.getPort(4));
+        assertEquals(0, set.getPort(1000));
+        assertEquals(3, set.next(0));
+        assertEquals(70, set.next(4));
+        assertEquals(-1, set.next(71));
+
+        assertTrue(set.remove(3));
+        assertFalse(set.remove(3));
+        assertEquals(0, set.getPort(3));
+        assertEquals(1, set.size());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.getPort(70));
+    }
+
+    @Test
+    public void copy_isIndependent() {
+        P2PNetworkSet set = new P2PNetworkSet();
+        set.add(1, (short) 42);
+        P2PNetworkSet copy = new P2PNetworkSet(set);
+        copy.add(1, (short) 43);
+        copy.add(2, (short) 44);
+        assertEquals(42, set.getPort(1));
+        assertFalse(set.contains(2));
+        assertEquals(43, copy.getPort(1));
+    }
+
+    @Test
+    public void andNot_detectsNewNetworks() {
+        P2PNetworkSet known = new P2PNetworkSet();
+        known.add(1, (short) 42);
+        known.add(2, (short) 43);
+        P2PNetworkSet announced = new P2PNetworkSet();
+        announced.add(2, (short) 43);
+        announced.add(5, (short) 44);
+
+        P2PNetworkSet added = announced.andNot(known);
+        assertEquals(1, added.size());
+        assertTrue(added.contains(5));
+        assertEquals(44, added.getPort(5));
+        assertEquals(0, added.getPort(2));
+
+        P2PNetworkSet removed = known.andNot(announced);
+        assertEquals(1, removed.size());
+        assertTrue(removed.contains(1));
+        assertEquals(42, removed.getPort(1));
+
+        /* Operands are not changed */
+        assertEquals(2, known.size());
+        assertEquals(2, announced.size());
+        assertTrue(known.andNot(known).isEmpty());
+        assertEquals(2, known.andNot(new P2PNetworkSet()).size());
+    }
+
+    @Test
+    public void addAll_isUnion() {
+        P2PNetworkSet set = new P2PNetworkSet();
+        set.add(1, (short) 42);
+        P2PNetworkSet other = new P2PNetworkSet();
+        other.add(1, (short) 43);
+        other.add(9, (short) 44);
+        set.addAll(other);
+        assertEquals(2, set.size());
+        assertEquals(43, set.getPort(1));
+        assertEquals(44, set.getPort(9));
+    }
+
+    @Test
+    public void map_isEncodedByName() {
+        Map<String, Short> networks = new LinkedHashMap<>();
+        networks.put("network.set.b", (short) 43);
+        networks.put("network.set.a", (short) 42);
+        networks.put("network.set.c", null);
+        P2PNetworkSet set = P2PNetworkSet.fromMap(networks);
+        assertEquals(3, set.size());
+
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        assertEquals(43, set.getPort(registry.lookup("network.set.b")));
+        assertEquals(0, set.getPort(registry.lookup("network.set.c")));
+        /* Names are in network id order, which is order of registration */
+        assertEquals(Arrays.asList("network.set.b", "network.set.a", "network.set.c"), set.getNames());
+        networks.put("network.set.c", (short) 0);
+        assertEquals(networks, set.toMap());
+        assertTrue(P2PNetworkSet.fromMap(null).isEmpty());
+    }
+}
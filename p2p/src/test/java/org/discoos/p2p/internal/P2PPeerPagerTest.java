@@ -0,0 +1,118 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.PeerInfo;
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of peer paging from cache, without database
+ */
+public class P2PPeerPagerTest {
+
+    private static final int PEERS = 120;
+
+    private PeerInfoCache mCache;
+
+    private List<PeerInfoImpl> mPeers;
+
+    @Before
+    public void setUp() {
+        mCache = P2PTestPeers.createCache();
+        mPeers = P2PTestPeers.createPeers(PEERS);
+        for (PeerInfoImpl it : mPeers) {
+            mCache.put(it);
+        }
+    }
+
+    @Test
+    public void pages_areOrderedByLastSeen() {
+        Queue loader = new Queue();
+        Queue deliver = new Queue();
+        P2PPeerPager pager = mCache.getPager(null, loader, deliver);
+        assertEquals(PEERS, pager.size());
+
+        /* Loaded in the background when first viewed */
+        assertNull(pager.get(0));
+        assertNull(pager.get(1));
+        assertEquals(1, loader.tasks.size());
+        loader.run();
+        Loaded loaded = new Loaded();
+        pager.setListener(loaded);
+        deliver.run();
+        assertEquals(0, loaded.position);
+        assertEquals(P2PPeerPager.PAGE_SIZE, loaded.count);
+
+        for (int i = 0; i < P2PPeerPager.PAGE_SIZE; i++) {
+            assertEquals(mPeers.get(PEERS - 1 - i).id, pager.get(i).getId());
+        }
+
+        /* Last page is partial */
+        pager.load(PEERS - 1);
+        assertEquals(mPeers.get(0).id, pager.get(PEERS - 1).getId());
+        assertNull(pager.get(PEERS));
+    }
+
+    @Test
+    public void pages_areFilteredByNetwork() {
+        Queue queue = new Queue();
+        P2PPeerPager pager = mCache.getPager("network.b", queue, queue);
+        assertEquals(PEERS / 2, pager.size());
+        long last = Long.MAX_VALUE;
+        for (int i = 0; i < pager.size(); i++) {
+            pager.load(i);
+            PeerInfo info = pager.get(i);
+            assertTrue(info.isMemberOf("network.b"));
+            assertTrue(info.getTimestamp().getTime() <= last);
+            last = info.getTimestamp().getTime();
+        }
+        assertTrue(queue.tasks.isEmpty());
+    }
+
+    @Test
+    public void pager_isSnapshotOfCache() {
+        P2PPeerPager pager = mCache.getPager(null, new Queue(), new Queue());
+        List<PeerInfoImpl> more = P2PTestPeers.createPeers(PEERS + 10);
+        for (PeerInfoImpl it : more.subList(PEERS, more.size())) {
+            mCache.put(it);
+        }
+        assertEquals(PEERS, pager.size());
+        assertEquals(PEERS + 10, mCache.getPager(null, new Queue(), new Queue()).size());
+    }
+
+    private static class Queue implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void run() {
+            for (Runnable it : new ArrayList<>(tasks)) {
+                it.run();
+            }
+            tasks.clear();
+        }
+    }
+
+    private static class Loaded implements P2PPeerPager.Listener {
+
+        int position = -1;
+
+        int count;
+
+        @Override
+        public void onLoaded(int position, int count) {
+            this.position = position;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of asynchronous session joins, reuse and idle eviction
+ */
+public class P2PSessionPoolTest {
+
+    private static final long IDLE = 60000;
+
+    private static final int PENDING = 4;
+
+    @Test
+    public void session_isJoinedOnceAndReused() throws Exception {
+        Connector connector = new Connector();
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+
+        P2PSessionPool.Session session = null;
+        for (int i = 0; i < 100; i++) {
+            session = connector.acquire(pool, "a1b2c", ":1.42", "network", i);
+            session.emitter.message(new byte[]{(byte) i});
+        }
+        assertEquals(1, connector.joined);
+        assertEquals(1, pool.size());
+        assertEquals(100, connector.sent);
+
+        /* Each network has its own session */
+        assertNotEquals(session.id, connector.acquire(pool, "a1b2c", ":1.42", "other", 100).id);
+        assertEquals(2, connector.joined);
+    }
+
+    @Test
+    public void pendingSession_queuesMessagesUntilJoined() {
+        Connector connector = new Connector();
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+
+        P2PSessionPool.Session session = pool.acquire("a1b2c", ":1.42", "network", (short) 42, 0);
+        assertFalse(session.isJoined());
+        for (int i = 0; i < PENDING; i++) {
+            assertSame(session, pool.acquire("a1b2c", ":1.42", "network", (short) 42, i));
+            assertTrue(session.offer(new byte[]{(byte) i}));
+        }
+        assertFalse(session.offer(new byte[]{0}));
+        assertEquals(1, connector.pending.size());
+
+        /* Pending sessions are not evicted */
+        assertEquals(IDLE, pool.evict(IDLE * 2));
+        assertEquals(1, pool.size());
+
+        assertTrue(pool.joined(session, 7));
+        assertTrue(session.isJoined());
+        assertEquals(7, session.id);
+        List<byte[]> pending = session.drain();
+        assertEquals(PENDING, pending.size());
+        assertEquals(PENDING - 1, pending.get(PENDING - 1)[0]);
+        assertTrue(session.drain().isEmpty());
+    }
+
+    @Test
+    public void closedPendingSession_isLeftWhenJoined() {
+        Connector connector = new Connector();
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+
+        P2PSessionPool.Session session = pool.acquire("a1b2c", ":1.42", "network", (short) 42, 0);
+        pool.close("network");
+        assertTrue(connector.left.isEmpty());
+
+        assertFalse(pool.joined(session, 7));
+        assertEquals(0, pool.size());
+        assertEquals(1, connector.left.size());
+        assertEquals(7, (int) connector.left.get(0));
+    }
+
+    @Test
+    public void staleSession_isRejoined() {
+        Connector connector = new Connector();
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+        int id = connector.acquire(pool, "a1b2c", ":1.42", "network", 0).id;
+
+        /* Peer reattached to bus */
+        assertNotEquals(id, connector.acquire(pool, "a1b2c", ":1.57", "network", 1).id);
+        assertEquals(1, pool.size());
+        assertEquals(1, connector.left.size());
+        assertEquals(id, (int) connector.left.get(0));
+
+        /* Lost sessions are not left again */
+        id = connector.acquire(pool, "a1b2c", ":1.57", "network", 2).id;
+        assertTrue(pool.lost(id));
+        assertEquals(0, pool.size());
+        assertEquals(1, connector.left.size());
+    }
+
+    @Test
+    public void idleSessions_areClosed() {
+        Connector connector = new Connector();
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+        connector.acquire(pool, "a1b2c", ":1.42", "network", 0);
+        connector.acquire(pool, "d3e4f", ":1.43", "network", 1000);
+
+        assertEquals(IDLE - 500, pool.evict(500));
+        assertEquals(1000, pool.evict(IDLE));
+        assertEquals(1, pool.size());
+        assertEquals(-1, pool.evict(IDLE + 1000));
+        assertEquals(0, pool.size());
+        assertEquals(2, connector.left.size());
+    }
+
+    @Test
+    public void failedJoin_isNotPooled() {
+        Connector connector = new Connector();
+        connector.fail = true;
+        P2PSessionPool pool = new P2PSessionPool(connector, IDLE, PENDING);
+        assertNull(pool.acquire("a1b2c", ":1.42", "network", (short) 42, 0));
+        assertEquals(0, pool.size());
+
+        /* Queued messages are dropped when join fails */
+        connector.fail = false;
+        P2PSessionPool.Session session = pool.acquire("a1b2c", ":1.42", "network", (short) 42, 0);
+        session.offer(new byte[]{1});
+        session.offer(new byte[]{2});
+        assertEquals(2, pool.failed(session));
+        assertEquals(0, pool.size());
+
+        connector.acquire(pool, "a1b2c", ":1.42", "network", 0);
+        connector.acquire(pool, "d3e4f", ":1.43", "other", 0);
+        pool.close("network");
+        assertEquals(1, pool.size());
+        pool.closeAll();
+        assertEquals(0, pool.size());
+        assertEquals(2, connector.left.size());
+    }
+
+    private static class Connector implements P2PSessionPool.Connector {
+
+        int joined;
+
+        int sent;
+
+        boolean fail;
+
+        final List<P2PSessionPool.Session> pending = new ArrayList<>();
+
+        final List<Integer> left = new ArrayList<>();
+
+        /* Acquire session and complete pending join */
+        P2PSessionPool.Session acquire(P2PSessionPool pool, String peerId, String uniqueName,
+                                       String network, long now) {
+            P2PSessionPool.Session session = pool.acquire(peerId, uniqueName, network, (short) 42, now);
+            if (pending.remove(session)) {
+                assertTrue(pool.joined(session, ++joined));
+            }
+            return session;
+        }
+
+        @Override
+        public boolean join(P2PSessionPool.Session session, short port) {
+            return !fail && pending.add(session);
+        }
+
+        @Override
+        public P2PNetworkEndpoint open(String network, int id) {
+            return new P2PNetworkEndpoint() {
+                @Override
+                public void message(byte[] data) {
+                    sent++;
+                }
+            };
+        }
+
+        @Override
+        public void leave(int id) {
+            left.add(id);
+        }
+    }
+}
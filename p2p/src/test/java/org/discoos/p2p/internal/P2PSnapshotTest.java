@@ -0,0 +1,90 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of atomic snapshot writes and recovery from previous generation
+ */
+public class P2PSnapshotTest {
+
+    private static final String SNAPSHOT = "peerinfo.list";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private String mRoot;
+
+    private P2PSnapshot mSnapshot;
+
+    private byte[] mFirst;
+
+    private byte[] mSecond;
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = mFolder.getRoot().getAbsolutePath();
+        mSnapshot = new P2PSnapshot(mRoot, SNAPSHOT);
+        mFirst = P2PCodec.encodePeers(Collections.singletonList(
+                new PeerInfoCache.PeerInfoImpl("p1", null, null, null, new HashMap<String, Object>(),
+                        false, new Date(), new P2PNetworkSet())));
+        mSecond = P2PCodec.encodePeers(Collections.<PeerInfoCache.PeerInfoImpl>emptyList());
+        mSnapshot.write(mFirst);
+        mSnapshot.write(mSecond);
+    }
+
+    @Test
+    public void write_keepsPreviousGeneration() throws Exception {
+        assertArrayEquals(mSecond, mSnapshot.read());
+        assertTrue(new File(mRoot, SNAPSHOT + ".bak").exists());
+        assertFalse(new File(mRoot, SNAPSHOT + ".tmp").exists());
+    }
+
+    @Test
+    public void read_fallsBackOnTruncatedSnapshot() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(mSnapshot.getFile(), "rw");
+        file.setLength(file.length() / 2);
+        file.close();
+
+        assertArrayEquals(mFirst, mSnapshot.read());
+        /* Previous generation is restored as live snapshot */
+        assertArrayEquals(mFirst, read(mSnapshot.getFile()));
+    }
+
+    @Test
+    public void read_fallsBackOnMissingSnapshot() throws Exception {
+        /* Crash between renaming live snapshot and renaming temp file */
+        assertTrue(mSnapshot.getFile().delete());
+
+        assertArrayEquals(mFirst, mSnapshot.read());
+        assertTrue(mSnapshot.getFile().exists());
+    }
+
+    @Test
+    public void read_returnsNullWithoutValidGeneration() throws Exception {
+        assertTrue(new File(mRoot, SNAPSHOT + ".bak").delete());
+        RandomAccessFile file = new RandomAccessFile(mSnapshot.getFile(), "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+
+        assertNull(mSnapshot.read());
+    }
+
+    private static byte[] read(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        in.readFully(data);
+        in.close();
+        return data;
+    }
+}
@@ -0,0 +1,157 @@
+package org.discoos.p2p.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of staged startup ordering and parallelism
+ */
+public class P2PStartupTest {
+
+    private ExecutorService mBackground;
+
+    private ExecutorService mMain;
+
+    private P2PStartup mStartup;
+
+    private final List<String> mFinished = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        mBackground = Executors.newFixedThreadPool(4);
+        mMain = Executors.newSingleThreadExecutor();
+        mStartup = new P2PStartup(mBackground, mMain);
+    }
+
+    @After
+    public void tearDown() {
+        mBackground.shutdownNow();
+        mMain.shutdownNow();
+    }
+
+    @Test
+    public void stages_finishAfterDependencies() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        Step a = mStartup.add(new Step("a", 30, null));
+        Step b = mStartup.add(new Step("b", 0, null));
+        Step c = mStartup.add(new Step("c", 0, null, a, b));
+        mStartup.add(new Step("d", 0, done, c));
+        start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(4, mFinished.size());
+        assertTrue(mFinished.indexOf("c") > mFinished.indexOf("a"));
+        assertTrue(mFinished.indexOf("c") > mFinished.indexOf("b"));
+        assertEquals("d", mFinished.get(3));
+        assertEquals("c", c.getResult());
+        assertTrue(isFinished());
+    }
+
+    @Test
+    public void independentStages_runInParallel() throws Exception {
+        /* Both stages wait for each other, which only completes if run in parallel */
+        CountDownLatch both = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        mStartup.add(new Barrier("a", both, done));
+        mStartup.add(new Barrier("b", both, done));
+        start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependency_mustBeAdded() {
+        mStartup.add(new Step("b", 0, null, new Step("a", 0, null)));
+    }
+
+    private void start() throws Exception {
+        mMain.submit(new Runnable() {
+            @Override
+            public void run() {
+                mStartup.start();
+            }
+        }).get();
+    }
+
+    private boolean isFinished() throws Exception {
+        /* Stage state is confined to main executor */
+        return mMain.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mStartup.isFinished();
+            }
+        }).get();
+    }
+
+    private class Step extends P2PStartup.Stage<String> {
+
+        private final String mName;
+
+        private final int mMillis;
+
+        private final CountDownLatch mDone;
+
+        Step(String name, int millis, CountDownLatch done, P2PStartup.Stage<?>... dependencies) {
+            super(name, dependencies);
+            mName = name;
+            mMillis = millis;
+            mDone = done;
+        }
+
+        @Override
+        protected String doInBackground() {
+            try {
+                Thread.sleep(mMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return mName;
+        }
+
+        @Override
+        protected void onFinished(String result) {
+            mFinished.add(result);
+            if (mDone != null) {
+                mDone.countDown();
+            }
+        }
+    }
+
+    private class Barrier extends P2PStartup.Stage<Void> {
+
+        private final CountDownLatch mBoth;
+
+        private final CountDownLatch mDone;
+
+        Barrier(String name, CountDownLatch both, CountDownLatch done) {
+            super(name);
+            mBoth = both;
+            mDone = done;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            mBoth.countDown();
+            try {
+                if (mBoth.await(5, TimeUnit.SECONDS)) {
+                    mDone.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Peer and cache fixtures shared by store and cache tests
+ */
+final class P2PTestPeers {
+
+    private P2PTestPeers() {}
+
+    /**
+     * Create empty cache which never expires peers and never writes
+     * changes, outside of the singleton instance
+     * @return PeerInfoCache
+     */
+    static PeerInfoCache createCache() {
+        /* Own id, peers are not me */
+        P2PAboutData.mAppId = new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1};
+        PeerInfoCache cache = new PeerInfoCache();
+        cache.setTimeToLive(Long.MAX_VALUE);
+        cache.setStore(new P2PWriteBehind("test", new P2PTask<Void>() {
+            @Override
+            protected Void doInBackground() {
+                return null;
+            }
+        }, 0, 0, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        }));
+        return cache;
+    }
+
+    /**
+     * Create peers with About parameters of all stored value types. Every
+     * peer is member of "network.a", every other peer also of "network.b",
+     * and every third peer is timed out.
+     * @param count Number of peers
+     * @return List
+     */
+    static List<PeerInfoImpl> createPeers(int count) {
+        List<PeerInfoImpl> peers = new ArrayList<>(count);
+        P2PNetworkRegistry registry = P2PNetworkRegistry.getInstance();
+        for (int i = 0; i < count; i++) {
+            String id = String.format("%08x", i);
+            Map<String, Object> params = new HashMap<>();
+            params.put("AppId", new byte[]{(byte) i, (byte) (i >> 8), 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14});
+            params.put("AppName", "DISCO P2P");
+            params.put("DeviceName", "Device " + i);
+            params.put("Manufacturer", "DISCO Open Source");
+            params.put("SupportedLanguages", new String[]{"en", "nb"});
+            params.put("Missing", null);
+            P2PNetworkSet membership = new P2PNetworkSet();
+            membership.add(registry.intern("network.a"), (short) 42);
+            if (i % 2 == 0) {
+                membership.add(registry.intern("network.b"), (short) 43);
+            }
+            peers.add(new PeerInfoImpl(id, ":bus." + id + ".2", "Brand Model @ 10.0.0." + (i % 255),
+                    "Details " + i, params, i % 3 == 0, new Date(1463000000000L + i), membership));
+        }
+        return peers;
+    }
+}
@@ -0,0 +1,219 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of bulk transfer over a loopback socket standing in for a raw session
+ */
+public class P2PTransferTest {
+
+    private static final int SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Chunk size of message based transfer, below the AllJoyn message limit
+     */
+    private static final int CHUNK = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void transfer_isReceivedIntact() throws Exception {
+        File source = file("map.bin", 1024 * 1024 + 17);
+        File target = new File(mFolder.getRoot(), "received.bin");
+
+        P2PTransfer.Header header = raw(source, target);
+        assertEquals("map.bin", header.name);
+        assertEquals(source.length(), header.size);
+        assertTrue(Arrays.equals(bytes(source), bytes(target)));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedTransfer_fails() throws Exception {
+        File source = file("photo.jpg", 1000);
+        FileChannel channel = new FileInputStream(source).getChannel();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            P2PTransfer.write("photo.jpg", channel, Channels.newChannel(out));
+        } finally {
+            channel.close();
+        }
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(truncated));
+        P2PTransfer.Header header = P2PTransfer.readHeader(in);
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder.getRoot(), "truncated"), "rw");
+        try {
+            P2PTransfer.read(in, file.getChannel(), header.size);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    @Category(P2PBenchmark.class)
+    public void benchmark_rawVersusChunked() throws Exception {
+        final File source = file("log.bin", SIZE);
+        final File target = new File(mFolder.getRoot(), "received.bin");
+
+        P2PBenchmark.assertFaster((SIZE >> 20) + " MB transfer", 1.2, 2, 5, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                chunked(source, target);
+            }
+        }, new P2PBenchmark.Task() {
+            @Override
+            void run() throws Exception {
+                raw(source, target);
+            }
+        });
+    }
+
+    /**
+     * Transfer file with transferTo/transferFrom over loopback socket
+     */
+    private static P2PTransfer.Header raw(File source, final File target) throws Exception {
+        return loopback(source, new Sender() {
+            @Override
+            public void send(File file, SocketChannel channel) throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    P2PTransfer.write(file.getName(), in.getChannel(), channel);
+                } finally {
+                    in.close();
+                }
+            }
+        }, target, true);
+    }
+
+    /**
+     * Transfer file as length prefixed message chunks copied through the heap,
+     * as a message session would send it
+     */
+    private static void chunked(File source, File target) throws Exception {
+        loopback(source, new Sender() {
+            @Override
+            public void send(File file, SocketChannel channel) throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+                try {
+                    byte[] buffer = new byte[CHUNK];
+                    int count;
+                    while ((count = in.read(buffer)) > 0) {
+                        /* Marshalled into a new message per chunk */
+                        byte[] message = Arrays.copyOf(buffer, count);
+                        out.writeInt(message.length);
+                        out.write(message);
+                    }
+                    out.writeInt(0);
+                    out.flush();
+                } finally {
+                    in.close();
+                }
+            }
+        }, target, false);
+    }
+
+    private static P2PTransfer.Header loopback(final File source, final Sender sender,
+                                               File target, boolean raw) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final InetSocketAddress address = (InetSocketAddress) server.socket().getLocalSocketAddress();
+            Future<Void> sent = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    SocketChannel channel = SocketChannel.open(address);
+                    try {
+                        sender.send(source, channel);
+                    } finally {
+                        channel.close();
+                    }
+                    return null;
+                }
+            });
+            SocketChannel channel = server.accept();
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                P2PTransfer.Header header = null;
+                if (raw) {
+                    header = P2PTransfer.readHeader(channel);
+                    P2PTransfer.read(channel, out.getChannel(), header.size);
+                } else {
+                    DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                    int length;
+                    while ((length = in.readInt()) > 0) {
+                        byte[] message = new byte[length];
+                        in.readFully(message);
+                        out.write(message);
+                    }
+                }
+                sent.get();
+                return header;
+            } finally {
+                out.close();
+                channel.close();
+            }
+        } finally {
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    private File file(String name, int size) throws IOException {
+        File file = mFolder.newFile(name);
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] bytes(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private interface Sender {
+        void send(File file, SocketChannel channel) throws IOException;
+    }
+}
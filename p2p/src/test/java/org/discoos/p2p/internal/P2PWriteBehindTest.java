@@ -0,0 +1,148 @@
+package org.discoos.p2p.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of write-behind debounce and maximum latency
+ */
+public class P2PWriteBehindTest {
+
+    private static final int DELAY = 500;
+
+    private static final int MAX_LATENCY = 5000;
+
+    @Test
+    public void deadline_trailsLastChange() {
+        assertEquals(1500, P2PWriteBehind.getDeadline(1000, 1000, DELAY, MAX_LATENCY));
+        assertEquals(1900, P2PWriteBehind.getDeadline(1400, 1000, DELAY, MAX_LATENCY));
+    }
+
+    @Test
+    public void deadline_isBoundedByMaxLatency() {
+        /* Changes every 400 ms would postpone write forever without bound */
+        long first = 1000;
+        long deadline = 0;
+        for (long now = first; now < first + 10000; now += 400) {
+            deadline = P2PWriteBehind.getDeadline(now, first, DELAY, MAX_LATENCY);
+            if (deadline <= now + 400) {
+                break;
+            }
+        }
+        assertEquals(first + MAX_LATENCY, deadline);
+    }
+
+    @Test
+    public void changes_areCoalescedIntoOneWrite() {
+        Store store = new Store();
+        P2PWriteBehind writer = new P2PWriteBehind("test", store, DELAY, MAX_LATENCY);
+        writer.mark();
+        writer.mark();
+        writer.mark();
+        assertEquals(0, store.writes);
+
+        writer.flush();
+        assertEquals(1, store.writes);
+        assertEquals(3.0f, writer.getCoalescingRatio(), 0.0f);
+    }
+
+    @Test
+    public void flush_writesBeforeReturning() throws Exception {
+        final Store store = new Store();
+        final P2PWriteBehind writer = new P2PWriteBehind("test", store, DELAY, MAX_LATENCY);
+        writer.flush();
+        assertEquals(0, store.writes);
+
+        writer.mark();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer.flush();
+            }
+        });
+        thread.start();
+        thread.join();
+        /* Written on flushing thread */
+        assertEquals(1, store.writes);
+        assertEquals(1, store.finished);
+        assertSame(thread, store.thread);
+
+        /* Nothing left to write */
+        writer.flush();
+        assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void flush_writesQueuedWriteNotYetStarted() {
+        Store store = new Store();
+        Queue queue = new Queue();
+        P2PWriteBehind writer = new P2PWriteBehind("test", store, DELAY, MAX_LATENCY, queue);
+        writer.mark();
+        writer.write();
+        assertEquals(1, queue.tasks.size());
+        assertEquals(0, store.writes);
+
+        /* Nothing pending, but queued write has not run */
+        writer.flush();
+        assertEquals(1, store.writes);
+
+        /* Queued write is skipped when it runs after flush */
+        queue.tasks.get(0).run();
+        assertEquals(1, store.writes);
+        writer.flush();
+        assertEquals(1, store.writes);
+    }
+
+    @Test
+    public void write_isNotQueuedWhileInFlight() {
+        Store store = new Store();
+        Queue queue = new Queue();
+        P2PWriteBehind writer = new P2PWriteBehind("test", store, DELAY, MAX_LATENCY, queue);
+        writer.mark();
+        writer.write();
+        writer.mark();
+        writer.write();
+        assertEquals(1, queue.tasks.size());
+
+        queue.tasks.get(0).run();
+        assertEquals(1, store.writes);
+        writer.write();
+        assertEquals(2, queue.tasks.size());
+    }
+
+    private static class Queue implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    }
+
+    private static class Store extends P2PTask<Void> {
+
+        int writes;
+
+        int finished;
+
+        Thread thread;
+
+        @Override
+        protected Void doInBackground() {
+            writes++;
+            thread = Thread.currentThread();
+            return null;
+        }
+
+        @Override
+        protected void onFinished(Void result) {
+            finished++;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2P;
+import org.discoos.p2p.internal.PeerInfoCache.PeerInfoImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of peer cache secondary indexes and eviction
+ */
+public class PeerInfoCacheTest {
+
+    private static final String[] NETWORKS = {"network.a", "network.b", "network.c"};
+
+    private static final long SEEN = 1463000000000L;
+
+    private PeerInfoCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = P2PTestPeers.createCache();
+    }
+
+    @Test
+    public void added_peersAreIndexed() {
+        mCache.put(peer("a1b2c", ":1.42", false, "network.a"));
+        mCache.put(peer("d3e4f", ":1.43", true, "network.a", "network.b"));
+        mCache.put(peer("g5h6i", ":1.44", false));
+
+        assertEquals("d3e4f", mCache.getByUniqueName(":1.43").id);
+        assertNull(mCache.getByUniqueName(":1.45"));
+        assertEquals(ids("a1b2c", "d3e4f"), ids(mCache.getList("network.a")));
+        assertEquals(ids("d3e4f"), ids(mCache.getList("network.b")));
+        assertTrue(mCache.getList("network.c").isEmpty());
+        assertTrue(mCache.getList("network.unknown").isEmpty());
+        assertEquals(ids("d3e4f"), ids(mCache.getList(true)));
+        assertEquals(ids("a1b2c", "g5h6i"), ids(mCache.getList(false)));
+        assertConsistent();
+    }
+
+    @Test
+    public void changed_membershipIsReindexed() {
+        mCache.put(peer("a1b2c", ":1.42", false, "network.a", "network.b"));
+        mCache.put(peer("d3e4f", ":1.43", false, "network.b"));
+
+        /* Left network.a, joined network.c */
+        mCache.put(peer("a1b2c", ":1.42", false, "network.b", "network.c"));
+        assertTrue(mCache.getList("network.a").isEmpty());
+        assertEquals(ids("a1b2c", "d3e4f"), ids(mCache.getList("network.b")));
+        assertEquals(ids("a1b2c"), ids(mCache.getList("network.c")));
+
+        /* Left all networks */
+        mCache.put(peer("a1b2c", ":1.42", false));
+        assertEquals(ids("d3e4f"), ids(mCache.getList("network.b")));
+        assertTrue(mCache.getList("network.c").isEmpty());
+        assertConsistent();
+    }
+
+    @Test
+    public void changed_timeoutIsReindexed() {
+        mCache.put(peer("a1b2c", ":1.42", false, "network.a"));
+        mCache.put(peer("a1b2c", ":1.42", true, "network.a"));
+        assertEquals(ids("a1b2c"), ids(mCache.getList(true)));
+        assertTrue(mCache.getList(false).isEmpty());
+
+        mCache.put(peer("a1b2c", ":1.42", false, "network.a"));
+        assertTrue(mCache.getList(true).isEmpty());
+        assertEquals(ids("a1b2c"), ids(mCache.getList(false)));
+        assertConsistent();
+    }
+
+    @Test
+    public void changed_uniqueNameIsReindexed() {
+        mCache.put(peer("a1b2c", ":1.42", false, "network.a"));
+
+        /* Reattached to bus */
+        mCache.put(peer("a1b2c", ":1.57", false, "network.a"));
+        assertNull(mCache.getByUniqueName(":1.42"));
+        assertEquals("a1b2c", mCache.getByUniqueName(":1.57").id);
+
+        /* Old name reused by another peer is kept when first peer changes again */
+        mCache.put(peer("d3e4f", ":1.42", false));
+        mCache.put(peer("a1b2c", ":1.58", false, "network.a"));
+        assertEquals("d3e4f", mCache.getByUniqueName(":1.42").id);
+        assertNull(mCache.getByUniqueName(":1.57"));
+        assertEquals("a1b2c", mCache.getByUniqueName(":1.58").id);
+        assertConsistent();
+    }
+
+    @Test
+    public void manyChanges_keepIndexesConsistent() {
+        for (int i = 0; i < 500; i++) {
+            String id = String.format("%08x", i % 37);
+            /* Unique names are never shared by two peers at once */
+            String name = ":1." + (i % 37) + "." + (i % 5);
+            String[] networks = i % 3 == 0 ? new String[]{NETWORKS[i % 2]}
+                    : i % 3 == 1 ? new String[]{NETWORKS[0], NETWORKS[2]} : new String[0];
+            mCache.put(peer(id, name, i % 4 == 0, networks));
+        }
+        assertConsistent();
+    }
+
+    @Test
+    public void evict_removesExpiredPeers() {
+        long now = System.currentTimeMillis();
+        mCache.put(peer("a1b2c", ":1.42", false, now - 10 * 60 * 1000L, "network.a"));
+        mCache.put(peer("d3e4f", ":1.43", true, now - 20 * 60 * 1000L, "network.a", "network.b"));
+        mCache.put(peer("g5h6i", ":1.44", false, now, "network.a"));
+
+        mCache.setTimeToLive(5 * 60 * 1000L);
+        assertEquals(ids("g5h6i"), ids(mCache.getList()));
+        assertEquals(2, mCache.getMetrics().expiredEvictions);
+        assertEquals(0, mCache.getMetrics().sizeEvictions);
+        assertEvicted("a1b2c", ":1.42");
+        assertEvicted("d3e4f", ":1.43");
+        assertConsistent();
+
+        /* Peers seen before time-to-live are not cached */
+        assertNull(mCache.put(peer("j7k8l", ":1.45", false, now - 10 * 60 * 1000L, "network.a")));
+        assertNull(mCache.get("j7k8l"));
+    }
+
+    @Test
+    public void evict_trimsLeastRecentlySeenPeers() {
+        List<PeerInfoImpl> peers = P2PTestPeers.createPeers(100);
+        for (PeerInfoImpl it : peers) {
+            mCache.put(it);
+        }
+
+        /* Evicts down to 90% of maximum size */
+        mCache.setMaxSize(50);
+        assertEquals(45, mCache.getList().size());
+        assertEquals(55, mCache.getMetrics().sizeEvictions);
+        assertEquals(0, mCache.getMetrics().expiredEvictions);
+        for (int i = 0; i < 55; i++) {
+            assertEvicted(peers.get(i).id, peers.get(i).name);
+        }
+        for (PeerInfoImpl it : peers.subList(55, 100)) {
+            assertSame(it, mCache.get(it.id));
+        }
+        assertConsistent();
+
+        /* Adding peers beyond maximum size evicts least recently seen */
+        List<PeerInfoImpl> more = P2PTestPeers.createPeers(106);
+        for (PeerInfoImpl it : more.subList(100, 106)) {
+            mCache.put(it);
+        }
+        assertEquals(45, mCache.getList().size());
+        assertEvicted(peers.get(55).id, peers.get(55).name);
+        assertSame(more.get(105), mCache.get(more.get(105).id));
+        /* Tombstones are bounded by maximum size */
+        assertEquals(50, mCache.getMetrics().tombstones);
+        assertConsistent();
+    }
+
+    @Test
+    public void evicted_peersAreTombstoned() {
+        long now = System.currentTimeMillis();
+        mCache.put(peer("a1b2c", ":1.42", false, now - 10 * 60 * 1000L, "network.a"));
+        mCache.setTimeToLive(5 * 60 * 1000L);
+        mCache.setTimeToLive(Long.MAX_VALUE);
+        assertEquals(1, mCache.getMetrics().tombstones);
+
+        /* Late signals for evicted peer do not recreate it */
+        assertNull(mCache.put(peer("a1b2c", ":1.42", false, now, "network.a")));
+        mCache.onPeerChanged(P2P.CHANGED, peer("a1b2c", ":1.42", false, now, "network.a"));
+        assertEvicted("a1b2c", ":1.42");
+        assertEquals(1, mCache.getMetrics().tombstoneHits);
+        assertConsistent();
+    }
+
+    /**
+     * Assert that peer is not in cache or any index
+     */
+    private void assertEvicted(String id, String name) {
+        assertNull(id, mCache.get(id));
+        assertNull(name, mCache.getByUniqueName(name));
+        assertFalse(id, ids(mCache.getList(true)).contains(id));
+        assertFalse(id, ids(mCache.getList(false)).contains(id));
+        for (String network : NETWORKS) {
+            assertFalse(id, ids(mCache.getList(network)).contains(id));
+        }
+    }
+
+    /**
+     * Assert that secondary indexes agree with peers in cache
+     */
+    private void assertConsistent() {
+        List<PeerInfoImpl> peers = mCache.getList();
+        for (String network : NETWORKS) {
+            Set<String> members = new HashSet<>();
+            for (PeerInfoImpl it : peers) {
+                if (it.isMemberOf(network)) {
+                    members.add(it.id);
+                }
+            }
+            assertEquals(network, members, ids(mCache.getList(network)));
+        }
+        Set<String> timeout = new HashSet<>();
+        Set<String> alive = new HashSet<>();
+        for (PeerInfoImpl it : peers) {
+            (it.isTimeout() ? timeout : alive).add(it.id);
+        }
+        assertEquals(timeout, ids(mCache.getList(true)));
+        assertEquals(alive, ids(mCache.getList(false)));
+        for (PeerInfoImpl it : peers) {
+            assertSame(it, mCache.getByUniqueName(it.name));
+        }
+    }
+
+    static PeerInfoImpl peer(String id, String name, boolean timeout, String... networks) {
+        return peer(id, name, timeout, SEEN, networks);
+    }
+
+    static PeerInfoImpl peer(String id, String name, boolean timeout, long seen, String... networks) {
+        P2PNetworkSet membership = new P2PNetworkSet();
+        for (String network : networks) {
+            membership.add(P2PNetworkRegistry.getInstance().intern(network), (short) 42);
+        }
+        return new PeerInfoImpl(id, name, "Summary " + id, "Details " + id,
+                new HashMap<String, Object>(), timeout, new Date(seen), membership);
+    }
+
+    static Set<String> ids(String... ids) {
+        Set<String> set = new HashSet<>();
+        for (String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    static Set<String> ids(List<PeerInfoImpl> peers) {
+        Set<String> set = new HashSet<>();
+        for (PeerInfoImpl it : peers) {
+            set.add(it.id);
+        }
+        return set;
+    }
+}
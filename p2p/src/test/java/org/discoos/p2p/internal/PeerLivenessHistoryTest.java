@@ -0,0 +1,93 @@
+package org.discoos.p2p.internal;
+
+import org.discoos.p2p.P2P;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of peer liveness history and statistics
+ */
+public class PeerLivenessHistoryTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void uptime_andMeanTimeBetweenFailures() {
+        PeerLivenessHistory history = new PeerLivenessHistory();
+        assertEquals(1.0, history.getUptime(0), 0.0);
+        assertEquals(-1, history.getMeanTimeBetweenFailures(0));
+
+        history.record(P2P.JOIN, 0);
+        history.record(P2P.TIMEOUT, 1000);
+        /* Repeated states are not recorded */
+        history.record(P2P.TIMEOUT, 2000);
+        history.record(P2P.ALIVE, 3000);
+        history.record(P2P.ALIVE, 3500);
+        assertEquals(3, history.size());
+
+        assertEquals(0.5, history.getUptime(4000), 0.0);
+        assertEquals(2000, history.getMeanTimeBetweenFailures(4000));
+    }
+
+    @Test
+    public void left_doesNotChangeLiveness() {
+        PeerLivenessHistory history = new PeerLivenessHistory();
+        history.record(P2P.JOIN, 0);
+        history.record(P2P.LEFT, 500);
+        assertEquals(2, history.size());
+        assertEquals(1.0, history.getUptime(1000), 0.0);
+        assertEquals(-1, history.getMeanTimeBetweenFailures(1000));
+    }
+
+    @Test
+    public void ring_keepsLatestTransitions() {
+        PeerLivenessHistory history = new PeerLivenessHistory();
+        int count = PeerLivenessHistory.CAPACITY + 10;
+        for (int i = 0; i < count; i++) {
+            history.record(i % 2 == 0 ? P2P.ALIVE : P2P.TIMEOUT, i * 1000L);
+        }
+        assertEquals(PeerLivenessHistory.CAPACITY, history.size());
+
+        /* History starts at transition 10, which is up for one second of every two */
+        assertEquals(0.5, history.getUptime(count * 1000L), 0.0);
+        assertEquals(1000, history.getMeanTimeBetweenFailures(count * 1000L));
+    }
+
+    @Test
+    public void flapping_isAboveRateThreshold() {
+        PeerLivenessHistory history = new PeerLivenessHistory();
+        history.record(P2P.JOIN, 0);
+        assertFalse(history.isFlapping(1000));
+
+        history.record(P2P.TIMEOUT, 10 * MINUTE);
+        history.record(P2P.ALIVE, 20 * MINUTE);
+        history.record(P2P.TIMEOUT, 30 * MINUTE);
+        history.record(P2P.ALIVE, 40 * MINUTE);
+        /* Four changes in one hour is at threshold */
+        assertEquals(PeerLivenessHistory.FLAPPING_RATE, history.getFlapRate(60 * MINUTE), 0.0);
+        assertFalse(history.isFlapping(60 * MINUTE));
+
+        history.record(P2P.TIMEOUT, 50 * MINUTE);
+        assertTrue(history.isFlapping(60 * MINUTE));
+        /* Rate decays as time passes without changes */
+        assertFalse(history.isFlapping(90 * MINUTE));
+    }
+
+    @Test
+    public void probe_skipsFlappingPeers() {
+        PeerLivenessHistory stable = new PeerLivenessHistory();
+        stable.record(P2P.JOIN, 0);
+        assertTrue(stable.probe(60 * MINUTE, 5 * MINUTE));
+        assertTrue(stable.probe(61 * MINUTE, 5 * MINUTE));
+
+        PeerLivenessHistory flapping = new PeerLivenessHistory();
+        for (int i = 0; i < 6; i++) {
+            flapping.record(i % 2 == 0 ? P2P.ALIVE : P2P.TIMEOUT, i * 10 * MINUTE);
+        }
+        assertTrue(flapping.probe(60 * MINUTE, 5 * MINUTE));
+        assertFalse(flapping.probe(61 * MINUTE, 5 * MINUTE));
+        assertFalse(flapping.probe(64 * MINUTE, 5 * MINUTE));
+        assertTrue(flapping.probe(65 * MINUTE, 5 * MINUTE));
+    }
+}